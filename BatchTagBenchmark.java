@@ -0,0 +1,126 @@
+package photo_renamer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Measures how fast a BatchTagger tags and untags a whole event's worth of photos, with one
+ * thread and with its pool, and how long recording the batch in the History takes. The files
+ * are empty, a rename never reads them.
+ *
+ * Usage: BatchTagBenchmark [files] [directory]   (defaults to 5000 files in a temporary directory)
+ */
+public class BatchTagBenchmark {
+
+	/** How many files to tag, by default. */
+	private final static int DEFAULT_FILES = 5000;
+	/** How many times each way tags and untags every file. */
+	private final static int ROUNDS = 3;
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args
+	 *            optionally how many files, and the directory to make them in
+	 * @throws Exception
+	 *                  if the files can not be made or renamed
+	 */
+	public static void main(String[] args) throws Exception {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_FILES;
+		File dir = args.length > 1 ? new File(args[1]) : Files.createTempDirectory("batchbench").toFile();
+		dir.mkdirs();
+		ArrayList<FileNode> files = new ArrayList<FileNode>();
+		for (int i = 0; i < count; i++){
+			File file = new File(dir, "IMG_" + i + ".jpg");
+			file.createNewFile();
+			FileNode node = FileNode.detached(file); // with its attributes, like the scan finds it
+			node.setAttributes(Files.readAttributes(file.toPath(), BasicFileAttributes.class));
+			files.add(node);
+		}
+		File log = new File(dir, "log.ser");
+		try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(log))){ // an empty history
+			out.writeObject(new HashMap<FileId, ArrayList<Image>>());
+			out.writeObject(new HashMap<FileId, File>());
+		}
+		History.filePath = log.getPath();
+		File tagFile = new File(dir, "tags.ser");
+		try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(tagFile))){ // no tags, the ids come from here
+			out.writeObject(new ArrayList<Tag>());
+		}
+		TagHandler.filePath = tagFile.getPath();
+		System.out.println(count + " files in " + dir);
+		try {
+			for (String tag : new String[]{"wedding", "family", "history"}){
+				TagHandler.getInstance().createTag(tag);
+			}
+			TagDictionary dictionary = TagHandler.getDictionary();
+			int[] tags = {dictionary.idOf("wedding"), dictionary.idOf("family")};
+			int[] none = {};
+			for (int threads : new int[]{1, BatchTagger.DEFAULT_THREADS}){
+				long renames = 0;
+				long took = 0;
+				for (int round = 0; round < ROUNDS; round++){
+					for (boolean add : new boolean[]{true, false}){
+						BatchTagger batch = new BatchTagger(files, add ? tags : none, add ? none : tags);
+						long start = System.nanoTime();
+						batch.run(threads);
+						took += System.nanoTime() - start;
+						renames += batch.getRenamed();
+						if (!batch.getErrors().isEmpty()){
+							System.out.println("  " + batch.getErrors().size() + " failed, the first: " + batch.getErrors().get(0));
+						}
+						files = BatchTagBenchmark.renamed(batch);
+					}
+				}
+				System.out.println(String.format("  %2d threads: %d renames in %d ms, %.0f per second", threads,
+						renames, took / 1000000, renames * 1e9 / took));
+			}
+			BatchTagger batch = new BatchTagger(files, new int[] {dictionary.idOf("history")}, none);
+			batch.run();
+			ArrayList<File> from = new ArrayList<File>();
+			ArrayList<FileNode> to = new ArrayList<FileNode>();
+			for (int i = 0; i < batch.size(); i++){
+				if (batch.isRenamed(i)){
+					from.add(batch.getFile(i));
+					to.add(batch.getTargetNode(i));
+				}
+			}
+			History.getInstance();
+			long start = System.nanoTime();
+			History.addEvents(from, to);
+			System.out.println(String.format("  History.addEvents: %d files in %d ms", from.size(),
+					(System.nanoTime() - start) / 1000000));
+			files = BatchTagBenchmark.renamed(batch);
+		} finally {
+			for (FileNode node : files){
+				node.getFile().delete();
+			}
+			log.delete();
+			tagFile.delete();
+			if (args.length < 2){
+				dir.delete();
+			}
+		}
+	}
+
+	/**
+	 * Returns the files of a batch by the names they have now.
+	 *
+	 * @param batch
+	 *             the batch, run
+	 * @return the new name of every renamed file, the old name of the rest
+	 */
+	private static ArrayList<FileNode> renamed(BatchTagger batch) {
+		ArrayList<FileNode> files = new ArrayList<FileNode>();
+		for (int i = 0; i < batch.size(); i++){
+			files.add(batch.isRenamed(i) ? batch.getTargetNode(i) : batch.getNode(i));
+		}
+		return files;
+	}
+}
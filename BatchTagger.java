@@ -0,0 +1,299 @@
+package photo_renamer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Adds and removes the same tags on many files at once. Every new name is worked out before
+ * anything is renamed, so two files that would end up with the same name are caught up front,
+ * and the renames are then run on a pool of threads, a chunk of files per task. A rename waits
+ * on the file system far more than on the CPU, so the pool is bigger than the number of cores.
+ *
+ * A file that can not be renamed keeps its name and gets an error, the rest of the batch goes
+ * on. The TagIndex follows each rename as it happens, and each rename holds the lock of its
+ * file, see History.lock, which the attributes the scan read for the file identify. Nothing is written to the History here: the renames are recorded
+ * together afterwards, with History.addEvents.
+ */
+public class BatchTagger {
+
+	/** How many files are renamed at once, by default. */
+	public final static int DEFAULT_THREADS = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+	/** How many files one task renames. */
+	private final static int CHUNK_SIZE = 64;
+
+	/** The files to rename, with the attributes the scan read for them. */
+	private final ArrayList<FileNode> files;
+	/** What each file is renamed to, the file itself if its name does not change. */
+	private final File[] targets;
+	/** Why each file could not be renamed, null if it was or has not been tried yet. */
+	private final String[] errors;
+	/** Whether each file was renamed. */
+	private final boolean[] renamed;
+	/** How many files have been dealt with, renamed, unchanged or failed. */
+	private final AtomicInteger done = new AtomicInteger();
+	/** Whether the files not renamed yet should be left alone. */
+	private volatile boolean cancelled;
+	/** How long the renames took, in nanoseconds. */
+	private long took;
+
+	/**
+	 * Works out the new name of every file. Files whose new name is already taken by an
+	 * earlier file of the batch fail right away.
+	 *
+	 * @param files
+	 *             the nodes of the files to retag
+	 * @param add
+	 *           the ids of the tags to add to every file, from TagHandler.getDictionary
+	 * @param remove
+	 *              the ids of the tags to remove from every file
+	 */
+	public BatchTagger(List<FileNode> files, int[] add, int[] remove) {
+		this.files = new ArrayList<FileNode>(files);
+		this.targets = new File[files.size()];
+		this.errors = new String[files.size()];
+		this.renamed = new boolean[files.size()];
+		HashMap<String, File> taken = new HashMap<String, File>(); // new names, to the file taking them
+		TagDictionary dictionary = TagHandler.getDictionary();
+		List<String> added = dictionary.namesOf(add); // looked up once for the whole batch
+		List<String> removed = dictionary.namesOf(remove);
+		for (int i = 0; i < targets.length; i++){
+			File file = this.files.get(i).getFile();
+			targets[i] = TagHandler.retag(file, added, removed);
+			if (targets[i] != file){
+				File other = taken.put(targets[i].getAbsolutePath(), file);
+				if (other != null){ // first come, first served
+					taken.put(targets[i].getAbsolutePath(), other);
+					errors[i] = "would get the same name as " + other.getName();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Renames the files with DEFAULT_THREADS threads.
+	 *
+	 * @throws InterruptedException
+	 *                             if interrupted while waiting for the renames
+	 */
+	public void run() throws InterruptedException {
+		this.run(DEFAULT_THREADS);
+	}
+
+	/**
+	 * Renames the files and waits until every one is done. The progress can be followed
+	 * from other threads with getDone.
+	 *
+	 * @param threads
+	 *               how many files to rename at once
+	 * @throws InterruptedException
+	 *                             if interrupted while waiting, the renames still running are cancelled
+	 */
+	public void run(int threads) throws InterruptedException {
+		if (threads < 1){
+			throw new IllegalArgumentException("threads must be at least 1, was " + threads);
+		}
+		long start = System.nanoTime();
+		ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory(){
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "batch-tagger");
+				thread.setDaemon(true); // never keeps the application alive
+				return thread;
+			}
+		});
+		for (int first = 0; first < targets.length; first += CHUNK_SIZE){
+			int from = first;
+			int to = Math.min(first + CHUNK_SIZE, targets.length);
+			pool.execute(new Runnable(){
+
+				@Override
+				public void run() {
+					for (int i = from; i < to && !cancelled; i++){
+						BatchTagger.this.rename(i);
+						done.incrementAndGet();
+					}
+				}
+			});
+		}
+		pool.shutdown();
+		try {
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			cancelled = true; // the tasks stop after the file they are at
+			throw e;
+		} finally {
+			took = System.nanoTime() - start;
+		}
+	}
+
+	/**
+	 * Renames the file at index i to its target, unless it failed already or keeps its name.
+	 *
+	 * @param i
+	 *         the index of the file
+	 */
+	private void rename(int i) {
+		File file = files.get(i).getFile();
+		if (errors[i] != null || targets[i].equals(file)){
+			return;
+		}
+		Lock lock = History.lock(files.get(i)); // no revert or single tagging of it in between
+		try {
+			Files.move(file.toPath(), targets[i].toPath()); // never replaces, unlike File.renameTo on some platforms
+			renamed[i] = true;
+			TagIndex.getInstance().renamed(file, targets[i]); // right away, the index is thread safe
+		} catch (FileAlreadyExistsException e) {
+			errors[i] = targets[i].getName() + " already exists";
+		} catch (NoSuchFileException e) {
+			errors[i] = "no longer exists";
+		} catch (IOException e) {
+			errors[i] = e.toString();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Leaves the files not renamed yet alone. The ones being renamed right now still are.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Returns how many files are in the batch.
+	 *
+	 * @return the number of files
+	 */
+	public int size() {
+		return targets.length;
+	}
+
+	/**
+	 * Returns how many files have been dealt with so far.
+	 *
+	 * @return the number of files renamed, left unchanged or failed
+	 */
+	public int getDone() {
+		return done.get();
+	}
+
+	/**
+	 * Returns the file at index i, by its old name.
+	 *
+	 * @param i
+	 *         the index of the file, in the order it was given
+	 * @return the file
+	 */
+	public File getFile(int i) {
+		return files.get(i).getFile();
+	}
+
+	/**
+	 * Returns the file at index i by its old name, with its attributes.
+	 *
+	 * @param i
+	 *         the index of the file, in the order it was given
+	 * @return the node of the file
+	 */
+	public FileNode getNode(int i) {
+		return files.get(i);
+	}
+
+	/**
+	 * Returns what the file at index i is renamed to.
+	 *
+	 * @param i
+	 *         the index of the file
+	 * @return its new name, the file itself if its name does not change
+	 */
+	public File getTarget(int i) {
+		return targets[i];
+	}
+
+	/**
+	 * Returns what the file at index i is renamed to, with the attributes of the file, which
+	 * renaming it does not change.
+	 *
+	 * @param i
+	 *         the index of the file
+	 * @return a node of its new name
+	 */
+	public FileNode getTargetNode(int i) {
+		return files.get(i).detach(targets[i]);
+	}
+
+	/**
+	 * Returns whether the file at index i was renamed.
+	 *
+	 * @param i
+	 *         the index of the file
+	 * @return whether it has its new name now
+	 */
+	public boolean isRenamed(int i) {
+		return renamed[i];
+	}
+
+	/**
+	 * Returns why the file at index i could not be renamed.
+	 *
+	 * @param i
+	 *         the index of the file
+	 * @return the reason, or null if it did not fail
+	 */
+	public String getError(int i) {
+		return errors[i];
+	}
+
+	/**
+	 * Returns how many files were renamed.
+	 *
+	 * @return the number of renamed files
+	 */
+	public int getRenamed() {
+		int count = 0;
+		for (boolean r : renamed){
+			count += r ? 1 : 0;
+		}
+		return count;
+	}
+
+	/**
+	 * Returns a line for every file that could not be renamed.
+	 *
+	 * @return the name of every failed file and why it failed
+	 */
+	public List<String> getErrors() {
+		ArrayList<String> lines = new ArrayList<String>();
+		for (int i = 0; i < errors.length; i++){
+			if (errors[i] != null){
+				lines.add(files.get(i).getName() + ": " + errors[i]);
+			}
+		}
+		return lines;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString(){
+		int count = this.getRenamed();
+		return "Renamed " + count + " of " + targets.length + " files in " + took / 1000000 + " ms"
+				+ (took == 0 ? "" : " (" + (long) (count * 1e9 / took) + " per second)") + ", "
+				+ this.getErrors().size() + " failed";
+	}
+}
@@ -1,13 +1,21 @@
 package photo_renamer;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 
 import javax.swing.JFileChooser;
+import javax.swing.JOptionPane;
 import javax.swing.filechooser.FileFilter;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
 public class DirectoryViewer {
 	
+	/** The option for scanning without a filter. */
+	private final static String NO_FILTER = "No filter";
+	/** The option for making a new filter profile. */
+	private final static String NEW_FILTER = "New filter...";
+	
 	/**
 	 * Creates a JFileChooser that allows the user to select an image file or directory of images.
 	 * Opens up the ImageViewer after something is selected.
@@ -33,17 +41,76 @@ public class DirectoryViewer {
 		
 		if (button == JFileChooser.APPROVE_OPTION){ // if they selected the Select button...
 			File selected = fileChooser.getSelectedFile(); // get what they selected
-			FileNode root = new FileNode(selected.getName(), selected, null, FileType.DIRECTORY); // start with root
-			FileNode.buildTree(selected, root); // traverse the directory and make a tree from the root
 			FileNode.clearSelectedFiles(); // clear the previously selected files
-			FileNode.buildDirectoryContents(root); // build the ArrayList of image files
-			ImageViewer.buildWindow().setVisible(true); // open up the ImageViewer!
+			ParallelTreeScanner scanner = new ParallelTreeScanner();
+			if (selected.isDirectory()){ // a single file needs no filter
+				scanner.setFilter(DirectoryViewer.chooseFilter()); // skip what the user does not want scanned
+			}
+			ScanPipeline pipeline = new ScanPipeline(selected, scanner); // scans in the background...
+			pipeline.start();
+			ImageViewer.buildWindow(pipeline).setVisible(true); // ...while the ImageViewer fills in!
 		}
 		else if (button == JFileChooser.CANCEL_OPTION){ // if they chose the close button..
 			PhotoRenamer.buildWindow().setVisible(true); // back to the start screen!
 		}
 	}
 	
+	/**
+	 * Lets the user pick one of the saved scan filter profiles, or make a new one.
+	 * 
+	 * @return the chosen filter, or null for no filter
+	 */
+	private static ScanFilter chooseFilter() {
+		ArrayList<ScanFilter> profiles = ScanFilter.readProfiles();
+		ArrayList<Object> options = new ArrayList<Object>(); // everything they can choose from
+		options.add(NO_FILTER);
+		options.addAll(profiles);
+		options.add(NEW_FILTER);
+		
+		Object choice = JOptionPane.showInputDialog( // make a dialog box
+				null,                                 // centered on the screen
+				"Choose a scan filter:",             // the prompt text
+				"Scan Filter",                      // the dialog header
+				JOptionPane.PLAIN_MESSAGE,         // no special stuff on this
+				null,                             // no icon
+				options.toArray(),               // everything they can choose is here
+				NO_FILTER                       // pre-selected option
+				);
+		if (choice instanceof ScanFilter){ // a saved profile
+			return (ScanFilter) choice;
+		}
+		if (!NEW_FILTER.equals(choice)){ // no filter, or they closed the dialog
+			return null;
+		}
+		
+		String name = JOptionPane.showInputDialog(null, "Enter a name for the new filter:", "New Filter",
+				JOptionPane.PLAIN_MESSAGE);
+		if (name == null || name.trim().isEmpty()){
+			return null;
+		}
+		String spec = (String) JOptionPane.showInputDialog(null,
+				"<html>Enter the conditions, separated by semicolons:<br>" +
+				"include / exclude = globs separated by commas, minSize / maxSize = 500, 100k, 20m,<br>" +
+				"modifiedSince = yyyy-mm-dd, maxDepth = levels below the directory, skipHidden</html>",
+				"New Filter", JOptionPane.PLAIN_MESSAGE, null, null,
+				"exclude=.git,*cache*,*backup*; skipHidden"); // pre-entered example
+		if (spec == null){
+			return null;
+		}
+		try {
+			ScanFilter filter = new ScanFilter(name.trim(), spec);
+			profiles.add(filter);
+			ScanFilter.saveProfiles(profiles); // so it can be picked next time
+			return filter;
+		} catch (IllegalArgumentException e) { // they made a typo, scan without a filter
+			JOptionPane.showMessageDialog(null, e.getMessage(), "Invalid Filter", JOptionPane.ERROR_MESSAGE);
+			return null;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+	
 	/**
 	 * Create and show a directory explorer, which displays the contents of a
 	 * directory.
@@ -0,0 +1,384 @@
+package photo_renamer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a scanned FileNode tree up to date by watching all of its directories with a WatchService.
+ * Bursts of events, like a camera import, are collected into one batch: every touched path is
+ * compared against the disk once the burst goes quiet, and the listener is told which image files
+ * appeared and disappeared. A rename shows up as one removed and one added file.
+ * If the OS drops events (OVERFLOW), only the affected directory is listed again.
+ * New directories and images go through the ScanFilter the tree was scanned with, so watching
+ * never brings back what the filter left out.
+ */
+public class DirectoryWatcher {
+
+	/** How long no new events have to arrive, in milliseconds, before a batch is applied. */
+	public final static long QUIET_PERIOD = 200;
+	/** The longest a batch may keep collecting events, in milliseconds, during a constant stream. */
+	public final static long MAX_BATCH_DELAY = 2000;
+
+	/**
+	 * Told about every applied batch. Called on the watcher thread, not the event dispatch thread.
+	 */
+	public interface Listener {
+
+		/**
+		 * Called after a batch of changes has been applied to the tree.
+		 *
+		 * @param added
+		 *             the image files that were added to the tree
+		 * @param removed
+		 *               the image files that were removed from the tree
+		 */
+		void filesChanged(List<File> added, List<File> removed);
+	}
+
+	/** The root of the watched tree. */
+	private final FileNode root;
+	/** What the tree was scanned with, checked for everything new, or null to keep everything. */
+	private final ScanFilter filter;
+	/** Who to tell about changes. */
+	private final Listener listener;
+	/** The OS watch service, every directory of the tree is registered with it. */
+	private final WatchService watchService;
+	/** The directory node each registration belongs to. */
+	private final HashMap<WatchKey, FileNode> directories = new HashMap<WatchKey, FileNode>();
+	/** The registration of each directory, so it can be cancelled once the directory is gone. */
+	private final HashMap<File, WatchKey> keys = new HashMap<File, WatchKey>();
+
+	/**
+	 * Registers every directory of the tree rooted at root. The tree must not be changed by
+	 * anything else while it is being watched.
+	 *
+	 * @param root
+	 *            the root of a finished scan
+	 * @param filter
+	 *              the filter the scan was made with, or null if it kept everything
+	 * @param listener
+	 *                who to tell about changes
+	 * @throws IOException
+	 *                    if the watch service can not be created
+	 */
+	public DirectoryWatcher(FileNode root, ScanFilter filter, Listener listener) throws IOException {
+		this.root = root;
+		this.filter = filter;
+		this.listener = listener;
+		this.watchService = root.getFile().toPath().getFileSystem().newWatchService();
+		if (root.getFile().isDirectory()){
+			this.registerAll(root);
+		}
+	}
+
+	/**
+	 * Starts watching on a background thread.
+	 */
+	public void start() {
+		Thread thread = new Thread(new Runnable(){
+
+			@Override
+			public void run() {
+				DirectoryWatcher.this.watch();
+			}
+		}, "watch-" + root.getName());
+		thread.setDaemon(true); // never keep the program alive just for watching
+		thread.start();
+	}
+
+	/**
+	 * Stops watching.
+	 */
+	public void close() {
+		try {
+			watchService.close(); // wakes up the watcher thread, which then ends
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Waits for events, collects them into batches and applies them, until closed.
+	 */
+	private void watch() {
+		try {
+			while (true){
+				WatchKey key = watchService.take(); // wait for the start of a burst
+				LinkedHashMap<Path, FileNode> touched = new LinkedHashMap<Path, FileNode>();
+				LinkedHashSet<FileNode> overflowed = new LinkedHashSet<FileNode>();
+				this.collect(key, touched, overflowed);
+				long deadline = System.currentTimeMillis() + MAX_BATCH_DELAY;
+				while (System.currentTimeMillis() < deadline
+						&& (key = watchService.poll(QUIET_PERIOD, TimeUnit.MILLISECONDS)) != null){
+					this.collect(key, touched, overflowed); // keep going until the burst is over
+				}
+				this.apply(touched, overflowed);
+			}
+		} catch (ClosedWatchServiceException e) {
+			// closed, we are done
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Takes the events off a key. Only which paths were touched is kept, not what happened
+	 * to them, since apply looks at the disk anyway.
+	 *
+	 * @param key
+	 *           the signalled key
+	 * @param touched
+	 *               the touched paths, mapped to the node of their directory
+	 * @param overflowed
+	 *                  the directories that lost events and need to be listed again
+	 */
+	private void collect(WatchKey key, Map<Path, FileNode> touched, LinkedHashSet<FileNode> overflowed) {
+		FileNode dir = directories.get(key);
+		for (WatchEvent<?> event : key.pollEvents()){
+			if (dir == null){ // the directory was dropped from the tree already
+				continue;
+			}
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW){
+				overflowed.add(dir);
+			}
+			else{
+				Path path = dir.getFile().toPath().resolve((Path) event.context());
+				touched.put(path, dir);
+			}
+		}
+		if (!key.reset()){ // the directory is no longer accessible
+			directories.remove(key);
+		}
+	}
+
+	/**
+	 * Brings the tree in line with the disk for every touched path and overflowed directory,
+	 * then tells the listener what changed.
+	 *
+	 * @param touched
+	 *               the touched paths, mapped to the node of their directory
+	 * @param overflowed
+	 *                  the directories that lost events and need to be listed again
+	 */
+	private void apply(Map<Path, FileNode> touched, LinkedHashSet<FileNode> overflowed) {
+		ArrayList<File> added = new ArrayList<File>();
+		ArrayList<File> removed = new ArrayList<File>();
+		for (FileNode dir : overflowed){ // a targeted rescan: everything on disk and everything we had
+			LinkedHashSet<String> names = new LinkedHashSet<String>();
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir.getFile().toPath())) {
+				for (Path path : stream){
+					names.add(path.getFileName().toString());
+				}
+			} catch (IOException | DirectoryIteratorException e) {
+				// the directory is gone or unreadable, everything we had in it gets removed
+			}
+			for (FileNode child : dir.getChildren()){
+				names.add(child.getName());
+			}
+			for (String name : names){
+				touched.put(new File(dir.getFile(), name).toPath(), dir);
+			}
+		}
+		for (Map.Entry<Path, FileNode> entry : touched.entrySet()){
+			this.reconcile(entry.getValue(), entry.getKey(), added, removed);
+		}
+		if (!added.isEmpty() || !removed.isEmpty()){
+			listener.filesChanged(added, removed);
+		}
+	}
+
+	/**
+	 * Makes the child of parent at path match what is on disk now.
+	 *
+	 * @param parent
+	 *              the directory node path is in
+	 * @param path
+	 *            the touched path
+	 * @param added
+	 *             where to put image files that were added to the tree
+	 * @param removed
+	 *               where to put image files that were removed from the tree
+	 */
+	private void reconcile(FileNode parent, Path path, List<File> added, List<File> removed) {
+		if (!this.isInTree(parent)){ // the directory itself was removed earlier in this batch
+			return;
+		}
+		String name = path.getFileName().toString();
+		File file = path.toFile();
+		FileNode existing = parent.getChild(name);
+		BasicFileAttributes attrs;
+		try {
+			attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		} catch (IOException e) {
+			attrs = null; // it does not exist anymore
+		}
+		if (existing != null){
+			if (attrs != null && existing.isDirectory() == attrs.isDirectory()
+					&& (attrs.isDirectory() || this.accepts(path, attrs))){ // still there, just modified
+				existing.setAttributes(attrs);
+				return;
+			}
+			parent.removeChild(name); // gone, or replaced by something of the other type
+			this.unregisterAll(existing);
+			DirectoryWatcher.collectFiles(existing, removed);
+		}
+		if (attrs == null){
+			return;
+		}
+		if (attrs.isDirectory()){ // a new directory, register before listing so nothing slips through
+			int depth = this.depthOf(parent) + 1;
+			if (filter != null && !filter.acceptsDirectory(root.getFile().toPath(), path, depth)){
+				return; // the scan would not have gone in either
+			}
+			FileNode child = new FileNode(name, file, parent, FileType.DIRECTORY);
+			child.setAttributes(attrs);
+			parent.addChild(file, child);
+			this.register(child);
+			NioTreeScanner scanner = new NioTreeScanner();
+			scanner.setFilter(filter);
+			scanner.scan(file, child, root.getFile().toPath(), depth);
+			this.registerAll(child);
+			DirectoryWatcher.collectFiles(child, added);
+		}
+		else if (FileNode.isImage(name) && this.accepts(path, attrs)){ // a new image the filter keeps
+			FileNode child = new FileNode(name, file, parent, FileType.FILE);
+			child.setAttributes(attrs);
+			parent.addChild(file, child);
+			added.add(file);
+		}
+	}
+
+	/**
+	 * Returns whether the filter keeps an image file, as the scan would have.
+	 *
+	 * @param path
+	 *            the image file
+	 * @param attrs
+	 *             its attributes
+	 * @return whether it belongs in the tree
+	 */
+	private boolean accepts(Path path, BasicFileAttributes attrs) {
+		return filter == null
+				|| filter.acceptsFile(root.getFile().toPath(), path, attrs.size(), attrs.lastModifiedTime().toMillis());
+	}
+
+	/**
+	 * Returns how many levels below the root a node is.
+	 *
+	 * @param node
+	 *            a node of the tree
+	 * @return 0 for the root, 1 for its children and so on
+	 */
+	private int depthOf(FileNode node) {
+		int depth = 0;
+		for (; node != root && node != null; node = node.getParent()){
+			depth++;
+		}
+		return depth;
+	}
+
+	/**
+	 * Returns whether node is still reachable from the root.
+	 *
+	 * @param node
+	 *            the node to check
+	 * @return whether every node from node up to the root is still attached to its parent
+	 */
+	private boolean isInTree(FileNode node) {
+		while (node != root){
+			FileNode parent = node.getParent();
+			if (parent == null || parent.getChild(node.getName()) != node){
+				return false;
+			}
+			node = parent;
+		}
+		return true;
+	}
+
+	/**
+	 * Registers dir and every directory underneath it, skipping ones already registered.
+	 *
+	 * @param dir
+	 *           the directory node to start at
+	 */
+	private void registerAll(FileNode dir) {
+		this.register(dir);
+		for (FileNode child : dir.getChildren()){
+			if (child.isDirectory()){
+				this.registerAll(child);
+			}
+		}
+	}
+
+	/**
+	 * Registers one directory with the watch service, if it is not registered yet.
+	 *
+	 * @param dir
+	 *           the directory node to register
+	 */
+	private void register(FileNode dir) {
+		if (keys.containsKey(dir.getFile())){
+			return;
+		}
+		try {
+			WatchKey key = dir.getFile().toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+			directories.put(key, dir);
+			keys.put(dir.getFile(), key);
+		} catch (IOException e) {
+			// can not watch this one, it will only be picked up by a rescan of its parent
+		}
+	}
+
+	/**
+	 * Cancels the registrations of node and every directory underneath it.
+	 *
+	 * @param node
+	 *            the removed node
+	 */
+	private void unregisterAll(FileNode node) {
+		WatchKey key = keys.remove(node.getFile());
+		if (key != null){
+			key.cancel();
+			directories.remove(key);
+		}
+		for (FileNode child : node.getChildren()){
+			this.unregisterAll(child);
+		}
+	}
+
+	/**
+	 * Adds every image file at or underneath node to files.
+	 *
+	 * @param node
+	 *            the node to start at
+	 * @param files
+	 *             the list to add to
+	 */
+	private static void collectFiles(FileNode node, List<File> files) {
+		if (!node.isDirectory()){
+			files.add(node.getFile());
+		}
+		for (FileNode child : node.getChildren()){
+			DirectoryWatcher.collectFiles(child, files);
+		}
+	}
+}
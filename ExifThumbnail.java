@@ -0,0 +1,178 @@
+package photo_renamer;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Reads the preview most cameras embed in the EXIF block of a JPEG, typically 160x120.
+ * Only the header segments in front of the image data are read, a few KB, instead of the
+ * whole file, and only the small preview is decoded.
+ */
+public class ExifThumbnail {
+
+	/** Start of image. */
+	private final static int SOI = 0xFFD8;
+	/** Start of scan, the image data follows. */
+	private final static int SOS = 0xFFDA;
+	/** End of image. */
+	private final static int EOI = 0xFFD9;
+	/** The segment holding EXIF. */
+	private final static int APP1 = 0xFFE1;
+	/** Tag of the offset of the embedded JPEG, in the second IFD. */
+	private final static int JPEG_OFFSET = 0x0201;
+	/** Tag of the length of the embedded JPEG. */
+	private final static int JPEG_LENGTH = 0x0202;
+	/** How far the preview's shape may be off from the image's before it is not used. */
+	private final static double ASPECT_TOLERANCE = 0.05;
+	/** Just enough buffer for the header segments of most files. */
+	private final static int BUFFER_SIZE = 16 * 1024;
+
+	/**
+	 * Returns the embedded preview of a JPEG file.
+	 *
+	 * @param file
+	 *            the JPEG file
+	 * @return the decoded preview, or null if file has none, or one of a different shape than
+	 *         the image (letterboxed)
+	 * @throws IOException
+	 *                    if file can not be read
+	 */
+	public static BufferedImage read(File file) throws IOException {
+		byte[] preview = null;
+		int width = -1;
+		int height = -1;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE))){
+			if (in.readUnsignedShort() != SOI){ // not a JPEG
+				return null;
+			}
+			while (width == -1){ // the frame header comes after the APP segments
+				int marker = in.readUnsignedShort();
+				if ((marker & 0xFF00) != 0xFF00 || marker == SOS || marker == EOI){
+					break;
+				}
+				int length = in.readUnsignedShort() - 2; // the length counts itself
+				if (length < 0){
+					break;
+				}
+				if (marker == APP1 && preview == null){
+					byte[] segment = new byte[length];
+					in.readFully(segment);
+					preview = ExifThumbnail.extract(segment);
+				}
+				else if (ExifThumbnail.isFrameHeader(marker)){
+					in.readUnsignedByte(); // sample precision
+					height = in.readUnsignedShort();
+					width = in.readUnsignedShort();
+				}
+				else{
+					ExifThumbnail.skip(in, length);
+				}
+			}
+		} catch (EOFException e) { // cut off, use whatever was found
+		}
+		if (preview == null){
+			return null;
+		}
+		BufferedImage img = ImageIO.read(new ByteArrayInputStream(preview));
+		if (img == null){
+			return null;
+		}
+		if (width > 0 && height > 0){ // some cameras letterbox the preview into 160x120
+			double aspect = (double) width / height;
+			double previewAspect = (double) img.getWidth() / img.getHeight();
+			if (Math.abs(aspect - previewAspect) > aspect * ASPECT_TOLERANCE){
+				return null;
+			}
+		}
+		return img;
+	}
+
+	/**
+	 * Finds the embedded JPEG in an APP1 segment. The TIFF structure inside points from the
+	 * first IFD, the main image, to the second, the thumbnail, which holds its offset and length.
+	 *
+	 * @param segment
+	 *               the APP1 segment without its marker and length
+	 * @return the bytes of the embedded JPEG, or null if there is none
+	 */
+	private static byte[] extract(byte[] segment) {
+		if (segment.length < 14 || segment[0] != 'E' || segment[1] != 'x' || segment[2] != 'i' || segment[3] != 'f'){
+			return null; // APP1 is also used for XMP
+		}
+		ByteBuffer tiff = ByteBuffer.wrap(segment, 6, segment.length - 6).slice();
+		try {
+			tiff.order(tiff.get(0) == 'I' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+			if (tiff.getShort(2) != 42){
+				return null;
+			}
+			int ifd0 = tiff.getInt(4);
+			int ifd1 = tiff.getInt(ifd0 + 2 + (tiff.getShort(ifd0) & 0xFFFF) * 12); // after the last entry
+			if (ifd1 <= 0){
+				return null;
+			}
+			int offset = -1;
+			int length = -1;
+			int entries = tiff.getShort(ifd1) & 0xFFFF;
+			for (int i = 0; i < entries; i++){
+				int entry = ifd1 + 2 + i * 12; // tag, type, count, value
+				int tag = tiff.getShort(entry) & 0xFFFF;
+				if (tag == JPEG_OFFSET){
+					offset = tiff.getInt(entry + 8);
+				}
+				else if (tag == JPEG_LENGTH){
+					length = tiff.getInt(entry + 8);
+				}
+			}
+			if (offset <= 0 || length <= 0 || offset > tiff.limit() - length){
+				return null;
+			}
+			byte[] preview = new byte[length];
+			tiff.position(offset);
+			tiff.get(preview);
+			return preview;
+		} catch (IndexOutOfBoundsException e) { // a broken EXIF block, fall back to the image
+			return null;
+		}
+	}
+
+	/**
+	 * Returns whether marker starts a frame header, which holds the size of the image.
+	 *
+	 * @param marker
+	 *              the marker
+	 * @return whether marker is one of SOF0 to SOF15
+	 */
+	private static boolean isFrameHeader(int marker) {
+		return marker >= 0xFFC0 && marker <= 0xFFCF && marker != 0xFFC4 && marker != 0xFFC8 && marker != 0xFFCC;
+	}
+
+	/**
+	 * Skips exactly n bytes.
+	 *
+	 * @param in
+	 *          the stream
+	 * @param n
+	 *         how many bytes to skip
+	 * @throws IOException
+	 *                    if the stream ends first
+	 */
+	private static void skip(DataInputStream in, int n) throws IOException {
+		while (n > 0){
+			int skipped = in.skipBytes(n);
+			if (skipped <= 0){
+				throw new EOFException();
+			}
+			n -= skipped;
+		}
+	}
+}
@@ -0,0 +1,204 @@
+package photo_renamer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+
+/**
+ * The identity of a file that survives renames, so what is known about a photo does not have to
+ * move every time a tag changes its name.
+ *
+ * Where the file system has file keys, the identity is the file key, on Linux and macOS the
+ * device and inode. Renaming a file within its directory keeps it. Elsewhere, notably Windows,
+ * it is the path the file had when it was first identified; the History moves it along with
+ * every rename it makes itself. A file moved behind its back is found again by its fingerprint,
+ * a hash of its size and first bytes, which is only ever compared against files whose logged
+ * path is gone, so byte for byte copies keep identities of their own and editing a photo does
+ * not change who it is.
+ *
+ * File keys can be reused once a file is deleted, so an identity only means something while
+ * the file it was taken from is still there.
+ */
+public final class FileId implements Serializable {
+
+	/** */
+	private static final long serialVersionUID = 1L;
+	/** How many bytes from the start of a file go into its fingerprint. */
+	private final static int HASH_PREFIX = 64 * 1024;
+
+	/** The identity, prefixed by how it was found: key: or path:, or sha1: in logs from before paths. */
+	private final String id;
+
+	/**
+	 * Initializes an identity.
+	 *
+	 * @param id
+	 *          the identity with its prefix
+	 */
+	private FileId(String id) {
+		this.id = id;
+	}
+
+	/**
+	 * Returns the identity of file. Reads its attributes, but never its contents.
+	 *
+	 * @param file
+	 *            the file
+	 * @return its identity
+	 */
+	public static FileId of(File file) {
+		BasicFileAttributes attributes;
+		try {
+			attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+		} catch (IOException e) { // not there
+			return FileId.ofPath(file);
+		}
+		String key = FileNode.keyOf(attributes);
+		return key == null ? FileId.ofPath(file) : new FileId("key:" + key);
+	}
+
+	/**
+	 * Returns the identity of the file of a node, from the attributes the scan read for it
+	 * where it has them, so a scanned file is identified without touching the disk.
+	 *
+	 * @param node
+	 *            the node of the file
+	 * @return its identity
+	 */
+	public static FileId of(FileNode node) {
+		if (node.getFileKey() != null){
+			return new FileId("key:" + node.getFileKey()); // the same string FileNode.keyOf made of it
+		}
+		if (node.getSize() == -1){ // never scanned, nothing to go by
+			return FileId.of(node.getFile());
+		}
+		return FileId.ofPath(node.getFile());
+	}
+
+	/**
+	 * Returns the identity of the file at a path, for a file without a file key.
+	 *
+	 * @param file
+	 *            the file
+	 * @return its identity
+	 */
+	private static FileId ofPath(File file) {
+		return new FileId("path:" + file.getAbsolutePath());
+	}
+
+	/**
+	 * Returns a new identity for file, different from every other, for a file that turns out
+	 * to be another one than the file whose identity it would have had, like a hard link or a
+	 * new file where a logged one used to be.
+	 *
+	 * @param file
+	 *            the file
+	 * @return a new identity
+	 */
+	public static FileId another(File file) {
+		return new FileId("path:" + file.getAbsolutePath() + "#" + UUID.randomUUID());
+	}
+
+	/**
+	 * Returns whether this identity stays with the file when it is renamed or moved by
+	 * something else, as file keys do. Other identities only follow the renames they are told
+	 * about.
+	 *
+	 * @return whether it is a file key
+	 */
+	public boolean followsMoves() {
+		return id.startsWith("key:");
+	}
+
+	/**
+	 * Returns the fingerprint of file, its size and a hash of its size and first bytes, to
+	 * find it again if it is moved. Reads up to HASH_PREFIX bytes, so never on the EDT.
+	 *
+	 * @param file
+	 *            the file
+	 * @return its fingerprint, the size, a colon and the hash
+	 * @throws IOException
+	 *                    if file can not be read
+	 */
+	public static String fingerprint(File file) throws IOException {
+		long size = Files.size(file.toPath());
+		return size + ":" + hash(file, size);
+	}
+
+	/**
+	 * Returns the size a fingerprint was taken at, to rule files out before hashing them.
+	 *
+	 * @param fingerprint
+	 *                   a fingerprint from fingerprint
+	 * @return the size of the file it was taken of
+	 */
+	public static long sizeOf(String fingerprint) {
+		return Long.parseLong(fingerprint.substring(0, fingerprint.indexOf(':')));
+	}
+
+	/**
+	 * Hashes the size and the first HASH_PREFIX bytes of a file.
+	 *
+	 * @param file
+	 *            the file
+	 * @param size
+	 *            its size
+	 * @return the hash in hexadecimal
+	 * @throws IOException
+	 *                    if file can not be read
+	 */
+	private static String hash(File file, long size) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) { // every Java platform has SHA-1
+			throw new IllegalStateException(e);
+		}
+		digest.update(Long.toString(size).getBytes("UTF-8"));
+		byte[] buffer = new byte[8192];
+		try (InputStream in = new FileInputStream(file)){
+			int read = 0;
+			int n;
+			while (read < HASH_PREFIX && (n = in.read(buffer, 0, Math.min(buffer.length, HASH_PREFIX - read))) > 0){
+				digest.update(buffer, 0, n);
+				read += n;
+			}
+		}
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest()){
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof FileId && ((FileId) o).id.equals(id);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return id.hashCode();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString(){
+		return id;
+	}
+}
@@ -1,10 +1,11 @@
 package photo_renamer;
-import java.util.Map;
 import java.io.File;
-import java.util.ArrayList;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Comparator;
 
 
 /**
@@ -14,26 +15,52 @@ public class FileNode {
 
 	/** The name of the file or directory this node represents. */
 	private String name;
-	/** The file this node represents. */
+	/**
+	 * The file this node represents, only kept on the root. Every other node's file is its
+	 * parent's file plus its name, so it is rebuilt when asked for instead of kept around.
+	 */
 	private File file;
 	/** Whether this node represents a file or a directory. */
 	private FileType type;
 	/** This node's parent. */
 	private FileNode parent;
-	/** All accepted file extensions */
-	private final static ArrayList<String> IMG_EXT = new ArrayList<>(
-			Arrays.asList(".JPG", ".JPEG", ".jpg", "jpeg"));
+	/** The size of the file in bytes, or -1 if the scan did not read its attributes. */
+	private long size = -1;
+	/** The last modified time of the file in milliseconds, or -1 if not read. */
+	private long lastModified = -1;
+	/**
+	 * The file key identifying the file on its file system, as a string, or null if not read or
+	 * not supported. A string whether it was read by the scan or restored from the ScanCache.
+	 */
+	private String fileKey;
+	/** How many children a directory has room for when its first child is added. */
+	private final static int INITIAL_CHILDREN = 4;
+	/** All accepted file extensions, compared ignoring case */
+	private final static String[] IMG_EXT = {".jpg", ".jpeg"};
 	/** All selected files by the user, starts off empty. */
-	private static ArrayList<File> selectedFiles = new ArrayList<File>();
+	private static Selection selection = new Selection();
 	
 	/**
-	 * This node's children, mapped from the file names to the nodes. If type is
-	 * FileType.FILE, this is null.
+	 * This node's children, in the first childCount slots. Kept sorted by name whenever it is
+	 * searched. Null until the first child is added, so files never have one.
 	 */
-	private Map<File, FileNode> children;
+	private FileNode[] children;
+	/** How many slots of children are in use. */
+	private int childCount;
+	/** Whether children is currently sorted by name. */
+	private boolean sorted = true;
+	/** Orders nodes by their name, for searching children. */
+	private final static Comparator<FileNode> BY_NAME = new Comparator<FileNode>(){
+
+		@Override
+		public int compare(FileNode a, FileNode b) {
+			return a.name.compareTo(b.name);
+		}
+	};
 
 	/**
-	 * A node in this tree.
+	 * A node in this tree. Unless parent is null, file has to be the file named name
+	 * inside parent's file (or parent's file itself, when a single file was selected).
 	 *
 	 * @param name
 	 *            the name of the file
@@ -46,47 +73,81 @@ public class FileNode {
 	 */
 	public FileNode(String name, File file, FileNode parent, FileType type) { // initialize all the instance vars
 		this.name = name;
-		this.file = file;
 		this.parent = parent;
 		this.type = type;
-		this.children = new HashMap<File, FileNode>(); // create empty HashMap for the children
+		if (parent == null || file.equals(parent.file)){ // the root, or the one file selected under it
+			this.file = file;
+		}
 	}
 	
 	/**
-	 * Returns the ArrayList of the currently selected files.
-	 * 
-	 * @return the ArrayList of the currently selected files.
+	 * Returns the currently selected files, to be read through a cursor.
+	 *
+	 * @return the currently selected files.
 	 */
-	public static ArrayList<File> getSelectedFiles() {
-		return selectedFiles;
+	public static Selection getSelection() {
+		return selection;
 	}
-	
+
 	public static void clearSelectedFiles(){
-		selectedFiles.clear();
+		selection.clear();
 	}
 	
 	/**
 	 * Find and return a child node named name in this directory tree, or null
-	 * if there is no such child node.
+	 * if there is no such child node. Walks down one level per path component
+	 * instead of searching every subtree.
 	 *
 	 * @param file
 	 *            the file to search for
 	 * @return the node named after file
 	 */
 	public FileNode findChild(File file) {
-		FileNode result = null; // start will result being null
-		if (this.children.containsKey(file)){ // if the key is one of the children,
-			result = this.children.get(file); // result is the child we are looking for
-		}
-		else{ // we need to check even deeper now
-			for (FileNode child : this.getChildren()){ // check each of the children
-				if (result == null){ // we want to stop checking once we find the child (!= null)
-					result = child.findChild(file); // look for the child somewhere deep in this node
+		FileNode result = this.getChild(file.getName()); // the common case, a direct child
+		if (result == null || !result.getFile().equals(file)){ // otherwise walk down the path of file relative to this node
+			result = null;
+			String base = this.getFile().getAbsolutePath();
+			String path = file.getAbsolutePath();
+			int start = base.endsWith(File.separator) ? base.length() : base.length() + 1; // first name after base
+			if (path.length() > start && path.startsWith(base)
+					&& path.charAt(start - 1) == File.separatorChar){ // only if file is underneath this node
+				FileNode curr = this;
+				while (curr != null && start <= path.length()){ // one hop per level
+					int end = path.indexOf(File.separatorChar, start);
+					if (end == -1){
+						end = path.length();
+					}
+					curr = curr.getChild(path.substring(start, end));
+					start = end + 1;
 				}
+				result = curr;
 			}
 		}
 		return result;
 	}
+	
+	/**
+	 * Find and return the node at the given path relative to this node, or null if
+	 * there is no such node. Costs one map lookup per path component.
+	 * 
+	 * @param relative
+	 *                the path of the node relative to this node
+	 * @return the node at relative, or null if it is not in this tree
+	 */
+	public FileNode findChild(Path relative) {
+		FileNode curr = this;
+		for (Path component : relative){ // one hop per level
+			String name = component.toString();
+			if (name.isEmpty() || name.equals("..")){ // not underneath this node
+				return null;
+			}
+			curr = curr.getChild(name);
+			if (curr == null){
+				return null;
+			}
+		}
+		return curr == this ? null : curr;
+	}
 
 	/**
 	 * Build the tree of nodes rooted at file in the file system; note curr is
@@ -103,11 +164,12 @@ public class FileNode {
 			for (File element : file.listFiles()){ // go through all sub-files/directories of the root
 				String name = element.getName(); // to not have to repeat element.getName() a lot
 				if (element.isDirectory()){ // recursively call again if its a directory and add as a child
-					curr.addChild(element, new FileNode(name, element, curr, FileType.DIRECTORY));
-					FileNode.buildTree(element, curr.findChild(element));
+					FileNode child = new FileNode(name, element, curr, FileType.DIRECTORY);
+					curr.addChild(element, child);
+					FileNode.buildTree(element, child); // no need to search for the node we just made
 				}
 				else{ // this is a file then
-					if (name.contains(".") && IMG_EXT.contains(name.substring(name.lastIndexOf(".")))){
+					if (FileNode.isImage(name)){
 						curr.addChild(element, new FileNode(name, element, curr, FileType.FILE));
 					}
 				}
@@ -119,14 +181,36 @@ public class FileNode {
 	}
 	
 	/**
-	 * Adds all the image files from the built tree structure to an ArrayList.
+	 * Returns whether a file with the given name has one of the accepted image extensions.
+	 * 
+	 * @param name
+	 *            the name of the file
+	 * @return whether the name ends in an accepted image extension
+	 */
+	static boolean isImage(String name) {
+		int dot = name.lastIndexOf('.');
+		if (dot == -1){
+			return false;
+		}
+		int extLength = name.length() - dot;
+		for (String ext : IMG_EXT){ // compare in place, no substring needed
+			if (ext.length() == extLength && name.regionMatches(true, dot, ext, 0, extLength)){
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Adds all the image files from the built tree structure to the selection.
 	 * 
 	 * @param fileNode
 	 *                the root FileNode to start with
 	 */
 	public static void buildDirectoryContents(FileNode fileNode) {
 		if (fileNode.type == FileType.FILE){
-			selectedFiles.add(fileNode.getFile()); // append the current name to the ArrayList
+			selection.add(fileNode); // append the current name to the selection, with its attributes
+			TagIndex.getInstance().add(fileNode.getFile()); // and make its tags searchable
 		}
 		for (FileNode child : fileNode.getChildren()){
 			FileNode.buildDirectoryContents(child); // add another prefix the deeper we go
@@ -143,13 +227,16 @@ public class FileNode {
 	}
 
 	/**
-	 * Set the name of the current node.
+	 * Set the name of the current node. Its parent sorts its children again on the next search.
 	 *
 	 * @param name
 	 *            of the file/directory
 	 */
 	public void setName(String name) {
 		this.name = name;
+		if (this.parent != null){
+			this.parent.sorted = false; // it may be out of place now
+		}
 	}
 
 	/**
@@ -159,7 +246,104 @@ public class FileNode {
 	 *             a file of a node
 	 */
 	public File getFile() {
-		return file;
+		if (file != null){
+			return file;
+		}
+		return new File(parent.getFile(), name); // rebuilt from the parent, see file
+	}
+	
+	/**
+	 * Keeps the size, last modified time and file key read during the scan,
+	 * so later stages do not need to stat the file again.
+	 * 
+	 * @param attrs
+	 *             the attributes read for this node's file
+	 */
+	public void setAttributes(BasicFileAttributes attrs) {
+		this.setAttributes(attrs.size(), attrs.lastModifiedTime().toMillis(), FileNode.keyOf(attrs));
+	}
+	
+	/**
+	 * Returns the file key of attrs in the form FileNode and the ScanCache keep it.
+	 * 
+	 * @param attrs
+	 *             the attributes of a file
+	 * @return its file key as a string, or null if the file system has none
+	 */
+	static String keyOf(BasicFileAttributes attrs) {
+		Object fileKey = attrs.fileKey();
+		return fileKey == null ? null : fileKey.toString();
+	}
+	
+	/**
+	 * Keeps the size, last modified time and file key of this node's file,
+	 * for when they are already known, for example from the scan cache.
+	 * 
+	 * @param size
+	 *            the size in bytes
+	 * @param lastModified
+	 *                    the last modified time in milliseconds
+	 * @param fileKey
+	 *               the file key as returned by keyOf, or null
+	 */
+	public void setAttributes(long size, long lastModified, String fileKey) {
+		this.size = size;
+		this.lastModified = lastModified;
+		this.fileKey = fileKey;
+	}
+	
+	/**
+	 * Returns the size of the file read during the scan.
+	 * 
+	 * @return the size in bytes, or -1 if it was not read
+	 */
+	public long getSize() {
+		return size;
+	}
+	
+	/**
+	 * Returns the last modified time of the file read during the scan.
+	 * 
+	 * @return the last modified time in milliseconds, or -1 if it was not read
+	 */
+	public long getLastModified() {
+		return lastModified;
+	}
+	
+	/**
+	 * Returns the file key read during the scan.
+	 * 
+	 * @return the file key as a string, or null if it was not read or the file system has none
+	 */
+	public String getFileKey() {
+		return fileKey;
+	}
+	
+	/**
+	 * Returns a node for file outside of any tree, with no attributes, for a file that was not
+	 * found by a scan.
+	 * 
+	 * @param file
+	 *            the file
+	 * @return a node without a parent
+	 */
+	public static FileNode detached(File file) {
+		return new FileNode(file.getName(), file, null, FileType.FILE);
+	}
+	
+	/**
+	 * Returns a node for file outside of any tree, with the attributes of this node. For keeping
+	 * the attributes of a scanned file with it, or carrying them over to its new name after a
+	 * rename, which changes none of them.
+	 * 
+	 * @param file
+	 *            the file, this node's or its new name
+	 * @return a node without a parent
+	 */
+	public FileNode detach(File file) {
+		FileNode node = new FileNode(file.getName(), file, null, this.type);
+		node.setAttributes(size, lastModified, fileKey);
+		return node;
 	}
 	
 	/**
@@ -168,7 +352,10 @@ public class FileNode {
 	 * @return the child nodes directly underneath this node.
 	 */
 	public Collection<FileNode> getChildren() {
-		return this.children.values();
+		if (this.children == null){
+			return Collections.emptyList();
+		}
+		return Collections.unmodifiableList(Arrays.asList(this.children).subList(0, this.childCount));
 	}
 
 	/**
@@ -192,7 +379,7 @@ public class FileNode {
 
 	/**
 	 * Add childNode, representing a file or directory named name, as a child of
-	 * this node.
+	 * this node. This node must not already have a child with that name.
 	 * 
 	 * @param file
 	 *            the name of the file or directory
@@ -200,7 +387,80 @@ public class FileNode {
 	 *            the node to add as a child
 	 */
 	public void addChild(File file, FileNode childNode) {
-		this.children.put(file, childNode);
+		if (this.children == null){
+			this.children = new FileNode[INITIAL_CHILDREN];
+		}
+		else if (this.childCount == this.children.length){ // full, grow by half
+			this.children = Arrays.copyOf(this.children, this.childCount + (this.childCount >> 1));
+		}
+		if (this.sorted && this.childCount > 0
+				&& BY_NAME.compare(this.children[this.childCount - 1], childNode) > 0){
+			this.sorted = false; // sorted again on the next search, not on every add
+		}
+		this.children[this.childCount++] = childNode;
+	}
+
+	/**
+	 * Returns the direct child with the given name.
+	 * 
+	 * @param name
+	 *            the name of the child
+	 * @return the child named name, or null if there is none
+	 */
+	public FileNode getChild(String name) {
+		int index = this.indexOf(name);
+		return index < 0 ? null : this.children[index];
+	}
+	
+	/**
+	 * Removes the direct child with the given name, along with everything underneath it.
+	 * 
+	 * @param name
+	 *            the name of the child to remove
+	 * @return the removed child, or null if there was none
+	 */
+	public FileNode removeChild(String name) {
+		int index = this.indexOf(name);
+		if (index < 0){
+			return null;
+		}
+		FileNode removed = this.children[index];
+		System.arraycopy(this.children, index + 1, this.children, index, this.childCount - index - 1); // close the gap
+		this.children[--this.childCount] = null;
+		return removed;
+	}
+	
+	/**
+	 * Binary searches the children for name, sorting them first if needed.
+	 * 
+	 * @param name
+	 *            the name to search for
+	 * @return the index of the child named name, or -1 if there is none
+	 */
+	private int indexOf(String name) {
+		if (this.children == null){
+			return -1;
+		}
+		if (!this.sorted){ // nearly sorted most of the time, which is cheap to sort
+			Arrays.sort(this.children, 0, this.childCount, BY_NAME);
+			this.sorted = true;
+		}
+		int low = 0;
+		int high = this.childCount - 1;
+		while (low <= high){
+			int mid = (low + high) >>> 1;
+			int cmp = this.children[mid].name.compareTo(name);
+			if (cmp < 0){
+				low = mid + 1;
+			}
+			else if (cmp > 0){
+				high = mid - 1;
+			}
+			else{
+				return mid;
+			}
+		}
+		return -1;
 	}
 
 	/**
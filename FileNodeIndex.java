@@ -0,0 +1,83 @@
+package photo_renamer;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.HashMap;
+
+/**
+ * An optional index from every path in a FileNode tree to its node, for O(1) lookups
+ * no matter how deep or wide the tree is. It is built from a finished tree and has to
+ * be told about nodes added or removed after that.
+ */
+public class FileNodeIndex {
+
+	/** Every node in the tree, mapped from its absolute, normalized path. */
+	private final HashMap<Path, FileNode> nodes = new HashMap<Path, FileNode>();
+
+	/**
+	 * Builds the index of every node in the tree rooted at root, root included.
+	 *
+	 * @param root
+	 *            the root of the tree to index
+	 */
+	public FileNodeIndex(FileNode root) {
+		this.addAll(root);
+	}
+
+	/**
+	 * Returns the node for file.
+	 *
+	 * @param file
+	 *            the file to look up
+	 * @return the node for file, or null if it is not in the tree
+	 */
+	public FileNode get(File file) {
+		return nodes.get(FileNodeIndex.key(file));
+	}
+
+	/**
+	 * Adds node and everything underneath it to the index.
+	 *
+	 * @param node
+	 *            the node to add
+	 */
+	public void addAll(FileNode node) {
+		nodes.put(FileNodeIndex.key(node.getFile()), node);
+		for (FileNode child : node.getChildren()){
+			this.addAll(child);
+		}
+	}
+
+	/**
+	 * Removes node and everything underneath it from the index.
+	 *
+	 * @param node
+	 *            the node to remove
+	 */
+	public void removeAll(FileNode node) {
+		nodes.remove(FileNodeIndex.key(node.getFile()));
+		for (FileNode child : node.getChildren()){
+			this.removeAll(child);
+		}
+	}
+
+	/**
+	 * Returns the number of indexed nodes.
+	 *
+	 * @return the number of nodes in the index
+	 */
+	public int size() {
+		return nodes.size();
+	}
+
+	/**
+	 * Returns the key a file is indexed under.
+	 *
+	 * @param file
+	 *            the file
+	 * @return the absolute, normalized path of file
+	 */
+	private static Path key(File file) {
+		return file.toPath().toAbsolutePath().normalize();
+	}
+}
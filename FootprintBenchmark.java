@@ -0,0 +1,103 @@
+package photo_renamer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Reports the heap taken per node by a million-file FileNode tree, next to the layout
+ * FileNode used to have: a full File and a HashMap of children on every node, leaves included.
+ * Numbers come from the used heap after a full GC, so run it with nothing else going on
+ * and a heap large enough for both trees (for example -Xmx2g).
+ *
+ * Usage: FootprintBenchmark [number of files]   (defaults to 1000000)
+ */
+public class FootprintBenchmark {
+
+	/** How many files go into each generated directory. */
+	private final static int FILES_PER_DIR = 1000;
+
+	/**
+	 * The old FileNode layout, kept here only to measure it.
+	 */
+	private static class LegacyNode {
+
+		private String name;
+		private File file;
+		private FileType type;
+		private LegacyNode parent;
+		private HashMap<File, LegacyNode> children = new HashMap<File, LegacyNode>();
+
+		private LegacyNode(String name, File file, LegacyNode parent, FileType type) {
+			this.name = name;
+			this.file = file;
+			this.parent = parent;
+			this.type = type;
+		}
+	}
+
+	/**
+	 * Builds both trees and prints the bytes per node of each.
+	 *
+	 * @param args
+	 *            the number of files to build
+	 */
+	public static void main(String[] args) {
+		int files = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		File base = new File(System.getProperty("java.io.tmpdir"), "footprint").getAbsoluteFile();
+		int nodes = files + (files + FILES_PER_DIR - 1) / FILES_PER_DIR + 1; // files, directories and the root
+		ArrayList<Object> keep = new ArrayList<Object>(); // holds the tree while it is measured
+
+		long before = usedHeap();
+		LegacyNode legacyRoot = new LegacyNode(base.getName(), base, null, FileType.DIRECTORY);
+		LegacyNode legacyDir = null;
+		for (int i = 0; i < files; i++){
+			if (i % FILES_PER_DIR == 0){
+				File dir = new File(base, "dir" + i / FILES_PER_DIR);
+				legacyDir = new LegacyNode(dir.getName(), dir, legacyRoot, FileType.DIRECTORY);
+				legacyRoot.children.put(dir, legacyDir);
+			}
+			File file = new File(legacyDir.file, "IMG_" + i + ".jpg");
+			legacyDir.children.put(file, new LegacyNode(file.getName(), file, legacyDir, FileType.FILE));
+		}
+		keep.add(legacyRoot);
+		long legacy = usedHeap() - before;
+		keep.clear();
+		legacyRoot = null;
+		legacyDir = null;
+
+		before = usedHeap();
+		FileNode root = new FileNode(base.getName(), base, null, FileType.DIRECTORY);
+		FileNode dirNode = null;
+		File dir = null;
+		for (int i = 0; i < files; i++){
+			if (i % FILES_PER_DIR == 0){
+				dir = new File(base, "dir" + i / FILES_PER_DIR);
+				dirNode = new FileNode(dir.getName(), dir, root, FileType.DIRECTORY);
+				root.addChild(dir, dirNode);
+			}
+			File file = new File(dir, "IMG_" + i + ".jpg"); // only its name is kept
+			dirNode.addChild(file, new FileNode(file.getName(), file, dirNode, FileType.FILE));
+		}
+		keep.add(root);
+		long compact = usedHeap() - before;
+
+		System.out.println(nodes + " nodes:");
+		System.out.println("  old layout (File + HashMap per node): " + legacy / nodes + " bytes/node");
+		System.out.println("  FileNode (name + child array):        " + compact / nodes + " bytes/node");
+		keep.clear(); // the tree had to stay reachable until it was measured
+	}
+
+	/**
+	 * Returns the used heap after asking for a few full collections.
+	 *
+	 * @return the used heap in bytes
+	 */
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 4; i++){
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -1,6 +1,7 @@
 package photo_renamer;
 
 import java.io.BufferedOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -11,11 +12,34 @@ import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * A class to keep track of all events, adding and removing tags, in a large log.
+ * The log is keyed by the FileId of every image, which renaming does not change, and where each
+ * file is now is kept next to it, so a rename only updates the location.
+ *
+ * Files without file keys are identified by their path, see FileId, and fingerprinted in the
+ * background whenever they get an event. A file that turns up with no history while a logged
+ * file with the same fingerprint is gone from where the log has it is taken to be that file,
+ * moved behind our back, and gets its history back.
+ *
+ * Thread safe. The log, the locations and the paths are concurrent maps, and everything that
+ * changes the history or the location of one file, renaming it included, is done holding the
+ * lock of that file, see lock. The locks are striped by FileId, so threads working on different
+ * files rarely wait for each other, and a file keeps its lock when it is renamed. Histories are
+ * handed out as copies, so they can be gone through while events are added.
  */
 /**
  * @author jurcaua
@@ -26,19 +50,50 @@ public class History implements Serializable {
 	/** */
 	private static final long serialVersionUID = 4662379220332918735L;
 
+	/** How many locks the files are spread over. */
+	private final static int LOCK_STRIPES = 256;
+	/** The locks of the files, picked by FileId. */
+	private final static ReentrantLock[] LOCKS = new ReentrantLock[LOCK_STRIPES];
+	static {
+		for (int i = 0; i < LOCK_STRIPES; i++){
+			LOCKS[i] = new ReentrantLock();
+		}
+	}
+
+	/** Fingerprints the files without file keys, off the EDT and one at a time. */
+	private final static ExecutorService FINGERPRINTER = Executors.newSingleThreadExecutor(new ThreadFactory(){
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "history-fingerprints");
+			thread.setDaemon(true); // never keeps the application alive
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		}
+	});
+
 	/** Used for singleton design pattern, to have only one instance of this class. */
-	private static History instance = null;
-	/** A log to keep track of every change made to an image. */
-	private HashMap <String, ArrayList<Image>> log;
+	private static volatile History instance = null;
+	/** A log to keep track of every change made to an image, by the identity of its file; each list is guarded by the file's lock. */
+	private final ConcurrentHashMap <FileId, ArrayList<Image>> log;
+	/** Where the file of every image in the log is now. */
+	private final ConcurrentHashMap <FileId, File> locations;
+	/** The identity of every path in locations, so looking up a known path never touches the disk. */
+	private final transient ConcurrentHashMap <String, FileId> paths;
+	/** The last fingerprint of every file in the log without a file key, see FileId.fingerprint. */
+	private final transient ConcurrentHashMap <FileId, String> fingerprints;
 	/** The file path to the .ser file we serialize the log to after termination. */
-	private static String filePath = System.getProperty("user.dir") + "//src//photo_renamer//log.ser";
+	static String filePath = System.getProperty("user.dir") + "//src//photo_renamer//log.ser";
 	
 	/**
 	 * Initializes the History instance by creating the log HashMap, and then
 	 * trying to fill it with previous serialized information.
 	 */
 	public History() {
-		log = new HashMap <String, ArrayList<Image>>(); // start empty...
+		log = new ConcurrentHashMap <FileId, ArrayList<Image>>(); // start empty...
+		locations = new ConcurrentHashMap <FileId, File>();
+		paths = new ConcurrentHashMap <String, FileId>();
+		fingerprints = new ConcurrentHashMap <FileId, String>();
 		try {
 			readFromSerFile(); // then try to deserialize
 		} catch (FileNotFoundException e) {
@@ -53,19 +108,214 @@ public class History implements Serializable {
 	 * @return the one instance of History.
 	 */
 	public static History getInstance(){
-		if (instance == null){
-			instance = new History();
+		History history = instance; // read once, it is volatile
+		if (history == null){
+			synchronized (History.class){ // only one thread reads the log
+				history = instance;
+				if (history == null){
+					history = new History();
+					instance = history;
+				}
+			}
 		}
-		return instance;
+		return history;
 	}
 	
 	/**
 	 * Returns the log of all events.
 	 * 
-	 * @return the log of all events.
+	 * @return a read-only view of the log of all events; each history is only to be read
+	 *         holding the lock of its file
+	 */
+	public static Map <FileId, ArrayList<Image>> getLog(){
+		return Collections.unmodifiableMap(History.getInstance().log);
+	}
+	
+	/**
+	 * Returns the lock of the file with identity id.
+	 * 
+	 * @param id
+	 *          the identity of the file
+	 * @return its lock, shared with the files that have the same stripe
+	 */
+	private static ReentrantLock lockOf(FileId id){
+		return LOCKS[(id.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES];
+	}
+	
+	/**
+	 * Locks file, so no other thread renames it or changes its history until it is unlocked.
+	 * Reentrant, a thread holding it can lock it again.
+	 * 
+	 * @param file
+	 *            the file
+	 * @return the lock, held; to be unlocked in a finally block
+	 */
+	public static Lock lock(File file){
+		Lock lock = History.lockOf(History.idOf(file));
+		lock.lock();
+		return lock;
+	}
+	
+	/**
+	 * Locks the file of node, like lock(File), identifying it by the attributes the scan read
+	 * for it if the log does not know its path.
+	 * 
+	 * @param node
+	 *            the node of the file
+	 * @return the lock, held; to be unlocked in a finally block
+	 */
+	public static Lock lock(FileNode node){
+		Lock lock = History.lockOf(History.idOf(node));
+		lock.lock();
+		return lock;
+	}
+	
+	/**
+	 * Locks the file of img, like lock(File). If img is renamed by another thread while this
+	 * one waits, the file it has now is locked instead, so the caller always works on the
+	 * current name.
+	 * 
+	 * @param img
+	 *           the image
+	 * @return the lock, held; to be unlocked in a finally block
+	 */
+	public static Lock lock(Image img){
+		while (true){
+			File file = img.getFile();
+			Lock lock = History.lock(file);
+			if (file.equals(img.getFile())){ // renamed under this lock, so up to date
+				return lock;
+			}
+			lock.unlock(); // it moved on while we waited
+		}
+	}
+	
+	/**
+	 * Returns the identity of the file at path. A path in the log is known without touching
+	 * the disk. Otherwise the file is identified, and if its file key turns out to be in the log
+	 * under another path that is gone, renamed by something else, its location is updated. If
+	 * that path is still there, the file is another one, a hard link or a new file where a logged
+	 * one used to be, and gets an identity of its own. Never reads the contents of the file.
+	 * 
+	 * @param file
+	 *            the file
+	 * @return its identity
+	 */
+	public static FileId idOf(File file){
+		return History.idOf(file, null);
+	}
+	
+	/**
+	 * Returns the identity of the file of node, like idOf(File), from the attributes the scan
+	 * read for it rather than the disk if the log does not know its path.
+	 * 
+	 * @param node
+	 *            the node of the file
+	 * @return its identity
+	 */
+	public static FileId idOf(FileNode node){
+		return History.idOf(node.getFile(), node);
+	}
+	
+	/**
+	 * Returns the identity of file, identifying it by node if the log does not know its path.
+	 * 
+	 * @param file
+	 *            the file
+	 * @param node
+	 *            the node of file, or null to read what identifies it from the disk
+	 * @return its identity
+	 */
+	private static FileId idOf(File file, FileNode node){
+		History history = History.getInstance();
+		String path = file.getAbsolutePath();
+		FileId id = history.paths.get(path);
+		if (id != null){
+			return id;
+		}
+		id = node == null ? FileId.of(file) : FileId.of(node);
+		if (!history.log.containsKey(id)){
+			return id;
+		}
+		Lock lock = History.lockOf(id); // another file has this identity in the log
+		lock.lock();
+		try {
+			FileId known = history.paths.get(path);
+			if (known != null){ // identified by another thread meanwhile
+				return known;
+			}
+			File location = history.locations.get(id);
+			if (id.followsMoves() && (location == null || !id.equals(FileId.of(location)))){ // moved behind our back
+				history.locate(id, file);
+				return id;
+			}
+		} finally {
+			lock.unlock();
+		}
+		FileId another = FileId.another(file); // the logged one is still where it was
+		FileId known = history.paths.putIfAbsent(path, another);
+		return known == null ? another : known;
+	}
+	
+	/**
+	 * Returns whether file has any history.
+	 * 
+	 * @param file
+	 *            the file
+	 * @return whether the log has events for it
 	 */
-	public static HashMap <String, ArrayList<Image>> getLog(){
-		return History.getInstance().log;
+	public static boolean contains(File file){
+		return History.getInstance().log.containsKey(History.idOf(file));
+	}
+	
+	/**
+	 * Returns whether the file of node has any history, like contains(File).
+	 * 
+	 * @param node
+	 *            the node of the file
+	 * @return whether the log has events for it
+	 */
+	public static boolean contains(FileNode node){
+		return History.getInstance().log.containsKey(History.idOf(node));
+	}
+	
+	/**
+	 * Records that the file with the given identity is now at file. Called holding its lock.
+	 * 
+	 * @param id
+	 *          the identity
+	 * @param file
+	 *            where it is now
+	 */
+	private void locate(FileId id, File file){
+		File old = locations.put(id, file);
+		if (old != null){
+			paths.remove(old.getAbsolutePath(), id); // unless another file is there by now
+		}
+		paths.put(file.getAbsolutePath(), id);
+	}
+	
+	/**
+	 * Records that a file was renamed. The history stays where it is, only the location of
+	 * the file changes.
+	 * 
+	 * @param from
+	 *            the old name of the file
+	 * @param to
+	 *          the new name
+	 */
+	public static void renamed(File from, File to){
+		History history = History.getInstance();
+		FileId id = history.paths.get(from.getAbsolutePath());
+		if (id != null){ // files without history have nothing to update
+			Lock lock = History.lockOf(id);
+			lock.lock();
+			try {
+				history.locate(id, to);
+			} finally {
+				lock.unlock();
+			}
+		}
 	}
 	
 	/**
@@ -77,7 +327,17 @@ public class History implements Serializable {
 	 *           the value being added into the HashMap
 	 */
 	public static void putInLog(String key, ArrayList<Image> value){
-		History.getInstance().log.put(key, value);
+		File file = new File(key);
+		FileId id = History.idOf(file);
+		Lock lock = History.lockOf(id);
+		lock.lock();
+		try {
+			History.getInstance().log.put(id, value);
+			History.getInstance().locate(id, file);
+		} finally {
+			lock.unlock();
+		}
+		History.getInstance().fingerprint(id, false);
 	}
 	
 	 /**
@@ -89,53 +349,109 @@ public class History implements Serializable {
 	 */
 	
 	/**
-	 * Removes value with the specified key (path), and returns the removed value.
+	 * Removes the history of the file at the specified path, and returns the removed value.
 	 * 
 	 * @param path
-	 *            a filepath that is a key in the HashMap
+	 *            the filepath of an image in the log
 	 * @return the ArrayList that was removed
 	 */
 	public static ArrayList<Image> removeFromLog(String path){
-		return History.getInstance().log.remove(path);
+		History history = History.getInstance();
+		FileId id = History.idOf(new File(path));
+		Lock lock = History.lockOf(id);
+		lock.lock();
+		try {
+			File location = history.locations.remove(id);
+			if (location != null){
+				history.paths.remove(location.getAbsolutePath(), id);
+			}
+			history.fingerprints.remove(id);
+			return history.log.remove(id);
+		} finally {
+			lock.unlock();
+		}
 	}
 	
 	public Image getInitial(Image img) {
-		if (History.getInstance().log.containsKey(img.getFile().getAbsolutePath())){
-			return History.getInstance().log.get(img.getFile().getAbsolutePath()).get(0);
+		ArrayList<Image> history = History.events(History.idOf(img.getFile()));
+		if (history != null){
+			return history.get(0);
 		}
 		return null;
 	}
 	
+	/**
+	 * Returns a copy of the history of the file with identity id, taken holding its lock.
+	 * 
+	 * @param id
+	 *          the identity of the file
+	 * @return its events, or null if it has none
+	 */
+	private static ArrayList<Image> events(FileId id){
+		Lock lock = History.lockOf(id);
+		lock.lock();
+		try {
+			ArrayList<Image> events = History.getInstance().log.get(id);
+			return events == null ? null : new ArrayList<Image>(events);
+		} finally {
+			lock.unlock();
+		}
+	}
+	
 	/**
 	 * Return an older version of an image given a current image and a version number i.
 	 * 
-	 * Reverts the image an older version by renaming it to the old name.
+	 * Reverts the image an older version by renaming it to the old name. If it can not be
+	 * renamed, nothing changes, neither img nor its history.
 	 *
 	 * @param img
 	 *            the image to return original state
 	 * @param i
 	 *            the version number to revert back to
 	 * @return the image at given version number.
+	 * @throws IOException
+	 *                    if the file could not be renamed, because another file has the old name
+	 *                    by now or it is gone
 	 */
-	public Image revertBackTo(Image img, int i){
-		String path = img.getFile().getAbsolutePath(); // get the path of the current image, current key in log
+	public Image revertBackTo(Image img, int i) throws IOException {
+		Lock lock = History.lock(img); // nothing else renames it until it is reverted
+		try {
+			return this.revert(img, i);
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Reverts the image to an older version, holding the lock of its file.
+	 *
+	 * @param img
+	 *            the image to return original state
+	 * @param i
+	 *            the version number to revert back to
+	 * @return the image at given version number.
+	 * @throws IOException
+	 *                    if the file could not be renamed
+	 */
+	private Image revert(Image img, int i) throws IOException {
+		File current = img.getFile(); // where the image is now
 		
-		Image oldImg = this.log.get(img.getFile().getAbsolutePath()).get(i); // get the image the user wants
-		String oldPath = oldImg.getFile().getAbsolutePath();  // get the old path, this will be the new key in log
+		Image oldImg = this.log.get(History.idOf(current)).get(i); // get the image the user wants
+		String oldPath = oldImg.getFile().getAbsolutePath();  // get the old path, where the file is going back to
 		
 		File oldFile = new File(oldPath); // create a new file
-		img.getIcon().setDescription(oldPath); // set the icons path to the old path
-		
-		Image oldImage = new Image(oldFile.getName(), oldFile, img.getIcon()); // create a new image object to revert to
+		Image oldImage = new Image(oldFile.getName(), oldFile, img.peekIcon()); // create a new image object to revert to
 	
-		img.getFile().renameTo(oldImage.getFile()); // rename the file
+		Files.move(current.toPath(), oldFile.toPath()); // never replaces, unlike File.renameTo on some platforms
+		img.setIconDesc(oldPath); // set the icons path to the old path, if it has one
 		img.setName(oldImage.getFile().getName()); // set parameters name and..
 		img.setFile(oldImage.getFile()); // file
 		
-		History.putInLog(img.getFile().getAbsolutePath(), History.this.log.remove(path)); // replace the old key with the new
+		History.renamed(current, img.getFile()); // same file, same history, only its location changed
+		TagIndex.getInstance().renamed(current, img.getFile()); // and its tags are the old ones again
 		addEvent(oldImage); // create a new event in the log, since we renamed
 		
-		return new Image(oldFile.getName(), new File(oldPath), img.getIcon()); // return a whole new image to not alias
+		return new Image(oldFile.getName(), new File(oldPath), img.peekIcon()); // return a whole new image to not alias
 	}
 	
 	/**
@@ -143,10 +459,10 @@ public class History implements Serializable {
 	 * 
 	 * @param img
 	 *           image to find the history of
-	 * @return the whole history of an image
+	 * @return a copy of the whole history of an image, or null if it has none
 	 */
 	public ArrayList<Image> getImageHistory(Image img){
-		return History.getInstance().log.get(img.getFile().getAbsolutePath());
+		return History.events(History.idOf(img.getFile()));
 	}
 	
 	/**
@@ -154,10 +470,10 @@ public class History implements Serializable {
 	 * 
 	 * @param path
 	 *            the path of an image to get the history of
-	 * @return the whole history of a an image with given path
+	 * @return a copy of the whole history of a an image with given path, or null if it has none
 	 */
 	public ArrayList<Image> getImageHistory(String path){
-		return History.getInstance().log.get(path);
+		return History.events(History.idOf(new File(path)));
 	}
 	
 	/**
@@ -167,21 +483,155 @@ public class History implements Serializable {
 	 *           the image to create an event for
 	 */
 	public static void addEvent(Image img){
-		if (History.getInstance().log.containsKey(img.getFile().getAbsolutePath())){ // if the id already is in the map
-			History.getInstance().log.get(img.getFile().getAbsolutePath()).add(img); // just add the event
+		FileId id = History.idOf(img.getFile()); // the same before and after any rename
+		Lock lock = History.lockOf(id);
+		lock.lock(); // no other event for it in between
+		boolean first = false;
+		try {
+			if (History.getInstance().log.containsKey(id)){ // if the id already is in the map
+				History.getInstance().log.get(id).add(img); // just add the event
+			}
+			else{ // if this is the first time adding an event, we need a new entry
+				ArrayList<Image> a = new ArrayList<Image>(); // create the new ArrayList
+				a.add(img); // add the initial image
+				History.getInstance().log.put(id, a); // then put it into the log
+				History.getInstance().locate(id, img.getFile()); // and remember where it is
+				first = true;
+			}
+		} finally {
+			lock.unlock();
 		}
-		else{ // if this is the first time adding an event, we need a new entry
-			ArrayList<Image> a = new ArrayList<Image>(); // create the new ArrayList
-			a.add(img); // add the initial image
-			History.putInLog(img.getFile().getAbsolutePath(), a); // then put it into the log
+		History.getInstance().fingerprint(id, first);
+	}
+	
+	/**
+	 * Records a batch of renames at once: every file moves to its new name in the log and gets
+	 * an event for it. A file that had no history yet first gets its old name as the original,
+	 * so it can be reverted like one that was selected before it was tagged.
+	 *
+	 * @param from
+	 *            the old names of the files, already renamed
+	 * @param to
+	 *          their new names, in the same order, with the attributes the scan read for the files
+	 */
+	public static void addEvents(List<File> from, List<FileNode> to){
+		History history = History.getInstance();
+		for (int i = 0; i < from.size(); i++){
+			File old = from.get(i);
+			File renamed = to.get(i).getFile();
+			FileId id = history.paths.get(old.getAbsolutePath());
+			boolean known = id != null;
+			if (!known){ // never touched, and it is only known by its new name now
+				id = History.idOf(to.get(i)); // which a rename does not change
+			}
+			Lock lock = History.lockOf(id);
+			lock.lock();
+			boolean first = !known && !history.log.containsKey(id);
+			try {
+				if (first){
+					ArrayList<Image> events = new ArrayList<Image>();
+					events.add(new Image(old.getName(), old, null)); // the original to revert to
+					history.log.put(id, events);
+				}
+				history.locate(id, renamed);
+				history.log.get(id).add(new Image(renamed.getName(), renamed, null));
+			} finally {
+				lock.unlock();
+			}
+			history.fingerprint(id, first);
 		}
 	}
 	
+	/**
+	 * Fingerprints the file with identity id in the background, if it has no file key, so it
+	 * can be found again if it is moved behind our back. A file that just got its first event
+	 * may be such a file, and is looked for among the lost ones.
+	 *
+	 * @param id
+	 *          the identity of a file in the log
+	 * @param first
+	 *             whether it just got its first event
+	 */
+	private void fingerprint(final FileId id, final boolean first){
+		if (id.followsMoves()){ // found again without it
+			return;
+		}
+		FINGERPRINTER.execute(new Runnable(){
+
+			@Override
+			public void run() {
+				File file = locations.get(id);
+				if (file == null){ // removed meanwhile
+					return;
+				}
+				try {
+					History.this.fingerprinted(id, file, FileId.fingerprint(file), first);
+				} catch (IOException e) { // gone or locked, it keeps the last fingerprint it had
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Records the fingerprint of the file with identity id, taken at file. If it just got its
+	 * first event and a logged file with the same fingerprint is gone from where the log has
+	 * it, that is the file, moved: it takes over the lost identity, its events after the ones
+	 * it had there. Called on the FINGERPRINTER thread, the only one that ever holds two locks.
+	 *
+	 * @param id
+	 *          the identity of a file in the log
+	 * @param file
+	 *            where it was fingerprinted
+	 * @param fingerprint
+	 *                   its fingerprint
+	 * @param first
+	 *             whether it just got its first event
+	 */
+	private void fingerprinted(FileId id, File file, String fingerprint, boolean first){
+		Lock lock = History.lockOf(id);
+		lock.lock();
+		try {
+			if (!file.equals(locations.get(id))){ // renamed or removed meanwhile, it is fingerprinted again
+				return;
+			}
+			if (first){
+				for (Map.Entry<FileId, String> entry : fingerprints.entrySet()){
+					FileId lost = entry.getKey();
+					File location = locations.get(lost);
+					if (!lost.equals(id) && fingerprint.equals(entry.getValue()) && location != null && !location.exists()){
+						Lock other = History.lockOf(lost);
+						other.lock();
+						try {
+							ArrayList<Image> events = log.get(lost);
+							if (events == null || !location.equals(locations.get(lost))){ // changed while we waited
+								continue;
+							}
+							events.addAll(log.remove(id));
+							locations.remove(id);
+							fingerprints.remove(id);
+							this.locate(lost, file);
+							fingerprints.put(lost, fingerprint);
+							return;
+						} finally {
+							other.unlock();
+						}
+					}
+				}
+			}
+			fingerprints.put(id, fingerprint);
+		} finally {
+			lock.unlock();
+		}
+	}
+
 	/**
 	 * Clears all the history. Used for testing only.
 	 */
 	public void clearHistory(){
-		History.getInstance().log = new HashMap <String, ArrayList<Image>>(); // clear the log 
+		History.getInstance().log.clear(); // clear the log 
+		History.getInstance().locations.clear();
+		History.getInstance().paths.clear();
+		History.getInstance().fingerprints.clear();
 		try {
 			History.getInstance().saveToFile(); // try to serialize this empty log
 		} catch (IOException e) {
@@ -195,10 +645,14 @@ public class History implements Serializable {
 	@Override
 	public String toString(){
 		String s = ""; // start with empty string
-		for(String key : History.getInstance().log.keySet()){ // go through all keys
-			s += "Path " + key + ":\n"; // start with adding "Path <filepath>:\n"
-			for (Image img : History.getInstance().log.get(key)){ // go through all the entries for this filepath
-				s += (History.getInstance().log.get(key).indexOf(img)) + ": " + img.toString() + "\n"; // add each entry with its version number
+		for(FileId key : History.getInstance().log.keySet()){ // go through all keys
+			ArrayList<Image> events = History.events(key); // a copy, events may be added meanwhile
+			if (events == null){ // removed meanwhile
+				continue;
+			}
+			s += "Path " + History.getInstance().locations.get(key) + ":\n"; // start with adding "Path <filepath>:\n"
+			for (Image img : events){ // go through all the entries for this filepath
+				s += (events.indexOf(img)) + ": " + img.toString() + "\n"; // add each entry with its version number
 			}
 		}
 		return s;
@@ -216,9 +670,36 @@ public class History implements Serializable {
 			FileInputStream fileIn = new FileInputStream(filePath);
 	        ObjectInputStream in = new ObjectInputStream(fileIn);
 	        try{
-	        	log = (HashMap<String, ArrayList<Image>>) in.readObject(); // try to deserialize 
+	        	HashMap<?, ArrayList<Image>> stored = (HashMap<?, ArrayList<Image>>) in.readObject(); // try to deserialize
+	        	log.clear();
+	        	locations.clear();
+	        	try {
+	        		locations.putAll((HashMap<FileId, File>) in.readObject()); // written after the log
+	        		log.putAll((HashMap<FileId, ArrayList<Image>>) stored);
+	        	} catch (EOFException e) { // a log from before identities, keyed by the current path
+	        		for (Object path : stored.keySet()){
+	        			File file = new File((String) path);
+	        			FileId id = FileId.of(file);
+	        			log.put(id, stored.get(path));
+	        			locations.put(id, file);
+	        		}
+	        	}
+	        	paths.clear();
+	        	for (FileId id : locations.keySet()){ // the index is not saved, it follows from the locations
+	        		paths.put(locations.get(id).getAbsolutePath(), id);
+	        	}
+	        	fingerprints.clear();
+	        	try {
+	        		fingerprints.putAll((HashMap<FileId, String>) in.readObject()); // written after the locations
+	        	} catch (EOFException e) { // a log from before fingerprints
+	        	}
+	        	for (FileId id : log.keySet()){
+	        		if (!fingerprints.containsKey(id)){ // taken in the background
+	        			this.fingerprint(id, false);
+	        		}
+	        	}
 	        } catch(ClassNotFoundException e) {
-	        	log = new HashMap<String, ArrayList<Image>>(); // if not, just make the log empty
+	        	log.clear(); // if not, just make the log empty
 	        	File file = new File(filePath); // make a file with the path we want
 				try {
 					file.createNewFile(); // and try to create the file since its not there
@@ -236,19 +717,45 @@ public class History implements Serializable {
 		
 	}
     /**
-     * Serialize the log to the log.ser file.
+     * Serialize the log to the log.ser file. Each history is copied holding the lock of its
+     * file, and written as the plain HashMaps older versions read.
      * 
      * @throws IOException
      *                    for if there is a problem outputting the data
      */
     public void saveToFile() throws IOException {
+        HashMap<FileId, ArrayList<Image>> log = new HashMap<FileId, ArrayList<Image>>();
+        HashMap<FileId, File> locations = new HashMap<FileId, File>();
+        HashMap<FileId, String> fingerprints = new HashMap<FileId, String>();
+        for (FileId id : History.getInstance().log.keySet()){
+        	Lock lock = History.lockOf(id);
+        	lock.lock(); // its events and location together
+        	try {
+        		ArrayList<Image> events = History.getInstance().log.get(id);
+        		File location = History.getInstance().locations.get(id);
+        		String fingerprint = History.getInstance().fingerprints.get(id);
+        		if (events != null){ // unless it was removed meanwhile
+        			log.put(id, new ArrayList<Image>(events));
+        		}
+        		if (location != null){
+        			locations.put(id, location);
+        		}
+        		if (fingerprint != null){
+        			fingerprints.put(id, fingerprint);
+        		}
+        	} finally {
+        		lock.unlock();
+        	}
+        }
 
         OutputStream file = new FileOutputStream(filePath);
         OutputStream buffer = new BufferedOutputStream(file);
         ObjectOutput output = new ObjectOutputStream(buffer);
 
         // serialize the Map
-        output.writeObject(History.getInstance().log); // serialize to the log.ser file
+        output.writeObject(log); // serialize to the log.ser file
+        output.writeObject(locations); // and where every file is now
+        output.writeObject(fingerprints); // and what the ones without file keys looked like
         output.close();
     }
 }
@@ -0,0 +1,120 @@
+package photo_renamer;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+import javax.swing.ImageIcon;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HistoryTest {
+
+	/** The same bytes for every photo that is a copy of another. */
+	private final static byte[] PHOTO = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, 1, 2, 3};
+
+	/** A directory of its own for the files of each test. */
+	private File dir;
+
+	/** The photo with a history. */
+	private File original;
+
+	@Before
+	public void setUp() throws Exception {
+		TagHandler.clearTags(); //have an empty list of Tags
+		dir = Files.createTempDirectory("history").toFile();
+		original = new File(dir, "IMG_1.jpg");
+		Files.write(original.toPath(), PHOTO);
+		History.addEvent(new Image(original.getName(), original, null)); // the original to revert to
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TagHandler.clearTags();
+		for (File file : dir.listFiles()){
+			History.removeFromLog(file.getAbsolutePath());
+			TagIndex.getInstance().remove(file);
+			file.delete();
+		}
+		dir.delete();
+	}
+
+	/**
+	 * Test to see that a byte for byte copy of a photo gets a history of its own, and looking it
+	 * up leaves the history of the photo where it was
+	 */
+	@Test
+	public void testIdenticalFiles() throws Exception {
+		File copy = new File(dir, "IMG_1 copy.jpg");
+		Files.copy(original.toPath(), copy.toPath());
+		FileId id = History.idOf(original);
+
+		assertFalse(History.contains(copy)); // never touched
+		assertNotEquals(id, History.idOf(copy));
+		assertEquals(id, History.idOf(original)); // the photo still is where it was
+		ArrayList<Image> events = History.getInstance().getImageHistory(original.getAbsolutePath());
+		assertEquals(1, events.size());
+		assertEquals(original, events.get(0).getFile());
+
+		History.addEvent(new Image(copy.getName(), copy, null));
+		assertEquals(1, History.getInstance().getImageHistory(copy.getAbsolutePath()).size());
+		assertEquals(1, History.getInstance().getImageHistory(original.getAbsolutePath()).size()); // nothing of the copy's
+	}
+
+	/**
+	 * Test to see that a hard link to a photo, which has the same file key and the same bytes,
+	 * does not take the photo's history either while the photo is still there
+	 */
+	@Test
+	public void testHardLink() throws Exception {
+		File link = new File(dir, "IMG_1 link.jpg");
+		try {
+			Files.createLink(link.toPath(), original.toPath());
+		} catch (UnsupportedOperationException | IOException e) {
+			Assume.assumeNoException(e); // not on this file system
+		}
+		FileId id = History.idOf(original);
+
+		assertFalse(History.contains(link));
+		assertNotEquals(id, History.idOf(link));
+		assertEquals(id, History.idOf(original));
+		assertEquals(original, History.getInstance().getImageHistory(original.getAbsolutePath()).get(0).getFile());
+	}
+
+	/**
+	 * Test to see that reverting to a name another file has by now changes nothing, neither the
+	 * file, nor the image, nor its history
+	 */
+	@Test
+	public void testRevertOntoAnotherFile() throws Exception {
+		Image img = new Image(original.getName(), original, new ImageIcon());
+		ArrayList<String> tags = new ArrayList<String>();
+		tags.add("beach");
+		TagHandler.getInstance().addTag(img, tags);
+		File tagged = img.getFile();
+		assertNotEquals(original, tagged);
+		Files.write(original.toPath(), new byte[]{4, 5, 6}); // someone else took the old name
+
+		try {
+			History.getInstance().revertBackTo(img, 0);
+			fail("reverted onto another file");
+		} catch (FileAlreadyExistsException e) {
+			// expected
+		}
+
+		assertEquals(tagged, img.getFile());
+		assertEquals(tagged.getName(), img.getName());
+		assertTrue(tagged.exists());
+		assertArrayEquals(new byte[]{4, 5, 6}, Files.readAllBytes(original.toPath())); // not replaced
+		assertTrue(History.contains(tagged));
+		assertFalse(History.contains(original));
+		assertEquals(1, History.getInstance().getImageHistory(img).size()); // no event for it
+	}
+}
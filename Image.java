@@ -18,8 +18,11 @@ public class Image implements Serializable {
 	private LocalDateTime timestamp;
 	/** The File connected to this image. */
 	private File file;
-	/** The ImageIcon connected to this image. */
-	private ImageIcon icon;
+	/**
+	 * The ImageIcon connected to this image. Not serialized, log.ser only keeps the name, time and
+	 * file of every version; the icon is made again from the thumbnail cache when it is asked for.
+	 */
+	private transient ImageIcon icon;
 	
 	/**
 	 * Initializes an Image.
@@ -85,11 +88,24 @@ public class Image implements Serializable {
 	}
 	
 	/**
-	 * Returns the images' ImageIcon.
+	 * Returns the images' ImageIcon, making it from the file if this image was read from log.ser.
 	 * 
-	 * @return the icon
+	 * @return the icon, or null if there is none and the file is not a readable image
 	 */
 	public ImageIcon getIcon() {
+		if (icon == null && file != null && file.exists()){ // deserialized, the pixels were never saved
+			icon = ThumbnailLoader.icon(file);
+		}
+		return icon;
+	}
+
+	/**
+	 * Returns the images' ImageIcon as it is, without making one, for passing it on to the next
+	 * version of the image without decoding a thumbnail nobody looks at.
+	 * 
+	 * @return the icon, or null if it was never set or made
+	 */
+	ImageIcon peekIcon() {
 		return icon;
 	}
 
@@ -103,13 +119,15 @@ public class Image implements Serializable {
 	}
 	
 	/**
-	 * Sets the description of the ImageIcon to s.
+	 * Sets the description of the ImageIcon to s, if there is an icon.
 	 * 
 	 * @param s
 	 *         what String to set the ImageIcon desciption to
 	 */
 	public void setIconDesc(String s){
-		this.icon.setDescription(s);
+		if (this.icon != null){ // not made yet, it gets the right description when it is
+			this.icon.setDescription(s);
+		}
 	}
 
 	/* (non-Javadoc)
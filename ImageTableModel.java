@@ -0,0 +1,659 @@
+package photo_renamer;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.ImageIcon;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * The table of selected images, read straight from the Selection. Names are read when a row is
+ * painted and icons are only made for the rows in the viewport and the rows the
+ * ThumbnailPrefetcher expects to come into view next, by the ThumbnailLoader. Prefetches that
+ * fall out of that window, because the user reversed or jumped, are cancelled, and icons of
+ * rows that scrolled out of it are released, so the heap holds a few screens of thumbnails
+ * however many rows there are. Every thumbnail made is also kept, encoded, in an
+ * OffHeapThumbnailCache, so a row scrolled back to is decoded from there rather than its file.
+ *
+ * The rows can be narrowed down to some of the files, the ones a tag search found, without
+ * touching the selection: the filter maps each row to its file's place in the selection.
+ *
+ * Only used on the event dispatch thread. The selection may grow from other threads, rows
+ * for the new files are added on the next call to update, unless a filter is set; they are
+ * left out of it until the next one.
+ */
+@SuppressWarnings("serial")
+public class ImageTableModel extends AbstractTableModel implements ThumbnailLoader.Listener {
+
+	/** The fewest icons kept, whatever the size of the viewport. */
+	private final static int MIN_ICONS = 64;
+	/** How many files of the selection filter reads at once. */
+	private final static int FILTER_BATCH = 4096;
+	/** The column names. */
+	private final static String[] COLUMNS = {"Name", "Image"};
+
+	/** The files shown, one per row. */
+	private final Selection selection;
+	/** Makes the icons. */
+	private final ThumbnailLoader thumbnails;
+	/** Keeps the thumbnails of released icons, outside the heap. */
+	private final OffHeapThumbnailCache memory = new OffHeapThumbnailCache();
+	/** Decides which rows to make icons for ahead of time. */
+	private final ThumbnailPrefetcher prefetcher = new ThumbnailPrefetcher();
+	/** The icons requested ahead of time whose rows have not come into view yet. */
+	private final HashMap<File, ImageIcon> prefetched = new HashMap<File, ImageIcon>();
+	/** How many files of the selection the table knows about, the first rowCount. */
+	private int rowCount;
+	/** The place in the selection of the file of each row, ascending, or null for every file. */
+	private int[] filter;
+	/** How many files were removed, each moving the places of the files after it. */
+	private int removals;
+	/** The first row in the viewport. */
+	private int firstVisible = 0;
+	/** The last row in the viewport. */
+	private int lastVisible = -1;
+	/** How many icons are kept. */
+	private int maxIcons = MIN_ICONS;
+	/** The icons made so far, least recently painted first. */
+	private final LinkedHashMap<File, ImageIcon> icons = new LinkedHashMap<File, ImageIcon>(16, 0.75f, true){
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<File, ImageIcon> eldest) {
+			return this.size() > maxIcons; // far off screen by now
+		}
+	};
+
+	/**
+	 * Initializes a model showing the files of selection.
+	 *
+	 * @param selection
+	 *                 the files to show
+	 * @param height
+	 *              the height of the thumbnails
+	 */
+	public ImageTableModel(Selection selection, int height) {
+		this.selection = selection;
+		this.thumbnails = new ThumbnailLoader(height, this);
+		thumbnails.setMemoryCache(memory);
+	}
+
+	/**
+	 * Returns the loader that makes this model's icons.
+	 *
+	 * @return the thumbnail loader
+	 */
+	public ThumbnailLoader getThumbnails() {
+		return thumbnails;
+	}
+
+	/**
+	 * Returns the cache of thumbnails outside the heap, for its statistics.
+	 *
+	 * @return the off-heap cache
+	 */
+	public OffHeapThumbnailCache getMemoryCache() {
+		return memory;
+	}
+
+	/**
+	 * Returns the prefetcher, for its hit rate and wasted decodes.
+	 *
+	 * @return the prefetcher
+	 */
+	public ThumbnailPrefetcher getPrefetcher() {
+		return prefetcher;
+	}
+
+	/**
+	 * Adds rows for the files added to the selection since the last call.
+	 */
+	public void update() {
+		int size = selection.size();
+		if (size > rowCount){
+			int first = rowCount;
+			rowCount = size;
+			if (filter == null){ // filtered, they are not shown until the next search
+				this.fireTableRowsInserted(first, size - 1);
+			}
+		}
+	}
+
+	/**
+	 * Shows only some of the files, or all of them again.
+	 *
+	 * @param filter
+	 *              the place in the selection of each file to show, ascending, as returned by
+	 *              filter; or null to show every file
+	 */
+	public void setFilter(int[] filter) {
+		this.filter = filter;
+		this.fireTableDataChanged();
+	}
+
+	/**
+	 * Returns whether only some of the files are shown.
+	 *
+	 * @return whether a filter is set
+	 */
+	public boolean isFiltered() {
+		return filter != null;
+	}
+
+	/**
+	 * Returns how many files were removed so far. A filter worked out while this changed may
+	 * point at the wrong places and is worked out again.
+	 *
+	 * @return the number of removals
+	 */
+	public int getRemovals() {
+		return removals;
+	}
+
+	/**
+	 * Returns the place in the selection of every file whose id is in found, for setFilter.
+	 * Goes by the TagIndex id the selection keeps for every file, looked up in found laid out
+	 * flat, so a row costs a shift and a mask; only a file whose id was not known when it was
+	 * added is looked up by its path. It is still called off the event dispatch thread; the
+	 * selection and the index are both thread safe.
+	 *
+	 * @param selection
+	 *                 the files shown
+	 * @param index
+	 *             the index found came from
+	 * @param found
+	 *             the ids of the files to show
+	 * @return their places in selection, ascending
+	 */
+	public static int[] filter(Selection selection, TagIndex index, TagBitmap found) {
+		int size = selection.size();
+		int[] filter = new int[Math.min(size, found.getCardinality())];
+		int count = 0;
+		long[] words = found.toWords();
+		for (int from = 0; from < size && count < filter.length; from += FILTER_BATCH){ // a lock for every batch, not every file
+			int[] ids = selection.tagIds(from, FILTER_BATCH);
+			for (int i = 0; i < ids.length && count < filter.length; i++){
+				int id = ids[i] != -1 ? ids[i] : index.idOf(selection.get(from + i)); // added without one
+				if (id != -1 && id >>> 6 < words.length && (words[id >>> 6] & 1L << id) != 0){
+					filter[count++] = from + i;
+				}
+			}
+		}
+		return Arrays.copyOf(filter, count);
+	}
+
+	/**
+	 * Returns the place in the selection of the file of row.
+	 *
+	 * @param row
+	 *           the row
+	 * @return the place of its file
+	 */
+	private int index(int row) {
+		return filter == null ? row : filter[row];
+	}
+
+	/**
+	 * Returns the row of the file at a place in the selection.
+	 *
+	 * @param index
+	 *             the place in the selection
+	 * @return its row, or a negative number if the filter leaves it out
+	 */
+	private int rowOf(int index) {
+		return filter == null ? index : Arrays.binarySearch(filter, index);
+	}
+
+	/**
+	 * Returns the files of n rows, with the attributes the scan read for them.
+	 *
+	 * @param from
+	 *            the first row
+	 * @param n
+	 *         how many rows
+	 * @return the nodes of their files
+	 */
+	private List<FileNode> nodes(int from, int n) {
+		if (filter == null){
+			return selection.nodes(from, n);
+		}
+		ArrayList<FileNode> nodes = new ArrayList<FileNode>(n);
+		for (int row = from; row < from + n; row++){
+			nodes.add(selection.getNode(filter[row]));
+		}
+		return nodes;
+	}
+
+	/**
+	 * Removes the rows of files, and files from the selection, finding all of them in one pass
+	 * over the selection.
+	 *
+	 * @param files
+	 *             the files to remove
+	 * @return whether any of files had a row
+	 */
+	public boolean removeFiles(Collection<File> files) {
+		if (files.isEmpty()){
+			return false;
+		}
+		Map<File, Integer> found = selection.indexesOf(files);
+		int[] indexes = new int[found.size()];
+		int n = 0;
+		for (int index : found.values()){
+			if (index < rowCount){ // the rest are not rows yet
+				indexes[n++] = index;
+			}
+		}
+		indexes = Arrays.copyOf(indexes, n);
+		Arrays.sort(indexes);
+		return this.removeIndexes(indexes);
+	}
+
+	/**
+	 * Returns the files that are not in the selection, going through it once for all of them.
+	 *
+	 * @param files
+	 *             the files to look for
+	 * @return the files of files that are not shown or about to be, in the same order
+	 */
+	public List<File> absent(Collection<File> files) {
+		Map<File, Integer> found = selection.indexesOf(files);
+		ArrayList<File> absent = new ArrayList<File>();
+		for (File file : files){
+			if (!found.containsKey(file)){
+				absent.add(file);
+			}
+		}
+		return absent;
+	}
+
+	/**
+	 * Removes the rows of the files at some places in the selection, and the files from it.
+	 *
+	 * @param indexes
+	 *               the places of the files in the selection, ascending and below rowCount
+	 * @return whether any file was removed
+	 */
+	private boolean removeIndexes(int[] indexes) {
+		if (indexes.length == 0){
+			return false;
+		}
+		int[] rows = new int[indexes.length];
+		for (int i = 0; i < indexes.length; i++){ // before anything moves
+			rows[i] = this.rowOf(indexes[i]);
+			File file = selection.get(indexes[i]);
+			this.unprefetch(file);
+			icons.remove(file);
+			memory.remove(file);
+		}
+		selection.removeAll(indexes);
+		rowCount -= indexes.length;
+		removals += indexes.length;
+		if (filter != null){ // the files after them moved up a place for every one removed before them
+			int[] kept = new int[filter.length];
+			int k = 0;
+			for (int i = 0, r = 0; i < filter.length; i++){
+				while (r < indexes.length && indexes[r] < filter[i]){
+					r++;
+				}
+				if (r < indexes.length && indexes[r] == filter[i]){
+					continue;
+				}
+				kept[k++] = filter[i] - r;
+			}
+			filter = Arrays.copyOf(kept, k);
+		}
+		for (int i = rows.length - 1; i >= 0; i--){ // from the bottom, so the rows above keep their numbers
+			if (rows[i] >= 0){
+				this.fireTableRowsDeleted(rows[i], rows[i]);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the place in the selection of a file whose icon was just asked for, looking at the
+	 * rows around the viewport before going through the whole selection.
+	 *
+	 * @param file
+	 *            the file
+	 * @return its place in the selection, or -1 if it has no row
+	 */
+	private int nearIndexOf(File file) {
+		int rows = this.getRowCount();
+		int from = Math.max(0, firstVisible - maxIcons);
+		int to = Math.min(rows - 1, lastVisible + maxIcons);
+		for (int row = from; row <= to; row++){ // where the prefetcher asks for icons
+			if (selection.get(this.index(row)).equals(file)){
+				return this.index(row);
+			}
+		}
+		Integer index = selection.indexesOf(Collections.singletonList(file)).get(file);
+		return index == null || index >= rowCount ? -1 : index;
+	}
+
+	/**
+	 * Tells the model which rows are in the viewport. Their icons are requested first, then the
+	 * icons of the rows the prefetcher expects next, nearest first. Prefetches outside the
+	 * prefetcher's window are cancelled and the icon cache is sized to hold the window.
+	 *
+	 * @param first
+	 *             the first visible row
+	 * @param last
+	 *            the last visible row
+	 */
+	public void setVisibleRows(int first, int last) {
+		int oldFirst = firstVisible;
+		int oldLast = lastVisible;
+		firstVisible = Math.max(0, first);
+		lastVisible = Math.min(this.getRowCount() - 1, last);
+		if (lastVisible < firstVisible){
+			return;
+		}
+		int[] window = prefetcher.window(firstVisible, lastVisible, this.getRowCount());
+		int from = Math.min(window[0], firstVisible);
+		int to = Math.max(window[1], lastVisible);
+		List<FileNode> nodes = this.nodes(from, to - from + 1);
+
+		HashSet<File> wanted = new HashSet<File>();
+		for (FileNode node : nodes){
+			wanted.add(node.getFile());
+		}
+		Iterator<Map.Entry<File, ImageIcon>> stale = prefetched.entrySet().iterator();
+		while (stale.hasNext()){ // the user reversed or jumped away from these
+			Map.Entry<File, ImageIcon> entry = stale.next();
+			if (!wanted.contains(entry.getKey())){
+				stale.remove();
+				icons.remove(entry.getKey());
+				this.count(entry.getValue());
+			}
+		}
+		maxIcons = Math.max(MIN_ICONS, nodes.size()); // the rest come back from the off-heap cache
+		Iterator<File> eldest = icons.keySet().iterator();
+		while (icons.size() > maxIcons && eldest.hasNext()){ // the viewport shrank
+			this.unprefetch(eldest.next());
+			eldest.remove();
+		}
+
+		for (int row = firstVisible; row <= lastVisible; row++){ // the viewport first
+			FileNode node = nodes.get(row - from);
+			ImageIcon icon = prefetched.remove(node.getFile());
+			if (icon != null && thumbnails.isLoaded(icon)){
+				prefetcher.hit();
+			}
+			icon = this.icon(node);
+			if ((row < oldFirst || row > oldLast) && !thumbnails.isLoaded(icon)){ // just came into view
+				prefetcher.blank();
+			}
+		}
+		for (int i = 1; lastVisible + i <= to || firstVisible - i >= from; i++){ // then outwards
+			if (lastVisible + i <= to){
+				this.prefetch(nodes.get(lastVisible + i - from));
+			}
+			if (firstVisible - i >= from){
+				this.prefetch(nodes.get(firstVisible - i - from));
+			}
+		}
+	}
+
+	/**
+	 * Requests the icon of a file outside the viewport, unless there is one already.
+	 *
+	 * @param node
+	 *            the node of the image file
+	 */
+	private void prefetch(FileNode node) {
+		File file = node.getFile();
+		if (!icons.containsKey(file) && !memory.contains(file)){ // cheap to decode when painted
+			ImageIcon icon = thumbnails.placeholder(file);
+			if (thumbnails.tryLoad(icon, node)){
+				icons.put(file, icon);
+				prefetched.put(file, icon);
+				prefetcher.requested();
+			}
+		}
+	}
+
+	/**
+	 * Forgets the prefetch of file, if its row never came into view, cancelling it if it is
+	 * still waiting.
+	 *
+	 * @param file
+	 *            the image file
+	 */
+	private void unprefetch(File file) {
+		ImageIcon icon = prefetched.remove(file);
+		if (icon != null){
+			this.count(icon);
+		}
+	}
+
+	/**
+	 * Cancels a prefetch that will not be seen, and counts it as cancelled or wasted.
+	 *
+	 * @param icon
+	 *            the prefetched icon
+	 */
+	private void count(ImageIcon icon) {
+		if (thumbnails.cancel(icon)){
+			prefetcher.cancelled();
+		}
+		else{
+			prefetcher.wasted(); // decoded, or being decoded, for nothing
+		}
+	}
+
+	/**
+	 * Returns the icon of file, decoded from the off-heap cache if it is there, otherwise asking
+	 * the loader for it. If the loader is busy the placeholder is returned without being kept,
+	 * so the next paint asks again.
+	 *
+	 * @param node
+	 *            the node of the image file
+	 * @return the icon
+	 */
+	private ImageIcon icon(FileNode node) {
+		File file = node.getFile();
+		ImageIcon icon = icons.get(file);
+		if (icon == null){
+			BufferedImage thumbnail = memory.get(file);
+			if (thumbnail != null){
+				icon = new ImageIcon(thumbnail, file.getAbsolutePath());
+				icons.put(file, icon);
+			}
+			else{
+				icon = thumbnails.placeholder(file);
+				if (thumbnails.tryLoad(icon, node)){
+					icons.put(file, icon);
+				}
+			}
+		}
+		return icon;
+	}
+
+	/* (non-Javadoc)
+	 * @see photo_renamer.ThumbnailLoader.Listener#thumbnailLoaded(javax.swing.ImageIcon)
+	 */
+	@Override
+	public void thumbnailLoaded(ImageIcon icon) {
+		if (lastVisible >= firstVisible){ // only the viewport can be showing it
+			this.fireTableRowsUpdated(firstVisible, Math.min(lastVisible, this.getRowCount() - 1));
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see photo_renamer.ThumbnailLoader.Listener#thumbnailFailed(javax.swing.ImageIcon)
+	 */
+	@Override
+	public void thumbnailFailed(ImageIcon icon) {
+		int index = this.nearIndexOf(new File(icon.getDescription()));
+		if (index != -1){ // not really an image, drop its row
+			this.removeIndexes(new int[] {index});
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.swing.table.TableModel#getRowCount()
+	 */
+	@Override
+	public int getRowCount() {
+		return filter == null ? rowCount : filter.length;
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.swing.table.TableModel#getColumnCount()
+	 */
+	@Override
+	public int getColumnCount() {
+		return COLUMNS.length;
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.swing.table.AbstractTableModel#getColumnName(int)
+	 */
+	@Override
+	public String getColumnName(int column) {
+		return COLUMNS[column];
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.swing.table.AbstractTableModel#getColumnClass(int)
+	 */
+	@Override
+	public Class<?> getColumnClass(int column) {
+		return column == 1 ? ImageIcon.class : String.class;
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.swing.table.TableModel#getValueAt(int, int)
+	 */
+	@Override
+	public Object getValueAt(int row, int column) {
+		FileNode node = selection.getNode(this.index(row));
+		return column == 0 ? node.getName() : this.icon(node);
+	}
+
+	/**
+	 * Setting the icon of a row moves the row to the file named by the icon's description,
+	 * which is how a rename by TagHandler or History reaches the table. The name column always
+	 * shows the name of the row's file, so setting it only repaints the row.
+	 *
+	 * @see javax.swing.table.AbstractTableModel#setValueAt(java.lang.Object, int, int)
+	 */
+	@Override
+	public void setValueAt(Object value, int row, int column) {
+		if (column == 1 && value instanceof ImageIcon){
+			ImageIcon icon = (ImageIcon) value;
+			File file = new File(icon.getDescription());
+			File old = selection.get(this.index(row));
+			prefetched.remove(old); // replaced, neither a hit nor wasted
+			icons.remove(old);
+			memory.rename(old, file);
+			selection.set(this.index(row), file);
+			icons.put(file, icon);
+		}
+		this.fireTableRowsUpdated(row, row);
+	}
+
+	/**
+	 * Returns the file shown in row.
+	 *
+	 * @param row
+	 *           the row
+	 * @return its file
+	 */
+	public File getFile(int row) {
+		return selection.get(this.index(row));
+	}
+
+	/**
+	 * Returns the file shown in row with the attributes the scan read for it.
+	 *
+	 * @param row
+	 *           the row
+	 * @return the node of its file, outside the tree
+	 */
+	public FileNode getNode(int row) {
+		return selection.getNode(this.index(row));
+	}
+
+	/**
+	 * Moves the rows of a batch of renamed files to their new names and repaints them at once.
+	 * Thumbnails already made keep their icon; icons still waiting for theirs are dropped and
+	 * asked for again under the new name when painted, so no decode reads a name that is gone.
+	 *
+	 * @param rows
+	 *            the row of each file when the batch started, looked up again if it moved since
+	 * @param from
+	 *            the old names of the files
+	 * @param to
+	 *          their new names, in the same order
+	 */
+	public void renamed(List<Integer> rows, List<File> from, List<File> to) {
+		int[] indexes = new int[rows.size()];
+		ArrayList<File> moved = new ArrayList<File>();
+		for (int i = 0; i < rows.size(); i++){
+			int row = rows.get(i);
+			indexes[i] = row < this.getRowCount() ? this.index(row) : -1;
+			if (indexes[i] == -1 || !selection.get(indexes[i]).equals(from.get(i))){ // a row above was removed, or the filter changed, meanwhile
+				indexes[i] = -1;
+				moved.add(from.get(i));
+			}
+		}
+		Map<File, Integer> found = moved.isEmpty() ? Collections.<File, Integer>emptyMap() : selection.indexesOf(moved); // all of them in one go
+		int first = Integer.MAX_VALUE;
+		int last = -1;
+		for (int i = 0; i < rows.size(); i++){
+			File old = from.get(i);
+			File file = to.get(i);
+			int index = indexes[i];
+			if (index == -1){
+				Integer place = found.get(old);
+				if (place == null || place >= rowCount){
+					continue;
+				}
+				index = place;
+			}
+			int row = this.rowOf(index);
+			ImageIcon prefetch = prefetched.remove(old);
+			if (prefetch != null){
+				thumbnails.cancel(prefetch); // neither a hit nor wasted
+			}
+			ImageIcon icon = icons.remove(old);
+			if (icon != null && thumbnails.isLoaded(icon)){
+				icon.setDescription(file.getAbsolutePath());
+				icons.put(file, icon);
+			}
+			else if (icon != null){
+				thumbnails.cancel(icon);
+			}
+			memory.rename(old, file);
+			selection.set(index, file);
+			if (row >= 0){ // renamed all the same when the filter leaves it out
+				first = Math.min(first, row);
+				last = Math.max(last, row);
+			}
+		}
+		if (last != -1){
+			this.fireTableRowsUpdated(first, last);
+		}
+	}
+
+	/**
+	 * Stops making icons.
+	 */
+	public void shutdown() {
+		prefetched.clear();
+		thumbnails.shutdown();
+		memory.clear();
+	}
+}
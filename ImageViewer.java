@@ -1,51 +1,76 @@
 package photo_renamer;
 
 import java.awt.BorderLayout;
-import java.awt.Component;
 import java.awt.Dimension;
 import java.awt.GridLayout;
+import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
-import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.NoSuchFileException;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
-import javax.imageio.ImageIO;
-import javax.swing.AbstractButton;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
 import javax.swing.JFrame;
+import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
+import javax.swing.JSplitPane;
 import javax.swing.JTable;
 import javax.swing.JTextArea;
+import javax.swing.JTextField;
 import javax.swing.ListSelectionModel;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
+import javax.swing.ToolTipManager;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 
 public class ImageViewer implements WindowListener {
 	
 	/** The standard image height in the table of selected images. Width is scaled accordingly. */
-	private final static int IMG_HEIGHT = 100;
+	final static int IMG_HEIGHT = 100;
+	/** The most scanned files taken from the pipeline at once. */
+	private final static int ROW_BATCH_SIZE = 64;
+	/** How often, in milliseconds, the scan counter is refreshed. */
+	private final static int SCAN_LABEL_DELAY = 50;
+	/** How often, in milliseconds, the thumbnail cache statistics are refreshed. */
+	private final static int CACHE_LABEL_DELAY = 1000;
+	/** How long, in milliseconds, typing has to pause before the table is searched. */
+	private final static int SEARCH_DELAY = 150;
 
 	/**
 	 * Builds and returns a JFrame that contains all images in the selected directory / just the image selected.
 	 * Allows users to select an image and then add tags to them, and see its' edit history.
 	 * Users can also revert back to previous versions of an image.
+	 * Rows are added as the pipeline finds images, starting as soon as the window is shown.
 	 * 
+	 * @param pipeline
+	 *                the started scan of the selected file or directory
 	 * @return the JFrame that contains all of the image elements
 	 */
-	public static JFrame buildWindow() {
+	public static JFrame buildWindow(ScanPipeline pipeline) {
 		
 		JFrame imageFrame = new JFrame("PhotoRenamer"); // creating the frame, call it PhotoRenamer
-		imageFrame.setPreferredSize(new Dimension(750, 500));
+		imageFrame.setPreferredSize(new Dimension(1150, 600));
 		
 		/* ADDING MESSAGE BOX */
 		JPanel messageArea = new JPanel();
@@ -54,54 +79,222 @@ public class ImageViewer implements WindowListener {
 		messageArea.add(messageBox);
 		imageFrame.add(messageArea, BorderLayout.NORTH);
 		
+		/* SEARCHING BY TAG */
+		// the table only shows the images that match, as the user types
+		JTextField searchField = new JTextField(30);
+		searchField.setToolTipText("Search tags, like @beach AND (@2019 OR @2020) AND NOT @blurry");
+		JLabel searchLabel = new JLabel(); // how many matched, or what is wrong with the query
+		Timer searchTimer = new Timer(SEARCH_DELAY, null); // restarted by every keystroke, and by whatever renames files
+		searchTimer.setRepeats(false);
+		AtomicReference<TagQuery> searching = new AtomicReference<TagQuery>(); // the latest search, older ones are dropped
+		messageArea.add(new JLabel("Search:"));
+		messageArea.add(searchField);
+		messageArea.add(searchLabel);
+		
 		/* DISPLAYING IMAGE(S) */
-		DefaultTableModel tableModel = new DefaultTableModel(new String[]{"Name", "Image"}, 0);
+		// the table reads the selection directly and only has icons for the rows on screen
+		ImageTableModel tableModel = new ImageTableModel(FileNode.getSelection(), IMG_HEIGHT);
+		PreviewPane preview = new PreviewPane(); // the selected image at full resolution, only the visible part decoded
+		preview.setPreferredSize(new Dimension(400, 400));
+		JLabel scanLabel = new JLabel("Scanned 0 files"); // live progress of the scan
+		JProgressBar tagProgress = new JProgressBar(); // live progress of a batch of renames, hidden otherwise
+		tagProgress.setStringPainted(true);
+		tagProgress.setVisible(false);
+		JCheckBox watchBox = new JCheckBox("Watch for changes"); // opt-in, once the scan is done
+		watchBox.setEnabled(false);
+		AtomicReference<DirectoryWatcher> watcher = new AtomicReference<DirectoryWatcher>();
 		
-		/*
+		// the scan runs in the background, so keep the counter moving even when no images turn up
+		Timer scanTimer = new Timer(SCAN_LABEL_DELAY, new ActionListener(){
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				scanLabel.setText("Scanned " + pipeline.getEntriesScanned() + " files");
+			}
+		});
+		
+		// how much of the thumbnails live outside the heap and how well the prefetcher guesses, the details, the preview's and the tag index's in the tooltip
+		JLabel cacheLabel = new JLabel(){
+
+			@Override
+			public String getToolTipText(MouseEvent e) { // only when it is shown, the tag index is locked meanwhile
+				return "<html>" + tableModel.getMemoryCache() + "<br>" + tableModel.getPrefetcher() + "<br>" + preview
+						+ "<br>" + TagIndex.getInstance() + "</html>";
+			}
+		};
+		ToolTipManager.sharedInstance().registerComponent(cacheLabel);
+		Timer cacheTimer = new Timer(CACHE_LABEL_DELAY, new ActionListener(){
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				OffHeapThumbnailCache memory = tableModel.getMemoryCache();
+				ThumbnailPrefetcher prefetcher = tableModel.getPrefetcher();
+				long lookups = memory.getHits() + memory.getMisses();
+				cacheLabel.setText(memory.size() + " thumbnails in " + memory.getBytes() / 1024 + " KB off heap"
+						+ (lookups == 0 ? "" : ", " + memory.getHits() * 100 / lookups + "% hits")
+						+ (prefetcher.getRequested() == 0 ? "" : ", " + Math.round(prefetcher.getHitRate() * 100) + "% of prefetches seen, "
+								+ prefetcher.getWasted() + " wasted"));
+			}
+		});
+		
+		JTable imageTable = new JTable(tableModel); // the model gives the image column its own type
+		imageTable.setRowHeight(IMG_HEIGHT); // set the table row height to the standard image height
+		imageTable.setDefaultEditor(Object.class, null); // do not what user to edit the table
+		imageTable.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION); // shift, ctrl and ctrl-A to tag many at once
 		
-		Here we used the iterator design pattern.
-		We created a fileIterator from the Iterator interface in Java.
-		The iterable is our ArrayList<File>, where we use the .iterator() method on,
-		    which returns an instance of Iterator<File> for fileIterator.
+		/*
 		
-		Classes involved are ImageViewer for the Iterator,
-		                 and FileNode    for the Iterable.
+		The scanner publishes image files to the pipeline's queue as soon as it finds them.
+		This worker appends them to the selection and process() tells the table model on the EDT,
+		    which adds the rows. Nothing is decoded here: the model asks the ThumbnailLoader for
+		    the icons of the rows that are actually painted, and shows a placeholder until then.
+		So the first rows show up while the rest of the directory is still being scanned,
+		    and a million rows cost no more thumbnails than a hundred.
 		
 		*/
-		// Adding all selected files into the JTable we created.
-		Iterator<File> fileIterator = FileNode.getSelectedFiles().iterator();
-		while (fileIterator.hasNext()){ // go file by file
-			File file = fileIterator.next();
-			BufferedImage img = null; // start with setting to null
-			try {
-				img = ImageIO.read(file); // try to read the file (should be an image)
-			} catch (IOException i) {
-				
+		SwingWorker<Void, Integer> rowLoader = new SwingWorker<Void, Integer>(){
+
+			@Override
+			protected Void doInBackground() throws InterruptedException {
+				tableModel.getThumbnails().setCache(ThumbnailCache.open()); // lists the cache directory, so not on the EDT
+				Selection selection = FileNode.getSelection();
+				ArrayList<FileNode> scanned = new ArrayList<FileNode>();
+				ArrayList<File> files = new ArrayList<File>();
+				while (!pipeline.isFinished() && !this.isCancelled()){
+					scanned.clear();
+					files.clear();
+					pipeline.drainTo(scanned, ROW_BATCH_SIZE, SCAN_LABEL_DELAY);
+					for (FileNode node : scanned){
+						files.add(node.getFile());
+					}
+					int[] ids = TagIndex.getInstance().idsOf(files); // the scanner indexed them on the way, look them up once here and never again
+					for (int i = 0; i < ids.length; i++){
+						selection.add(scanned.get(i), ids[i]); // with the attributes the scan read, so nothing stats it again
+					}
+					if (!scanned.isEmpty()){
+						this.publish(selection.size());
+					}
+				}
+				return null;
 			}
-			// creating an ImageIcon and scaling the image according to IMG_HEIGHT
-			ImageIcon icon = new ImageIcon(img.getScaledInstance(-1, IMG_HEIGHT, BufferedImage.SCALE_SMOOTH));
-			icon.setDescription(file.getAbsolutePath()); // need to keep the filepath somewhere for later use
-			tableModel.addRow(new Object[]{file.getName(), icon}); // add the row to the model
-			if (!History.getLog().containsKey(file.getAbsolutePath())){ // if its a newly seen image...
-				History.addEvent((new Image(file.getName(), file, icon))); // create a new entry
+
+			@Override
+			protected void process(List<Integer> sizes) {
+				tableModel.update(); // adds a row for every file added since
 			}
-		}
+
+			@Override
+			protected void done() {
+				tableModel.update();
+				watchBox.setEnabled(pipeline.getRoot() != null); // only a finished tree can be watched
+				scanTimer.stop();
+				scanLabel.setText("Scanned " + pipeline.getEntriesScanned() + " files, found "
+						+ tableModel.getRowCount() + " images");
+				scanLabel.setToolTipText(pipeline.getStatistics()); // how fast the scan went
+				if (tableModel.isFiltered()){ // search the files found since it last ran too
+					searchTimer.restart();
+				}
+			}
+		};
 		
-		@SuppressWarnings("serial")
-		JTable imageTable = new JTable(tableModel)
-				{
-					// this makes the table have individual column types, so we can see our image rather than text
-					@SuppressWarnings({ "unchecked", "rawtypes" })
-					public Class getColumnClass(int column){
-						return getValueAt(0, column).getClass();
-					}
-				};
-		imageTable.setRowHeight(IMG_HEIGHT); // set the table row height to the standard image height
-		imageTable.setDefaultEditor(Object.class, null); // do not what user to edit the table
-		imageTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION); // able to select only one at a time
-		// these are ArrayLists rather than single variables so we have room to implement multiple row selection
+		// the first selected row, for its history; apply reads every selected row from the table itself
 		ArrayList<ImageIcon> selectedIcons = new ArrayList<ImageIcon>();
 		ArrayList<Integer> selectedRows = new ArrayList<Integer>();
+		AtomicReference<BatchTagger> tagging = new AtomicReference<BatchTagger>(); // the batch being renamed, if any
+		ArrayList<Runnable> afterTagging = new ArrayList<Runnable>(); // changes seen on disk while it was
+		
+		/*
+		
+		The query is parsed on the EDT, so a typo shows up at once and the last good filter stays.
+		The worker evaluates it on the tag index's bitmaps and then finds the rows of the matching
+		    files, the part that reads the whole selection. Only the latest search is shown, and
+		    one that raced a removal, which moves rows, is run again.
+		
+		*/
+		searchTimer.addActionListener(new ActionListener(){
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				String text = searchField.getText().trim();
+				if (text.isEmpty()){ // every image again
+					searching.set(null);
+					searchLabel.setText("");
+					if (tableModel.isFiltered()){
+						tableModel.setFilter(null);
+						selectedIcons.clear();
+						selectedRows.clear();
+					}
+					return;
+				}
+				TagQuery query;
+				try {
+					query = TagQuery.parse(text);
+				} catch (IllegalArgumentException i) {
+					searchLabel.setText(i.getMessage());
+					return;
+				}
+				searching.set(query);
+				int removals = tableModel.getRemovals();
+				new SwingWorker<int[], Void>(){
+
+					/** How long the query took, in nanoseconds, without finding the rows. */
+					private long queried;
+					/** How long the search took, in nanoseconds, finding the rows included. */
+					private long took;
+
+					@Override
+					protected int[] doInBackground() {
+						long start = System.nanoTime();
+						TagBitmap found = TagIndex.getInstance().search(query);
+						queried = System.nanoTime() - start;
+						int[] rows = ImageTableModel.filter(FileNode.getSelection(), TagIndex.getInstance(), found);
+						took = System.nanoTime() - start;
+						return rows;
+					}
+
+					@Override
+					protected void done() {
+						if (searching.get() != query){ // typed on since
+							return;
+						}
+						if (tableModel.getRemovals() != removals){ // the rows moved under it
+							searchTimer.restart();
+							return;
+						}
+						try {
+							int[] rows = this.get();
+							tableModel.setFilter(rows);
+							selectedIcons.clear(); // the table's selection is gone with its rows
+							selectedRows.clear();
+							messageBox.setText("Please select an image.");
+							searchLabel.setText(String.format("%d images match %s (%.2f ms)", rows.length, query, took / 1000000.0));
+							searchLabel.setToolTipText(String.format("%.2f ms for the query, %.2f ms for finding the rows",
+									queried / 1000000.0, (took - queried) / 1000000.0));
+						} catch (Exception x) {
+							searchLabel.setText("Could not search: " + x.getMessage());
+						}
+					}
+				}.execute();
+			}
+		});
+		searchField.getDocument().addDocumentListener(new DocumentListener(){
+
+			@Override
+			public void insertUpdate(DocumentEvent e) {
+				searchTimer.restart();
+			}
+
+			@Override
+			public void removeUpdate(DocumentEvent e) {
+				searchTimer.restart();
+			}
+
+			@Override
+			public void changedUpdate(DocumentEvent e) {
+				searchTimer.restart();
+			}
+		});
+		
 		imageTable.addMouseListener(new MouseListener() { // for whenever the user does something to the table
 			
 			@Override
@@ -117,17 +310,25 @@ public class ImageViewer implements WindowListener {
 				selectedIcons.clear(); // refresh since they clicked something else
 				selectedRows.clear();
 				JTable target = (JTable)e.getSource(); // get the source of the event
-				int[] rows = target.getSelectedRows(); // now get the selected rows (it'll only be one or nothing)
+				int[] rows = target.getSelectedRows(); // now get the selected rows (one, a few or all of them)
 				if (rows.length > 0){ // if they picked something, do something
-					messageBox.setText("You have selected an image. "
+					messageBox.setText(rows.length == 1 ? "You have selected an image. "
 							+ "You can add or remove tags on the right. "
-							+ "You can view its' history via the button below. ");
+							+ "You can view its' history via the button below. "
+							: "You have selected " + rows.length + " images. "
+							+ "You can add or remove tags on all of them on the right. ");
 					
+					// only the first row's icon is needed, the others may be far off screen without one
+					ImageIcon temp = (ImageIcon) imageTable.getValueAt(rows[0], 1); // get the cooresponding image
+					File file = new File(temp.getDescription());
+					if (!History.contains(tableModel.getNode(rows[0]))){ // first time anyone touched it...
+						History.addEvent(new Image(file.getName(), file, null)); // so it has an original to revert to
+					}
+					selectedIcons.add(temp);
 					for (int row : rows){ // go through each row
-						ImageIcon temp = (ImageIcon) imageTable.getValueAt(row, 1); // get the cooresponding image
-						selectedIcons.add(temp);
 						selectedRows.add(new Integer(row));
 					}
+					preview.setFile(file); // show the first one up close
 				}
 				else{ // they dont have anything selected / deselected stuff
 					messageBox.setText("Please select an image.");
@@ -138,12 +339,83 @@ public class ImageViewer implements WindowListener {
 			}
 		});
 		
+		/* WATCHING FOR CHANGES */
+		// new, deleted and renamed files are patched into the table instead of rescanning everything
+		DirectoryWatcher.Listener watchListener = new DirectoryWatcher.Listener(){
+
+			@Override
+			public void filesChanged(List<File> added, List<File> removed) {
+				SwingUtilities.invokeLater(new Runnable(){
+
+					@Override
+					public void run() {
+						if (tagging.get() != null){ // mostly our own renames, which the batch moves the rows for
+							afterTagging.add(this);
+							return;
+						}
+						boolean gone = tableModel.removeFiles(removed); // the whole batch in one pass over the selection
+						for (File file : removed){ // our own renames already moved on
+							TagIndex.getInstance().remove(file);
+						}
+						if (gone){ // the selected row may have moved
+							imageTable.clearSelection();
+							selectedIcons.clear();
+							selectedRows.clear();
+						}
+						for (File file : tableModel.absent(added)){ // not already showing, like the new name of our own tag rename
+							FileNode.getSelection().add(FileNode.detached(file), TagIndex.getInstance().add(file));
+						}
+						tableModel.update(); // unreadable files drop out once their icon is asked for
+						scanLabel.setText(tableModel.getRowCount() + " images, watching for changes");
+						if (tableModel.isFiltered()){ // the new files may match
+							searchTimer.restart();
+						}
+					}
+				});
+			}
+		};
+		watchBox.addActionListener(new ActionListener(){
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				if (watchBox.isSelected()){
+					try {
+						DirectoryWatcher started = new DirectoryWatcher(pipeline.getRoot(), pipeline.getFilter(), watchListener); // keeps to the scan's filter
+						started.start();
+						watcher.set(started);
+					} catch (IOException i) {
+						watchBox.setSelected(false);
+						messageBox.setText("Could not watch the directory for changes.");
+					}
+				}
+				else{
+					DirectoryWatcher stopped = watcher.getAndSet(null);
+					if (stopped != null){
+						stopped.close();
+					}
+				}
+			}
+		});
+		
 		/* ADDING SCROLL BAR TO IMAGES */
 		JScrollPane scrollPane = new JScrollPane(imageTable); // we want to scroll through all the images
 		scrollPane.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_NEVER); // no need for hor
 		scrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_ALWAYS); // only want vert
 	
-		imageFrame.add(scrollPane, BorderLayout.CENTER); // finally add the scroll pane which contains the imagePanel
+		scrollPane.getViewport().addChangeListener(new ChangeListener(){ // scrolled or resized
+
+			@Override
+			public void stateChanged(ChangeEvent e) {
+				Rectangle view = scrollPane.getViewport().getViewRect();
+				int first = imageTable.rowAtPoint(view.getLocation());
+				int last = imageTable.rowAtPoint(new Point(view.x, view.y + view.height - 1));
+				tableModel.setVisibleRows(first == -1 ? 0 : first, last == -1 ? tableModel.getRowCount() - 1 : last);
+			}
+		});
+	
+		JSplitPane splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, scrollPane, preview); // table left, preview right
+		splitPane.setResizeWeight(0.5);
+		imageFrame.add(splitPane, BorderLayout.CENTER); // finally add the split pane which contains the table and preview
 		
 		
 		/* CREATING BUTTONS */
@@ -155,6 +427,20 @@ public class ImageViewer implements WindowListener {
 
 			@Override
 			public void actionPerformed(ActionEvent arg0) {
+				pipeline.cancel(); // no need to keep scanning the old directory
+				BatchTagger batch = tagging.get(); // or renaming what is left of a batch
+				if (batch != null){
+					batch.cancel();
+				}
+				rowLoader.cancel(true);
+				cacheTimer.stop();
+				searchTimer.stop();
+				tableModel.shutdown();
+				preview.shutdown();
+				DirectoryWatcher stopped = watcher.getAndSet(null); // or watching it
+				if (stopped != null){
+					stopped.close();
+				}
 				imageFrame.dispose(); // get rid of current view
 				
 				DirectoryViewer.buildWindow(); // go back to the directory viewer
@@ -187,12 +473,28 @@ public class ImageViewer implements WindowListener {
 					);
 					if (version != null){
 						Image updatedImg = new Image(selectedFile.getName(), selectedFile, selectedIcon);
-						updatedImg = History.getInstance().revertBackTo(updatedImg, historyList.indexOf(version));
+						try {
+							updatedImg = History.getInstance().revertBackTo(updatedImg, historyList.indexOf(version));
+						} catch (FileAlreadyExistsException ex) {
+							messageBox.setText("Could not revert " + selectedFile.getName() + ", "
+									+ version.getFile().getName() + " already exists.");
+							return; // keeps its name and its history
+						} catch (NoSuchFileException ex) {
+							messageBox.setText("Could not revert " + selectedFile.getName() + ", it no longer exists.");
+							return;
+						} catch (IOException ex) {
+							messageBox.setText("Could not revert " + selectedFile.getName() + ": " + ex + ".");
+							return;
+						}
+						preview.renamed(selectedFile, updatedImg.getFile());
 						
 						imageTable.setValueAt(updatedImg.getFile().getName(), selectedRow, 0); // set new name
 						imageTable.setValueAt(updatedImg.getIcon(), selectedRow, 1); // set new imageicon
 						
 						messageBox.setText("Please select an image.");
+						if (tableModel.isFiltered()){ // its old tags may have been what matched
+							searchTimer.restart();
+						}
 					}
 					imageTable.clearSelection(); // de-select whatever they selected
 					selectedIcons.clear(); // same
@@ -205,6 +507,23 @@ public class ImageViewer implements WindowListener {
 		});
 		buttonPanel.add(historyButton); // add to the button panel
 		
+		// select all button, for tagging a whole event at once
+		JButton selectAllButton = new JButton("Select All");
+		selectAllButton.addActionListener(new ActionListener(){
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				imageTable.selectAll(); // the same as ctrl-A in the table
+				messageBox.setText("You have selected " + imageTable.getRowCount() + " images. "
+						+ "You can add or remove tags on all of them on the right. ");
+			}
+		});
+		buttonPanel.add(selectAllButton);
+		buttonPanel.add(tagProgress);
+		buttonPanel.add(scanLabel);
+		buttonPanel.add(watchBox);
+		buttonPanel.add(cacheLabel);
+		
 		imageFrame.add(buttonPanel, BorderLayout.SOUTH); // we want it on the bottom
 		
 		
@@ -212,8 +531,11 @@ public class ImageViewer implements WindowListener {
 		JPanel tagPanel = new JPanel(); // creating the general tag panel, holds tags and buttons
 		JPanel checkBoxPanel = new JPanel(new GridLayout(0, 1)); // for the checkboxes only, vertically
 		
-		for (Tag tag : TagHandler.getInstance().tags){ // go through all current tags
-			JCheckBox tagCheckBox = new JCheckBox(tag.getName()); // create a checkbox for it
+		TagDictionary dictionary = TagHandler.getDictionary(); // the tags by name and by id
+		HashMap<Integer, JCheckBox> tagBoxes = new HashMap<Integer, JCheckBox>(); // the checkbox of every tag, by its id
+		for (int tagId : dictionary.ids()){ // go through all current tags
+			JCheckBox tagCheckBox = new JCheckBox(dictionary.nameOf(tagId)); // create a checkbox for it
+			tagBoxes.put(tagId, tagCheckBox);
 			checkBoxPanel.add(tagCheckBox); // add to the panel
 		}
 		
@@ -238,6 +560,7 @@ public class ImageViewer implements WindowListener {
 						);
 				if(TagHandler.getInstance().createTag(tagName)){ // if we created a new tag...
 					JCheckBox newTag = new JCheckBox(tagName); // create a new checkbox
+					tagBoxes.put(TagHandler.getDictionary().idOf(tagName), newTag);
 					checkBoxPanel.add(newTag); // add to the checkbox panel
 					imageFrame.revalidate(); // refresh the frame cause we added something new!!
 				}
@@ -248,9 +571,10 @@ public class ImageViewer implements WindowListener {
 
 			@Override
 			public void actionPerformed(ActionEvent e) {
+				TagDictionary dictionary = TagHandler.getDictionary();
 				ArrayList<String> optionsA = new ArrayList<String>(); // arraylist of all tags
-				for (Tag tag : TagHandler.getInstance().tags){ // for every current tag...
-					optionsA.add(tag.getName()); // add to the arraylist, its name
+				for (int tagId : dictionary.ids()){ // for every current tag...
+					optionsA.add(dictionary.nameOf(tagId)); // add to the arraylist, its name
 				}
 				Object[] options = optionsA.toArray(); // but we need an array of object not arraylist, so convert
 				String tagName = (String)JOptionPane.showInputDialog( // make a dialog box
@@ -262,9 +586,9 @@ public class ImageViewer implements WindowListener {
 						options,                                // everything they can choose is here
 						"Select..."                            // pre-entered text
 						);
-				int tagIndex = TagHandler.getInstance().findTag(tagName); // get the index of the selected tag
-				if (tagName != null && tagIndex != -1){ // if they actually selected something...
-					checkBoxPanel.remove(tagIndex); // remove it from the panel
+				int tagId = dictionary.idOf(tagName); // get the id of the selected tag
+				if (tagName != null && tagId != -1){ // if they actually selected something...
+					checkBoxPanel.remove(tagBoxes.remove(tagId)); // remove its checkbox from the panel, wherever it is
 					TagHandler.getInstance().deleteTag(tagName); // delete it from the list of current tags
 					imageFrame.revalidate(); // refresh the frame!
 				}
@@ -275,36 +599,95 @@ public class ImageViewer implements WindowListener {
 
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				if (!selectedIcons.isEmpty()){ // if something is selected...
-					ImageIcon selectedIcon = selectedIcons.get(0); // this is an ImageIcon of selected image
-					File selectedFile = new File(selectedIcon.getDescription()); // get the file component
-					int selectedRow = selectedRows.get(0).intValue(); // get the row index that they selected
-					ArrayList<String> selectedBoxes = new ArrayList<String>(); // list for checked checkboxes
-					ArrayList<String> unselectedBoxes = new ArrayList<String>(); // list for unchecked checkboxes
-					for (Component checkbox : checkBoxPanel.getComponents()){ // go through everything in the panel
-						if (checkbox instanceof JCheckBox && ((JCheckBox) checkbox).isSelected()){ // if we're at a checkbox thats checked...
-							selectedBoxes.add(((AbstractButton) checkbox).getText()); // add to list
+				int[] rows = imageTable.getSelectedRows(); // every selected row, however it was selected
+				if (rows.length > 0 && tagging.get() == null){ // if something is selected, and no batch is running...
+					int[] tagIds = TagHandler.getDictionary().ids(); // every tag as they are now, in order
+					int[] selectedBoxes = new int[tagIds.length]; // the ids of the checked checkboxes
+					int[] unselectedBoxes = new int[tagIds.length]; // the ids of the unchecked checkboxes
+					int selected = 0;
+					int unselected = 0;
+					for (int tagId : tagIds){ // go through every tag
+						if (tagBoxes.get(tagId).isSelected()){ // if its checkbox is checked...
+							selectedBoxes[selected++] = tagId; // add to list
 						}
-						else if (checkbox instanceof JCheckBox && !((JCheckBox) checkbox).isSelected()){ // if we're at an unchecked checkbox...
-							unselectedBoxes.add(((AbstractButton) checkbox).getText()); // add to list
+						else{ // if it's unchecked...
+							unselectedBoxes[unselected++] = tagId; // add to list
 						}
 					}
-					Image oldImg = new Image(selectedFile.getName(), selectedFile, selectedIcon); //old image for comparison
-					Image updatedImg = new Image(selectedFile.getName(), selectedFile, selectedIcon); // new image
-					
-					updatedImg = TagHandler.getInstance().addTag(updatedImg, selectedBoxes); // add the tags and update the image object
-					updatedImg = TagHandler.getInstance().removeTag(updatedImg, unselectedBoxes); // same but remove tags
-					
-					if (!oldImg.getName().equals(updatedImg.getName())){ // if something was changed..
-						History.addEvent(updatedImg); // add to the history
+					selectedBoxes = Arrays.copyOf(selectedBoxes, selected);
+					unselectedBoxes = Arrays.copyOf(unselectedBoxes, unselected);
+					ArrayList<FileNode> files = new ArrayList<FileNode>();
+					for (int row : rows){
+						files.add(tableModel.getNode(row)); // with their attributes, to identify them by
 					}
+					BatchTagger batch = new BatchTagger(files, selectedBoxes, unselectedBoxes); // every new name first
+					tagging.set(batch);
+					applyButton.setEnabled(false);
+					tagProgress.setMaximum(batch.size());
+					tagProgress.setValue(0);
+					tagProgress.setVisible(true);
+					buttonPanel.revalidate();
+					Timer progressTimer = new Timer(SCAN_LABEL_DELAY, new ActionListener(){
+
+						@Override
+						public void actionPerformed(ActionEvent e) {
+							tagProgress.setValue(batch.getDone());
+						}
+					});
+					progressTimer.start();
 					
-					imageTable.setValueAt(updatedImg.getFile().getName(), selectedRow, 0); // set new name
-					imageTable.setValueAt(updatedImg.getIcon(), selectedRow, 1); // set new imageicon
-					
-					imageTable.clearSelection(); // de-select whatever they selected
-					selectedIcons.clear(); // same
-					selectedRows.clear(); // same
+					// the renames run on the batch's own threads, this worker only waits for them
+					new SwingWorker<Void, Void>(){
+
+						@Override
+						protected Void doInBackground() throws InterruptedException {
+							batch.run();
+							return null;
+						}
+
+						@Override
+						protected void done() {
+							progressTimer.stop();
+							ArrayList<Integer> renamedRows = new ArrayList<Integer>();
+							ArrayList<File> from = new ArrayList<File>();
+							ArrayList<File> to = new ArrayList<File>();
+							ArrayList<FileNode> toNodes = new ArrayList<FileNode>();
+							for (int i = 0; i < batch.size(); i++){
+								if (batch.isRenamed(i)){
+									renamedRows.add(rows[i]);
+									from.add(batch.getFile(i));
+									to.add(batch.getTarget(i));
+									toNodes.add(batch.getTargetNode(i));
+									preview.renamed(batch.getFile(i), batch.getTarget(i));
+								}
+							}
+							History.addEvents(from, toNodes); // one batch of events for the whole log
+							tableModel.renamed(renamedRows, from, to);
+							
+							tagging.set(null);
+							for (Runnable change : afterTagging){ // the files they name have moved on already
+								change.run();
+							}
+							afterTagging.clear();
+							tagProgress.setVisible(false);
+							applyButton.setEnabled(true);
+							if (tableModel.isFiltered()){ // the new tags may match, or not match any more
+								searchTimer.restart();
+							}
+							imageTable.clearSelection(); // de-select whatever they selected
+							selectedIcons.clear(); // same
+							selectedRows.clear(); // same
+							
+							List<String> errors = batch.getErrors();
+							messageBox.setText(batch + "."); // how many, how fast and how many failed
+							if (!errors.isEmpty()){ // name every file that kept its name, and why
+								JTextArea errorList = new JTextArea(String.join("\n", errors), 10, 50);
+								errorList.setEditable(false);
+								JOptionPane.showMessageDialog(imageFrame, new JScrollPane(errorList),
+										errors.size() + " images could not be renamed", JOptionPane.WARNING_MESSAGE);
+							}
+						}
+					}.execute();
 				}
 			}
 		});
@@ -324,6 +707,10 @@ public class ImageViewer implements WindowListener {
 		
 		imageFrame.pack(); // we're done, pack it all up
 		
+		scanTimer.start(); // start filling in the table
+		cacheTimer.start();
+		rowLoader.execute();
+		
 		/* SETTING UP WINDOWLISTENER */
 		ImageViewer i = new ImageViewer();
 		imageFrame.addWindowListener((WindowListener)i);
@@ -0,0 +1,83 @@
+package photo_renamer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Rewrites a log.ser from before Image stopped serializing its ImageIcon, dropping the pixel
+ * data of every version of every image, and reports how much smaller it got. The original file
+ * is kept next to it as log.ser.bak. Running it on a file that was already migrated does no harm.
+ *
+ * Usage: LogMigration [path to log.ser]   (defaults to the one History uses)
+ */
+public class LogMigration {
+
+	/**
+	 * Migrates the log.ser file.
+	 *
+	 * @param args
+	 *            optionally, the path of the log.ser file
+	 * @throws IOException
+	 *                    if the file can not be read or written
+	 * @throws ClassNotFoundException
+	 *                               if the file is not a History log
+	 */
+	@SuppressWarnings("unchecked")
+	public static void main(String[] args) throws IOException, ClassNotFoundException {
+		File log = new File(args.length > 0 ? args[0] : History.filePath);
+		if (!log.isFile()){
+			System.out.println("No log at " + log);
+			return;
+		}
+		long before = log.length();
+		long start = System.nanoTime();
+		HashMap<?, ArrayList<Image>> events;
+		Object locations = null;
+		try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(log)))){
+			events = (HashMap<?, ArrayList<Image>>) in.readObject(); // the icons are read and thrown away
+			try {
+				locations = in.readObject(); // only in logs keyed by FileId
+			} catch (EOFException e) {
+			}
+		}
+		long read = System.nanoTime() - start;
+
+		File temp = new File(log.getPath() + ".tmp");
+		start = System.nanoTime();
+		try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))){
+			out.writeObject(events);
+			if (locations != null){
+				out.writeObject(locations);
+			}
+		}
+		long written = System.nanoTime() - start;
+		File backup = new File(log.getPath() + ".bak");
+		if (!backup.exists()){ // a second run must not replace the original with a migrated copy
+			Files.copy(log.toPath(), backup.toPath());
+		}
+		Files.move(temp.toPath(), log.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		int versions = 0;
+		for (ArrayList<Image> history : events.values()){
+			versions += history.size();
+		}
+		long after = log.length();
+		System.out.println("Migrated " + log + ": " + events.size() + " images, " + versions + " versions");
+		System.out.println(String.format("  %,d bytes -> %,d bytes (%.1f%% smaller)", before, after,
+				before == 0 ? 0 : 100.0 * (before - after) / before));
+		System.out.println("  reading the old log took " + read / 1000000 + " ms, writing the new one "
+				+ written / 1000000 + " ms");
+		System.out.println("  the original log is kept as " + backup.getName());
+	}
+}
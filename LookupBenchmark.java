@@ -0,0 +1,121 @@
+package photo_renamer;
+
+import java.io.File;
+import java.util.ArrayList;
+
+/**
+ * Compares the cost of finding a node in deep and wide FileNode trees: the old full
+ * depth-first search, the per-component path walk of FileNode.findChild, and FileNodeIndex.
+ * The trees are built in memory only, nothing is read from disk.
+ *
+ * Usage: LookupBenchmark [depth] [width]   (defaults to 1000 and 100000)
+ */
+public class LookupBenchmark {
+
+	/** How many lookups are timed for each tree and method, enough for the JIT to kick in. */
+	private final static int LOOKUPS = 100000;
+	/** How many lookups are timed for the old full tree search, which is far slower. */
+	private final static int SLOW_LOOKUPS = 20;
+
+	/**
+	 * Builds a deep and a wide tree and prints the average lookup time of each method.
+	 *
+	 * @param args
+	 *            the depth of the deep tree and the number of files in the wide tree
+	 */
+	public static void main(String[] args) {
+		int depth = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int width = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+		File base = new File(System.getProperty("java.io.tmpdir"), "lookupbench").getAbsoluteFile();
+
+		// deep: a chain of directories, one file at the bottom
+		FileNode deep = new FileNode(base.getName(), base, null, FileType.DIRECTORY);
+		FileNode curr = deep;
+		for (int i = 0; i < depth; i++){
+			File dir = new File(curr.getFile(), "d" + i);
+			FileNode child = new FileNode(dir.getName(), dir, curr, FileType.DIRECTORY);
+			curr.addChild(dir, child);
+			curr = child;
+		}
+		File deepest = new File(curr.getFile(), "IMG_0.jpg");
+		curr.addChild(deepest, new FileNode(deepest.getName(), deepest, curr, FileType.FILE));
+		System.out.println("Deep tree, depth " + depth + ":");
+		benchmark(deep, deepest);
+
+		// wide: 100 directories side by side, the file we look for in the last one
+		FileNode wide = new FileNode(base.getName(), base, null, FileType.DIRECTORY);
+		File last = null;
+		for (int d = 0; d < 100; d++){
+			File dir = new File(base, "d" + d);
+			FileNode dirNode = new FileNode(dir.getName(), dir, wide, FileType.DIRECTORY);
+			wide.addChild(dir, dirNode);
+			for (int i = 0; i < width / 100; i++){
+				last = new File(dir, "IMG_" + i + ".jpg");
+				dirNode.addChild(last, new FileNode(last.getName(), last, dirNode, FileType.FILE));
+			}
+		}
+		System.out.println("Wide tree, " + width + " files:");
+		benchmark(wide, last);
+	}
+
+	/**
+	 * Times looking up target in the tree rooted at root with every method.
+	 *
+	 * @param root
+	 *            the root of the tree
+	 * @param target
+	 *              a file deep in the tree
+	 */
+	private static void benchmark(FileNode root, File target) {
+		ArrayList<String> found = new ArrayList<String>(); // keeps the JIT from dropping the lookups
+
+		long start = System.nanoTime();
+		for (int i = 0; i < SLOW_LOOKUPS; i++){
+			found.add(depthFirst(root, target).getName());
+		}
+		System.out.println("  full tree search:  " + (System.nanoTime() - start) / SLOW_LOOKUPS + " ns/lookup");
+
+		start = System.nanoTime();
+		for (int i = 0; i < LOOKUPS; i++){
+			found.add(root.findChild(target).getName());
+		}
+		System.out.println("  path walk:         " + (System.nanoTime() - start) / LOOKUPS + " ns/lookup");
+
+		long indexStart = System.nanoTime();
+		FileNodeIndex index = new FileNodeIndex(root);
+		long built = System.nanoTime() - indexStart;
+		start = System.nanoTime();
+		for (int i = 0; i < LOOKUPS; i++){
+			found.add(index.get(target).getName());
+		}
+		System.out.println("  FileNodeIndex:     " + (System.nanoTime() - start) / LOOKUPS + " ns/lookup"
+				+ " (built in " + built / 1000000 + " ms)");
+		if (found.size() != LOOKUPS * 2 + SLOW_LOOKUPS){
+			throw new IllegalStateException("lookups went missing");
+		}
+	}
+
+	/**
+	 * The search FileNode.findChild used to do: check the children, then every subtree.
+	 *
+	 * @param node
+	 *            the node to search underneath
+	 * @param file
+	 *            the file to search for
+	 * @return the node for file, or null if it is not in the tree
+	 */
+	private static FileNode depthFirst(FileNode node, File file) {
+		for (FileNode child : node.getChildren()){
+			if (child.getName().equals(file.getName()) && child.getFile().equals(file)){
+				return child;
+			}
+		}
+		for (FileNode child : node.getChildren()){
+			FileNode result = depthFirst(child, file);
+			if (result != null){
+				return result;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,398 @@
+package photo_renamer;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+/**
+ * Keeps thumbnails in memory as JPEG bytes in direct buffers, outside the Java heap, so a long
+ * session can keep thousands of them around without the garbage collector having to trace or
+ * copy any of it. A thumbnail is decoded back to an image only when its row is painted.
+ *
+ * The memory is allocated in slabs of SLAB_SIZE bytes, each cut into equal chunks of one size
+ * class, a power of 2 from MIN_CHUNK up, and a thumbnail takes a chunk of the smallest class it
+ * fits in. No more slabs are allocated than fit in the capacity, which is a hard cap. Once a
+ * class can not get another slab, its chunks are reused in clock order: a chunk read since the
+ * hand last passed it gets a second chance, the first one that was not is evicted. A size class
+ * that never got a slab before the cap was reached can hold nothing; thumbnails of one height
+ * all fall in one or two classes, so this does not happen in practice and is counted as rejected.
+ *
+ * Thread safe. Decoding and encoding are done outside the lock.
+ */
+public class OffHeapThumbnailCache {
+
+	/** How many bytes of thumbnails are kept, by default. */
+	public final static long DEFAULT_CAPACITY = 64L << 20;
+	/** The size of a slab. */
+	private final static int SLAB_SIZE = 1 << 20;
+	/** The size of the smallest chunk. */
+	private final static int MIN_CHUNK = 1 << 10;
+
+	/** A JPEG reader per thread, making one for every thumbnail costs more than decoding it. */
+	private final static ThreadLocal<ImageReader> READERS = new ThreadLocal<ImageReader>(){
+
+		@Override
+		protected ImageReader initialValue() {
+			return ImageIO.getImageReadersByFormatName("jpg").next();
+		}
+	};
+
+	/** A chunk of a slab, with the thumbnail in it. */
+	private final static class Chunk {
+
+		/** The slab the chunk is in. */
+		final ByteBuffer slab;
+		/** Where in the slab it starts. */
+		final int offset;
+		/** The file whose thumbnail it holds, or null if it is free. */
+		File file;
+		/** How many bytes of it the thumbnail takes. */
+		int length;
+		/** Whether it was read since the clock hand last passed it. */
+		boolean referenced;
+
+		/**
+		 * Initializes a free chunk.
+		 *
+		 * @param slab
+		 *            the slab it is in
+		 * @param offset
+		 *              where in the slab it starts
+		 */
+		Chunk(ByteBuffer slab, int offset) {
+			this.slab = slab;
+			this.offset = offset;
+		}
+	}
+
+	/** The chunks of one size class, and its clock hand. */
+	private final static class SizeClass {
+
+		/** The size of its chunks. */
+		final int chunkSize;
+		/** Its chunks, in the order the clock hand visits them. */
+		final ArrayList<Chunk> chunks = new ArrayList<Chunk>();
+		/** Its chunks that hold nothing. */
+		final ArrayList<Chunk> free = new ArrayList<Chunk>();
+		/** The next chunk the clock hand looks at. */
+		int hand;
+
+		/**
+		 * Initializes an empty size class.
+		 *
+		 * @param chunkSize
+		 *                 the size of its chunks
+		 */
+		SizeClass(int chunkSize) {
+			this.chunkSize = chunkSize;
+		}
+	}
+
+	/** How many bytes of slabs may be allocated. */
+	private final long capacity;
+	/** The size classes, from MIN_CHUNK up to SLAB_SIZE. */
+	private final SizeClass[] classes;
+	/** The chunk holding each file's thumbnail. */
+	private final HashMap<File, Chunk> index = new HashMap<File, Chunk>();
+	/** How many slabs are allocated. */
+	private int slabs;
+	/** How many bytes the stored thumbnails take. */
+	private long bytes;
+	/** How many thumbnails were found. */
+	private long hits;
+	/** How many thumbnails were not found. */
+	private long misses;
+	/** How many thumbnails were evicted to make room. */
+	private long evictions;
+	/** How many thumbnails could not be stored at all. */
+	private long rejected;
+
+	/**
+	 * Initializes a cache with the default capacity.
+	 */
+	public OffHeapThumbnailCache() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Initializes an empty cache. No memory is allocated until thumbnails are stored.
+	 *
+	 * @param capacity
+	 *                how many bytes of memory to use at most, outside the heap
+	 */
+	public OffHeapThumbnailCache(long capacity) {
+		this.capacity = capacity;
+		int count = Integer.numberOfTrailingZeros(SLAB_SIZE / MIN_CHUNK) + 1;
+		this.classes = new SizeClass[count];
+		for (int i = 0; i < count; i++){
+			classes[i] = new SizeClass(MIN_CHUNK << i);
+		}
+	}
+
+	/**
+	 * Encodes a thumbnail and stores it under file, replacing what was there.
+	 *
+	 * @param file
+	 *            the image file the thumbnail is of
+	 * @param thumbnail
+	 *                 the thumbnail
+	 */
+	public void put(File file, BufferedImage thumbnail) {
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		try {
+			if (!ImageIO.write(thumbnail, "jpg", encoded)){
+				return;
+			}
+		} catch (IOException e) { // only written to memory, so never
+			return;
+		}
+		int length = encoded.size();
+		synchronized (this){
+			this.remove(file);
+			SizeClass sizeClass = this.classOf(length);
+			Chunk chunk = sizeClass == null ? null : this.allocate(sizeClass);
+			if (chunk == null){ // bigger than a slab, or no room for its class
+				rejected++;
+				return;
+			}
+			ByteBuffer target = chunk.slab.duplicate(); // the position is not shared with readers
+			target.position(chunk.offset);
+			target.put(encoded.toByteArray(), 0, length);
+			chunk.file = file;
+			chunk.length = length;
+			chunk.referenced = false;
+			index.put(file, chunk);
+			bytes += length;
+		}
+	}
+
+	/**
+	 * Returns the thumbnail stored under file, decoded.
+	 *
+	 * @param file
+	 *            the image file
+	 * @return the thumbnail, or null if there is none
+	 */
+	public BufferedImage get(File file) {
+		byte[] encoded;
+		synchronized (this){
+			Chunk chunk = index.get(file);
+			if (chunk == null){
+				misses++;
+				return null;
+			}
+			hits++;
+			chunk.referenced = true;
+			encoded = new byte[chunk.length];
+			ByteBuffer source = chunk.slab.duplicate();
+			source.position(chunk.offset);
+			source.get(encoded);
+		}
+		ImageReader reader = READERS.get();
+		try (ImageInputStream in = new MemoryCacheImageInputStream(new ByteArrayInputStream(encoded))){
+			reader.setInput(in, true, true);
+			return reader.read(0);
+		} catch (IOException e) { // we wrote it ourselves, so never
+			return null;
+		} finally {
+			reader.setInput(null);
+		}
+	}
+
+	/**
+	 * Returns whether a thumbnail is stored under file.
+	 *
+	 * @param file
+	 *            the image file
+	 * @return whether get would find it
+	 */
+	public synchronized boolean contains(File file) {
+		return index.containsKey(file);
+	}
+
+	/**
+	 * Moves the thumbnail stored under from to to, after the file was renamed.
+	 *
+	 * @param from
+	 *            the old name of the file
+	 * @param to
+	 *          the new name
+	 */
+	public synchronized void rename(File from, File to) {
+		Chunk chunk = index.remove(from);
+		if (chunk != null){
+			this.remove(to);
+			chunk.file = to;
+			index.put(to, chunk);
+		}
+	}
+
+	/**
+	 * Forgets the thumbnail stored under file, if any.
+	 *
+	 * @param file
+	 *            the image file
+	 */
+	public synchronized void remove(File file) {
+		Chunk chunk = index.remove(file);
+		if (chunk != null){
+			bytes -= chunk.length;
+			chunk.file = null;
+			this.classOf(chunk.length).free.add(chunk);
+		}
+	}
+
+	/**
+	 * Returns the smallest size class length bytes fit in.
+	 *
+	 * @param length
+	 *              the size of a thumbnail
+	 * @return the size class, or null if it is bigger than a slab
+	 */
+	private SizeClass classOf(int length) {
+		for (SizeClass sizeClass : classes){
+			if (length <= sizeClass.chunkSize){
+				return sizeClass;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Finds a chunk of a size class to store a thumbnail in: a free one, one of a new slab while
+	 * under capacity, or else the one the clock hand evicts.
+	 *
+	 * @param sizeClass
+	 *                 the size class
+	 * @return the chunk, or null if the class has no chunks and no slab can be allocated
+	 */
+	private Chunk allocate(SizeClass sizeClass) {
+		if (!sizeClass.free.isEmpty()){
+			return sizeClass.free.remove(sizeClass.free.size() - 1);
+		}
+		if ((long) (slabs + 1) * SLAB_SIZE <= capacity){
+			ByteBuffer slab = ByteBuffer.allocateDirect(SLAB_SIZE);
+			slabs++;
+			for (int offset = 0; offset + sizeClass.chunkSize <= SLAB_SIZE; offset += sizeClass.chunkSize){
+				Chunk chunk = new Chunk(slab, offset);
+				sizeClass.chunks.add(chunk);
+				sizeClass.free.add(chunk);
+			}
+			return sizeClass.free.remove(sizeClass.free.size() - 1);
+		}
+		if (sizeClass.chunks.isEmpty()){
+			return null;
+		}
+		while (true){ // every chunk is taken, the free list is empty
+			Chunk chunk = sizeClass.chunks.get(sizeClass.hand);
+			sizeClass.hand = (sizeClass.hand + 1) % sizeClass.chunks.size();
+			if (chunk.referenced){
+				chunk.referenced = false; // a second chance
+			}
+			else{
+				index.remove(chunk.file);
+				bytes -= chunk.length;
+				chunk.file = null;
+				evictions++;
+				return chunk;
+			}
+		}
+	}
+
+	/**
+	 * Forgets every thumbnail and lets go of the memory.
+	 */
+	public synchronized void clear() {
+		index.clear();
+		for (SizeClass sizeClass : classes){
+			sizeClass.chunks.clear();
+			sizeClass.free.clear();
+			sizeClass.hand = 0;
+		}
+		slabs = 0; // freed once the buffers are collected
+		bytes = 0;
+	}
+
+	/**
+	 * Returns how many thumbnails are stored.
+	 *
+	 * @return the number of thumbnails
+	 */
+	public synchronized int size() {
+		return index.size();
+	}
+
+	/**
+	 * Returns how many bytes the stored thumbnails take.
+	 *
+	 * @return the size in bytes
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Returns how much memory is allocated outside the heap.
+	 *
+	 * @return the size of the slabs in bytes
+	 */
+	public synchronized long getAllocated() {
+		return (long) slabs * SLAB_SIZE;
+	}
+
+	/**
+	 * Returns how many thumbnails were found.
+	 *
+	 * @return the number of hits
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns how many thumbnails were not found.
+	 *
+	 * @return the number of misses
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Returns how many thumbnails were evicted to make room.
+	 *
+	 * @return the number of evictions
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Returns how many thumbnails could not be stored.
+	 *
+	 * @return the number of rejected thumbnails
+	 */
+	public synchronized long getRejected() {
+		return rejected;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public synchronized String toString(){
+		return "Off-heap thumbnails: " + index.size() + " (" + bytes / 1024 + " KB in " + this.getAllocated() / 1024
+				+ " of " + capacity / 1024 + " KB), " + hits + " hits, " + misses + " misses, " + evictions
+				+ " evictions, " + rejected + " rejected";
+	}
+}
@@ -0,0 +1,399 @@
+package photo_renamer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Builds the same FileNode tree as FileNode.buildTree, but lists sibling directories
+ * in parallel on a work-stealing fork/join pool. Directories are read with a DirectoryStream
+ * and the attributes of every entry are read once and kept on its FileNode.
+ */
+public class ParallelTreeScanner {
+
+	/** The parallelism used when none is given, one worker per available core. */
+	public final static int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+	/** How many worker threads the fork/join pool may use. */
+	private final int parallelism;
+	/** How many files and directories the last scan has looked at. */
+	private final AtomicLong entriesScanned = new AtomicLong();
+	/** How long the last scan took, in nanoseconds. */
+	private long elapsedNanos;
+	/** Where the node of every image file found is published as soon as it is found, or null. */
+	private BlockingQueue<FileNode> sink;
+	/** Whether the running scan was asked to stop early. */
+	private volatile boolean cancelled;
+	/** Cached directory contents to reuse and update, or null to list everything. */
+	private ScanCache cache;
+	/** Which directories to go into and which image files to keep, or null for all of them. */
+	private ScanFilter filter;
+	/** Where the tags of every image file found are indexed, or null. */
+	private TagIndex index;
+	/** The root of the running scan, what the filter's path globs are relative to. */
+	private Path rootPath;
+
+	/**
+	 * Initializes a scanner using DEFAULT_PARALLELISM workers.
+	 */
+	public ParallelTreeScanner() {
+		this(DEFAULT_PARALLELISM);
+	}
+
+	/**
+	 * Initializes a scanner with the given parallelism level.
+	 *
+	 * @param parallelism
+	 *                   the number of worker threads to scan with, at least 1
+	 */
+	public ParallelTreeScanner(int parallelism) {
+		if (parallelism < 1){
+			throw new IllegalArgumentException("parallelism must be at least 1, was " + parallelism);
+		}
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Creates a root node for file and builds the tree underneath it.
+	 *
+	 * @param file
+	 *            the file or directory to scan
+	 * @return the root FileNode of the built tree
+	 */
+	public FileNode scan(File file) {
+		FileNode root = new FileNode(file.getName(), file, null, FileType.DIRECTORY); // start with root
+		this.scan(file, root);
+		return root;
+	}
+
+	/**
+	 * Builds the tree of nodes rooted at file, exactly like FileNode.buildTree does.
+	 *
+	 * @param file
+	 *            the file or directory we are building
+	 * @param curr
+	 *            the node representing file
+	 */
+	public void scan(File file, FileNode curr) {
+		entriesScanned.set(0);
+		cancelled = false;
+		long start = System.nanoTime();
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			rootPath = file.toPath();
+			pool.invoke(new ScanTask(file, curr, 0));
+		} finally {
+			pool.shutdown(); // the pool is only good for this one scan
+		}
+		elapsedNanos = System.nanoTime() - start;
+	}
+
+	/**
+	 * Sets a queue that the node of every image file is put into as soon as the scan finds it,
+	 * so it can be consumed while the scan is still running. The nodes come with the attributes
+	 * the scan read. Workers block while it is full.
+	 *
+	 * @param sink
+	 *            the queue to publish image file nodes to, or null to not publish them
+	 */
+	public void setSink(BlockingQueue<FileNode> sink) {
+		this.sink = sink;
+	}
+
+	/**
+	 * Sets a tag index that every image file is added to as soon as the scan finds it.
+	 *
+	 * @param index
+	 *             the index to add image files to, or null to not index them
+	 */
+	public void setIndex(TagIndex index) {
+		this.index = index;
+	}
+
+	/**
+	 * Sets a scan cache: directories that have not changed since they were cached are
+	 * not listed again, and everything listed is recorded in it.
+	 *
+	 * @param cache
+	 *             the cache to use, or null to list every directory
+	 */
+	public void setCache(ScanCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Sets a filter that is checked during the walk: rejected directories are never listed
+	 * and rejected image files are left out of the tree.
+	 *
+	 * @param filter
+	 *              the filter to apply, or null to keep everything
+	 */
+	public void setFilter(ScanFilter filter) {
+		this.filter = filter;
+	}
+
+	/**
+	 * Returns the filter checked during the walk.
+	 *
+	 * @return the filter, or null if everything is kept
+	 */
+	public ScanFilter getFilter() {
+		return filter;
+	}
+
+	/**
+	 * Returns whether the last scan was cancelled before it finished.
+	 *
+	 * @return whether the last scan was cancelled
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Asks the running scan to stop early. The tree is left with whatever was found so far.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Returns the parallelism level of this scanner.
+	 *
+	 * @return the number of worker threads
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Returns the number of files and directories looked at during the last scan.
+	 *
+	 * @return the number of scanned entries
+	 */
+	public long getEntriesScanned() {
+		return entriesScanned.get();
+	}
+
+	/**
+	 * Returns how long the last scan took.
+	 *
+	 * @return the duration of the last scan in milliseconds
+	 */
+	public long getElapsedMillis() {
+		return elapsedNanos / 1000000;
+	}
+
+	/**
+	 * Returns the throughput of the last scan.
+	 *
+	 * @return the number of entries scanned per second, or 0 if nothing was scanned yet
+	 */
+	public double getEntriesPerSecond() {
+		if (elapsedNanos == 0){
+			return 0;
+		}
+		return entriesScanned.get() * 1e9 / elapsedNanos;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString(){
+		return "Scanned " + this.getEntriesScanned() + " entries in " + this.getElapsedMillis() + " ms ("
+				+ Math.round(this.getEntriesPerSecond()) + " entries/s, parallelism " + parallelism + ")";
+	}
+
+	/**
+	 * Turns the attributes of a listed entry into a cache entry.
+	 *
+	 * @param name
+	 *            the name of the entry
+	 * @param attrs
+	 *             its attributes
+	 * @return the cache entry
+	 */
+	private static ScanCache.Entry toEntry(String name, BasicFileAttributes attrs) {
+		return new ScanCache.Entry(name, attrs.isDirectory(), attrs.size(), attrs.lastModifiedTime().toMillis(),
+				FileNode.keyOf(attrs));
+	}
+
+	/**
+	 * Reads the attributes of path onto node, leaving them unset if they can not be read.
+	 *
+	 * @param node
+	 *            the node to fill in
+	 * @param path
+	 *            the path of the node's file
+	 */
+	private static void setAttributes(FileNode node, Path path) {
+		try {
+			node.setAttributes(Files.readAttributes(path, BasicFileAttributes.class));
+		} catch (IOException e) {
+			// the attributes stay at -1, the node is still usable
+		}
+	}
+
+	/**
+	 * Lists one directory and forks a new task for every subdirectory found.
+	 * Each task is the only one adding children to its own node, so the nodes need no locking.
+	 */
+	@SuppressWarnings("serial")
+	private class ScanTask extends RecursiveAction {
+
+		/** The directory (or single file) this task lists. */
+		private final File file;
+		/** The node representing file. */
+		private final FileNode curr;
+		/** How many levels below the root file is. */
+		private final int depth;
+
+		private ScanTask(File file, FileNode curr, int depth) {
+			this.file = file;
+			this.curr = curr;
+			this.depth = depth;
+		}
+
+		@Override
+		protected void compute() {
+			if (!file.isDirectory()){ // a single file was selected
+				entriesScanned.incrementAndGet();
+				FileNode child = new FileNode(file.getName(), file, curr, FileType.FILE);
+				setAttributes(child, file.toPath());
+				curr.addChild(file, child);
+				publish(child);
+				return;
+			}
+			ArrayList<ScanTask> subtasks = new ArrayList<ScanTask>();
+			long dirModified = -1;
+			if (cache != null){ // stat the directory itself, what its parent saw may be from the cache
+				try {
+					BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+					curr.setAttributes(attrs);
+					dirModified = attrs.lastModifiedTime().toMillis();
+				} catch (IOException e) {
+					// no time to compare, it just gets listed
+				}
+				ScanCache.Directory cached = cache.lookup(file, dirModified);
+				if (cached != null){ // nothing was added, removed or renamed in here since last time
+					this.restore(cached, subtasks);
+					entriesScanned.addAndGet(cached.entries.length);
+					if (!cancelled){
+						invokeAll(subtasks);
+					}
+					return;
+				}
+			}
+			ArrayList<ScanCache.Entry> entries = cache == null ? null : new ArrayList<ScanCache.Entry>();
+			int listed = 0; // counted locally so the workers do not fight over entriesScanned
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(file.toPath())) {
+				for (Path path : stream){ // go through all sub-files/directories
+					listed++;
+					BasicFileAttributes attrs;
+					try {
+						attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS); // the only stat
+					} catch (IOException e) {
+						continue; // vanished or unreadable, skip it like listFiles would
+					}
+					String name = path.getFileName().toString();
+					if (attrs.isDirectory()){ // add as a child and let another task fill it in
+						if (entries != null){ // the cache keeps everything, the filter is applied on top
+							entries.add(ParallelTreeScanner.toEntry(name, attrs));
+						}
+						if (filter == null || filter.acceptsDirectory(rootPath, path, depth + 1)){ // pruned unlisted
+							File element = path.toFile();
+							FileNode child = new FileNode(name, element, curr, FileType.DIRECTORY);
+							child.setAttributes(attrs);
+							curr.addChild(element, child);
+							subtasks.add(new ScanTask(element, child, depth + 1));
+						}
+					}
+					else if (FileNode.isImage(name)){ // this is an image file then
+						if (entries != null){
+							entries.add(ParallelTreeScanner.toEntry(name, attrs));
+						}
+						if (filter == null || filter.acceptsFile(rootPath, path, attrs.size(), attrs.lastModifiedTime().toMillis())){
+							File element = path.toFile();
+							FileNode child = new FileNode(name, element, curr, FileType.FILE);
+							child.setAttributes(attrs);
+							curr.addChild(element, child);
+							publish(child);
+						}
+					}
+				}
+				if (entries != null){ // only complete listings are worth remembering
+					cache.record(file, dirModified, entries);
+				}
+			} catch (IOException | DirectoryIteratorException e) {
+				// unreadable directory, keep whatever was listed before the failure
+			}
+			entriesScanned.addAndGet(listed);
+			if (cancelled){ // nobody wants the rest of the tree, stop descending
+				return;
+			}
+			invokeAll(subtasks); // siblings are scanned in parallel, idle workers steal them
+		}
+
+		/**
+		 * Fills in curr from its cached contents instead of listing it.
+		 *
+		 * @param cached
+		 *              the cached contents of file
+		 * @param subtasks
+		 *                where to add a task for every subdirectory
+		 */
+		private void restore(ScanCache.Directory cached, ArrayList<ScanTask> subtasks) {
+			for (ScanCache.Entry entry : cached.entries){
+				File element = new File(file, entry.name);
+				if (filter != null && (entry.directory
+						? !filter.acceptsDirectory(rootPath, element.toPath(), depth + 1)
+						: !filter.acceptsFile(rootPath, element.toPath(), entry.size, entry.lastModified))){
+					continue; // cached, but filtered out this time
+				}
+				FileNode child = new FileNode(entry.name, element, curr, entry.directory ? FileType.DIRECTORY : FileType.FILE);
+				child.setAttributes(entry.size, entry.lastModified, entry.fileKey);
+				curr.addChild(element, child);
+				if (entry.directory){ // still has to be checked, it may have changed on its own
+					subtasks.add(new ScanTask(element, child, depth + 1));
+				}
+				else{
+					publish(child);
+				}
+			}
+		}
+
+		/**
+		 * Puts the node of an image file into the sink, if there is one.
+		 *
+		 * @param element
+		 *               the node of the image file that was found, its attributes set
+		 */
+		private void publish(FileNode element) {
+			if (index != null){ // its tags are searchable before it even has a row
+				index.add(element.getFile());
+			}
+			if (sink == null){
+				return;
+			}
+			try {
+				while (!cancelled && !sink.offer(element, 100, TimeUnit.MILLISECONDS)){
+					// the queue is full, wait for the consumer to catch up
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
@@ -0,0 +1,289 @@
+package photo_renamer;
+
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+import javax.swing.SwingUtilities;
+
+/**
+ * Measures the PreviewPane on a very large JPEG: how long frames take while zooming in and
+ * panning across the image at full resolution, how long the pane takes to turn sharp after a
+ * move, and how far the heap grows, next to reading the whole image with ImageIO.read.
+ *
+ * Usage: PreviewBenchmark [JPEG]   (defaults to a generated 80 MP photo)
+ * Run it with -Xmx96m to see ImageIO.read run out of memory where the pane does not.
+ */
+public class PreviewBenchmark {
+
+	/** The size of the generated photo. */
+	private final static int WIDTH = 10000, HEIGHT = 8000;
+	/** The size of the pane. */
+	private final static int PANE_WIDTH = 800, PANE_HEIGHT = 600;
+	/** How many frames each pan takes, and how far each frame moves, in screen pixels. */
+	private final static int PAN_FRAMES = 100, PAN_STEP = 40;
+	/** How many mouse wheel notches zooming all the way in takes. */
+	private final static int ZOOM_FRAMES = 30;
+
+	/**
+	 * Runs the benchmark on the given or a generated JPEG.
+	 *
+	 * @param args
+	 *            optionally, the JPEG to use
+	 * @throws Exception
+	 *                  if the photo can not be generated or the pane fails
+	 */
+	public static void main(String[] args) throws Exception {
+		File photo;
+		boolean generated = args.length == 0;
+		if (generated){
+			photo = Files.createTempFile("previewbench", ".jpg").toFile();
+			System.out.println("Generating a " + WIDTH + "x" + HEIGHT + " photo at " + photo);
+			writePhoto(photo);
+		}
+		else{
+			photo = new File(args[0]);
+		}
+		System.out.println(photo.length() / 1048576 + " MB on disk");
+		try {
+			fullRead(photo);
+			preview(photo);
+		} finally {
+			if (generated){
+				photo.delete();
+			}
+		}
+	}
+
+	/**
+	 * Reads the whole image the obvious way and reports the time and heap it took.
+	 *
+	 * @param photo
+	 *             the JPEG
+	 * @throws IOException
+	 *                    if it can not be read
+	 */
+	private static void fullRead(File photo) throws IOException {
+		resetPeakHeap();
+		long before = usedHeap();
+		long start = System.nanoTime();
+		try {
+			BufferedImage img = ImageIO.read(photo);
+			System.out.println(String.format("  ImageIO.read: %d ms, peak heap %.0f MB for a %dx%d image",
+					(System.nanoTime() - start) / 1000000, (peakHeap() - before) / 1048576.0, img.getWidth(),
+					img.getHeight()));
+		} catch (OutOfMemoryError e) {
+			System.out.println("  ImageIO.read: out of memory after " + (System.nanoTime() - start) / 1000000 + " ms");
+		}
+	}
+
+	/**
+	 * Opens the photo in a pane, zooms all the way in, pans right, down and back, and zooms out,
+	 * painting every frame right away like a drag would.
+	 *
+	 * @param photo
+	 *             the JPEG
+	 * @throws Exception
+	 *                  if the pane fails
+	 */
+	private static void preview(File photo) throws Exception {
+		resetPeakHeap();
+		long before = usedHeap();
+		PreviewPane pane = new PreviewPane();
+		BufferedImage screen = new BufferedImage(PANE_WIDTH, PANE_HEIGHT, BufferedImage.TYPE_INT_RGB);
+		long start = System.nanoTime();
+		SwingUtilities.invokeAndWait(new Runnable(){
+
+			@Override
+			public void run() {
+				pane.setSize(PANE_WIDTH, PANE_HEIGHT);
+				pane.setFile(photo);
+			}
+		});
+		settle(pane, screen);
+		System.out.println("  overview shown after " + (System.nanoTime() - start) / 1000000 + " ms");
+
+		long settled = 0;
+		Point center = new Point(PANE_WIDTH / 2, PANE_HEIGHT / 2);
+		for (int i = 0; i < ZOOM_FRAMES; i++){
+			frame(pane, screen, new Runnable(){
+
+				@Override
+				public void run() {
+					pane.zoom(1.25, center);
+				}
+			});
+		}
+		settled += settle(pane, screen);
+		int[][] moves = {{-PAN_STEP, 0}, {0, -PAN_STEP}, {PAN_STEP, 0}, {0, PAN_STEP}};
+		for (int[] move : moves){
+			for (int i = 0; i < PAN_FRAMES; i++){
+				frame(pane, screen, new Runnable(){
+
+					@Override
+					public void run() {
+						pane.pan(move[0], move[1]);
+					}
+				});
+			}
+			settled += settle(pane, screen);
+		}
+		for (int i = 0; i < ZOOM_FRAMES; i++){
+			frame(pane, screen, new Runnable(){
+
+				@Override
+				public void run() {
+					pane.zoom(1 / 1.25, center);
+				}
+			});
+		}
+		settled += settle(pane, screen);
+		long peak = peakHeap() - before;
+		System.gc();
+		long retained = usedHeap() - before;
+		SwingUtilities.invokeAndWait(new Runnable(){
+
+			@Override
+			public void run() {
+				System.out.println("  " + pane);
+				pane.shutdown();
+			}
+		});
+		System.out.println(String.format("  sharp %d ms after a move on average, peak heap %.0f MB, %.0f MB retained",
+				settled / 6 / 1000000, peak / 1048576.0, retained / 1048576.0));
+	}
+
+	/**
+	 * Moves the pane and paints it on the event dispatch thread.
+	 *
+	 * @param pane
+	 *            the pane
+	 * @param screen
+	 *              where to paint it
+	 * @param move
+	 *            what to do to the pane first
+	 * @throws InvocationTargetException
+	 *                                  if the move or the paint fails
+	 * @throws InterruptedException
+	 *                             if interrupted while waiting for the event dispatch thread
+	 */
+	private static void frame(PreviewPane pane, BufferedImage screen, Runnable move)
+			throws InvocationTargetException, InterruptedException {
+		SwingUtilities.invokeAndWait(new Runnable(){
+
+			@Override
+			public void run() {
+				move.run();
+				Graphics2D g = screen.createGraphics();
+				pane.paint(g);
+				g.dispose();
+			}
+		});
+	}
+
+	/**
+	 * Repaints the pane until no tiles are missing.
+	 *
+	 * @param pane
+	 *            the pane
+	 * @param screen
+	 *              where to paint it
+	 * @return how long it took, in nanoseconds
+	 * @throws InvocationTargetException
+	 *                                  if a paint fails
+	 * @throws InterruptedException
+	 *                             if interrupted while waiting
+	 */
+	private static long settle(PreviewPane pane, BufferedImage screen)
+			throws InvocationTargetException, InterruptedException {
+		long start = System.nanoTime();
+		boolean[] sharp = new boolean[1];
+		while (!sharp[0]){
+			Thread.sleep(5);
+			frame(pane, screen, new Runnable(){
+
+				@Override
+				public void run() {
+					sharp[0] = pane.isSharp();
+				}
+			});
+		}
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Collects the heap and resets the peak usage of every heap pool.
+	 */
+	private static void resetPeakHeap() {
+		System.gc();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()){
+			if (pool.getType() == MemoryType.HEAP){
+				pool.resetPeakUsage();
+			}
+		}
+	}
+
+	/**
+	 * Returns the heap in use.
+	 *
+	 * @return the used bytes of every heap pool
+	 */
+	private static long usedHeap() {
+		long used = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()){
+			if (pool.getType() == MemoryType.HEAP){
+				used += pool.getUsage().getUsed();
+			}
+		}
+		return used;
+	}
+
+	/**
+	 * Returns the peak heap since the last reset.
+	 *
+	 * @return the peak bytes of every heap pool
+	 */
+	private static long peakHeap() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()){
+			if (pool.getType() == MemoryType.HEAP){
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+
+	/**
+	 * Writes a noisy gradient as a JPEG.
+	 *
+	 * @param file
+	 *            where to write it
+	 * @throws IOException
+	 *                    if it can not be written
+	 */
+	private static void writePhoto(File file) throws IOException {
+		BufferedImage photo = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+		byte[] pixels = ((DataBufferByte) photo.getRaster().getDataBuffer()).getData();
+		Random random = new Random(0);
+		int i = 0;
+		for (int y = 0; y < HEIGHT; y++){
+			for (int x = 0; x < WIDTH; x++){
+				int noise = random.nextInt(32); // so it compresses like a photo, not like a flat colour
+				pixels[i++] = (byte) (x * 255 / WIDTH);
+				pixels[i++] = (byte) (y * 255 / HEIGHT);
+				pixels[i++] = (byte) (((x / 500 + y / 500) % 2) * 128 + noise); // a checkerboard to pan across
+			}
+		}
+		ImageIO.write(photo, "jpg", file);
+	}
+}
@@ -0,0 +1,746 @@
+package photo_renamer;
+
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.JComponent;
+import javax.swing.SwingUtilities;
+
+/**
+ * Shows one image at any zoom, from fitting the pane down to single pixels, without ever
+ * decoding all of it. A small overview is decoded once per image. Closer in, the image is cut
+ * into tiles that are decoded on a background thread, only for the part on screen and only at
+ * the resolution the zoom needs, using the reader's source region and subsampling. Until a
+ * tile arrives its part of the overview is drawn scaled up, so painting never waits for a
+ * decode, and tiles scrolled out of view before their turn are skipped.
+ *
+ * Decoded tiles are kept in a least recently used cache under a byte budget, so the memory
+ * taken is the budget plus the overview whatever the size of the image.
+ *
+ * Drag to pan, use the mouse wheel to zoom and double click to fit the image to the pane.
+ * Only used on the event dispatch thread.
+ */
+@SuppressWarnings("serial")
+public class PreviewPane extends JComponent {
+
+	/** How many bytes of tiles are kept, by default. */
+	public final static long DEFAULT_BUDGET = 48L << 20;
+	/** The width and height of a tile, in decoded pixels. */
+	private final static int TILE = 256;
+	/** The longest side of the overview, in pixels. */
+	private final static int OVERVIEW = 1024;
+	/** The closest zoom, in screen pixels per image pixel. */
+	private final static double MAX_ZOOM = 4;
+	/** How much one notch of the mouse wheel zooms. */
+	private final static double ZOOM_STEP = 1.25;
+
+	/** How many bytes of tiles may be kept. */
+	private final long budget;
+	/** Decodes the overview and the tiles, one at a time. */
+	private final ExecutorService decoder;
+	/** The image shown, or null. */
+	private File file;
+	/** Counts the images shown, so decodes for an earlier one are thrown away. */
+	private int generation;
+	/** The size of the image, 0 until its overview is decoded. */
+	private int imageWidth, imageHeight;
+	/** The whole image at low resolution, drawn where tiles are missing. */
+	private BufferedImage overview;
+	/** How many image pixels one overview pixel stands for, in each direction. */
+	private int overviewSubsampling;
+	/** Screen pixels per image pixel. */
+	private double zoom = 1;
+	/** The image point at the top left corner of the pane. */
+	private double originX, originY;
+	/** The decoded tiles, least recently drawn first. */
+	private final LinkedHashMap<Tile, BufferedImage> tiles = new LinkedHashMap<Tile, BufferedImage>(16, 0.75f, true);
+	/** The total size of the decoded tiles. */
+	private long tileBytes;
+	/** The tiles waiting for the decoder. */
+	private final Set<Tile> pending = new HashSet<Tile>();
+	/** The tiles on screen at the last paint, read by the decoder to skip the rest. */
+	private volatile Set<Tile> wanted = Collections.emptySet();
+	/** Where the mouse was at the last drag event. */
+	private Point dragged;
+
+	/** How many times the pane was painted. */
+	private long frames;
+	/** How long painting took in total and at most, in nanoseconds. */
+	private long paintNanos, maxPaintNanos;
+	/** How many tiles were drawn from the cache, and how many had to be filled in from the overview. */
+	private long tileHits, tileMisses;
+	/** How many tiles were evicted to stay under budget. */
+	private long evictions;
+	/** How many tiles were decoded. */
+	private final AtomicLong decoded = new AtomicLong();
+	/** How long decoding tiles took in total, in nanoseconds. */
+	private final AtomicLong decodeNanos = new AtomicLong();
+
+	/** A tile of the image: the square of TILE by TILE decoded pixels at a column and row of a level. */
+	private final static class Tile {
+
+		/** The subsampling of the level, a power of 2. */
+		final int level;
+		/** The position of the tile in its level. */
+		final int column, row;
+
+		/**
+		 * Initializes a tile.
+		 *
+		 * @param level
+		 *             the subsampling of its level
+		 * @param column
+		 *              its column
+		 * @param row
+		 *           its row
+		 */
+		Tile(int level, int column, int row) {
+			this.level = level;
+			this.column = column;
+			this.row = row;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#equals(java.lang.Object)
+		 */
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Tile)){
+				return false;
+			}
+			Tile tile = (Tile) o;
+			return level == tile.level && column == tile.column && row == tile.row;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#hashCode()
+		 */
+		@Override
+		public int hashCode() {
+			return (level * 31 + column) * 31 + row;
+		}
+	}
+
+	/**
+	 * Initializes an empty pane with the default tile budget.
+	 */
+	public PreviewPane() {
+		this(DEFAULT_BUDGET);
+	}
+
+	/**
+	 * Initializes an empty pane.
+	 *
+	 * @param budget
+	 *              how many bytes of tiles to keep
+	 */
+	public PreviewPane(long budget) {
+		this.budget = budget;
+		this.decoder = Executors.newSingleThreadExecutor(new ThreadFactory(){
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "preview-decoder");
+				thread.setDaemon(true); // never keeps the application alive
+				thread.setPriority(Thread.NORM_PRIORITY - 1); // the EDT comes first
+				return thread;
+			}
+		});
+		MouseAdapter mouse = new MouseAdapter(){
+
+			@Override
+			public void mousePressed(MouseEvent e) {
+				dragged = e.getPoint();
+			}
+
+			@Override
+			public void mouseDragged(MouseEvent e) {
+				if (dragged != null){
+					PreviewPane.this.pan(e.getX() - dragged.x, e.getY() - dragged.y);
+				}
+				dragged = e.getPoint();
+			}
+
+			@Override
+			public void mouseWheelMoved(MouseWheelEvent e) {
+				PreviewPane.this.zoom(Math.pow(ZOOM_STEP, -e.getPreciseWheelRotation()), e.getPoint());
+			}
+
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				if (e.getClickCount() == 2){
+					PreviewPane.this.fit();
+				}
+			}
+		};
+		this.addMouseListener(mouse);
+		this.addMouseMotionListener(mouse);
+		this.addMouseWheelListener(mouse);
+		this.addComponentListener(new ComponentAdapter(){
+
+			@Override
+			public void componentResized(ComponentEvent e) {
+				if (zoom < PreviewPane.this.fitZoom()){ // it would no longer fill the pane
+					PreviewPane.this.fit();
+				}
+				else{
+					PreviewPane.this.clamp();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Shows file, fitted to the pane once its overview is decoded.
+	 *
+	 * @param file
+	 *            the image, or null to show nothing
+	 */
+	public void setFile(File file) {
+		if (file == null ? this.file == null : file.equals(this.file)){
+			return;
+		}
+		this.file = file;
+		generation++;
+		tiles.clear();
+		tileBytes = 0;
+		pending.clear();
+		wanted = Collections.emptySet();
+		overview = null;
+		imageWidth = imageHeight = 0;
+		this.repaint();
+		if (file == null){
+			return;
+		}
+		int current = generation;
+		decoder.execute(new Runnable(){
+
+			@Override
+			public void run() {
+				try {
+					ImageReader reader = open(file);
+					try {
+						int width = reader.getWidth(0);
+						int height = reader.getHeight(0);
+						int subsampling = Math.max(1, (Math.max(width, height) + OVERVIEW - 1) / OVERVIEW);
+						ImageReadParam param = reader.getDefaultReadParam();
+						param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+						BufferedImage read = reader.read(0, param);
+						BufferedImage img = copy(read, 0, 0, read.getWidth(), read.getHeight());
+						SwingUtilities.invokeLater(new Runnable(){
+
+							@Override
+							public void run() {
+								PreviewPane.this.show(current, width, height, img, subsampling);
+							}
+						});
+					} finally {
+						close(reader);
+					}
+				} catch (IOException e) { // not an image we can read, the pane stays empty
+				}
+			}
+		});
+	}
+
+	/**
+	 * Returns the image shown.
+	 *
+	 * @return the image file, or null
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Follows a rename of the image shown, keeping its tiles.
+	 *
+	 * @param from
+	 *            the old name of the file
+	 * @param to
+	 *          the new name
+	 */
+	public void renamed(File from, File to) {
+		if (from.equals(file)){
+			file = to; // same pixels, only later decodes need the new name
+		}
+	}
+
+	/**
+	 * Shows the overview of an image once it is decoded.
+	 *
+	 * @param current
+	 *               the generation it was decoded for
+	 * @param width
+	 *             the width of the image
+	 * @param height
+	 *              the height of the image
+	 * @param img
+	 *           the overview
+	 * @param subsampling
+	 *                   the subsampling of the overview
+	 */
+	private void show(int current, int width, int height, BufferedImage img, int subsampling) {
+		if (current != generation){ // another image was picked meanwhile
+			return;
+		}
+		imageWidth = width;
+		imageHeight = height;
+		overview = img;
+		overviewSubsampling = subsampling;
+		this.fit();
+	}
+
+	/**
+	 * Zooms so the whole image fits in the pane, never past its actual size.
+	 */
+	public void fit() {
+		zoom = this.fitZoom();
+		this.clamp();
+		this.repaint();
+	}
+
+	/**
+	 * Zooms by factor, keeping the image point under at in place.
+	 *
+	 * @param factor
+	 *              how much to zoom in, below 1 to zoom out
+	 * @param at
+	 *          the point of the pane to zoom around
+	 */
+	public void zoom(double factor, Point at) {
+		if (overview == null){
+			return;
+		}
+		double x = originX + at.x / zoom;
+		double y = originY + at.y / zoom;
+		zoom = Math.max(this.fitZoom(), Math.min(MAX_ZOOM, zoom * factor));
+		originX = x - at.x / zoom;
+		originY = y - at.y / zoom;
+		this.clamp();
+		this.repaint();
+	}
+
+	/**
+	 * Moves the image by dx, dy screen pixels.
+	 *
+	 * @param dx
+	 *          how far to move it right
+	 * @param dy
+	 *          how far to move it down
+	 */
+	public void pan(int dx, int dy) {
+		originX -= dx / zoom;
+		originY -= dy / zoom;
+		this.clamp();
+		this.repaint();
+	}
+
+	/**
+	 * Returns the zoom that fits the whole image in the pane.
+	 *
+	 * @return screen pixels per image pixel, at most 1
+	 */
+	private double fitZoom() {
+		if (imageWidth == 0 || this.getWidth() == 0 || this.getHeight() == 0){
+			return 1;
+		}
+		return Math.min(1, Math.min((double) this.getWidth() / imageWidth, (double) this.getHeight() / imageHeight));
+	}
+
+	/**
+	 * Keeps the pane on the image, centering the image along a side it does not fill.
+	 */
+	private void clamp() {
+		double viewWidth = this.getWidth() / zoom;
+		double viewHeight = this.getHeight() / zoom;
+		originX = viewWidth >= imageWidth ? (imageWidth - viewWidth) / 2 : Math.max(0, Math.min(imageWidth - viewWidth, originX));
+		originY = viewHeight >= imageHeight ? (imageHeight - viewHeight) / 2 : Math.max(0, Math.min(imageHeight - viewHeight, originY));
+	}
+
+	/**
+	 * Returns the subsampling that gives at least one decoded pixel per screen pixel at the
+	 * current zoom, a power of 2.
+	 *
+	 * @return the level to draw tiles from
+	 */
+	private int level() {
+		int level = 1;
+		while (level * 2 * zoom <= 1){
+			level *= 2;
+		}
+		return level;
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.swing.JComponent#paintComponent(java.awt.Graphics)
+	 */
+	@Override
+	protected void paintComponent(Graphics g) {
+		long start = System.nanoTime();
+		g.setColor(this.getBackground());
+		g.fillRect(0, 0, this.getWidth(), this.getHeight());
+		if (overview == null){ // nothing picked, or still decoding the overview
+			return;
+		}
+		Graphics2D g2 = (Graphics2D) g.create();
+		g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		int level = this.level();
+		if (overviewSubsampling <= level){ // the overview is as sharp as any tile would be
+			wanted = Collections.emptySet();
+			g2.drawImage(overview, this.screenX(0), this.screenY(0), this.screenX(imageWidth), this.screenY(imageHeight),
+					0, 0, overview.getWidth(), overview.getHeight(), null);
+		}
+		else{
+			int span = TILE * level; // image pixels per tile side
+			int firstColumn = Math.max(0, (int) (originX / span));
+			int lastColumn = Math.min((imageWidth - 1) / span, (int) ((originX + this.getWidth() / zoom) / span));
+			int firstRow = Math.max(0, (int) (originY / span));
+			int lastRow = Math.min((imageHeight - 1) / span, (int) ((originY + this.getHeight() / zoom) / span));
+			HashSet<Tile> visible = new HashSet<Tile>();
+			ArrayList<Tile> missing = new ArrayList<Tile>();
+			for (int row = firstRow; row <= lastRow; row++){
+				for (int column = firstColumn; column <= lastColumn; column++){
+					Tile tile = new Tile(level, column, row);
+					visible.add(tile);
+					int x = column * span;
+					int y = row * span;
+					int right = Math.min(imageWidth, x + span);
+					int bottom = Math.min(imageHeight, y + span);
+					BufferedImage img = tiles.get(tile);
+					if (img != null){
+						tileHits++;
+						g2.drawImage(img, this.screenX(x), this.screenY(y), this.screenX(right), this.screenY(bottom),
+								0, 0, img.getWidth(), img.getHeight(), null);
+					}
+					else{ // blurry until the decoder gets to it
+						tileMisses++;
+						g2.drawImage(overview, this.screenX(x), this.screenY(y), this.screenX(right), this.screenY(bottom),
+								x / overviewSubsampling, y / overviewSubsampling, right / overviewSubsampling,
+								bottom / overviewSubsampling, null);
+						if (!pending.contains(tile)){
+							missing.add(tile);
+						}
+					}
+				}
+			}
+			wanted = visible;
+			if (!missing.isEmpty()){
+				this.request(missing);
+			}
+		}
+		g2.dispose();
+		long took = System.nanoTime() - start;
+		frames++;
+		paintNanos += took;
+		maxPaintNanos = Math.max(maxPaintNanos, took);
+	}
+
+	/**
+	 * Returns where an image column is on screen.
+	 *
+	 * @param x
+	 *         the image column
+	 * @return the screen column
+	 */
+	private int screenX(double x) {
+		return (int) Math.round((x - originX) * zoom);
+	}
+
+	/**
+	 * Returns where an image row is on screen.
+	 *
+	 * @param y
+	 *         the image row
+	 * @return the screen row
+	 */
+	private int screenY(double y) {
+		return (int) Math.round((y - originY) * zoom);
+	}
+
+	/**
+	 * Has the decoder decode tiles of one level. The tiles are decoded together, as the one
+	 * region that holds them all and a ring of tiles around it, since a JPEG can only be decoded
+	 * from the top and every region read goes through the rows above it. Tiles no longer on
+	 * screen when their turn comes are skipped.
+	 *
+	 * @param missing
+	 *               the tiles, all of the same level
+	 */
+	private void request(List<Tile> missing) {
+		pending.addAll(missing);
+		int current = generation;
+		File source = file;
+		int width = imageWidth;
+		int height = imageHeight;
+		decoder.execute(new Runnable(){
+
+			@Override
+			public void run() {
+				ArrayList<Tile> needed = new ArrayList<Tile>();
+				for (Tile tile : missing){
+					if (wanted.contains(tile)){
+						needed.add(tile);
+					}
+					else{
+						PreviewPane.this.deliver(current, tile, null); // scrolled away before its turn
+					}
+				}
+				if (needed.isEmpty()){
+					return;
+				}
+				int level = needed.get(0).level;
+				int span = TILE * level;
+				int firstColumn = Integer.MAX_VALUE, firstRow = Integer.MAX_VALUE;
+				int lastColumn = 0, lastRow = 0;
+				for (Tile tile : needed){
+					firstColumn = Math.min(firstColumn, tile.column);
+					lastColumn = Math.max(lastColumn, tile.column);
+					firstRow = Math.min(firstRow, tile.row);
+					lastRow = Math.max(lastRow, tile.row);
+				}
+				// the rows above cost the same either way, so take a ring of tiles around for the next pan
+				firstColumn = Math.max(0, firstColumn - 1);
+				lastColumn = Math.min((width - 1) / span, lastColumn + 1);
+				firstRow = Math.max(0, firstRow - 1);
+				lastRow = Math.min((height - 1) / span, lastRow + 1);
+				Rectangle region = new Rectangle(firstColumn * span, firstRow * span,
+						Math.min(width, (lastColumn + 1) * span) - firstColumn * span,
+						Math.min(height, (lastRow + 1) * span) - firstRow * span);
+				BufferedImage block;
+				try {
+					ImageReader reader = open(source);
+					try {
+						ImageReadParam param = reader.getDefaultReadParam();
+						param.setSourceRegion(region);
+						param.setSourceSubsampling(level, level, 0, 0);
+						long start = System.nanoTime();
+						block = reader.read(0, param);
+						decodeNanos.addAndGet(System.nanoTime() - start);
+					} finally {
+						close(reader);
+					}
+				} catch (IOException e) { // renamed or deleted meanwhile, let the next paint ask again
+					for (Tile tile : needed){
+						PreviewPane.this.deliver(current, tile, null);
+					}
+					return;
+				}
+				for (int row = firstRow; row <= lastRow; row++){
+					for (int column = firstColumn; column <= lastColumn; column++){
+						int x = (column - firstColumn) * TILE;
+						int y = (row - firstRow) * TILE;
+						BufferedImage img = copy(block, x, y, TILE, TILE); // a copy, so the block can go
+						decoded.incrementAndGet();
+						PreviewPane.this.deliver(current, new Tile(level, column, row), img);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Hands a decoded tile to the event dispatch thread, which caches it and repaints.
+	 *
+	 * @param current
+	 *               the generation it was decoded for
+	 * @param tile
+	 *            the tile
+	 * @param img
+	 *           its pixels, or null if it was not decoded
+	 */
+	private void deliver(int current, Tile tile, BufferedImage img) {
+		SwingUtilities.invokeLater(new Runnable(){
+
+			@Override
+			public void run() {
+				if (current != generation){ // for an image no longer shown
+					return;
+				}
+				pending.remove(tile);
+				if (img != null){
+					BufferedImage old = tiles.put(tile, img);
+					tileBytes += bytes(img) - (old == null ? 0 : bytes(old));
+					Iterator<Map.Entry<Tile, BufferedImage>> eldest = tiles.entrySet().iterator();
+					while (tileBytes > budget && eldest.hasNext()){
+						Map.Entry<Tile, BufferedImage> entry = eldest.next();
+						if (wanted.contains(entry.getKey())){ // the rest are on screen too
+							break;
+						}
+						tileBytes -= bytes(entry.getValue());
+						eldest.remove();
+						evictions++;
+					}
+					PreviewPane.this.repaint();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Copies part of an image into an image of packed int pixels, which are drawn scaled many
+	 * times faster than the byte pixels most readers return.
+	 *
+	 * @param img
+	 *           the image
+	 * @param x
+	 *         the left of the part
+	 * @param y
+	 *         the top of the part
+	 * @param width
+	 *             the width of the part
+	 * @param height
+	 *              the height of the part
+	 * @return the copy
+	 */
+	private static BufferedImage copy(BufferedImage img, int x, int y, int width, int height) {
+		width = Math.max(1, Math.min(width, img.getWidth() - x));
+		height = Math.max(1, Math.min(height, img.getHeight() - y));
+		BufferedImage copy = new BufferedImage(width, height,
+				img.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = copy.createGraphics();
+		g.drawImage(img, 0, 0, width, height, x, y, x + width, y + height, null);
+		g.dispose();
+		return copy;
+	}
+
+	/**
+	 * Returns how many bytes the pixels of img take.
+	 *
+	 * @param img
+	 *           the image
+	 * @return its size in bytes
+	 */
+	private static long bytes(BufferedImage img) {
+		return (long) img.getWidth() * img.getHeight() * img.getColorModel().getPixelSize() / 8;
+	}
+
+	/**
+	 * Opens a reader on file.
+	 *
+	 * @param file
+	 *            the image file
+	 * @return the reader, to be closed with close
+	 * @throws IOException
+	 *                    if file can not be read or is not an image
+	 */
+	private static ImageReader open(File file) throws IOException {
+		ImageInputStream in = ImageIO.createImageInputStream(file);
+		if (in == null){
+			throw new IOException("Can not read " + file);
+		}
+		Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+		if (!readers.hasNext()){
+			in.close();
+			throw new IOException("Not an image: " + file);
+		}
+		ImageReader reader = readers.next();
+		reader.setInput(in, true, true); // one image, no metadata wanted
+		return reader;
+	}
+
+	/**
+	 * Closes a reader from open and its file.
+	 *
+	 * @param reader
+	 *              the reader
+	 */
+	private static void close(ImageReader reader) {
+		ImageInputStream in = (ImageInputStream) reader.getInput();
+		reader.dispose();
+		try {
+			in.close();
+		} catch (IOException e) {
+		}
+	}
+
+	/**
+	 * Stops decoding.
+	 */
+	public void shutdown() {
+		decoder.shutdownNow();
+	}
+
+	/**
+	 * Returns whether the image is shown at full sharpness, with no tiles left to decode.
+	 *
+	 * @return whether nothing is waiting for the decoder
+	 */
+	public boolean isSharp() {
+		return overview != null && pending.isEmpty();
+	}
+
+	/**
+	 * Returns the current zoom.
+	 *
+	 * @return screen pixels per image pixel
+	 */
+	public double getZoom() {
+		return zoom;
+	}
+
+	/**
+	 * Returns the total size of the decoded tiles.
+	 *
+	 * @return the size in bytes
+	 */
+	public long getTileBytes() {
+		return tileBytes;
+	}
+
+	/**
+	 * Returns how long the slowest paint took.
+	 *
+	 * @return the time in milliseconds
+	 */
+	public double getMaxFrameMillis() {
+		return maxPaintNanos / 1e6;
+	}
+
+	/**
+	 * Returns how long a paint took on average.
+	 *
+	 * @return the time in milliseconds
+	 */
+	public double getAverageFrameMillis() {
+		return frames == 0 ? 0 : paintNanos / 1e6 / frames;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString(){
+		return String.format("Preview: %d frames, %.1f ms average, %.1f ms slowest; tiles drawn %d, filled in %d, "
+				+ "decoded %d in %d ms, %d evictions, %d of %d KB", frames, this.getAverageFrameMillis(),
+				this.getMaxFrameMillis(), tileHits, tileMisses, decoded.get(), decodeNanos.get() / 1000000, evictions,
+				tileBytes / 1024, budget / 1024);
+	}
+}
@@ -0,0 +1,194 @@
+package photo_renamer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * Compares the ways of building the FileNode tree on generated directory trees,
+ * and reopening them with a warm ScanCache.
+ *
+ * Usage: ScanBenchmark [number of files]...   (defaults to 10000 100000 1000000)
+ */
+public class ScanBenchmark {
+
+	/** How many files go into one generated directory. */
+	private final static int FILES_PER_DIR = 100;
+	/** How many subdirectories go into one generated directory. */
+	private final static int DIRS_PER_DIR = 10;
+	/** How many times each scan is repeated, the best time is reported. */
+	private final static int RUNS = 3;
+
+	/**
+	 * Generates a tree for every requested size, scans it every way and prints the timings.
+	 *
+	 * @param args
+	 *            the tree sizes to benchmark, in files
+	 * @throws IOException
+	 *                    if the tree can not be generated
+	 */
+	public static void main(String[] args) throws IOException {
+		int[] sizes = {10000, 100000, 1000000};
+		if (args.length > 0){
+			sizes = new int[args.length];
+			for (int i = 0; i < args.length; i++){
+				sizes[i] = Integer.parseInt(args[i]);
+			}
+		}
+		for (int size : sizes){
+			Path root = Files.createTempDirectory("scanbench");
+			try {
+				System.out.println("Generating " + size + " files under " + root);
+				generateTree(root.toFile(), size);
+				backdate(root); // or the cache would not trust a single directory yet
+				System.out.println(size + " files:");
+				benchmark(root.toFile());
+			} finally {
+				deleteTree(root);
+			}
+		}
+	}
+
+	/**
+	 * Scans root with every scanner and prints the best of RUNS for each one.
+	 *
+	 * @param root
+	 *            the generated tree to scan
+	 */
+	private static void benchmark(File root) {
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < RUNS; i++){
+			long start = System.nanoTime();
+			FileNode.buildTree(root, new FileNode(root.getName(), root, null, FileType.DIRECTORY));
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		System.out.println("  java.io.File buildTree:   " + best / 1000000 + " ms");
+
+		NioTreeScanner nio = new NioTreeScanner();
+		best = Long.MAX_VALUE;
+		for (int i = 0; i < RUNS; i++){
+			nio.scan(root);
+			best = Math.min(best, nio.getElapsedMillis());
+		}
+		System.out.println("  NIO walkFileTree:         " + best + " ms");
+
+		ParallelTreeScanner parallel = new ParallelTreeScanner();
+		best = Long.MAX_VALUE;
+		for (int i = 0; i < RUNS; i++){
+			parallel.scan(root);
+			best = Math.min(best, parallel.getElapsedMillis());
+		}
+		System.out.println("  parallel DirectoryStream: " + best + " ms (parallelism " + parallel.getParallelism() + ")");
+
+		// reopening an unchanged tree: only directories are stat'ed, none are listed
+		String realCache = ScanCache.filePath;
+		File cacheFile = null;
+		try {
+			cacheFile = File.createTempFile("scanbench", ".cache"); // outside the tree, or it would change it
+			cacheFile.delete();
+			ScanCache.filePath = cacheFile.getPath();
+			ScanCache cold = ScanCache.load();
+			parallel.setCache(cold);
+			parallel.scan(root);
+			cold.save(root);
+			best = Long.MAX_VALUE;
+			ScanCache warm = null;
+			for (int i = 0; i < RUNS; i++){
+				long start = System.nanoTime();
+				warm = ScanCache.load(); // loading is part of reopening
+				parallel.setCache(warm);
+				parallel.scan(root);
+				best = Math.min(best, System.nanoTime() - start);
+			}
+			System.out.println("  parallel with scan cache: " + best / 1000000 + " ms (" + warm + ")");
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			ScanCache.filePath = realCache;
+			parallel.setCache(null);
+			if (cacheFile != null){
+				cacheFile.delete();
+			}
+		}
+	}
+
+	/**
+	 * Fills dir with count empty image files, FILES_PER_DIR per directory, spread
+	 * over nested subdirectories DIRS_PER_DIR wide.
+	 *
+	 * @param dir
+	 *           the directory to fill
+	 * @param count
+	 *             how many files to create underneath dir
+	 * @throws IOException
+	 *                    if a file can not be created
+	 */
+	private static void generateTree(File dir, int count) throws IOException {
+		int here = Math.min(count, FILES_PER_DIR);
+		for (int i = 0; i < here; i++){
+			new File(dir, "IMG_" + i + ".jpg").createNewFile();
+		}
+		int remaining = count - here;
+		if (remaining <= 0){
+			return;
+		}
+		int perDir = (remaining + DIRS_PER_DIR - 1) / DIRS_PER_DIR; // round up so nothing is lost
+		for (int d = 0; d < DIRS_PER_DIR && remaining > 0; d++){
+			File sub = new File(dir, "dir" + d);
+			sub.mkdir();
+			generateTree(sub, Math.min(perDir, remaining));
+			remaining -= perDir;
+		}
+	}
+
+	/**
+	 * Sets the last modified time of every directory of a generated tree to an hour ago, well
+	 * outside the window in which ScanCache does not trust a directory that was just changed.
+	 *
+	 * @param root
+	 *            the root of the generated tree
+	 * @throws IOException
+	 *                    if a time can not be set
+	 */
+	private static void backdate(Path root) throws IOException {
+		FileTime past = FileTime.fromMillis(System.currentTimeMillis() - 3600 * 1000);
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+				Files.setLastModifiedTime(dir, past);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * Deletes a generated tree.
+	 *
+	 * @param root
+	 *            the root of the tree to delete
+	 * @throws IOException
+	 *                    if something can not be deleted
+	 */
+	private static void deleteTree(Path root) throws IOException {
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+}
@@ -0,0 +1,285 @@
+package photo_renamer;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Remembers the image files and subdirectories of every scanned directory, along with the
+ * directory's last modified time, in the scan.cache file next to tags.ser and log.ser.
+ * A directory whose last modified time has not changed since it was cached does not have to be
+ * listed again. Adding, removing or renaming an entry changes a directory's last modified time;
+ * editing a file in place does not, so the cached size and time of such a file can be stale.
+ *
+ * The file is a plain binary format with a CRC32 at the end. It is read once, and the CRC32 is
+ * checked over all of it before any of it is parsed, so a corrupt count can never ask for a huge
+ * array. If it is missing, from another version or corrupt in any way, it is ignored and every
+ * directory is listed as usual.
+ */
+public class ScanCache {
+
+	/** The file path of the cache, next to the other .ser files. */
+	public static String filePath = System.getProperty("user.dir") + "//src//photo_renamer//scan.cache";
+	/** Marks the start of a scan cache file. */
+	private final static int MAGIC = 0x50525343; // "PRSC"
+	/** The version of the format, bump when it changes. */
+	private final static int VERSION = 1;
+	/**
+	 * Directories modified this recently, in milliseconds, are not trusted: they could change again
+	 * within the same timestamp tick without their last modified time changing.
+	 */
+	private final static long RACY_WINDOW = 2000;
+	/** The shortest a cache file can be: magic, version, directory count and the CRC32. */
+	private final static int MIN_LENGTH = 4 + 4 + 4 + 8;
+
+	/**
+	 * One cached entry of a directory, either an image file or a subdirectory.
+	 */
+	static class Entry {
+
+		/** The name of the file or directory. */
+		final String name;
+		/** Whether this entry is a directory. */
+		final boolean directory;
+		/** The size in bytes. */
+		final long size;
+		/** The last modified time in milliseconds. */
+		final long lastModified;
+		/** The file key as a string, or null. */
+		final String fileKey;
+
+		Entry(String name, boolean directory, long size, long lastModified, String fileKey) {
+			this.name = name;
+			this.directory = directory;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.fileKey = fileKey;
+		}
+	}
+
+	/**
+	 * The cached contents of one directory.
+	 */
+	static class Directory {
+
+		/** The last modified time of the directory when it was listed. */
+		final long lastModified;
+		/** Its image files and subdirectories. */
+		final Entry[] entries;
+
+		Directory(long lastModified, Entry[] entries) {
+			this.lastModified = lastModified;
+			this.entries = entries;
+		}
+	}
+
+	/** What was loaded from the file, mapped from absolute directory paths. */
+	private final Map<String, Directory> previous;
+	/** What the current scan found or reused, saved in place of previous for the scanned root. */
+	private final ConcurrentHashMap<String, Directory> current = new ConcurrentHashMap<String, Directory>();
+	/** How many directories did not need to be listed. */
+	private final AtomicInteger hits = new AtomicInteger();
+	/** How many directories had to be listed. */
+	private final AtomicInteger misses = new AtomicInteger();
+
+	/**
+	 * Initializes a cache with previously loaded contents.
+	 *
+	 * @param previous
+	 *                the loaded directories, mapped from their absolute paths
+	 */
+	private ScanCache(Map<String, Directory> previous) {
+		this.previous = previous;
+	}
+
+	/**
+	 * Loads the cache from filePath, or starts an empty one if it is missing or unusable.
+	 *
+	 * @return the loaded cache
+	 */
+	public static ScanCache load() {
+		File file = new File(filePath);
+		if (!file.exists()){
+			return new ScanCache(new HashMap<String, Directory>());
+		}
+		HashMap<String, Directory> loaded = new HashMap<String, Directory>();
+		try {
+			byte[] bytes = Files.readAllBytes(file.toPath()); // read once, checked and then parsed
+			ScanCache.verify(bytes); // before any count in it is trusted
+			try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 8))) {
+				if (in.readInt() != MAGIC || in.readInt() != VERSION){
+					throw new IOException("not a scan cache of this version");
+				}
+				int directories = in.readInt();
+				for (int d = 0; d < directories; d++){
+					String path = in.readUTF();
+					long lastModified = in.readLong();
+					Entry[] entries = new Entry[in.readInt()];
+					for (int i = 0; i < entries.length; i++){
+						String name = in.readUTF();
+						boolean directory = in.readBoolean();
+						long size = in.readLong();
+						long modified = in.readLong();
+						String fileKey = in.readUTF();
+						entries[i] = new Entry(name, directory, size, modified, fileKey.isEmpty() ? null : fileKey);
+					}
+					loaded.put(path, new Directory(lastModified, entries));
+				}
+				if (in.available() != 0){ // the CRC32 matched, but the counts did not cover everything
+					throw new IOException("trailing bytes in scan cache");
+				}
+			}
+		} catch (IOException | RuntimeException e) { // corrupt, truncated, unreadable or from another version
+			e.printStackTrace();
+			file.delete();
+			return new ScanCache(new HashMap<String, Directory>());
+		}
+		return new ScanCache(loaded);
+	}
+
+	/**
+	 * Checks the CRC32 at the end of a cache file against everything before it, without parsing
+	 * anything.
+	 *
+	 * @param bytes
+	 *             the whole cache file
+	 * @throws IOException
+	 *                    if it is too short or does not match its CRC32
+	 */
+	private static void verify(byte[] bytes) throws IOException {
+		if (bytes.length < MIN_LENGTH){
+			throw new IOException("truncated scan cache");
+		}
+		int end = bytes.length - 8; // everything but the CRC32 itself
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, end);
+		if (ByteBuffer.wrap(bytes, end, 8).getLong() != crc.getValue()){
+			throw new IOException("checksum mismatch");
+		}
+	}
+
+	/**
+	 * Returns the cached contents of dir if it has not been modified since it was cached,
+	 * and keeps them for the next save.
+	 *
+	 * @param dir
+	 *           the directory about to be listed
+	 * @param lastModified
+	 *                    the directory's last modified time now
+	 * @return the cached contents, or null if dir has to be listed
+	 */
+	Directory lookup(File dir, long lastModified) {
+		String key = dir.getAbsolutePath();
+		Directory cached = previous.get(key);
+		if (cached == null || cached.lastModified != lastModified || lastModified == -1){
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		current.put(key, cached);
+		return cached;
+	}
+
+	/**
+	 * Records the contents of a directory that was just listed.
+	 *
+	 * @param dir
+	 *           the listed directory
+	 * @param lastModified
+	 *                    the directory's last modified time before it was listed
+	 * @param entries
+	 *               its image files and subdirectories
+	 */
+	void record(File dir, long lastModified, List<Entry> entries) {
+		if (System.currentTimeMillis() - lastModified < RACY_WINDOW){
+			lastModified = -1; // too fresh to trust, list it again next time
+		}
+		current.put(dir.getAbsolutePath(), new Directory(lastModified, entries.toArray(new Entry[entries.size()])));
+	}
+
+	/**
+	 * Returns the number of directories that were reused from the cache.
+	 *
+	 * @return the number of cache hits
+	 */
+	public int getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of directories that had to be listed.
+	 *
+	 * @return the number of cache misses
+	 */
+	public int getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Writes the cache to filePath. Directories under root that the scan did not see are dropped,
+	 * cached directories of other roots are kept. The file is written to a temporary file first
+	 * and then moved into place, so a crash never leaves a half written cache behind.
+	 *
+	 * @param root
+	 *            the root of the finished scan
+	 * @throws IOException
+	 *                    if the cache can not be written
+	 */
+	public void save(File root) throws IOException {
+		String rootPath = root.getAbsolutePath();
+		HashMap<String, Directory> saved = new HashMap<String, Directory>();
+		for (Map.Entry<String, Directory> entry : previous.entrySet()){ // keep other roots
+			String path = entry.getKey();
+			if (!path.equals(rootPath) && !path.startsWith(rootPath + File.separator)){
+				saved.put(path, entry.getValue());
+			}
+		}
+		saved.putAll(current);
+
+		File file = new File(filePath);
+		File temp = new File(filePath + ".tmp");
+		CheckedOutputStream checked = new CheckedOutputStream(
+				new BufferedOutputStream(new FileOutputStream(temp), 1 << 16), new CRC32());
+		try (DataOutputStream out = new DataOutputStream(checked)) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(saved.size());
+			for (Map.Entry<String, Directory> entry : saved.entrySet()){
+				out.writeUTF(entry.getKey());
+				out.writeLong(entry.getValue().lastModified);
+				out.writeInt(entry.getValue().entries.length);
+				for (Entry e : entry.getValue().entries){
+					out.writeUTF(e.name);
+					out.writeBoolean(e.directory);
+					out.writeLong(e.size);
+					out.writeLong(e.lastModified);
+					out.writeUTF(e.fileKey == null ? "" : e.fileKey);
+				}
+			}
+			out.writeLong(checked.getChecksum().getValue());
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString(){
+		return "Scan cache: " + this.getHits() + " directories reused, " + this.getMisses() + " listed";
+	}
+}
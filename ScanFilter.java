@@ -0,0 +1,367 @@
+package photo_renamer;
+
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+
+/**
+ * A named set of conditions the scanners check while they walk, so excluded directories are
+ * skipped before anyone lists them and only the wanted image files end up in the tree.
+ *
+ * Written as a spec like: exclude=.git,*cache*; minSize=100k; maxDepth=4; skipHidden
+ * with the keys include, exclude, minSize, maxSize, modifiedSince (yyyy-mm-dd), maxDepth and skipHidden.
+ * Globs without a / are matched against the name, globs with one against the path below the root.
+ */
+public class ScanFilter implements Serializable {
+
+	/** */
+	private static final long serialVersionUID = -3871254099146528715L;
+	/** The file path to the .ser file the saved filter profiles are serialized to. */
+	public static String filePath = System.getProperty("user.dir") + "//src//photo_renamer//filters.ser";
+
+	/** The name of this profile. */
+	private final String name;
+	/** Image files have to match one of these, if there are any. */
+	private final ArrayList<String> includes = new ArrayList<String>();
+	/** Files and directories matching one of these are skipped. */
+	private final ArrayList<String> excludes = new ArrayList<String>();
+	/** The smallest accepted file size in bytes. */
+	private long minSize = 0;
+	/** The largest accepted file size in bytes. */
+	private long maxSize = Long.MAX_VALUE;
+	/** Files last modified before this time, in milliseconds, are skipped. */
+	private long modifiedSince = Long.MIN_VALUE;
+	/** How many directory levels below the root are scanned. */
+	private int maxDepth = Integer.MAX_VALUE;
+	/** Whether hidden files and directories are skipped. */
+	private boolean skipHidden = false;
+	/** The compiled includes, built when first needed. */
+	private transient PathMatcher[] includeMatchers;
+	/** The compiled excludes, built when first needed. */
+	private transient PathMatcher[] excludeMatchers;
+
+	/**
+	 * Initializes a filter from a spec.
+	 *
+	 * @param name
+	 *            the name of this profile
+	 * @param spec
+	 *            the conditions, see the class comment
+	 * @throws IllegalArgumentException
+	 *                                 if the spec can not be understood
+	 */
+	public ScanFilter(String name, String spec) {
+		this.name = name;
+		for (String part : spec.split(";")){ // go through every condition
+			part = part.trim();
+			if (part.isEmpty()){
+				continue;
+			}
+			int equals = part.indexOf('=');
+			String key = (equals == -1 ? part : part.substring(0, equals)).trim();
+			String value = equals == -1 ? "" : part.substring(equals + 1).trim();
+			try {
+				if (key.equals("include")){
+					ScanFilter.addGlobs(includes, value);
+				}
+				else if (key.equals("exclude")){
+					ScanFilter.addGlobs(excludes, value);
+				}
+				else if (key.equals("minSize")){
+					minSize = ScanFilter.parseSize(value);
+				}
+				else if (key.equals("maxSize")){
+					maxSize = ScanFilter.parseSize(value);
+				}
+				else if (key.equals("modifiedSince")){
+					modifiedSince = LocalDate.parse(value).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+				}
+				else if (key.equals("maxDepth")){
+					maxDepth = Integer.parseInt(value);
+				}
+				else if (key.equals("skipHidden")){
+					skipHidden = value.isEmpty() || Boolean.parseBoolean(value);
+				}
+				else{
+					throw new IllegalArgumentException("Unknown filter condition: " + key);
+				}
+			} catch (NumberFormatException | DateTimeParseException e) {
+				throw new IllegalArgumentException("Can not read \"" + part + "\"", e);
+			}
+		}
+		this.compile(); // fail now on a bad glob rather than halfway through a scan
+	}
+
+	/**
+	 * Returns the name of this profile.
+	 *
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns whether the scan should go into a directory.
+	 *
+	 * @param root
+	 *            the root of the scan
+	 * @param dir
+	 *           the directory
+	 * @param depth
+	 *             how many levels below the root dir is, 1 for the root's own subdirectories
+	 * @return whether dir should be listed
+	 */
+	public boolean acceptsDirectory(Path root, Path dir, int depth) {
+		if (depth > maxDepth){
+			return false;
+		}
+		this.ensureCompiled();
+		return !this.isHiddenAndSkipped(dir) && !this.matches(excludes, excludeMatchers, root, dir);
+	}
+
+	/**
+	 * Returns whether an image file should be added to the tree.
+	 *
+	 * @param root
+	 *            the root of the scan
+	 * @param file
+	 *            the image file
+	 * @param size
+	 *            its size in bytes
+	 * @param lastModified
+	 *                    its last modified time in milliseconds
+	 * @return whether the file passes every condition
+	 */
+	public boolean acceptsFile(Path root, Path file, long size, long lastModified) {
+		if (size < minSize || size > maxSize || lastModified < modifiedSince){ // the cheap checks first
+			return false;
+		}
+		this.ensureCompiled();
+		if (this.isHiddenAndSkipped(file) || this.matches(excludes, excludeMatchers, root, file)){
+			return false;
+		}
+		return includeMatchers.length == 0 || this.matches(includes, includeMatchers, root, file);
+	}
+
+	/**
+	 * Returns whether path is hidden and hidden files are being skipped.
+	 *
+	 * @param path
+	 *            the file or directory
+	 * @return whether path should be skipped for being hidden
+	 */
+	private boolean isHiddenAndSkipped(Path path) {
+		if (!skipHidden){
+			return false;
+		}
+		try {
+			return Files.isHidden(path); // a dot name on unix, the hidden attribute on windows
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Returns whether any of the globs matches path.
+	 *
+	 * @param globs
+	 *             the globs, to tell name globs from path globs
+	 * @param matchers
+	 *                the compiled globs
+	 * @param root
+	 *            the root of the scan
+	 * @param path
+	 *            the path to match
+	 * @return whether one of them matches
+	 */
+	private boolean matches(ArrayList<String> globs, PathMatcher[] matchers, Path root, Path path) {
+		Path name = path.getFileName();
+		Path relative = null;
+		for (int i = 0; i < matchers.length; i++){
+			if (globs.get(i).contains("/")){
+				if (relative == null){ // only work it out when a glob needs it
+					relative = root.relativize(path);
+				}
+				if (matchers[i].matches(relative)){
+					return true;
+				}
+			}
+			else if (name != null && matchers[i].matches(name)){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Compiles the globs again after this filter was deserialized.
+	 */
+	private void ensureCompiled() {
+		if (includeMatchers == null || excludeMatchers == null){
+			this.compile();
+		}
+	}
+
+	/**
+	 * Compiles the globs into matchers.
+	 */
+	private void compile() {
+		includeMatchers = ScanFilter.compile(includes);
+		excludeMatchers = ScanFilter.compile(excludes);
+	}
+
+	/**
+	 * Compiles a list of globs.
+	 *
+	 * @param globs
+	 *             the globs
+	 * @return a matcher for each glob
+	 */
+	private static PathMatcher[] compile(ArrayList<String> globs) {
+		PathMatcher[] matchers = new PathMatcher[globs.size()];
+		for (int i = 0; i < matchers.length; i++){
+			matchers[i] = FileSystems.getDefault().getPathMatcher("glob:" + globs.get(i));
+		}
+		return matchers;
+	}
+
+	/**
+	 * Adds the comma separated globs in value to globs.
+	 *
+	 * @param globs
+	 *             the list to add to
+	 * @param value
+	 *             the comma separated globs
+	 */
+	private static void addGlobs(ArrayList<String> globs, String value) {
+		for (String glob : value.split(",")){
+			if (!glob.trim().isEmpty()){
+				globs.add(glob.trim());
+			}
+		}
+	}
+
+	/**
+	 * Reads a size like 500, 100k, 20m or 1g.
+	 *
+	 * @param value
+	 *             the size
+	 * @return the size in bytes
+	 */
+	private static long parseSize(String value) {
+		String lower = value.toLowerCase();
+		long unit = 1;
+		if (lower.endsWith("k")){
+			unit = 1L << 10;
+		}
+		else if (lower.endsWith("m")){
+			unit = 1L << 20;
+		}
+		else if (lower.endsWith("g")){
+			unit = 1L << 30;
+		}
+		if (unit != 1){
+			lower = lower.substring(0, lower.length() - 1);
+		}
+		return Long.parseLong(lower.trim()) * unit;
+	}
+
+	/**
+	 * Returns the spec this filter was made from, in a normalized form.
+	 *
+	 * @return the spec
+	 */
+	public String getSpec() {
+		ArrayList<String> parts = new ArrayList<String>();
+		if (!includes.isEmpty()){
+			parts.add("include=" + String.join(",", includes));
+		}
+		if (!excludes.isEmpty()){
+			parts.add("exclude=" + String.join(",", excludes));
+		}
+		if (minSize != 0){
+			parts.add("minSize=" + minSize);
+		}
+		if (maxSize != Long.MAX_VALUE){
+			parts.add("maxSize=" + maxSize);
+		}
+		if (modifiedSince != Long.MIN_VALUE){
+			parts.add("modifiedSince=" + Instant.ofEpochMilli(modifiedSince).atZone(ZoneId.systemDefault()).toLocalDate());
+		}
+		if (maxDepth != Integer.MAX_VALUE){
+			parts.add("maxDepth=" + maxDepth);
+		}
+		if (skipHidden){
+			parts.add("skipHidden");
+		}
+		return String.join("; ", parts);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString(){
+		return this.name + " (" + this.getSpec() + ")"; // what the profile list shows
+	}
+
+	/**
+	 * Deserializes the saved filter profiles.
+	 *
+	 * @return the saved profiles, empty if there are none
+	 */
+	@SuppressWarnings("unchecked")
+	public static ArrayList<ScanFilter> readProfiles() {
+		ArrayList<ScanFilter> profiles = new ArrayList<ScanFilter>();
+		try {
+			FileInputStream fileIn = new FileInputStream(filePath);
+			ObjectInputStream in = new ObjectInputStream(fileIn);
+			try {
+				profiles = (ArrayList<ScanFilter>) in.readObject(); // try to deserialize
+			} catch (ClassNotFoundException e) {
+				profiles = new ArrayList<ScanFilter>();
+			}
+			in.close();
+			fileIn.close();
+		} catch (FileNotFoundException e) {
+			// nothing saved yet
+		} catch (IOException i) {
+			i.printStackTrace();
+		}
+		return profiles;
+	}
+
+	/**
+	 * Serializes the filter profiles to filePath.
+	 *
+	 * @param profiles
+	 *                the profiles to save
+	 * @throws IOException
+	 *                    if outputting does not succeed
+	 */
+	public static void saveProfiles(ArrayList<ScanFilter> profiles) throws IOException {
+		OutputStream file = new FileOutputStream(filePath);
+		OutputStream buffer = new BufferedOutputStream(file);
+		ObjectOutput output = new ObjectOutputStream(buffer);
+
+		output.writeObject(profiles);
+		output.close();
+	}
+}
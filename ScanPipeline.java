@@ -0,0 +1,203 @@
+package photo_renamer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a ParallelTreeScanner on a background thread and hands the nodes of the image files it
+ * finds, with the attributes the scan read, to a consumer through a bounded queue, so they can be
+ * shown while the scan is still going.
+ */
+public class ScanPipeline {
+
+	/** How many found files may wait in the queue before the scanner has to wait. */
+	public final static int QUEUE_CAPACITY = 1024;
+	/** Put into the queue after the last file, so the consumer knows the scan is over. */
+	private final static FileNode END = FileNode.detached(new File(""));
+
+	/** The file or directory being scanned. */
+	private final File selected;
+	/** The scanner doing the work. */
+	private final ParallelTreeScanner scanner;
+	/** The nodes of the found image files waiting for the consumer. */
+	private final BlockingQueue<FileNode> queue = new ArrayBlockingQueue<FileNode>(QUEUE_CAPACITY);
+	/** The root of the built tree, null until the scan is over. */
+	private volatile FileNode root;
+	/** Whether the consumer has taken END out of the queue. */
+	private boolean finished;
+
+	/**
+	 * Initializes a pipeline scanning selected with a default ParallelTreeScanner.
+	 *
+	 * @param selected
+	 *                the file or directory to scan
+	 */
+	public ScanPipeline(File selected) {
+		this(selected, new ParallelTreeScanner());
+	}
+
+	/**
+	 * Initializes a pipeline scanning selected with the given scanner.
+	 *
+	 * @param selected
+	 *                the file or directory to scan
+	 * @param scanner
+	 *               the scanner to use
+	 */
+	public ScanPipeline(File selected, ParallelTreeScanner scanner) {
+		this.selected = selected;
+		this.scanner = scanner;
+	}
+
+	/**
+	 * Starts scanning on a background thread.
+	 */
+	public void start() {
+		Thread producer = new Thread(new Runnable(){
+
+			@Override
+			public void run() {
+				try {
+					FileNode node = new FileNode(selected.getName(), selected, null, FileType.DIRECTORY);
+					ScanCache cache = ScanCache.load(); // skip directories that have not changed
+					scanner.setCache(cache);
+					scanner.setSink(queue); // publish files as they are found
+					TagIndex.getInstance().clear(); // only the files of this scan can be found
+					scanner.setIndex(TagIndex.getInstance()); // and index their tags on the way
+					scanner.scan(selected, node);
+					root = node;
+					if (!scanner.isCancelled()){ // a partial scan would drop directories from the cache
+						ScanPipeline.saveCache(cache, selected);
+					}
+				} finally {
+					putEnd();
+				}
+			}
+		}, "scan-" + selected.getName());
+		producer.setDaemon(true); // never keep the program alive just for a scan
+		producer.start();
+	}
+
+	/**
+	 * Stops the scan early, for when nobody needs its results anymore.
+	 */
+	public void cancel() {
+		scanner.cancel();
+		queue.clear(); // make room for END
+	}
+
+	/**
+	 * Moves the nodes of up to max found files into batch, waiting up to timeout for the first
+	 * one. Must only be called from one consumer thread.
+	 *
+	 * @param batch
+	 *             the list to add the nodes to
+	 * @param max
+	 *           the most files to add
+	 * @param timeoutMillis
+	 *                     how long to wait for a file if none is ready
+	 * @return the number of files added
+	 * @throws InterruptedException
+	 *                             if interrupted while waiting
+	 */
+	public int drainTo(List<FileNode> batch, int max, long timeoutMillis) throws InterruptedException {
+		if (finished){
+			return 0;
+		}
+		FileNode first = queue.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+		if (first == null){ // nothing found in time
+			return 0;
+		}
+		int start = batch.size();
+		batch.add(first);
+		queue.drainTo(batch, max - 1); // take whatever else is already waiting
+		if (batch.get(batch.size() - 1) == END){ // END is always the last thing put in
+			batch.remove(batch.size() - 1);
+			finished = true;
+		}
+		return batch.size() - start;
+	}
+
+	/**
+	 * Returns whether every found file has been taken by the consumer.
+	 *
+	 * @return whether the scan is over and the queue has been emptied
+	 */
+	public boolean isFinished() {
+		return finished;
+	}
+
+	/**
+	 * Returns the number of files and directories scanned so far.
+	 *
+	 * @return the number of scanned entries
+	 */
+	public long getEntriesScanned() {
+		return scanner.getEntriesScanned();
+	}
+
+	/**
+	 * Returns how fast the scan went, for the scan label.
+	 *
+	 * @return the entries scanned, the time taken and the rate
+	 */
+	public String getStatistics() {
+		return scanner.toString();
+	}
+
+	/**
+	 * Returns the filter the scan was made with, for keeping the tree to it afterwards.
+	 *
+	 * @return the filter, or null if the scan kept everything
+	 */
+	public ScanFilter getFilter() {
+		return scanner.getFilter();
+	}
+
+	/**
+	 * Returns the root of the built tree.
+	 *
+	 * @return the root FileNode, or null if the scan is not over yet
+	 */
+	public FileNode getRoot() {
+		return root;
+	}
+
+	/**
+	 * Saves the scan cache for the next time this directory is opened.
+	 *
+	 * @param cache
+	 *             the cache used by the finished scan
+	 * @param selected
+	 *                the scanned file or directory
+	 */
+	private static void saveCache(ScanCache cache, File selected) {
+		try {
+			cache.save(selected);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Puts END into the queue, waiting for room if the consumer is behind.
+	 */
+	private void putEnd() {
+		boolean interrupted = false;
+		while (true){
+			try {
+				queue.put(END);
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true; // END has to get in or the consumer waits forever
+			}
+		}
+		if (interrupted){
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,578 @@
+package photo_renamer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The image files selected by the user, read through cursors a batch at a time so nothing
+ * has to walk the whole selection at once. Every file is kept with the size, last modified time
+ * and file key the scan read for it, as a FileNode outside the tree, so identifying a file or
+ * keying its thumbnail does not have to stat it again. Every file also keeps its id in the
+ * TagIndex, so the rows a search matched are found without hashing every path.
+ *
+ * Small selections are kept in memory. Once a selection grows past its spill threshold the
+ * paths and attributes move to a temporary file and only one offset per file stays on the heap,
+ * so memory stays flat from a thousand files to a million. All methods are safe to call from any
+ * thread.
+ */
+public class Selection {
+
+	/** How many files a selection holds in memory before it spills to disk, by default. */
+	public final static int DEFAULT_SPILL_THRESHOLD = 100000;
+	/** How many bytes are read from or written to the spill file at once. */
+	private final static int PAGE_SIZE = 1 << 16;
+	/** How many bytes of a spill record come before the path: two lengths, the size and the time. */
+	private final static int RECORD_HEADER = 4 + 8 + 8 + 4;
+
+	/** How many files may be held in memory before spilling. */
+	private final int spillThreshold;
+	/** The files while in memory, with their attributes, null once spilled. */
+	private ArrayList<FileNode> files = new ArrayList<FileNode>();
+	/** The spill file, null while in memory. */
+	private FileChannel spill;
+	/** Where each file's record starts in the spill file, in the first count slots. */
+	private long[] offsets;
+	/** How many files are in the selection. */
+	private int count;
+	/** The TagIndex id of each file, in the first count slots, -1 where it is not known. Kept in memory when the files spill. */
+	private int[] tagIds = new int[16];
+	/** Records not written to the spill file yet. */
+	private ByteBuffer writeBuffer;
+	/** How many bytes of the spill file have been written out. */
+	private long written;
+	/** The part of the spill file read last, kept for the next records. */
+	private final ByteBuffer page = ByteBuffer.allocate(PAGE_SIZE);
+	/** Where in the spill file page starts, or -1 if page holds nothing. */
+	private long pageStart = -1;
+	/** Whether a spill file could not be made, so the selection stays in memory from then on. */
+	private boolean spillFailed;
+
+	/**
+	 * Initializes an empty selection with the default spill threshold.
+	 */
+	public Selection() {
+		this(DEFAULT_SPILL_THRESHOLD);
+	}
+
+	/**
+	 * Initializes an empty selection.
+	 *
+	 * @param spillThreshold
+	 *                      how many files to hold in memory before spilling to disk
+	 */
+	public Selection(int spillThreshold) {
+		this.spillThreshold = spillThreshold;
+	}
+
+	/**
+	 * Reads a selection a batch at a time, from the start to the end. A cursor also sees files
+	 * added after it was made. Removing files in front of it shifts it by as many files.
+	 */
+	public class Cursor {
+
+		/** The index of the next file to hand out. */
+		private int position;
+
+		/**
+		 * Returns the next files, up to n of them.
+		 *
+		 * @param n
+		 *         the most files to return
+		 * @return the next files, empty once the cursor has reached the end
+		 */
+		public List<File> nextBatch(int n) {
+			List<File> batch = Selection.this.slice(position, n);
+			position += batch.size();
+			return batch;
+		}
+
+		/**
+		 * Returns whether there are files left to read right now.
+		 *
+		 * @return whether nextBatch would return anything
+		 */
+		public boolean hasNext() {
+			return position < Selection.this.size();
+		}
+
+		/**
+		 * Returns how far the cursor has read.
+		 *
+		 * @return the index of the next file
+		 */
+		public int getPosition() {
+			return position;
+		}
+	}
+
+	/**
+	 * Returns a new cursor at the start of the selection.
+	 *
+	 * @return the cursor
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	/**
+	 * Adds a file whose attributes are not known to the end of the selection.
+	 *
+	 * @param file
+	 *            the file to add
+	 */
+	public void add(File file) {
+		this.add(FileNode.detached(file));
+	}
+
+	/**
+	 * Adds the file of a node to the end of the selection, with the attributes the scan read.
+	 *
+	 * @param node
+	 *            the node of the file to add
+	 */
+	public void add(FileNode node) {
+		this.add(node, -1);
+	}
+
+	/**
+	 * Adds the file of a node to the end of the selection, with the attributes the scan read and
+	 * its id in the TagIndex.
+	 *
+	 * @param node
+	 *            the node of the file to add
+	 * @param tagId
+	 *             the id TagIndex gave the file, or -1 if it is not known
+	 */
+	public synchronized void add(FileNode node, int tagId) {
+		if (count == tagIds.length){
+			tagIds = Arrays.copyOf(tagIds, count * 2);
+		}
+		tagIds[count] = tagId;
+		node = node.detach(node.getFile()); // the tree can change and keeps a lot alive
+		if (files != null){
+			files.add(node);
+			count++;
+			if (count > spillThreshold && !spillFailed){
+				this.spillToDisk();
+			}
+			return;
+		}
+		this.append(node);
+	}
+
+	/**
+	 * Returns the file at index.
+	 *
+	 * @param index
+	 *             the index of the file
+	 * @return the file
+	 */
+	public synchronized File get(int index) {
+		if (index < 0 || index >= count){
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+		}
+		return this.getNode(index).getFile();
+	}
+
+	/**
+	 * Returns the file at index with its attributes.
+	 *
+	 * @param index
+	 *             the index of the file
+	 * @return a node of the file, outside the tree
+	 */
+	public synchronized FileNode getNode(int index) {
+		if (index < 0 || index >= count){
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+		}
+		return files != null ? files.get(index) : this.read(index);
+	}
+
+	/**
+	 * Returns up to n files starting at from.
+	 *
+	 * @param from
+	 *            the index of the first file
+	 * @param n
+	 *         the most files to return
+	 * @return the files, in order
+	 */
+	public synchronized List<File> slice(int from, int n) {
+		int to = Math.min(count, from + n);
+		ArrayList<File> slice = new ArrayList<File>(Math.max(0, to - from));
+		for (int i = from; i < to; i++){ // consecutive records, mostly served from one page
+			slice.add((files != null ? files.get(i) : this.read(i)).getFile());
+		}
+		return slice;
+	}
+
+	/**
+	 * Returns up to n files starting at from, with their attributes.
+	 *
+	 * @param from
+	 *            the index of the first file
+	 * @param n
+	 *         the most files to return
+	 * @return nodes of the files, outside the tree, in order
+	 */
+	public synchronized List<FileNode> nodes(int from, int n) {
+		int to = Math.min(count, from + n);
+		ArrayList<FileNode> slice = new ArrayList<FileNode>(Math.max(0, to - from));
+		for (int i = from; i < to; i++){
+			slice.add(files != null ? files.get(i) : this.read(i));
+		}
+		return slice;
+	}
+
+	/**
+	 * Returns the TagIndex ids of up to n files starting at from, without reading the files.
+	 *
+	 * @param from
+	 *            the index of the first file
+	 * @param n
+	 *         the most ids to return
+	 * @return the ids, in order, -1 for the files whose id is not known
+	 */
+	public synchronized int[] tagIds(int from, int n) {
+		int to = Math.min(count, from + n);
+		return Arrays.copyOfRange(tagIds, from, Math.max(from, to));
+	}
+
+	/**
+	 * Returns the index of the first occurrence of file. On disk this has to read the paths until
+	 * it is found.
+	 *
+	 * @param file
+	 *            the file to search for
+	 * @return the index of file, or -1 if it is not in the selection
+	 */
+	public synchronized int indexOf(File file) {
+		for (int i = 0; i < count; i++){
+			if ((files != null ? files.get(i) : this.read(i)).getFile().equals(file)){
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the index of the first occurrence of each of many files, going through the
+	 * selection once for all of them and stopping as soon as every one is found. For resolving a
+	 * batch of changes, which indexOf would read the whole selection for one file at a time.
+	 *
+	 * @param wanted
+	 *              the files to search for
+	 * @return the index of every file of wanted that is in the selection, by the file
+	 */
+	public synchronized Map<File, Integer> indexesOf(Collection<File> wanted) {
+		HashMap<File, Integer> found = new HashMap<File, Integer>();
+		HashSet<File> left = new HashSet<File>(wanted);
+		for (int i = 0; i < count && !left.isEmpty(); i++){ // consecutive records, mostly served from one page
+			File file = (files != null ? files.get(i) : this.read(i)).getFile();
+			if (left.remove(file)){
+				found.put(file, i);
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Replaces the file at index after it was renamed. It keeps its attributes, which a rename
+	 * does not change, and its TagIndex id, which TagIndex keeps through renames.
+	 *
+	 * @param index
+	 *             the index of the file
+	 * @param file
+	 *            the new name of the file
+	 */
+	public synchronized void set(int index, File file) {
+		FileNode renamed = this.getNode(index).detach(file);
+		if (files != null){
+			files.set(index, renamed);
+			return;
+		}
+		int end = count;
+		this.append(renamed); // the old record stays in the file, only its offset is replaced
+		offsets[index] = offsets[end];
+		count = end;
+	}
+
+	/**
+	 * Removes the file at index.
+	 *
+	 * @param index
+	 *             the index of the file
+	 */
+	public synchronized void remove(int index) {
+		if (index < 0 || index >= count){
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+		}
+		if (files != null){
+			files.remove(index);
+		}
+		else{ // the record stays in the file, only its offset goes
+			System.arraycopy(offsets, index + 1, offsets, index, count - index - 1);
+		}
+		System.arraycopy(tagIds, index + 1, tagIds, index, count - index - 1);
+		count--;
+	}
+
+	/**
+	 * Removes the files at many indexes at once, moving the files after them up in one go
+	 * rather than once for every file removed.
+	 *
+	 * @param indexes
+	 *               the indexes of the files, ascending and each at most once
+	 */
+	public synchronized void removeAll(int[] indexes) {
+		if (indexes.length == 0){
+			return;
+		}
+		if (indexes[0] < 0 || indexes[indexes.length - 1] >= count){
+			throw new IndexOutOfBoundsException("Index: " + (indexes[0] < 0 ? indexes[0] : indexes[indexes.length - 1]) + ", Size: " + count);
+		}
+		int kept = indexes[0];
+		for (int i = indexes[0], r = 0; i < count; i++){
+			if (r < indexes.length && indexes[r] == i){ // removed, the next kept one takes its place
+				r++;
+				continue;
+			}
+			tagIds[kept] = tagIds[i];
+			if (files != null){
+				files.set(kept++, files.get(i));
+			}
+			else{ // the records stay in the file, only their offsets move
+				offsets[kept++] = offsets[i];
+			}
+		}
+		if (files != null){
+			files.subList(kept, count).clear();
+		}
+		count = kept;
+	}
+
+	/**
+	 * Removes the first occurrence of file. On disk this has to read the paths until it is found.
+	 *
+	 * @param file
+	 *            the file to remove
+	 * @return whether the file was in the selection
+	 */
+	public synchronized boolean remove(File file) {
+		int index = this.indexOf(file);
+		if (index == -1){
+			return false;
+		}
+		this.remove(index);
+		return true;
+	}
+
+	/**
+	 * Removes every file, going back to memory. A spill that failed before may be tried again.
+	 */
+	public synchronized void clear() {
+		this.closeSpill();
+		files = new ArrayList<FileNode>();
+		tagIds = new int[16];
+		count = 0;
+		spillFailed = false;
+	}
+
+	/**
+	 * Returns how many files are selected.
+	 *
+	 * @return the size of the selection
+	 */
+	public synchronized int size() {
+		return count;
+	}
+
+	/**
+	 * Returns whether the selection lives in a file on disk.
+	 *
+	 * @return whether the selection has spilled
+	 */
+	public synchronized boolean isSpilled() {
+		return files == null;
+	}
+
+	/**
+	 * Moves the in-memory files to a new spill file.
+	 */
+	private void spillToDisk() {
+		try {
+			Path path = Files.createTempFile("selection", ".paths");
+			path.toFile().deleteOnExit();
+			spill = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+					StandardOpenOption.DELETE_ON_CLOSE);
+		} catch (IOException e) {
+			e.printStackTrace(); // stay in memory rather than lose anything, and do not try again
+			spillFailed = true;
+			return;
+		}
+		ArrayList<FileNode> inMemory = files;
+		files = null;
+		offsets = new long[Math.max(16, inMemory.size() * 2)];
+		writeBuffer = ByteBuffer.allocate(PAGE_SIZE);
+		written = 0;
+		pageStart = -1;
+		count = 0;
+		for (FileNode node : inMemory){
+			this.append(node);
+		}
+	}
+
+	/**
+	 * Appends a record to the spill file: the length of the path, the size, the last modified
+	 * time and the length of the file key, -1 if it has none, then the path and the file key in
+	 * UTF-8.
+	 *
+	 * @param node
+	 *            the file to append, with its attributes
+	 */
+	private void append(FileNode node) {
+		byte[] path = node.getFile().getPath().getBytes(StandardCharsets.UTF_8);
+		byte[] key = node.getFileKey() == null ? null : node.getFileKey().getBytes(StandardCharsets.UTF_8);
+		int length = RECORD_HEADER + path.length + (key == null ? 0 : key.length);
+		if (writeBuffer.remaining() < length){
+			this.flush();
+		}
+		if (count == offsets.length){
+			offsets = Arrays.copyOf(offsets, count + (count >> 1));
+		}
+		offsets[count++] = written + writeBuffer.position();
+		ByteBuffer record = length > writeBuffer.capacity() ? ByteBuffer.allocate(length) : writeBuffer; // a huge path on its own
+		record.putInt(path.length).putLong(node.getSize()).putLong(node.getLastModified())
+				.putInt(key == null ? -1 : key.length).put(path);
+		if (key != null){
+			record.put(key);
+		}
+		if (record != writeBuffer){
+			record.flip();
+			this.write(record);
+		}
+	}
+
+	/**
+	 * Reads the record of the file at index from the spill file.
+	 *
+	 * @param index
+	 *             the index of the file
+	 * @return a node of the file with its attributes
+	 */
+	private FileNode read(int index) {
+		long offset = offsets[index];
+		if (offset + RECORD_HEADER > written){ // still in the write buffer
+			this.flush();
+		}
+		ByteBuffer header = this.readPage(offset, RECORD_HEADER);
+		int pathLength = header.getInt();
+		long size = header.getLong();
+		long lastModified = header.getLong();
+		int keyLength = header.getInt();
+		ByteBuffer record = this.readPage(offset + RECORD_HEADER, pathLength + Math.max(0, keyLength));
+		byte[] path = new byte[pathLength];
+		record.get(path);
+		String key = null;
+		if (keyLength >= 0){
+			byte[] bytes = new byte[keyLength];
+			record.get(bytes);
+			key = new String(bytes, StandardCharsets.UTF_8);
+		}
+		FileNode node = FileNode.detached(new File(new String(path, StandardCharsets.UTF_8)));
+		node.setAttributes(size, lastModified, key);
+		return node;
+	}
+
+	/**
+	 * Returns a buffer positioned at offset with at least length bytes left, reading a new page
+	 * only if the current one does not cover them.
+	 *
+	 * @param offset
+	 *              where in the spill file to read
+	 * @param length
+	 *              how many bytes are needed
+	 * @return the buffer to read from
+	 */
+	private ByteBuffer readPage(long offset, int length) {
+		try {
+			if (length > PAGE_SIZE){ // bigger than a page, read it on its own
+				ByteBuffer big = ByteBuffer.allocate(length);
+				while (big.hasRemaining() && spill.read(big, offset + big.position()) >= 0){
+					// keep reading until it is all there
+				}
+				big.flip();
+				return big;
+			}
+			if (pageStart == -1 || offset < pageStart || offset + length > pageStart + page.limit()){
+				page.clear();
+				while (page.hasRemaining() && spill.read(page, offset + page.position()) > 0){
+					// fill the page or stop at the end of the file
+				}
+				page.flip();
+				pageStart = offset;
+			}
+			ByteBuffer view = page.duplicate();
+			view.position((int) (offset - pageStart));
+			return view;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Writes out the write buffer.
+	 */
+	private void flush() {
+		writeBuffer.flip();
+		this.write(writeBuffer);
+		writeBuffer.clear();
+	}
+
+	/**
+	 * Writes buffer at the end of the spill file.
+	 *
+	 * @param buffer
+	 *              what to write
+	 */
+	private void write(ByteBuffer buffer) {
+		try {
+			while (buffer.hasRemaining()){
+				written += spill.write(buffer, written);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Closes and deletes the spill file, if there is one.
+	 */
+	private void closeSpill() {
+		if (spill == null){
+			return;
+		}
+		try {
+			spill.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		spill = null;
+		offsets = null;
+		writeBuffer = null;
+	}
+}
@@ -24,12 +24,30 @@ public class Tag implements Serializable  {
 		
 	}
 
+	/** Initialize a Tag created earlier, as the TagDictionary keeps it
+	 * @param name
+	 * 			name of this tag
+	 * @param timestamp
+	 * 			when it was created
+	 */
+	Tag(String name, LocalDateTime timestamp) {
+		this.name = name;
+		this.timestamp = timestamp;
+	}
+
 	/**
 	 * @return name of this Tag
 	 */
 	public String getName() {
 		return this.name;
 	}
+
+	/**
+	 * @return when this Tag was created
+	 */
+	public LocalDateTime getTimestamp() {
+		return this.timestamp;
+	}
 	
 	/* (non-Javadoc)
 	 * @see java.lang.Object#toString()
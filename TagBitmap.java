@@ -0,0 +1,733 @@
+package photo_renamer;
+
+import java.util.Arrays;
+
+/**
+ * A compressed set of file ids, laid out like a Roaring bitmap. The ids are split by their high
+ * 16 bits into chunks of 65536, and each chunk that has any ids gets a container of its own:
+ * up to ARRAY_MAX ids as a sorted array of their low 16 bits, 2 bytes an id, and more than that
+ * as a plain bitmap of 8 KB, at most 2 bytes an id and much less once it fills up. A tag on a few
+ * photos costs a few bytes, a tag on every photo of a 300,000 file library about 40 KB.
+ *
+ * Not thread safe, TagIndex guards its bitmaps and only hands out copies.
+ */
+public class TagBitmap {
+
+	/** The most ids an array container holds, past this a bitmap is smaller. */
+	final static int ARRAY_MAX = 4096;
+	/** How many longs a bitmap container has, one bit for each of the 65536 ids of a chunk. */
+	private final static int BITMAP_WORDS = 1024;
+	/** Roughly what the JVM spends on an object or an array header, for getSizeInBytes. */
+	private final static int HEADER = 16;
+
+	/** The ids of one chunk, by their low 16 bits. */
+	private static abstract class Container {
+
+		/**
+		 * Adds an id.
+		 *
+		 * @param low
+		 *           its low 16 bits
+		 * @return this container, or the one it turned into to make room
+		 */
+		abstract Container add(char low);
+
+		/**
+		 * Removes an id.
+		 *
+		 * @param low
+		 *           its low 16 bits
+		 * @return this container, or the smaller one it turned into
+		 */
+		abstract Container remove(char low);
+
+		/**
+		 * Returns whether an id is in the container.
+		 *
+		 * @param low
+		 *           its low 16 bits
+		 * @return whether it is there
+		 */
+		abstract boolean contains(char low);
+
+		/**
+		 * Returns how many ids are in the container.
+		 *
+		 * @return the number of ids
+		 */
+		abstract int cardinality();
+
+		/**
+		 * Writes the ids into ids, in ascending order, with high as their high 16 bits.
+		 *
+		 * @param high
+		 *            the high 16 bits of the chunk, shifted into place
+		 * @param ids
+		 *           where to write them
+		 * @param at
+		 *          where in ids to start
+		 * @return where the next chunk starts
+		 */
+		abstract int fill(int high, int[] ids, int at);
+
+		/**
+		 * Sets the bits of the ids in words, a plain bitmap of every id.
+		 *
+		 * @param words
+		 *             the plain bitmap
+		 * @param from
+		 *            where in words the chunk starts
+		 */
+		abstract void fill(long[] words, int from);
+
+		/**
+		 * Returns about how much memory the container takes.
+		 *
+		 * @return the size in bytes
+		 */
+		abstract long bytes();
+
+		/**
+		 * Returns a copy of the container.
+		 *
+		 * @return the copy
+		 */
+		abstract Container copy();
+
+		/**
+		 * Returns the ids in both containers, as a new container.
+		 *
+		 * @param other
+		 *             the container of the same chunk in another bitmap
+		 * @return the intersection, maybe empty
+		 */
+		abstract Container and(Container other);
+
+		/**
+		 * Returns the ids in either container, as a new container.
+		 *
+		 * @param other
+		 *             the container of the same chunk in another bitmap
+		 * @return the union
+		 */
+		abstract Container or(Container other);
+
+		/**
+		 * Returns the ids in this container but not in other, as a new container.
+		 *
+		 * @param other
+		 *             the container of the same chunk in another bitmap
+		 * @return the difference, maybe empty
+		 */
+		abstract Container andNot(Container other);
+	}
+
+	/** Up to ARRAY_MAX ids as a sorted array. */
+	private final static class ArrayContainer extends Container {
+
+		/** The low 16 bits of the ids, ascending, in the first size slots. */
+		char[] values;
+		/** How many ids there are. */
+		int size;
+
+		/**
+		 * Initializes a container with room for capacity ids.
+		 *
+		 * @param capacity
+		 *                how many ids it can hold before it grows
+		 */
+		ArrayContainer(int capacity) {
+			values = new char[capacity];
+		}
+
+		@Override
+		Container add(char low) {
+			int i = Arrays.binarySearch(values, 0, size, low);
+			if (i >= 0){
+				return this;
+			}
+			if (size == ARRAY_MAX){ // a bitmap is smaller from here on
+				return new BitmapContainer(this).add(low);
+			}
+			i = -i - 1;
+			if (size == values.length){
+				values = Arrays.copyOf(values, Math.min(ARRAY_MAX, Math.max(4, size * 2)));
+			}
+			System.arraycopy(values, i, values, i + 1, size - i);
+			values[i] = low;
+			size++;
+			return this;
+		}
+
+		@Override
+		Container remove(char low) {
+			int i = Arrays.binarySearch(values, 0, size, low);
+			if (i >= 0){
+				System.arraycopy(values, i + 1, values, i, size - i - 1);
+				size--;
+			}
+			return this;
+		}
+
+		@Override
+		boolean contains(char low) {
+			return Arrays.binarySearch(values, 0, size, low) >= 0;
+		}
+
+		@Override
+		int cardinality() {
+			return size;
+		}
+
+		@Override
+		int fill(int high, int[] ids, int at) {
+			for (int i = 0; i < size; i++){
+				ids[at++] = high | values[i];
+			}
+			return at;
+		}
+
+		@Override
+		void fill(long[] words, int from) {
+			for (int i = 0; i < size; i++){
+				words[from + (values[i] >>> 6)] |= 1L << values[i];
+			}
+		}
+
+		@Override
+		long bytes() {
+			return HEADER + 4 + HEADER + 2L * values.length;
+		}
+
+		@Override
+		Container copy() {
+			ArrayContainer copy = new ArrayContainer(0);
+			copy.values = Arrays.copyOf(values, size);
+			copy.size = size;
+			return copy;
+		}
+
+		@Override
+		Container and(Container other) {
+			return this.filter(other, true);
+		}
+
+		@Override
+		Container andNot(Container other) {
+			return this.filter(other, false);
+		}
+
+		/**
+		 * Returns the ids of this container that are, or are not, in other. Costs a lookup in
+		 * other for every id here, so intersecting a short array with a big bitmap is cheap.
+		 *
+		 * @param other
+		 *             the other container
+		 * @param in
+		 *          whether to keep the ids that are in other, or the ones that are not
+		 * @return the kept ids
+		 */
+		private ArrayContainer filter(Container other, boolean in) {
+			ArrayContainer result = new ArrayContainer(in ? Math.min(size, other.cardinality()) : size);
+			for (int i = 0; i < size; i++){
+				if (other.contains(values[i]) == in){
+					result.values[result.size++] = values[i]; // still ascending
+				}
+			}
+			return result;
+		}
+
+		@Override
+		Container or(Container other) {
+			if (other instanceof BitmapContainer){
+				return other.or(this);
+			}
+			ArrayContainer array = (ArrayContainer) other;
+			char[] merged = new char[size + array.size];
+			int i = 0, j = 0, n = 0;
+			while (i < size && j < array.size){
+				char a = values[i], b = array.values[j];
+				merged[n++] = a <= b ? a : b;
+				i += a <= b ? 1 : 0;
+				j += b <= a ? 1 : 0; // both move on when they are equal
+			}
+			while (i < size){
+				merged[n++] = values[i++];
+			}
+			while (j < array.size){
+				merged[n++] = array.values[j++];
+			}
+			ArrayContainer result = new ArrayContainer(0);
+			result.values = merged;
+			result.size = n;
+			return n > ARRAY_MAX ? new BitmapContainer(result) : result;
+		}
+	}
+
+	/** More than ARRAY_MAX ids as one bit each. */
+	private final static class BitmapContainer extends Container {
+
+		/** A bit for every id of the chunk. */
+		final long[] words;
+		/** How many bits are set. */
+		int cardinality;
+
+		/**
+		 * Initializes an empty bitmap.
+		 */
+		BitmapContainer() {
+			words = new long[BITMAP_WORDS];
+		}
+
+		/**
+		 * Initializes a bitmap with the ids of a full array container.
+		 *
+		 * @param array
+		 *             the array container
+		 */
+		BitmapContainer(ArrayContainer array) {
+			this();
+			for (int i = 0; i < array.size; i++){
+				words[array.values[i] >>> 6] |= 1L << array.values[i];
+			}
+			cardinality = array.size;
+		}
+
+		@Override
+		Container add(char low) {
+			long bit = 1L << low;
+			if ((words[low >>> 6] & bit) == 0){
+				words[low >>> 6] |= bit;
+				cardinality++;
+			}
+			return this;
+		}
+
+		@Override
+		Container remove(char low) {
+			long bit = 1L << low;
+			if ((words[low >>> 6] & bit) != 0){
+				words[low >>> 6] &= ~bit;
+				cardinality--;
+				if (cardinality <= ARRAY_MAX){ // an array is smaller again
+					ArrayContainer array = new ArrayContainer(cardinality);
+					array.size = this.fill(0, null, 0, array.values);
+					return array;
+				}
+			}
+			return this;
+		}
+
+		@Override
+		boolean contains(char low) {
+			return (words[low >>> 6] & (1L << low)) != 0;
+		}
+
+		@Override
+		int cardinality() {
+			return cardinality;
+		}
+
+		@Override
+		int fill(int high, int[] ids, int at) {
+			return this.fill(high, ids, at, null);
+		}
+
+		@Override
+		void fill(long[] words, int from) {
+			System.arraycopy(this.words, 0, words, from, BITMAP_WORDS);
+		}
+
+		/**
+		 * Writes the set bits into ids, or their low 16 bits into lows.
+		 *
+		 * @param high
+		 *            the high 16 bits of the chunk, shifted into place
+		 * @param ids
+		 *           where to write whole ids, or null
+		 * @param at
+		 *          where to start writing
+		 * @param lows
+		 *            where to write low bits instead, or null
+		 * @return where writing stopped
+		 */
+		private int fill(int high, int[] ids, int at, char[] lows) {
+			for (int w = 0; w < BITMAP_WORDS; w++){
+				long word = words[w];
+				while (word != 0){
+					int low = w << 6 | Long.numberOfTrailingZeros(word);
+					if (lows != null){
+						lows[at++] = (char) low;
+					}
+					else{
+						ids[at++] = high | low;
+					}
+					word &= word - 1; // the lowest set bit is done
+				}
+			}
+			return at;
+		}
+
+		@Override
+		long bytes() {
+			return HEADER + 4 + HEADER + 8L * BITMAP_WORDS;
+		}
+
+		@Override
+		Container copy() {
+			BitmapContainer copy = new BitmapContainer();
+			System.arraycopy(words, 0, copy.words, 0, BITMAP_WORDS);
+			copy.cardinality = cardinality;
+			return copy;
+		}
+
+		@Override
+		Container and(Container other) {
+			if (other instanceof ArrayContainer){
+				return other.and(this);
+			}
+			BitmapContainer result = new BitmapContainer();
+			long[] them = ((BitmapContainer) other).words;
+			for (int w = 0; w < BITMAP_WORDS; w++){
+				result.words[w] = words[w] & them[w];
+			}
+			return result.shrink();
+		}
+
+		@Override
+		Container or(Container other) {
+			BitmapContainer result = (BitmapContainer) this.copy();
+			if (other instanceof ArrayContainer){
+				ArrayContainer array = (ArrayContainer) other;
+				for (int i = 0; i < array.size; i++){
+					result.words[array.values[i] >>> 6] |= 1L << array.values[i];
+				}
+			}
+			else{
+				long[] them = ((BitmapContainer) other).words;
+				for (int w = 0; w < BITMAP_WORDS; w++){
+					result.words[w] |= them[w];
+				}
+			}
+			return result.shrink();
+		}
+
+		@Override
+		Container andNot(Container other) {
+			BitmapContainer result = (BitmapContainer) this.copy();
+			if (other instanceof ArrayContainer){
+				ArrayContainer array = (ArrayContainer) other;
+				for (int i = 0; i < array.size; i++){
+					result.words[array.values[i] >>> 6] &= ~(1L << array.values[i]);
+				}
+			}
+			else{
+				long[] them = ((BitmapContainer) other).words;
+				for (int w = 0; w < BITMAP_WORDS; w++){
+					result.words[w] &= ~them[w];
+				}
+			}
+			return result.shrink();
+		}
+
+		/**
+		 * Counts the bits of a bitmap whose words were set directly, and turns it into an array
+		 * if that is smaller.
+		 *
+		 * @return this container, or an array container with the same ids
+		 */
+		private Container shrink() {
+			cardinality = 0;
+			for (long word : words){
+				cardinality += Long.bitCount(word);
+			}
+			if (cardinality > ARRAY_MAX){
+				return this;
+			}
+			ArrayContainer array = new ArrayContainer(cardinality);
+			array.size = this.fill(0, null, 0, array.values);
+			return array;
+		}
+	}
+
+	/** The high 16 bits of every chunk with ids, ascending, in the first size slots. */
+	private char[] keys = new char[0];
+	/** The container of each chunk, in the order of keys. */
+	private Container[] containers = new Container[0];
+	/** How many chunks have ids. */
+	private int size;
+
+	/**
+	 * Initializes an empty bitmap.
+	 */
+	public TagBitmap() {
+	}
+
+	/**
+	 * Initializes a copy of a bitmap.
+	 *
+	 * @param other
+	 *             the bitmap to copy
+	 */
+	public TagBitmap(TagBitmap other) {
+		keys = Arrays.copyOf(other.keys, other.size);
+		containers = new Container[other.size];
+		for (int i = 0; i < other.size; i++){
+			containers[i] = other.containers[i].copy();
+		}
+		size = other.size;
+	}
+
+	/**
+	 * Adds an id.
+	 *
+	 * @param id
+	 *          the id, not negative
+	 * @return whether it was not there yet
+	 */
+	public boolean add(int id) {
+		char high = (char) (id >>> 16);
+		int i = Arrays.binarySearch(keys, 0, size, high);
+		if (i < 0){ // the first id of its chunk
+			i = -i - 1;
+			if (size == keys.length){
+				int capacity = Math.max(4, size * 2);
+				keys = Arrays.copyOf(keys, capacity);
+				containers = Arrays.copyOf(containers, capacity);
+			}
+			System.arraycopy(keys, i, keys, i + 1, size - i);
+			System.arraycopy(containers, i, containers, i + 1, size - i);
+			keys[i] = high;
+			containers[i] = new ArrayContainer(4);
+			size++;
+		}
+		int before = containers[i].cardinality();
+		containers[i] = containers[i].add((char) id);
+		return containers[i].cardinality() != before;
+	}
+
+	/**
+	 * Removes an id.
+	 *
+	 * @param id
+	 *          the id
+	 * @return whether it was there
+	 */
+	public boolean remove(int id) {
+		int i = Arrays.binarySearch(keys, 0, size, (char) (id >>> 16));
+		if (i < 0){
+			return false;
+		}
+		int before = containers[i].cardinality();
+		containers[i] = containers[i].remove((char) id);
+		int after = containers[i].cardinality();
+		if (after == 0){ // the chunk is empty, drop it
+			System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+			System.arraycopy(containers, i + 1, containers, i, size - i - 1);
+			containers[--size] = null;
+		}
+		return after != before;
+	}
+
+	/**
+	 * Returns whether an id is in the bitmap.
+	 *
+	 * @param id
+	 *          the id
+	 * @return whether it is there
+	 */
+	public boolean contains(int id) {
+		int i = Arrays.binarySearch(keys, 0, size, (char) (id >>> 16));
+		return i >= 0 && containers[i].contains((char) id);
+	}
+
+	/**
+	 * Returns the ids in both bitmaps, as a new bitmap. Only chunks both have are looked at.
+	 *
+	 * @param a
+	 *         a bitmap
+	 * @param b
+	 *         another bitmap
+	 * @return the intersection
+	 */
+	public static TagBitmap and(TagBitmap a, TagBitmap b) {
+		TagBitmap result = new TagBitmap();
+		int i = 0, j = 0;
+		while (i < a.size && j < b.size){
+			if (a.keys[i] == b.keys[j]){
+				result.append(a.keys[i], a.containers[i].and(b.containers[j]));
+				i++;
+				j++;
+			}
+			else if (a.keys[i] < b.keys[j]){
+				i++;
+			}
+			else{
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the ids in either bitmap, as a new bitmap.
+	 *
+	 * @param a
+	 *         a bitmap
+	 * @param b
+	 *         another bitmap
+	 * @return the union
+	 */
+	public static TagBitmap or(TagBitmap a, TagBitmap b) {
+		TagBitmap result = new TagBitmap();
+		int i = 0, j = 0;
+		while (i < a.size || j < b.size){
+			if (j == b.size || (i < a.size && a.keys[i] < b.keys[j])){
+				result.append(a.keys[i], a.containers[i].copy());
+				i++;
+			}
+			else if (i == a.size || b.keys[j] < a.keys[i]){
+				result.append(b.keys[j], b.containers[j].copy());
+				j++;
+			}
+			else{
+				result.append(a.keys[i], a.containers[i].or(b.containers[j]));
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the ids in a but not in b, as a new bitmap.
+	 *
+	 * @param a
+	 *         a bitmap
+	 * @param b
+	 *         the ids to leave out
+	 * @return the difference
+	 */
+	public static TagBitmap andNot(TagBitmap a, TagBitmap b) {
+		TagBitmap result = new TagBitmap();
+		int j = 0;
+		for (int i = 0; i < a.size; i++){
+			while (j < b.size && b.keys[j] < a.keys[i]){
+				j++;
+			}
+			result.append(a.keys[i], j < b.size && b.keys[j] == a.keys[i]
+					? a.containers[i].andNot(b.containers[j]) : a.containers[i].copy());
+		}
+		return result;
+	}
+
+	/**
+	 * Adds the container of a chunk after every chunk there is, unless it is empty.
+	 *
+	 * @param key
+	 *           the high 16 bits of the chunk, above those of every chunk there is
+	 * @param container
+	 *                 its ids
+	 */
+	private void append(char key, Container container) {
+		if (container.cardinality() == 0){
+			return;
+		}
+		if (size == keys.length){
+			int capacity = Math.max(4, size * 2);
+			keys = Arrays.copyOf(keys, capacity);
+			containers = Arrays.copyOf(containers, capacity);
+		}
+		keys[size] = key;
+		containers[size++] = container;
+	}
+
+	/**
+	 * Returns how many ids are in the bitmap.
+	 *
+	 * @return the number of ids
+	 */
+	public int getCardinality() {
+		int cardinality = 0;
+		for (int i = 0; i < size; i++){
+			cardinality += containers[i].cardinality();
+		}
+		return cardinality;
+	}
+
+	/**
+	 * Returns whether the bitmap has no ids.
+	 *
+	 * @return whether it is empty
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Removes every id.
+	 */
+	public void clear() {
+		keys = new char[0];
+		containers = new Container[0];
+		size = 0;
+	}
+
+	/**
+	 * Returns the ids, in ascending order.
+	 *
+	 * @return the ids
+	 */
+	public int[] toArray() {
+		int[] ids = new int[this.getCardinality()];
+		int at = 0;
+		for (int i = 0; i < size; i++){
+			at = containers[i].fill(keys[i] << 16, ids, at);
+		}
+		return ids;
+	}
+
+	/**
+	 * Returns the ids as a plain bitmap, bit id % 64 of word id / 64 set for every id, for
+	 * looking up many ids at a shift and a mask each. Takes 8 KB for every chunk up to the
+	 * highest id, so it is only for bitmaps of ids handed out densely, like TagIndex's.
+	 *
+	 * @return the words, as many as the highest id needs
+	 */
+	public long[] toWords() {
+		if (size == 0){
+			return new long[0];
+		}
+		long[] words = new long[(keys[size - 1] + 1) * BITMAP_WORDS];
+		for (int i = 0; i < size; i++){
+			containers[i].fill(words, keys[i] * BITMAP_WORDS);
+		}
+		return words;
+	}
+
+	/**
+	 * Returns about how much memory the bitmap takes, its containers included.
+	 *
+	 * @return the size in bytes
+	 */
+	public long getSizeInBytes() {
+		long bytes = HEADER + 4 + HEADER + 2L * keys.length + HEADER + 4L * containers.length;
+		for (int i = 0; i < size; i++){
+			bytes += containers[i].bytes();
+		}
+		return bytes;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString(){
+		int arrays = 0;
+		for (int i = 0; i < size; i++){
+			arrays += containers[i] instanceof ArrayContainer ? 1 : 0;
+		}
+		return this.getCardinality() + " ids in " + arrays + " array and " + (size - arrays) + " bitmap containers, "
+				+ this.getSizeInBytes() + " bytes";
+	}
+}
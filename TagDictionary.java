@@ -0,0 +1,296 @@
+package photo_renamer;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Interns tag names to dense int ids. A name is looked up by hash, and everything about a tag is
+ * kept in arrays indexed by its id: its name, when it was created and where it is in the order
+ * the tags were created, so the position of a tag is found without going through the others.
+ *
+ * A name keeps its id for as long as the dictionary lives. The tags the user made are the names
+ * listed in order; the TagIndex also gives ids to the tags it finds in file names, with idFor,
+ * without listing them. Removing a tag only takes it off the list, and making it again lists it
+ * under the same id, so an id held anywhere, in a posting of the index or in a batch, always
+ * names the same tag.
+ *
+ * Tag objects are only made when the tags are listed, from the arrays.
+ *
+ * Thread safe. Listing the tags copies them once after every change and hands out that copy
+ * until the next one, so a list of the tags never changes while it is gone through, and a run
+ * of changes costs no copying at all.
+ */
+public class TagDictionary {
+
+	/** The room there is for ids at first. */
+	private final static int INITIAL_CAPACITY = 16;
+
+	/** The id of every name, listed or not, by the name. */
+	private final HashMap<String, Integer> ids = new HashMap<String, Integer>();
+	/** The name with each id. */
+	private String[] names = new String[INITIAL_CAPACITY];
+	/** When each tag was last created, in nanoseconds since 1970 on the local clock. */
+	private long[] created = new long[INITIAL_CAPACITY];
+	/** Where each tag is in order, -1 for a name that is not listed. */
+	private int[] positions = new int[INITIAL_CAPACITY];
+	/** The ids of the tags there are, in the order they were created, in the first count slots. */
+	private int[] order = new int[INITIAL_CAPACITY];
+	/** How many ids were handed out. */
+	private int next;
+	/** How many tags there are. */
+	private int count;
+	/** The tags as they were after the last change, null until they are listed again. */
+	private List<Tag> snapshot;
+
+	/**
+	 * Initializes an empty dictionary.
+	 */
+	public TagDictionary() {
+	}
+
+	/**
+	 * Makes name a tag, giving it the next id if it has none.
+	 *
+	 * @param name
+	 *            the name of the tag
+	 * @return its id
+	 */
+	public int intern(String name) {
+		return this.intern(name, LocalDateTime.now()); // the current time according the computer being used
+	}
+
+	/**
+	 * Makes name a tag created at timestamp, giving it the next id if it has none.
+	 *
+	 * @param name
+	 *            the name of the tag
+	 * @param timestamp
+	 *                 when it was created, kept only if it was not a tag yet
+	 * @return its id
+	 */
+	public synchronized int intern(String name, LocalDateTime timestamp) {
+		int id = this.idFor(name);
+		if (positions[id] != -1){ // a tag already
+			return id;
+		}
+		created[id] = timestamp.toEpochSecond(ZoneOffset.UTC) * 1000000000L + timestamp.getNano();
+		positions[id] = count;
+		order[count++] = id;
+		snapshot = null;
+		return id;
+	}
+
+	/**
+	 * Returns the id of name, giving it the next id if it has none, without making it a tag.
+	 * For the tags found in file names, which are not necessarily tags the user made.
+	 *
+	 * @param name
+	 *            the name
+	 * @return its id
+	 */
+	public synchronized int idFor(String name) {
+		Integer id = ids.get(name);
+		if (id != null){
+			return id;
+		}
+		if (next == names.length){
+			int capacity = next * 2;
+			names = Arrays.copyOf(names, capacity);
+			created = Arrays.copyOf(created, capacity);
+			positions = Arrays.copyOf(positions, capacity);
+			order = Arrays.copyOf(order, capacity);
+		}
+		names[next] = name;
+		positions[next] = -1;
+		ids.put(name, next);
+		return next++;
+	}
+
+	/**
+	 * Returns the ids of names, under one lock, giving the new ones ids without making them tags.
+	 *
+	 * @param names
+	 *             the names
+	 * @return their ids, in the same order
+	 */
+	public synchronized int[] idsFor(List<String> names) {
+		int[] found = new int[names.size()];
+		for (int i = 0; i < found.length; i++){
+			found[i] = this.idFor(names.get(i));
+		}
+		return found;
+	}
+
+	/**
+	 * Returns the id of the tag named name.
+	 *
+	 * @param name
+	 *            the name of the tag
+	 * @return its id, or -1 if there is no such tag
+	 */
+	public synchronized int idOf(String name) {
+		Integer id = ids.get(name);
+		return id == null || positions[id] == -1 ? -1 : id;
+	}
+
+	/**
+	 * Returns the id of name, whether it is a tag or only has an id, without giving it one.
+	 *
+	 * @param name
+	 *            the name
+	 * @return its id, or -1 if it has none
+	 */
+	public synchronized int knownIdOf(String name) {
+		Integer id = ids.get(name);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * Returns the name with id, whether it is a tag or not.
+	 *
+	 * @param id
+	 *          the id
+	 * @return its name, or null if it was never handed out
+	 */
+	public synchronized String nameOf(int id) {
+		return id >= 0 && id < next ? names[id] : null;
+	}
+
+	/**
+	 * Returns the names with ids, under one lock.
+	 *
+	 * @param ids
+	 *           ids that were handed out
+	 * @return their names, in the same order
+	 */
+	public synchronized List<String> namesOf(int[] ids) {
+		ArrayList<String> found = new ArrayList<String>(ids.length);
+		for (int id : ids){
+			if (id < 0 || id >= next){
+				throw new IllegalArgumentException("No name has the id " + id);
+			}
+			found.add(names[id]);
+		}
+		return found;
+	}
+
+	/**
+	 * Returns where the tag named name is in the order the tags were created.
+	 *
+	 * @param name
+	 *            the name of the tag
+	 * @return its position, or -1 if there is no such tag
+	 */
+	public synchronized int indexOf(String name) {
+		Integer id = ids.get(name);
+		return id == null ? -1 : positions[id];
+	}
+
+	/**
+	 * Returns the id of the tag at a position in the order the tags were created.
+	 *
+	 * @param index
+	 *             the position
+	 * @return its id
+	 */
+	public synchronized int idAt(int index) {
+		if (index < 0 || index >= count){
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+		}
+		return order[index];
+	}
+
+	/**
+	 * Returns the tag with id.
+	 *
+	 * @param id
+	 *          the id of a tag there is
+	 * @return a new Tag with its name and timestamp
+	 */
+	public synchronized Tag get(int id) {
+		long nanos = created[id];
+		return new Tag(names[id], LocalDateTime.ofEpochSecond(Math.floorDiv(nanos, 1000000000L),
+				(int) Math.floorMod(nanos, 1000000000L), ZoneOffset.UTC));
+	}
+
+	/**
+	 * Removes the tag named name. The name keeps its id, for the files that still have it.
+	 *
+	 * @param name
+	 *            the name of the tag
+	 * @return whether there was such a tag
+	 */
+	public synchronized boolean remove(String name) {
+		Integer id = ids.get(name);
+		if (id == null || positions[id] == -1){
+			return false;
+		}
+		int position = positions[id];
+		System.arraycopy(order, position + 1, order, position, count - position - 1); // the tags after it move up
+		count--;
+		for (int i = position; i < count; i++){
+			positions[order[i]] = i;
+		}
+		positions[id] = -1;
+		snapshot = null;
+		return true;
+	}
+
+	/**
+	 * Returns how many tags there are.
+	 *
+	 * @return the number of tags
+	 */
+	public synchronized int size() {
+		return count;
+	}
+
+	/**
+	 * Returns the ids of the tags, in the order they were created.
+	 *
+	 * @return a copy of the ids, which later changes do not show up in
+	 */
+	public synchronized int[] ids() {
+		return Arrays.copyOf(order, count);
+	}
+
+	/**
+	 * Returns the tags, in the order they were created.
+	 *
+	 * @return a read-only list of the tags, which later changes do not show up in
+	 */
+	public synchronized List<Tag> asList() {
+		if (snapshot == null){ // changed since the last time, copy it once for every reader until the next change
+			ArrayList<Tag> tags = new ArrayList<Tag>(count);
+			for (int i = 0; i < count; i++){
+				tags.add(this.get(order[i]));
+			}
+			snapshot = Collections.unmodifiableList(tags);
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Removes every tag. The names keep their ids.
+	 */
+	public synchronized void clear() {
+		for (int i = 0; i < count; i++){
+			positions[order[i]] = -1;
+		}
+		count = 0;
+		snapshot = null;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public synchronized String toString(){
+		return "Tag dictionary: " + count + " tags, " + next + " ids handed out";
+	}
+}
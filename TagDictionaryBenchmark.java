@@ -0,0 +1,159 @@
+package photo_renamer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Measures finding a tag by its name the way TagHandler used to, going through an ArrayList of
+ * Tag with String.equals, next to looking it up in a TagDictionary, for vocabularies of more and
+ * more tags. Also times creating every tag and deleting a tenth of them both ways, since
+ * creating used to go through the list first too, and once more through TagHandler's createTag
+ * and deleteTag, which is what the program calls. TagHandler saves to a temporary file meanwhile.
+ *
+ * Usage: TagDictionaryBenchmark [lookups]   (defaults to 100000 per vocabulary, after as many to warm up)
+ */
+public class TagDictionaryBenchmark {
+
+	/** How many names are looked up in each vocabulary, by default. */
+	private final static int DEFAULT_LOOKUPS = 100000;
+	/** How many tags each vocabulary has. */
+	private final static int[] VOCABULARIES = {100, 1000, 10000, 50000};
+
+	/** Where the results go, so neither way can be optimized away. */
+	private static long sink;
+
+	/**
+	 * Runs both ways on every vocabulary.
+	 *
+	 * @param args
+	 *            optionally, how many names to look up per vocabulary
+	 * @throws IOException
+	 *                    if the temporary tag file can not be made
+	 */
+	public static void main(String[] args) throws IOException {
+		String realTags = TagHandler.filePath;
+		File tagFile = File.createTempFile("tagbench", ".ser");
+		try {
+			TagHandler.filePath = tagFile.getPath(); // never touch the real tags
+			ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(tagFile));
+			out.writeObject(new ArrayList<Tag>()); // so the handler starts with no tags
+			out.close();
+			TagDictionaryBenchmark.run(args);
+			TagHandler.clearTags();
+		} finally {
+			TagHandler.filePath = realTags;
+			tagFile.delete();
+		}
+	}
+
+	/**
+	 * Runs both ways on every vocabulary.
+	 *
+	 * @param args
+	 *            optionally, how many names to look up per vocabulary
+	 */
+	private static void run(String[] args) {
+		int lookups = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_LOOKUPS;
+		for (int size : VOCABULARIES){
+			String[] names = new String[size];
+			for (int i = 0; i < size; i++){
+				names[i] = "tag" + i;
+			}
+			Random random = new Random(24);
+			String[] wanted = new String[lookups];
+			for (int i = 0; i < lookups; i++){
+				wanted[i] = random.nextInt(10) == 0 ? "missing" + i : names[random.nextInt(size)]; // some are not there
+			}
+
+			long start = System.nanoTime();
+			ArrayList<Tag> list = new ArrayList<Tag>();
+			for (String name : names){
+				if (find(list, name) == -1){ // createTag went through every tag first
+					list.add(new Tag(name));
+				}
+			}
+			long listCreate = System.nanoTime() - start;
+			start = System.nanoTime();
+			TagDictionary dictionary = new TagDictionary();
+			for (String name : names){
+				dictionary.intern(name);
+			}
+			long dictionaryCreate = System.nanoTime() - start;
+
+			int scanned = Math.max(1, lookups * 100 / size); // the list gets too slow to do them all
+			scanned = Math.min(lookups, scanned);
+			for (int i = 0; i < scanned; i++){ // warm up
+				sink += find(list, wanted[i]) + dictionary.indexOf(wanted[i]);
+			}
+			start = System.nanoTime();
+			for (int i = 0; i < scanned; i++){
+				sink += find(list, wanted[i]);
+			}
+			double listFind = (double) (System.nanoTime() - start) / scanned;
+			for (int i = 0; i < lookups; i++){
+				sink += dictionary.indexOf(wanted[i]);
+			}
+			start = System.nanoTime();
+			for (int i = 0; i < lookups; i++){
+				sink += dictionary.indexOf(wanted[i]);
+			}
+			double dictionaryFind = (double) (System.nanoTime() - start) / lookups;
+
+			start = System.nanoTime();
+			for (int i = 0; i < size; i += 10){
+				int found = find(list, names[i]);
+				list.remove(found);
+			}
+			long listDelete = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int i = 0; i < size; i += 10){
+				dictionary.remove(names[i]);
+			}
+			long dictionaryDelete = System.nanoTime() - start;
+
+			TagHandler.clearTags();
+			TagHandler handler = TagHandler.getInstance();
+			start = System.nanoTime();
+			for (String name : names){
+				handler.createTag(name);
+			}
+			long handlerCreate = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int i = 0; i < size; i += 10){
+				handler.deleteTag(names[i]);
+			}
+			long handlerDelete = System.nanoTime() - start;
+			sink += TagHandler.getTags().size(); // listing once copies the tags once
+
+			System.out.println(String.format("%6d tags: find %10.1f ns in the list, %6.1f ns in the dictionary;"
+					+ " create all %7.1f ms / %5.1f ms / %5.1f ms through TagHandler; delete a tenth %7.1f ms / %5.1f ms / %5.1f ms",
+					size, listFind, dictionaryFind, listCreate / 1000000.0, dictionaryCreate / 1000000.0, handlerCreate / 1000000.0,
+					listDelete / 1000000.0, dictionaryDelete / 1000000.0, handlerDelete / 1000000.0));
+		}
+		if (sink == 42){
+			System.out.println();
+		}
+	}
+
+	/**
+	 * Finds a tag the way TagHandler's findTag used to.
+	 *
+	 * @param tags
+	 *            the tags
+	 * @param name
+	 *            the name to look for
+	 * @return its index, or -1
+	 */
+	private static int find(ArrayList<Tag> tags, String name) {
+		for (int i = 0; i < tags.size(); i++){
+			if (tags.get(i).getName().equals(name)){
+				return i;
+			}
+		}
+		return -1;
+	}
+}
@@ -5,6 +5,8 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
 
 import javax.swing.ImageIcon;
 
@@ -18,22 +20,30 @@ import java.io.FileInputStream;
 
 
 /**
- * Handles all current tags in the system.
+ * Handles all current tags in the system. The tags are kept in a TagDictionary, so a tag is
+ * found, created or deleted by its name without going through the others, however many there
+ * are. They are saved as a list of Tag, like they always were. The TagIndex keys its postings by
+ * the ids of the same dictionary, and tagging takes those ids, which only become names when the
+ * new file name is worked out.
+ *
+ * Thread safe. Creating or deleting a tag changes the one dictionary under the handler's lock,
+ * and listing the tags hands out a copy made once after each change, so a list of the tags
+ * never changes while it is gone through. Tagging an image holds the lock of its file, see
+ * History.lock, so two threads never work out new names from the same old one.
  */
 public class TagHandler implements Serializable {
 
 	/** */
 	private static final long serialVersionUID = 6188043389727672902L;
 	/** Used for singleton design pattern, to have only one instance of this class. */
-	private static TagHandler instance = null;
-	/** ArrayList of all tags. */
-	public ArrayList<Tag> tags;
+	private static volatile TagHandler instance = null;
+	/** All tags, by name and by id, in the order they were created. */
+	private final TagDictionary tags = new TagDictionary();
 	/** The file path to the .ser file we serialize the tags to after termination. */
 	public static String filePath = System.getProperty("user.dir") + "//src//photo_renamer//tags.ser";
 
 	/** Initializes TagHandler. */
 	public TagHandler(){
-		tags = new ArrayList<Tag>();
 		try {
 			readFromSerFile();
 		} catch (FileNotFoundException e) {
@@ -47,18 +57,36 @@ public class TagHandler implements Serializable {
 	 * @return the one instance of TagHandler
 	 */
 	public static TagHandler getInstance(){
-		if (instance == null){ // if there isnt already an instance created...
-			instance = new TagHandler(); // create one
+		TagHandler handler = instance; // read once, it is volatile
+		if (handler == null){ // if there isnt already an instance created...
+			synchronized (TagHandler.class){ // only one thread creates it
+				handler = instance;
+				if (handler == null){
+					handler = new TagHandler(); // create one
+					instance = handler;
+				}
+			}
 		}
-		return instance;
+		return handler;
+	}
+	
+	/** Returns a list of all tags.
+	 * 
+	 * @return read-only List of Tags which is the list of all current tags, in the order they were created.
+	 *         Tags created or deleted later do not show up in it.
+	 */
+	public static List<Tag> getTags(){
+		return TagHandler.getInstance().tags.asList(); 
 	}
 	
-	/** Returns an ArrayList of all tags.
+	/**
+	 * Returns the dictionary of all tags, for their ids.
 	 * 
-	 * @return ArrayList of Tags which is the list of all current tags.
+	 * @return the TagDictionary of all current tags, which must only be changed through
+	 *         TagHandler
 	 */
-	public static ArrayList<Tag> getTags(){
-		return TagHandler.getInstance().tags; 
+	public static TagDictionary getDictionary(){
+		return TagHandler.getInstance().tags;
 	}
 	
 	/**
@@ -66,15 +94,10 @@ public class TagHandler implements Serializable {
 	 * 
 	 * @param tagName
 	 *               the tag name we're looking for
-	 * @return the index of the tag we're looking for 
+	 * @return the index of the tag we're looking for, in the order the tags were created, or -1
 	 */
 	public int findTag (String tagName){
-		for (int i = 0; i < TagHandler.getInstance().tags.size(); i++){ // go through all tags via index
-			if (TagHandler.getInstance().tags.get(i).getName().equals(tagName)){ // when we find the right one...
-				return i; // return its' index
-			}
-		}
-		return -1; // if nothing found, return -1
+		return TagHandler.getInstance().tags.indexOf(tagName); // by hash, not by going through all tags
 	}
 	
 	/** Creates a new tag according to given tagName, if not already existing.
@@ -84,15 +107,15 @@ public class TagHandler implements Serializable {
 	 * @return return False if tag exists, and True if a new tag was created
 	 */
 	public boolean createTag(String tagName) {
-		if (tagName != null){ // if we have a name to work with...
-			for (Tag element: TagHandler.getInstance().tags) { // search to see if tag already exists
-				if (element.getName().equals(tagName)){
+		if (TaggedName.isValidTag(tagName)){ // if we have a name that can be read back from a file name...
+			TagHandler handler = TagHandler.getInstance();
+			synchronized (handler){ // one change at a time
+				if (handler.tags.idOf(tagName) != -1){ // see if tag already exists
 					return false; // return false and do nothing if it does
 				}
+				handler.tags.intern(tagName); // we didnt find it, so create a new one
+				return true;
 			}
-			Tag tag = new Tag(tagName); // we didnt find it, so create a new one...
-			TagHandler.getInstance().tags.add(tag); // and add to the list
-			return true; // found it!
 		}
 		return false;
 	}
@@ -103,10 +126,10 @@ public class TagHandler implements Serializable {
 	 *			what the user wants the tag to be
 	 */
 	public void deleteTag(String tagName) {
-		for (Tag element: TagHandler.getInstance().tags) { // search to see if tag already exists
-			if (element.getName().equals(tagName)){ // if we find the tag...
-				TagHandler.getInstance().tags.remove(element); // remove from the list
-				break; // no need to keep going through the rest of the tags
+		TagHandler handler = TagHandler.getInstance();
+		synchronized (handler){
+			if (tagName != null){ // nothing happens if it does not exist
+				handler.tags.remove(tagName);
 			}
 		}
 	}
@@ -120,36 +143,41 @@ public class TagHandler implements Serializable {
 	 *@return the updated version of img with added tags
 	 */
 	public Image addTag(Image img, ArrayList<String> tagNames){
+		return this.addTag(img, TagHandler.getInstance().tags.idsFor(tagNames)); // by id from here on
+	}
+	
+	 /** Add the given tag(s) to the corresponding image.
+	 * @param img
+	 *			image for the tag to be added to 
+	 *@param  tagIds
+	 *			the ids of the tags to be added, from getDictionary
+	 *@return the updated version of img with added tags
+	 */
+	public Image addTag(Image img, int[] tagIds){
 		
-		if (tagNames.isEmpty()){
+		if (tagIds.length == 0){
 			return img;
 		}
 		
 		else{
-			String absPath = img.getFile().getAbsolutePath(); // ref to the path
-			String pathNameBeforeExt = absPath.substring(0, absPath.lastIndexOf("\\") + 1).trim(); // part before name
-			String imgName = absPath.substring(absPath.lastIndexOf("\\") + 1, absPath.lastIndexOf(".")).trim(); // just name
-			String ext = absPath.substring(absPath.lastIndexOf("."), absPath.length()); // just extension
+			Lock lock = History.lock(img); // from its current name, and no other rename until done
+			try {
+				String absPath = img.getFile().getAbsolutePath(); // ref to the path
+				File newFile = TagHandler.withTags(img.getFile(), tagIds); // the new file with the new file path
+				img.setIconDesc(newFile.getAbsolutePath()); // set the new path to the icon
+				
+				Image newImage = new Image(newFile.getName(), newFile, img.peekIcon()); // create the uodated image object
 			
-			for (String tagName : tagNames){ // go through all tags to add and add to the end of the name
-				if (!img.getName().contains("@" + tagName)){
-					imgName += " @" + tagName;
-				}
+				img.renameFile(newImage.getFile()); // rename the file
+				img.setName(newImage.getFile().getName()); // and update the values...
+				img.setFile(newImage.getFile());
+				
+				// same file, only its location in the log changes
+				History.renamed(new File(absPath), img.getFile());
+				TagIndex.getInstance().renamed(new File(absPath), img.getFile()); // and the tags it gained
+			} finally {
+				lock.unlock();
 			}
-			imgName = imgName.trim(); // no extra white space
-			
-			String fileName = pathNameBeforeExt + imgName + ext; // put it back together
-			File newFile = new File(fileName); // create the new file with the new file path
-			img.setIconDesc(newFile.getAbsolutePath()); // set the new path to the icon
-			
-			Image newImage = new Image(newFile.getName(), newFile, img.getIcon()); // create the uodated image object
-		
-			img.renameFile(newImage.getFile()); // rename the file
-			img.setName(newImage.getFile().getName()); // and update the values...
-			img.setFile(newImage.getFile());
-			
-			// update the key on the log to the new one
-			History.putInLog(img.getFile().getAbsolutePath(), History.removeFromLog(absPath));
 			
 			return img;
 		}
@@ -163,51 +191,134 @@ public class TagHandler implements Serializable {
 	 *@return updated img with removed tags
 	 */
 	public Image removeTag(Image img, ArrayList<String> tagNames){
+		return this.removeTag(img, TagHandler.getInstance().tags.idsFor(tagNames));
+	}
+	
+	 /** remove the tag(s) from the corresponding image.
+	 * @param img
+	 *			image for the tag to be deleted from 
+	 *@param  tagIds
+	 *			the ids of the tags to be deleted, from getDictionary
+	 *@return updated img with removed tags
+	 */
+	public Image removeTag(Image img, int[] tagIds){
 		
-		if (tagNames.size() == 0) { //if the tagNames is empty, don't do anything
+		if (tagIds.length == 0) { //if there are no tags, don't do anything
 			return img;
 		}
 		
 		else {
 		// very similar to addTag
-		String absPath = img.getFile().getAbsolutePath(); // the path
-		String pathNameBeforeExt = absPath.substring(0, absPath.lastIndexOf("\\") + 1); // before name
-		String imgName = absPath.substring(absPath.lastIndexOf("\\") + 1, absPath.lastIndexOf(".")); // name
-		String ext = absPath.substring(absPath.lastIndexOf("."), absPath.length()); // extension
-		
-		for (String tagName : tagNames){ // go through all given tag names to remove
-			if (img.getName().contains("@" + tagName)){ // if its in the name...
-				imgName = imgName.substring(0, imgName.indexOf("@" + tagName)).trim() // part before the tag
-						+ imgName.substring(imgName.lastIndexOf("@" + tagName) + // part after tag
-								tagName.length() + 1, imgName.length());
-
-			}
+		Lock lock = History.lock(img);
+		File newFile;
+		try {
+			String absPath = img.getFile().getAbsolutePath(); // the path
+			newFile = TagHandler.withoutTags(img.getFile(), tagIds); // the new file
+			img.setIconDesc(newFile.getAbsolutePath()); // set the imageicons new path
+			
+			Image newImage = new Image(newFile.getName(), newFile, img.peekIcon()); // create new image object
+			
+			img.renameFile(newImage.getFile()); //rename the file
+			img.setName(newImage.getFile().getName()); // update values...
+			img.setFile(newImage.getFile());
+			
+			History.renamed(new File(absPath), img.getFile()); // same file, only its location in the log changes
+			TagIndex.getInstance().renamed(new File(absPath), img.getFile()); // and the tags it lost
+		} finally {
+			lock.unlock();
 		}
-
-		imgName = imgName.trim(); // no extra white space
-		
-		String fileName = pathNameBeforeExt + imgName + ext; // put the name back together
-		File newFile = new File(fileName); // create the new file
-		img.setIconDesc(newFile.getAbsolutePath()); // set the imageicons new path
-		
-		Image newImage = new Image(newFile.getName(), newFile, img.getIcon()); // create new image object
+		String fileName = newFile.getPath();
 		
-		img.renameFile(newImage.getFile()); //rename the file
-		img.setName(newImage.getFile().getName()); // update values...
-		img.setFile(newImage.getFile());
-		
-		History.putInLog(img.getFile().getAbsolutePath(), History.removeFromLog(absPath));
-		
-		return new Image(newFile.getName(), new File(fileName), img.getIcon()); // return a whole new Image for no aliasing
+		return new Image(newFile.getName(), new File(fileName), img.peekIcon()); // return a whole new Image for no aliasing
 		}
 	}
 		
 	
+	/**
+	 * Returns the file that tagging file would rename it to, without renaming anything:
+	 * tagNames added to the end of its name, skipping the ones it already has.
+	 *
+	 * @param file
+	 *            the file to tag
+	 * @param tagIds
+	 *              the ids of the tags to add
+	 * @return the tagged file, file itself if there is nothing to add
+	 */
+	static File withTags(File file, int[] tagIds){
+		return TagHandler.retag(file, tagIds, new int[0]);
+	}
+	
+	/**
+	 * Returns the file that untagging file would rename it to, without renaming anything.
+	 *
+	 * @param file
+	 *            the file to untag
+	 * @param tagIds
+	 *              the ids of the tags to remove
+	 * @return the untagged file, file itself if there is nothing to remove
+	 */
+	static File withoutTags(File file, int[] tagIds){
+		return TagHandler.retag(file, new int[0], tagIds);
+	}
+	
+	/**
+	 * Returns the file that applying a change of tags to file would rename it to, without
+	 * renaming anything, so a batch can work out every new name before the first rename.
+	 * The ids are turned into the names that go into the file name here, at the last moment.
+	 *
+	 * @param file
+	 *            the file to retag
+	 * @param add
+	 *           the ids of the tags to add, from getDictionary
+	 * @param remove
+	 *              the ids of the tags to remove
+	 * @return the renamed file, file itself if its name would not change
+	 */
+	public static File retag(File file, int[] add, int[] remove){
+		if (add.length == 0 && remove.length == 0){
+			return file;
+		}
+		TagDictionary dictionary = TagHandler.getInstance().tags;
+		return TagHandler.retag(file, dictionary.namesOf(add), dictionary.namesOf(remove));
+	}
+	
+	/**
+	 * Returns the file that applying a change of tags to file would rename it to, without
+	 * renaming anything, so a batch can work out every new name before the first rename.
+	 * The name is parsed once and tags are matched whole, never as part of a longer tag.
+	 *
+	 * @param file
+	 *            the file to retag
+	 * @param add
+	 *           the tags to add
+	 * @param remove
+	 *              the tags to remove
+	 * @return the renamed file, file itself if its name would not change
+	 */
+	public static File retag(File file, List<String> add, List<String> remove){
+		if (add.isEmpty() && remove.isEmpty()){
+			return file;
+		}
+		TaggedName name = TaggedName.of(file); // parsed once for every tag
+		boolean changed = false;
+		for (String tagName : add){ // added to the end of the name, in order
+			changed |= name.addTag(tagName);
+		}
+		for (String tagName : remove){
+			changed |= name.removeTag(tagName);
+		}
+		String renamed = name.toString();
+		return changed && !renamed.equals(file.getName()) ? new File(file.getAbsoluteFile().getParent(), renamed) : file;
+	}
+	
 	/**
 	 * Used mainly for testing. Removes all current tags from the system.
 	 */
 	public static void clearTags(){
-		TagHandler.getInstance().tags = new ArrayList <Tag>(); // make tags an empty list
+		TagHandler handler = TagHandler.getInstance();
+		synchronized (handler){
+			handler.tags.clear(); // no tags at all
+		}
 		try {
 			TagHandler.saveToFile(); // try to serialize
 		} catch (IOException e) {
@@ -227,9 +338,15 @@ public class TagHandler implements Serializable {
 			FileInputStream fileIn = new FileInputStream(filePath);
 	        ObjectInputStream in = new ObjectInputStream(fileIn);
 	        try{
-	        	tags = (ArrayList<Tag>) in.readObject(); // try to deserialize
+	        	ArrayList<Tag> read = (ArrayList<Tag>) in.readObject(); // try to deserialize
+	        	synchronized (this){
+	        		tags.clear();
+	        		for (Tag tag : read){
+	        			tags.intern(tag.getName(), tag.getTimestamp()); // each keeps when it was created
+	        		}
+	        	}
 	        } catch(ClassNotFoundException e) {
-	        	tags = new ArrayList<Tag>();
+	        	tags.clear();
 	        	File file = new File(filePath); // if not create a new file
 				try {
 					file.createNewFile(); // and try to create it in the system
@@ -258,8 +375,8 @@ public class TagHandler implements Serializable {
 		OutputStream buffer = new BufferedOutputStream(file);
 		ObjectOutput output = new ObjectOutputStream(buffer);
 		
-		// serialize the Map
-		output.writeObject(TagHandler.getInstance().tags);
+		// serialize the tags, as the list older versions read
+		output.writeObject(new ArrayList<Tag>(TagHandler.getTags()));
 		output.close();
     }
 	
@@ -269,7 +386,7 @@ public class TagHandler implements Serializable {
 	@Override
 	public String toString(){
 		String s = ""; // start with empty string
-		for (Tag tag : TagHandler.getInstance().tags){ // just add every tag to the string, with a comma after
+		for (Tag tag : TagHandler.getTags()){ // just add every tag to the string, with a comma after
 			s += tag + ", ";
 		}
 		if (s.length() > 2){
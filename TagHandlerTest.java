@@ -4,6 +4,7 @@ import static org.junit.Assert.*;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.List;
 
 import javax.swing.ImageIcon;
 
@@ -67,7 +68,7 @@ public class TagHandlerTest {
 	public void testGetTagsEmpty() {
 		
 		ArrayList<Tag> expected = new ArrayList<Tag>();
-		ArrayList<Tag> actual = TagHandler.getTags();
+		List<Tag> actual = TagHandler.getTags();
 		assertEquals(expected, actual);
 		
 	}
@@ -86,9 +87,9 @@ public class TagHandlerTest {
 		expected.add("amir");
 		expected.add("alex");
 		
-		TagHandler.getInstance().tags.add(new Tag("amir"));
-		TagHandler.getInstance().tags.add(new Tag("alex"));
-		for (Tag element : TagHandler.getInstance().tags){
+		TagHandler.getInstance().createTag("amir");
+		TagHandler.getInstance().createTag("alex");
+		for (Tag element : TagHandler.getTags()){
 			actual.add(element.getName());
 		}
 
@@ -104,8 +105,8 @@ public class TagHandlerTest {
 		int expected = TagHandler.getInstance().findTag("NOTHING");
 		assertEquals(expected, actual);
 		
-		TagHandler.getInstance().tags.add(new Tag("amir"));
-		TagHandler.getInstance().tags.add(new Tag("alex"));
+		TagHandler.getInstance().createTag("amir");
+		TagHandler.getInstance().createTag("alex");
 		expected = TagHandler.getInstance().findTag("SOMETHING THAT DOESN'T EXIST IN NON-EMPTY TAGS");
 		assertEquals(expected, actual);
 		
@@ -114,6 +115,26 @@ public class TagHandlerTest {
 		assertEquals(expected, actual);
 
 	}
+
+	/**
+	 * Test to see that the tags after a deleted one move up, and a deleted tag is not found
+	 */
+	@Test
+	public void testFindTagAfterDelete() {
+		TagHandler.getInstance().createTag("amir");
+		TagHandler.getInstance().createTag("alex");
+		TagHandler.getInstance().createTag("beach");
+		TagHandler.getInstance().deleteTag("amir");
+
+		assertEquals(-1, TagHandler.getInstance().findTag("amir"));
+		assertEquals(0, TagHandler.getInstance().findTag("alex"));
+		assertEquals(1, TagHandler.getInstance().findTag("beach"));
+
+		TagHandler.getInstance().createTag("amir"); //created again, so it goes last
+		assertEquals(2, TagHandler.getInstance().findTag("amir"));
+		assertEquals("amir", TagHandler.getTags().get(2).getName());
+	}
+
 	/**
 	 * Test to see createTag works, i.e. can make new tags or use the old one if tag already exists
 	 */
@@ -138,7 +159,7 @@ public class TagHandlerTest {
 	public void testDeleteTag() {
 		ArrayList<Tag> expected = new ArrayList<Tag>(); //try to delete a tag from an empty tags list
 		TagHandler.getInstance().deleteTag("non-existant");
-		ArrayList<Tag> actual = TagHandler.getInstance().tags;
+		List<Tag> actual = TagHandler.getTags();
 		assertEquals(expected, actual);
 		
 		ArrayList<String> newExpected = new ArrayList<String>(); //have to do this way since
@@ -146,23 +167,23 @@ public class TagHandlerTest {
 		ArrayList<String> newActual = new ArrayList<String>();
 		newExpected.add("amir"); //populate the expeceted
 		newExpected.add("alex");
-		TagHandler.getInstance().tags.add(new Tag("amir"));
-		TagHandler.getInstance().tags.add(new Tag("alex"));
-		for (Tag element : TagHandler.getInstance().tags){
+		TagHandler.getInstance().createTag("amir");
+		TagHandler.getInstance().createTag("alex");
+		for (Tag element : TagHandler.getTags()){
 			newActual.add(element.getName());
 		}
 		
 		TagHandler.getInstance().deleteTag("notAmirorAlex"); 
 		//try to delete a tag that doen't exist
 		//from a non-empty tags list
-		actual = TagHandler.getInstance().tags;
+		actual = TagHandler.getTags();
 		assertEquals(newExpected, newActual);		
 		
 		ArrayList<String> newActual2 = new ArrayList<String>();
 
 		newExpected.remove(0); //try to delete "amir" from tags list and see if result is "alex" only
 		TagHandler.getInstance().deleteTag("amir"); 
-		for (Tag element : TagHandler.getInstance().tags){
+		for (Tag element : TagHandler.getTags()){
 			newActual2.add(element.getName());
 		}
 		assertEquals(newExpected, newActual2);
@@ -0,0 +1,413 @@
+package photo_renamer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * An inverted index from every tag to the files that have it, so the photos with a tag are
+ * found without going through the name of every file. Every file gets a small int id when it
+ * is first seen, every tag gets one from a TagDictionary, and the TagBitmap of the ids of the
+ * files with a tag is found by the tag's id. The one instance uses TagHandler's dictionary, so a
+ * tag has the same id in the postings as in TagHandler, the tag checkboxes and a batch; a tag
+ * found in a file name that the user never made gets an id there without becoming a tag.
+ *
+ * It is filled from the @tag tokens in the names of the files a scan finds and is kept up to
+ * date as files are renamed, by tagging, untagging and reverting, and as files come and go. A
+ * renamed file keeps its id, only the postings of the tags that changed are touched.
+ *
+ * Thread safe: the scanner's workers add files while the event dispatch thread renames them.
+ * Lookups and searches hand out copies of the bitmaps, never the bitmaps themselves.
+ */
+public class TagIndex {
+
+	/** Used for singleton design pattern, to have only one instance of this class. */
+	private static TagIndex instance = null;
+
+	/** The id of every indexed file, by its absolute path. */
+	private final HashMap<String, Integer> ids = new HashMap<String, Integer>();
+	/** The file with each id, null for the ids of files that are gone. */
+	private final ArrayList<File> files = new ArrayList<File>();
+	/** The id of every tag, by its name; ids are never reused, so it outlives a clear. */
+	private final TagDictionary vocabulary;
+	/** The files with each tag, by the id of the tag; null for tags no file has any more. */
+	private TagBitmap[] postings = new TagBitmap[16];
+	/** How many postings there are, kept as they change so counting them goes through nothing. */
+	private long postingCount;
+	/** How many tags some file has, the postings that are not null. */
+	private int tagCount;
+	/** The ids of every indexed file, what NOT takes the files with a tag away from. */
+	private final TagBitmap live = new TagBitmap();
+	/** How many files have each been indexed. */
+	private long indexed;
+	/** How many lookups there were. */
+	private long lookups;
+	/** How long the lookups took, in nanoseconds. */
+	private long lookupNanos;
+	/** How many searches there were. */
+	private long searches;
+	/** How long the searches took, in nanoseconds. */
+	private long searchNanos;
+
+	/**
+	 * Initializes an empty index with a dictionary of its own, for an index that has nothing
+	 * to do with TagHandler's tags, like a benchmark's.
+	 */
+	public TagIndex() {
+		this(new TagDictionary());
+	}
+
+	/**
+	 * Initializes an empty index that keys its postings by the ids of vocabulary.
+	 *
+	 * @param vocabulary
+	 *                  the dictionary the ids of the tags come from
+	 */
+	public TagIndex(TagDictionary vocabulary) {
+		this.vocabulary = vocabulary;
+	}
+
+	/**
+	 * Returns the one instance of TagIndex, which shares TagHandler's dictionary.
+	 * Creates one if it hasn't been initialized yet.
+	 *
+	 * @return the one instance of TagIndex
+	 */
+	public static synchronized TagIndex getInstance(){
+		if (instance == null){
+			instance = new TagIndex(TagHandler.getDictionary());
+		}
+		return instance;
+	}
+
+	/**
+	 * Adds file and its tags, unless it is indexed already.
+	 *
+	 * @param file
+	 *            the file
+	 * @return the id of file, for finding it in the bitmaps without hashing its path again
+	 */
+	public synchronized int add(File file) {
+		String path = file.getAbsolutePath();
+		Integer known = ids.get(path);
+		if (known != null){
+			return known;
+		}
+		int id = files.size();
+		files.add(file);
+		ids.put(path, id);
+		live.add(id);
+		for (String tag : TaggedName.of(file).getTags()){
+			if (this.posting(vocabulary.idFor(tag)).add(id)){
+				postingCount++;
+			}
+		}
+		indexed++;
+		return id;
+	}
+
+	/**
+	 * Removes file and its tags, for a file that is gone.
+	 *
+	 * @param file
+	 *            the file
+	 */
+	public synchronized void remove(File file) {
+		Integer id = ids.remove(file.getAbsolutePath());
+		if (id == null){
+			return;
+		}
+		files.set(id, null); // the id is not given out again
+		live.remove(id);
+		for (String tag : TaggedName.of(file).getTags()){
+			this.unpost(vocabulary.knownIdOf(tag), id);
+		}
+	}
+
+	/**
+	 * Follows a rename. The file keeps its id, it is only taken out of the postings of the tags
+	 * its new name lost and put into those of the tags it gained. A file that was not indexed
+	 * yet is added under its new name.
+	 *
+	 * @param from
+	 *            the old name of the file
+	 * @param to
+	 *          the new name
+	 */
+	public synchronized void renamed(File from, File to) {
+		Integer id = ids.remove(from.getAbsolutePath());
+		if (id == null){
+			this.add(to);
+			return;
+		}
+		files.set(id, to);
+		ids.put(to.getAbsolutePath(), id);
+		int[] before = vocabulary.idsFor(TaggedName.of(from).getTags()); // new tags get ids of their own
+		int[] after = vocabulary.idsFor(TaggedName.of(to).getTags());
+		for (int tag : before){
+			if (!contains(after, tag)){
+				this.unpost(tag, id);
+			}
+		}
+		for (int tag : after){
+			if (!contains(before, tag) && this.posting(tag).add(id)){
+				postingCount++;
+			}
+		}
+	}
+
+	/**
+	 * Returns whether the few tag ids of a file include tag.
+	 *
+	 * @param tags
+	 *            the ids
+	 * @param tag
+	 *           the id to look for
+	 * @return whether it is there
+	 */
+	private static boolean contains(int[] tags, int tag) {
+		for (int t : tags){
+			if (t == tag){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the posting of a tag, making an empty one if it has none.
+	 *
+	 * @param tag
+	 *           the id of the tag
+	 * @return its posting
+	 */
+	private TagBitmap posting(int tag) {
+		if (tag >= postings.length){
+			postings = Arrays.copyOf(postings, Math.max(tag + 1, postings.length * 2));
+		}
+		if (postings[tag] == null){
+			postings[tag] = new TagBitmap();
+			tagCount++;
+		}
+		return postings[tag];
+	}
+
+	/**
+	 * Takes id out of the posting of a tag, dropping the posting once it is empty.
+	 *
+	 * @param tag
+	 *           the id of the tag, or -1 for a tag that has none
+	 * @param id
+	 *          the id of a file
+	 */
+	private void unpost(int tag, int id) {
+		TagBitmap posting = tag == -1 || tag >= postings.length ? null : postings[tag];
+		if (posting != null){
+			if (posting.remove(id)){
+				postingCount--;
+			}
+			if (posting.isEmpty()){
+				postings[tag] = null;
+				tagCount--;
+			}
+		}
+	}
+
+	/**
+	 * Returns the ids of the files with tag.
+	 *
+	 * @param tag
+	 *           the tag, matched whole
+	 * @return a copy of its posting, empty if no file has it
+	 */
+	public synchronized TagBitmap lookup(String tag) {
+		long start = System.nanoTime();
+		TagBitmap posting = this.peek(tag);
+		TagBitmap copy = posting == null ? new TagBitmap() : new TagBitmap(posting);
+		lookupNanos += System.nanoTime() - start;
+		lookups++;
+		return copy;
+	}
+
+	/**
+	 * Returns the ids of the files that match query.
+	 *
+	 * @param query
+	 *             the query
+	 * @return a bitmap of their ids, which the caller may change
+	 */
+	public synchronized TagBitmap search(TagQuery query) {
+		long start = System.nanoTime();
+		TagBitmap found = query.evaluate(this);
+		searchNanos += System.nanoTime() - start;
+		searches++;
+		return found;
+	}
+
+	/**
+	 * Returns the posting of tag itself, for a query evaluated while holding the lock.
+	 *
+	 * @param tag
+	 *           the tag
+	 * @return its posting, or null if no file has it; never to be changed
+	 */
+	TagBitmap peek(String tag) {
+		int id = vocabulary.knownIdOf(tag);
+		return id == -1 || id >= postings.length ? null : postings[id];
+	}
+
+	/**
+	 * Returns the ids of every indexed file itself, for a query evaluated while holding the lock.
+	 *
+	 * @return the ids; never to be changed
+	 */
+	TagBitmap peekAll() {
+		return live;
+	}
+
+	/**
+	 * Returns the files with tag.
+	 *
+	 * @param tag
+	 *           the tag, matched whole
+	 * @return the files, in the order they were indexed
+	 */
+	public List<File> getFiles(String tag) {
+		return this.getFiles(this.lookup(tag));
+	}
+
+	/**
+	 * Returns the files with the given ids.
+	 *
+	 * @param ids
+	 *           ids from this index
+	 * @return their files, in the order of their ids
+	 */
+	public synchronized List<File> getFiles(TagBitmap ids) {
+		ArrayList<File> found = new ArrayList<File>(ids.getCardinality());
+		for (int id : ids.toArray()){
+			File file = files.get(id);
+			if (file != null){
+				found.add(file);
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Returns the id of file.
+	 *
+	 * @param file
+	 *            the file
+	 * @return its id, or -1 if it is not indexed
+	 */
+	public synchronized int idOf(File file) {
+		Integer id = ids.get(file.getAbsolutePath());
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * Returns the ids of many files at once, under one lock.
+	 *
+	 * @param files
+	 *             the files
+	 * @return the id of each, or -1 for those not indexed
+	 */
+	public synchronized int[] idsOf(List<File> files) {
+		int[] found = new int[files.size()];
+		for (int i = 0; i < found.length; i++){
+			Integer id = ids.get(files.get(i).getAbsolutePath());
+			found[i] = id == null ? -1 : id;
+		}
+		return found;
+	}
+
+	/**
+	 * Returns how many files have tag, without copying its posting.
+	 *
+	 * @param tag
+	 *           the tag
+	 * @return the number of files with it
+	 */
+	public synchronized int count(String tag) {
+		TagBitmap posting = this.peek(tag);
+		return posting == null ? 0 : posting.getCardinality();
+	}
+
+	/**
+	 * Returns every tag some indexed file has.
+	 *
+	 * @return the tags, sorted
+	 */
+	public synchronized Set<String> getTags() {
+		TreeSet<String> tags = new TreeSet<String>();
+		for (int tag = 0; tag < postings.length; tag++){
+			if (postings[tag] != null){
+				tags.add(vocabulary.nameOf(tag));
+			}
+		}
+		return tags;
+	}
+
+	/**
+	 * Returns how many files are indexed.
+	 *
+	 * @return the number of files
+	 */
+	public synchronized int size() {
+		return ids.size();
+	}
+
+	/**
+	 * Returns how many postings there are, one for every tag on every file.
+	 *
+	 * @return the number of postings
+	 */
+	public synchronized long getPostings() {
+		return postingCount;
+	}
+
+	/**
+	 * Returns about how much memory the postings take.
+	 *
+	 * @return the size of every bitmap in bytes
+	 */
+	public synchronized long getPostingBytes() {
+		long bytes = 0;
+		for (TagBitmap posting : postings){
+			bytes += posting == null ? 0 : posting.getSizeInBytes();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Forgets every file, for a new scan.
+	 */
+	public synchronized void clear() {
+		ids.clear();
+		files.clear();
+		Arrays.fill(postings, null); // the tags keep their ids, they may be TagHandler's
+		postingCount = 0;
+		tagCount = 0;
+		live.clear();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public synchronized String toString(){
+		long count = postingCount;
+		long bytes = this.getPostingBytes(); // the only walk, over the tags some file has
+		return "Tag index: " + ids.size() + " files (" + indexed + " indexed), " + tagCount + " tags, " + count
+				+ " postings in " + bytes / 1024 + " KB (" + (count == 0 ? 0 : String.format("%.2f", (double) bytes / count))
+				+ " bytes each), " + lookups + " lookups"
+				+ (lookups == 0 ? "" : String.format(" taking %.1f us each", lookupNanos / 1000.0 / lookups))
+				+ ", " + searches + " searches"
+				+ (searches == 0 ? "" : String.format(" taking %.1f us each", searchNanos / 1000.0 / searches));
+	}
+}
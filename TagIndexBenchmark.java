@@ -0,0 +1,105 @@
+package photo_renamer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Builds a TagIndex over a library of made up file names, tagged the way photo libraries are,
+ * a few tags on almost every photo and a long tail of tags on a handful, and measures how big
+ * the postings are, how long single tag lookups take for common and rare tags, and how long
+ * finding the same photos takes by going through every name like a file search would. Nothing
+ * is read from or written to the disk.
+ *
+ * Usage: TagIndexBenchmark [files]   (defaults to 300000)
+ */
+public class TagIndexBenchmark {
+
+	/** How many files the library has, by default. */
+	private final static int DEFAULT_FILES = 300000;
+	/** How many different tags there are. */
+	private final static int TAGS = 500;
+	/** The most tags one file has. */
+	private final static int MAX_TAGS_PER_FILE = 6;
+	/** How many times each lookup is timed. */
+	private final static int LOOKUPS = 10000;
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args
+	 *            optionally, how many files the library has
+	 */
+	public static void main(String[] args) {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_FILES;
+		Random random = new Random(22);
+		File dir = new File(System.getProperty("java.io.tmpdir"), "library");
+		ArrayList<File> files = new ArrayList<File>(count);
+		for (int i = 0; i < count; i++){
+			StringBuilder name = new StringBuilder("IMG_").append(i);
+			for (int t = random.nextInt(MAX_TAGS_PER_FILE + 1); t > 0; t--){
+				name.append(" @tag").append(zipf(random)); // tag0 is the most common
+			}
+			files.add(new File(new File(dir, "album" + i / 1000), name.append(".jpg").toString()));
+		}
+
+		TagIndex index = new TagIndex();
+		long start = System.nanoTime();
+		for (File file : files){
+			index.add(file);
+		}
+		System.out.println(String.format("Indexed %d files in %d ms", count, (System.nanoTime() - start) / 1000000));
+		System.out.println("  " + index);
+		System.out.println(String.format("  a sorted int[] per tag would take %d KB, %d bytes each",
+				index.getPostings() * 4 / 1024, 4));
+
+		for (String tag : new String[]{"tag0", "tag10", "tag100", "tag" + (TAGS - 1)}){
+			long took = System.nanoTime();
+			int found = 0;
+			for (int i = 0; i < LOOKUPS; i++){
+				found = index.lookup(tag).getCardinality();
+			}
+			took = System.nanoTime() - took;
+			long scan = System.nanoTime();
+			int scanned = 0;
+			for (File file : files){ // what searching every name for the tag costs
+				scanned += TaggedName.of(file).hasTag(tag) ? 1 : 0;
+			}
+			scan = System.nanoTime() - scan;
+			System.out.println(String.format("  %-7s %6d files, lookup %7.2f us, %s, scanning every name %d ms%s", tag,
+					found, took / 1000.0 / LOOKUPS, index.lookup(tag), scan / 1000000,
+					scanned == found ? "" : ", found " + scanned + "!"));
+		}
+
+		start = System.nanoTime();
+		for (int i = 0; i < files.size(); i += 10){ // tag every tenth file, and untag it again
+			File file = files.get(i);
+			File tagged = TagHandler.retag(file, Arrays.asList("renamed"), Collections.<String>emptyList());
+			index.renamed(file, tagged);
+			index.renamed(tagged, file);
+		}
+		System.out.println(String.format("  %d renames followed in %d ms", files.size() / 5, (System.nanoTime() - start) / 1000000));
+	}
+
+	/**
+	 * Picks a tag with a Zipf like distribution: tag k is about 1/(k+1) as common as tag0.
+	 *
+	 * @param random
+	 *              the randomness
+	 * @return the number of the tag
+	 */
+	private static int zipf(Random random) {
+		double harmonic = Math.log(TAGS) + 0.5772; // about the sum of 1/(k+1) for every tag
+		double target = random.nextDouble() * harmonic;
+		double sum = 0;
+		for (int k = 0; k < TAGS; k++){
+			sum += 1.0 / (k + 1);
+			if (sum >= target){
+				return k;
+			}
+		}
+		return TAGS - 1;
+	}
+}
@@ -0,0 +1,471 @@
+package photo_renamer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A search over the tags of the photos, like
+ *
+ *     @beach AND (@2019 OR @2020) AND NOT @blurry
+ *
+ * Tags are written with or without their @, and in double quotes after the @ if they have
+ * spaces or parentheses in them, like @"new york". AND, OR and NOT are keywords in any case,
+ * NOT binds tightest and OR loosest, and two terms next to each other are ANDed, so
+ * "@beach @2019" is "@beach AND @2019". Tags are matched whole and case sensitively, like
+ * everything else that deals with tags.
+ *
+ * A query is parsed once and evaluated against a TagIndex by intersecting, uniting and taking
+ * apart the bitmaps of its tags, never by looking at a file name. The terms of an AND are
+ * intersected smallest first, by how many files each can match at most, so the running result
+ * is small from the start and a term no file matches ends the AND before the big postings are
+ * even looked at. The NOT terms of an AND are taken out of what the others found; only a query
+ * that is nothing but NOTs starts from every file.
+ */
+public final class TagQuery {
+
+	/** A part of a query, evaluated while the index's lock is held. */
+	private static abstract class Node {
+
+		/**
+		 * Returns the ids of the files that match.
+		 *
+		 * @param index
+		 *             the index, locked
+		 * @return the ids; for a single tag, its posting itself, which must not be changed
+		 */
+		abstract TagBitmap evaluate(TagIndex index);
+
+		/**
+		 * Returns the most files that can match, cheaply, to order the terms of an AND by.
+		 *
+		 * @param index
+		 *             the index, locked
+		 * @return an upper bound on the number of matches
+		 */
+		abstract long estimate(TagIndex index);
+
+		/**
+		 * Writes the node the way it would be typed, with parentheses around every AND and OR
+		 * inside another node.
+		 *
+		 * @param out
+		 *           where to write it
+		 * @param nested
+		 *              whether it is inside another node
+		 */
+		abstract void write(StringBuilder out, boolean nested);
+	}
+
+	/** The files with one tag. */
+	private final static class Term extends Node {
+
+		/** The tag, without its @. */
+		final String tag;
+
+		/**
+		 * Initializes a term.
+		 *
+		 * @param tag
+		 *           the tag, without its @
+		 */
+		Term(String tag) {
+			this.tag = tag;
+		}
+
+		@Override
+		TagBitmap evaluate(TagIndex index) {
+			TagBitmap posting = index.peek(tag);
+			return posting == null ? new TagBitmap() : posting;
+		}
+
+		@Override
+		long estimate(TagIndex index) {
+			TagBitmap posting = index.peek(tag);
+			return posting == null ? 0 : posting.getCardinality();
+		}
+
+		@Override
+		void write(StringBuilder out, boolean nested) {
+			boolean quote = false;
+			for (int i = 0; i < tag.length(); i++){
+				quote |= Character.isWhitespace(tag.charAt(i)) || "()\"".indexOf(tag.charAt(i)) >= 0;
+			}
+			out.append(quote ? "@\"" + tag + "\"" : "@" + tag);
+		}
+	}
+
+	/** Every file without the ones that match a node. */
+	private final static class Not extends Node {
+
+		/** What is left out. */
+		final Node node;
+
+		/**
+		 * Initializes a NOT.
+		 *
+		 * @param node
+		 *            what is left out
+		 */
+		Not(Node node) {
+			this.node = node;
+		}
+
+		@Override
+		TagBitmap evaluate(TagIndex index) {
+			return TagBitmap.andNot(index.peekAll(), node.evaluate(index));
+		}
+
+		@Override
+		long estimate(TagIndex index) {
+			return index.peekAll().getCardinality(); // the tag's count is not a bound on its complement
+		}
+
+		@Override
+		void write(StringBuilder out, boolean nested) {
+			out.append("NOT ");
+			node.write(out, true);
+		}
+	}
+
+	/** The files that match every one of some nodes. */
+	private final static class And extends Node {
+
+		/** The nodes to match, with any AND among them flattened into this one. */
+		final ArrayList<Node> nodes = new ArrayList<Node>();
+
+		/**
+		 * Initializes an AND.
+		 *
+		 * @param nodes
+		 *             two or more nodes to match
+		 */
+		And(List<Node> nodes) {
+			for (Node node : nodes){
+				if (node instanceof And){ // (a AND b) AND c is one AND of three
+					this.nodes.addAll(((And) node).nodes);
+				}
+				else{
+					this.nodes.add(node);
+				}
+			}
+		}
+
+		@Override
+		TagBitmap evaluate(final TagIndex index) {
+			ArrayList<Node> include = new ArrayList<Node>();
+			ArrayList<Node> exclude = new ArrayList<Node>();
+			for (Node node : nodes){
+				if (node instanceof Not){
+					exclude.add(((Not) node).node);
+				}
+				else{
+					include.add(node);
+				}
+			}
+			Collections.sort(include, new Comparator<Node>(){ // smallest first
+				@Override
+				public int compare(Node a, Node b) {
+					return Long.compare(a.estimate(index), b.estimate(index));
+				}
+			});
+
+			TagBitmap found = include.isEmpty() ? index.peekAll() : include.get(0).evaluate(index);
+			for (int i = 1; i < include.size() && !found.isEmpty(); i++){
+				found = TagBitmap.and(found, include.get(i).evaluate(index)); // the rest are never evaluated once nothing is left
+			}
+			for (int i = 0; i < exclude.size() && !found.isEmpty(); i++){
+				found = TagBitmap.andNot(found, exclude.get(i).evaluate(index));
+			}
+			return found.isEmpty() ? new TagBitmap() : found; // never a posting, there are at least two nodes
+		}
+
+		@Override
+		long estimate(TagIndex index) {
+			long estimate = index.peekAll().getCardinality();
+			for (Node node : nodes){
+				estimate = Math.min(estimate, node.estimate(index));
+			}
+			return estimate;
+		}
+
+		@Override
+		void write(StringBuilder out, boolean nested) {
+			out.append(nested ? "(" : "");
+			for (int i = 0; i < nodes.size(); i++){
+				out.append(i == 0 ? "" : " AND ");
+				nodes.get(i).write(out, true);
+			}
+			out.append(nested ? ")" : "");
+		}
+	}
+
+	/** The files that match any of some nodes. */
+	private final static class Or extends Node {
+
+		/** The nodes to match, with any OR among them flattened into this one. */
+		final ArrayList<Node> nodes = new ArrayList<Node>();
+
+		/**
+		 * Initializes an OR.
+		 *
+		 * @param nodes
+		 *             two or more nodes to match
+		 */
+		Or(List<Node> nodes) {
+			for (Node node : nodes){
+				if (node instanceof Or){
+					this.nodes.addAll(((Or) node).nodes);
+				}
+				else{
+					this.nodes.add(node);
+				}
+			}
+		}
+
+		@Override
+		TagBitmap evaluate(TagIndex index) {
+			TagBitmap found = nodes.get(0).evaluate(index);
+			for (int i = 1; i < nodes.size(); i++){
+				found = TagBitmap.or(found, nodes.get(i).evaluate(index));
+			}
+			return found;
+		}
+
+		@Override
+		long estimate(TagIndex index) {
+			long estimate = 0;
+			for (Node node : nodes){
+				estimate += node.estimate(index);
+			}
+			return Math.min(estimate, index.peekAll().getCardinality());
+		}
+
+		@Override
+		void write(StringBuilder out, boolean nested) {
+			out.append(nested ? "(" : "");
+			for (int i = 0; i < nodes.size(); i++){
+				out.append(i == 0 ? "" : " OR ");
+				nodes.get(i).write(out, true);
+			}
+			out.append(nested ? ")" : "");
+		}
+	}
+
+	/** The query, as it was typed. */
+	private final String text;
+	/** Where the parser is in text. */
+	private int at;
+	/** The whole query. */
+	private final Node root;
+
+	/**
+	 * Parses a query.
+	 *
+	 * @param text
+	 *            the query, as typed
+	 * @throws IllegalArgumentException
+	 *                                  if it is not a query, with where it went wrong
+	 */
+	private TagQuery(String text) {
+		this.text = text;
+		root = this.parseOr();
+		if (this.skipSpaces() < text.length()){
+			throw this.error(text.charAt(at) == ')' ? "Unexpected )" : "Expected AND, OR or the end");
+		}
+	}
+
+	/**
+	 * Parses a query.
+	 *
+	 * @param text
+	 *            the query, like @beach AND (@2019 OR @2020) AND NOT @blurry
+	 * @return the query
+	 * @throws IllegalArgumentException
+	 *                                  if it is not a query, with where it went wrong
+	 */
+	public static TagQuery parse(String text) {
+		return new TagQuery(text);
+	}
+
+	/**
+	 * Returns the ids of the files that match, for TagIndex's search, which holds the lock.
+	 *
+	 * @param index
+	 *             the index
+	 * @return the ids, a bitmap of their own
+	 */
+	TagBitmap evaluate(TagIndex index) {
+		TagBitmap found = root.evaluate(index);
+		return root instanceof Term ? new TagBitmap(found) : found;
+	}
+
+	/**
+	 * Parses terms separated by OR.
+	 *
+	 * @return the node
+	 */
+	private Node parseOr() {
+		ArrayList<Node> nodes = new ArrayList<Node>();
+		nodes.add(this.parseAnd());
+		while (this.keyword("OR")){
+			nodes.add(this.parseAnd());
+		}
+		return nodes.size() == 1 ? nodes.get(0) : new Or(nodes);
+	}
+
+	/**
+	 * Parses terms separated by AND, or by nothing.
+	 *
+	 * @return the node
+	 */
+	private Node parseAnd() {
+		ArrayList<Node> nodes = new ArrayList<Node>();
+		nodes.add(this.parseNot());
+		while (this.skipSpaces() < text.length() && text.charAt(at) != ')' && !this.isKeyword("OR")){
+			this.keyword("AND"); // leaving it out ANDs too
+			nodes.add(this.parseNot());
+		}
+		return nodes.size() == 1 ? nodes.get(0) : new And(nodes);
+	}
+
+	/**
+	 * Parses a term, with any NOTs in front of it.
+	 *
+	 * @return the node
+	 */
+	private Node parseNot() {
+		return this.keyword("NOT") ? new Not(this.parseNot()) : this.parseTerm();
+	}
+
+	/**
+	 * Parses a tag, or a query in parentheses.
+	 *
+	 * @return the node
+	 */
+	private Node parseTerm() {
+		if (this.skipSpaces() == text.length()){
+			throw this.error("Expected a tag");
+		}
+		if (text.charAt(at) == '('){
+			at++;
+			Node node = this.parseOr();
+			if (this.skipSpaces() == text.length() || text.charAt(at) != ')'){
+				throw this.error("Expected )");
+			}
+			at++;
+			return node;
+		}
+		if (text.charAt(at) == ')' || this.isKeyword("AND") || this.isKeyword("OR")){
+			throw this.error("Expected a tag");
+		}
+		int start = at;
+		if (text.charAt(at) == '@'){
+			at++;
+		}
+		String tag;
+		if (at < text.length() && text.charAt(at) == '"'){
+			int end = text.indexOf('"', at + 1);
+			if (end < 0){
+				throw this.error("Expected a closing \"");
+			}
+			tag = text.substring(at + 1, end);
+			at = end + 1;
+		}
+		else{
+			int end = at;
+			while (end < text.length() && !this.endsWord(end)){
+				end++;
+			}
+			tag = text.substring(at, end);
+			at = end;
+		}
+		if (tag.isEmpty()){
+			at = start;
+			throw this.error("Expected a tag");
+		}
+		return new Term(tag);
+	}
+
+	/**
+	 * Moves past keyword if it comes next.
+	 *
+	 * @param keyword
+	 *               AND, OR or NOT
+	 * @return whether it was there
+	 */
+	private boolean keyword(String keyword) {
+		if (!this.isKeyword(keyword)){
+			return false;
+		}
+		at += keyword.length();
+		return true;
+	}
+
+	/**
+	 * Returns whether keyword comes next, in any case, as a word of its own.
+	 *
+	 * @param keyword
+	 *               AND, OR or NOT
+	 * @return whether it is there
+	 */
+	private boolean isKeyword(String keyword) {
+		int end = this.skipSpaces() + keyword.length();
+		return text.regionMatches(true, at, keyword, 0, keyword.length()) && (end == text.length() || this.endsWord(end));
+	}
+
+	/**
+	 * Returns whether a word of the query ends before the character at i.
+	 *
+	 * @param i
+	 *         where in the query
+	 * @return whether it is a space or a parenthesis
+	 */
+	private boolean endsWord(int i) {
+		char c = text.charAt(i);
+		return Character.isWhitespace(c) || c == '(' || c == ')';
+	}
+
+	/**
+	 * Moves past any spaces.
+	 *
+	 * @return where the parser is now
+	 */
+	private int skipSpaces() {
+		while (at < text.length() && Character.isWhitespace(text.charAt(at))){
+			at++;
+		}
+		return at;
+	}
+
+	/**
+	 * Returns the exception for a query that can not be parsed.
+	 *
+	 * @param message
+	 *               what was expected
+	 * @return the exception, saying where
+	 */
+	private IllegalArgumentException error(String message) {
+		return new IllegalArgumentException(message + (at < text.length() ? " at character " + (at + 1) : " at the end"));
+	}
+
+	/**
+	 * Returns the query as it was typed.
+	 *
+	 * @return the text of the query
+	 */
+	public String getText() {
+		return text;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString(){
+		StringBuilder out = new StringBuilder();
+		root.write(out, false);
+		return out.toString();
+	}
+}
@@ -0,0 +1,197 @@
+package photo_renamer;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Measures tag searches on a library of a million made up file names, for three ways tags can
+ * be spread over a library:
+ *
+ *   uniform  every tag about as common as any other
+ *   zipf     a few tags on almost every photo and a long tail of tags on a handful
+ *   albums   photos in albums of a few hundred that share their album's tags, like an event,
+ *            with zipf tags of their own on top, so the ids of a tag come in dense runs
+ *
+ * Each is searched with random queries of a few shapes, single tags, ANDs, ORs, NOTs and the
+ * mix of all of them, their tags picked the way they are spread, so common tags come up often.
+ * A query is timed from its text to the rows of what it matched, the way the viewer's search
+ * box runs it: parsed, evaluated to a bitmap, then mapped to places in a Selection of the whole
+ * library by ImageTableModel.filter. The median, 99th percentile and slowest of each shape are
+ * printed end to end, with the 99th percentile of the query alone next to them. Nothing is read
+ * from or written to the disk.
+ *
+ * Usage: TagQueryBenchmark [files] [queries]   (defaults to 1000000 files and 2000 queries per shape)
+ */
+public class TagQueryBenchmark {
+
+	/** How many files the library has, by default. */
+	private final static int DEFAULT_FILES = 1000000;
+	/** How many queries of each shape are timed, by default, after as many to warm up. */
+	private final static int DEFAULT_QUERIES = 2000;
+	/** How many different tags there are. */
+	private final static int TAGS = 500;
+	/** The most tags one file has of its own. */
+	private final static int MAX_TAGS_PER_FILE = 6;
+	/** How many photos an album has, at most. */
+	private final static int MAX_ALBUM = 400;
+	/** The 99th percentile searches should stay under, in milliseconds. */
+	private final static double TARGET_MS = 10;
+	/** The shapes of the queries, each %s a tag. */
+	private final static String[] SHAPES = {
+		"@%s",
+		"@%s AND @%s",
+		"@%s OR @%s OR @%s",
+		"NOT @%s",
+		"@%s @%s @%s NOT @%s",
+		"@%s AND (@%s OR @%s) AND NOT @%s",
+		"(@%s OR @%s OR @%s) AND NOT (@%s OR @%s)",
+	};
+
+	/** Where the results go, so no search can be optimized away. */
+	private static long sink;
+
+	/**
+	 * Runs the benchmark on every distribution.
+	 *
+	 * @param args
+	 *            optionally, how many files the library has and how many queries of each shape to time
+	 */
+	public static void main(String[] args) {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_FILES;
+		int queries = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_QUERIES;
+		for (String distribution : new String[]{"uniform", "zipf", "albums"}){
+			Random random = new Random(23);
+			Selection selection = new Selection(Integer.MAX_VALUE); // in memory, filter does not read the files anyway
+			TagIndex index = library(distribution, count, random, selection);
+			System.out.println(distribution + ": " + index);
+			boolean met = true;
+			for (String shape : SHAPES){
+				search(index, selection, shape, distribution, queries, random, new long[queries], new long[queries]); // warm up
+				long[] nanos = new long[queries];
+				long[] queryNanos = new long[queries];
+				long matched = search(index, selection, shape, distribution, queries, random, nanos, queryNanos);
+				Arrays.sort(nanos);
+				Arrays.sort(queryNanos);
+				double p99 = nanos[queries * 99 / 100] / 1000000.0;
+				met &= p99 < TARGET_MS;
+				System.out.println(String.format("  %-42s p50 %7.3f ms, p99 %7.3f ms (query %7.3f ms), max %7.3f ms, %7d files each",
+						shape.replace("%s", "t"), nanos[queries / 2] / 1000000.0, p99, queryNanos[queries * 99 / 100] / 1000000.0,
+						nanos[queries - 1] / 1000000.0, matched / queries));
+			}
+			System.out.println("  p99 " + (met ? "under " : "NOT under ") + TARGET_MS + " ms end to end for every shape");
+		}
+		if (sink == 42){
+			System.out.println();
+		}
+	}
+
+	/**
+	 * Makes up a library and indexes it, adding every file to selection with its id the way the
+	 * viewer does.
+	 *
+	 * @param distribution
+	 *                    uniform, zipf or albums
+	 * @param count
+	 *             how many files
+	 * @param random
+	 *              the randomness
+	 * @param selection
+	 *                 where the files go, as the rows to find
+	 * @return the index of the library
+	 */
+	private static TagIndex library(String distribution, int count, Random random, Selection selection) {
+		File dir = new File(System.getProperty("java.io.tmpdir"), "library");
+		TagIndex index = new TagIndex();
+		String[] album = new String[0];
+		int albumLeft = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < count; i++){
+			StringBuilder name = new StringBuilder("IMG_").append(i);
+			if (distribution.equals("albums") && albumLeft-- == 0){ // a new event
+				albumLeft = random.nextInt(MAX_ALBUM);
+				album = new String[1 + random.nextInt(3)];
+				for (int t = 0; t < album.length; t++){
+					album[t] = "tag" + pick("uniform", random);
+				}
+			}
+			for (String tag : distribution.equals("albums") ? album : new String[0]){
+				name.append(" @").append(tag);
+			}
+			for (int t = random.nextInt(MAX_TAGS_PER_FILE + 1); t > 0; t--){
+				name.append(" @tag").append(pick(distribution, random));
+			}
+			File file = new File(new File(dir, "album" + i / 1000), name.append(".jpg").toString());
+			selection.add(FileNode.detached(file), index.add(file));
+		}
+		System.out.println(String.format("Indexed %d files in %d ms", count, (System.nanoTime() - start) / 1000000));
+		return index;
+	}
+
+	/**
+	 * Times searches of one shape.
+	 *
+	 * @param index
+	 *             the index to search
+	 * @param selection
+	 *                 the files of the index, to find the rows in
+	 * @param shape
+	 *             the shape of the queries
+	 * @param distribution
+	 *                    how to pick their tags
+	 * @param queries
+	 *               how many to run
+	 * @param random
+	 *              the randomness
+	 * @param nanos
+	 *             where to put how long each took, rows included
+	 * @param queryNanos
+	 *                  where to put how long each took to get its bitmap
+	 * @return how many files they matched, all together
+	 */
+	private static long search(TagIndex index, Selection selection, String shape, String distribution, int queries, Random random,
+			long[] nanos, long[] queryNanos) {
+		int tags = shape.split("%s", -1).length - 1;
+		Object[] picked = new Object[tags];
+		long matched = 0;
+		for (int q = 0; q < queries; q++){
+			for (int t = 0; t < tags; t++){
+				picked[t] = "tag" + pick(distribution.equals("uniform") ? "uniform" : "zipf", random);
+			}
+			String text = String.format(shape, picked);
+			long start = System.nanoTime();
+			TagBitmap found = index.search(TagQuery.parse(text));
+			queryNanos[q] = System.nanoTime() - start;
+			int[] rows = ImageTableModel.filter(selection, index, found);
+			nanos[q] = System.nanoTime() - start;
+			matched += rows.length;
+			sink += rows.length;
+		}
+		return matched;
+	}
+
+	/**
+	 * Picks a tag.
+	 *
+	 * @param distribution
+	 *                    uniform, or zipf: tag k is about 1/(k+1) as common as tag0
+	 * @param random
+	 *              the randomness
+	 * @return the number of the tag
+	 */
+	private static int pick(String distribution, Random random) {
+		if (distribution.equals("uniform")){
+			return random.nextInt(TAGS);
+		}
+		double harmonic = Math.log(TAGS) + 0.5772; // about the sum of 1/(k+1) for every tag
+		double target = random.nextDouble() * harmonic;
+		double sum = 0;
+		for (int k = 0; k < TAGS; k++){
+			sum += 1.0 / (k + 1);
+			if (sum >= target){
+				return k;
+			}
+		}
+		return TAGS - 1;
+	}
+}
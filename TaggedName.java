@@ -0,0 +1,263 @@
+package photo_renamer;
+
+import java.io.File;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The name of an image file taken apart into what tagging changes: the base name, the tags in
+ * the order they were added and the extension, so "IMG_01 @family @beach.jpg" is IMG_01,
+ * [family, beach] and .jpg. A name is parsed once, then tags are added and removed as whole
+ * tags, so @cat is never mistaken for the start of @caterpillar, and toString puts it back
+ * together in the one form TagHandler has always written: the base, then " @" and each tag.
+ *
+ * Only the name is parsed, never the directory it is in, so paths of every platform work.
+ * A file has few tags, so they are kept in a plain array and looked up by scanning it, which
+ * for a handful of short strings beats hashing and allocates nothing.
+ */
+public final class TaggedName {
+
+	/** What comes before every tag in a name. */
+	private final static String MARKER = " @";
+	/** Room for tags added to a name that had none. */
+	private final static int INITIAL_TAGS = 4;
+
+	/** The name before its first tag. */
+	private final String base;
+	/** The extension with its dot, or "" if the name has none. */
+	private final String extension;
+	/** The tags, in the first count slots. */
+	private String[] tags;
+	/** How many tags there are. */
+	private int count;
+
+	/**
+	 * Initializes a name.
+	 *
+	 * @param base
+	 *            the name before its first tag
+	 * @param tags
+	 *            the tags, in the first count slots
+	 * @param count
+	 *             how many tags there are
+	 * @param extension
+	 *                 the extension with its dot, or ""
+	 */
+	private TaggedName(String base, String[] tags, int count, String extension) {
+		this.base = base;
+		this.tags = tags;
+		this.count = count;
+		this.extension = extension;
+	}
+
+	/**
+	 * Parses a file name. Everything from the last dot is the extension, everything before the
+	 * first " @" the base, and every " @" after that starts a tag. Empty and repeated tags are
+	 * dropped, so parsing any name gives a name whose toString parses back to it.
+	 *
+	 * @param name
+	 *            a file name, without its directory
+	 * @return the parsed name
+	 */
+	public static TaggedName parse(String name) {
+		int dot = name.lastIndexOf('.');
+		int end = dot == -1 ? name.length() : dot;
+		int marker = name.indexOf(MARKER);
+		if (marker == -1 || marker >= end){ // untagged, most files
+			return new TaggedName(name.substring(0, end), new String[0], 0, name.substring(end));
+		}
+		TaggedName parsed = new TaggedName(name.substring(0, marker), new String[INITIAL_TAGS], 0, name.substring(end));
+		while (marker != -1 && marker < end){
+			int start = marker + MARKER.length();
+			marker = name.indexOf(MARKER, start);
+			String tag = name.substring(start, marker == -1 || marker > end ? end : marker);
+			if (!tag.isEmpty()){
+				parsed.addTag(tag);
+			}
+		}
+		return parsed;
+	}
+
+	/**
+	 * Parses the name of a file.
+	 *
+	 * @param file
+	 *            the file
+	 * @return its parsed name
+	 */
+	public static TaggedName of(File file) {
+		return TaggedName.parse(file.getName());
+	}
+
+	/**
+	 * Returns whether tag can be put in a name and read back as the same tag: it is not empty,
+	 * does not contain " @" and would not move the file to another directory.
+	 *
+	 * @param tag
+	 *           the tag
+	 * @return whether it is a valid tag
+	 */
+	public static boolean isValidTag(String tag) {
+		return tag != null && !tag.isEmpty() && !tag.contains(MARKER) && tag.indexOf('/') == -1
+				&& tag.indexOf('\\') == -1;
+	}
+
+	/**
+	 * Returns the name before its first tag.
+	 *
+	 * @return the base name
+	 */
+	public String getBase() {
+		return base;
+	}
+
+	/**
+	 * Returns the extension.
+	 *
+	 * @return the extension with its dot, or "" if there is none
+	 */
+	public String getExtension() {
+		return extension;
+	}
+
+	/**
+	 * Returns the tags, in the order they were added, as a view that follows later changes.
+	 *
+	 * @return the tags
+	 */
+	public List<String> getTags() {
+		return new AbstractList<String>(){
+
+			@Override
+			public String get(int index) {
+				if (index >= count){
+					throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+				}
+				return tags[index];
+			}
+
+			@Override
+			public int size() {
+				return count;
+			}
+		};
+	}
+
+	/**
+	 * Returns whether the name has tag, exactly.
+	 *
+	 * @param tag
+	 *           the tag
+	 * @return whether it is one of the tags
+	 */
+	public boolean hasTag(String tag) {
+		return this.indexOf(tag) != -1;
+	}
+
+	/**
+	 * Adds tag after the others, unless the name has it already.
+	 *
+	 * @param tag
+	 *           the tag
+	 * @return whether it was added
+	 * @throws IllegalArgumentException
+	 *                                  if tag could not be read back from the name, see isValidTag
+	 */
+	public boolean addTag(String tag) {
+		if (tag.isEmpty() || tag.contains(MARKER)){
+			throw new IllegalArgumentException("Not a tag: \"" + tag + "\"");
+		}
+		if (this.indexOf(tag) != -1){
+			return false;
+		}
+		if (count == tags.length){
+			tags = Arrays.copyOf(tags, Math.max(INITIAL_TAGS, count * 2));
+		}
+		tags[count++] = tag;
+		return true;
+	}
+
+	/**
+	 * Removes tag, keeping the order of the others.
+	 *
+	 * @param tag
+	 *           the tag
+	 * @return whether the name had it
+	 */
+	public boolean removeTag(String tag) {
+		int i = this.indexOf(tag);
+		if (i == -1){
+			return false;
+		}
+		System.arraycopy(tags, i + 1, tags, i, count - i - 1);
+		tags[--count] = null;
+		return true;
+	}
+
+	/**
+	 * Returns where tag is among the tags.
+	 *
+	 * @param tag
+	 *           the tag
+	 * @return its index, or -1 if the name does not have it
+	 */
+	private int indexOf(String tag) {
+		for (int i = 0; i < count; i++){
+			if (tags[i].equals(tag)){
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof TaggedName)){
+			return false;
+		}
+		TaggedName other = (TaggedName) o;
+		if (!base.equals(other.base) || !extension.equals(other.extension) || count != other.count){
+			return false;
+		}
+		for (int i = 0; i < count; i++){
+			if (!tags[i].equals(other.tags[i])){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		int hash = base.hashCode() * 31 + extension.hashCode();
+		for (int i = 0; i < count; i++){
+			hash = hash * 31 + tags[i].hashCode();
+		}
+		return hash;
+	}
+
+	/**
+	 * Returns the name in canonical form: the base, " @" and each tag in order, the extension.
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString(){
+		int length = base.length() + extension.length();
+		for (int i = 0; i < count; i++){
+			length += MARKER.length() + tags[i].length();
+		}
+		StringBuilder name = new StringBuilder(length).append(base);
+		for (int i = 0; i < count; i++){
+			name.append(MARKER).append(tags[i]);
+		}
+		return name.append(extension).toString();
+	}
+}
@@ -0,0 +1,115 @@
+package photo_renamer;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures working out the new name of a file: the substring and lastIndexOf("\\") way
+ * TagHandler used to rebuild the whole path once for the tags it added and again for the ones
+ * it removed, next to parsing the name once into a TaggedName. Prints the time and the bytes
+ * allocated per new name, for names with more and more tags already on them.
+ *
+ * Usage: TaggedNameBenchmark [iterations]   (defaults to 200000 per case, after as many to warm up)
+ */
+public class TaggedNameBenchmark {
+
+	/** How many new names each case works out, by default. */
+	private final static int DEFAULT_ITERATIONS = 200000;
+	/** How many tags the names of each case have already. */
+	private final static int[] EXISTING_TAGS = {0, 4, 16};
+	/** The tags each new name adds. */
+	private final static List<String> ADD = Arrays.asList("family", "beach", "2016");
+	/** The tags each new name removes, one of them added just before. */
+	private final static List<String> REMOVE = Arrays.asList("beach", "tag1");
+
+	/** Where the results go, so neither way can be optimized away. */
+	private static int sink;
+
+	/**
+	 * Runs both ways on every case.
+	 *
+	 * @param args
+	 *            optionally, how many new names to work out per case
+	 */
+	public static void main(String[] args) {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ITERATIONS;
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		for (int existing : EXISTING_TAGS){
+			String name = "IMG_0001";
+			for (int i = 0; i < existing; i++){
+				name += " @tag" + i;
+			}
+			File file = new File(System.getProperty("java.io.tmpdir"), name + ".jpg");
+			System.out.println(existing + " tags: " + file.getName());
+			for (boolean parsed : new boolean[]{false, true}){
+				run(file, parsed, iterations); // warm up
+				long bytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+				long start = System.nanoTime();
+				run(file, parsed, iterations);
+				long took = System.nanoTime() - start;
+				bytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - bytes;
+				System.out.println(String.format("  %-11s %6.0f ns, %5d bytes per name", parsed ? "TaggedName" : "substrings",
+						(double) took / iterations, bytes / iterations));
+			}
+		}
+		if (sink == 42){
+			System.out.println();
+		}
+	}
+
+	/**
+	 * Works out the new name of file iterations times.
+	 *
+	 * @param file
+	 *            the file
+	 * @param parsed
+	 *              whether to use TaggedName, or the substrings
+	 * @param iterations
+	 *                  how many times
+	 */
+	private static void run(File file, boolean parsed, int iterations) {
+		for (int i = 0; i < iterations; i++){
+			File renamed = parsed ? TagHandler.retag(file, ADD, REMOVE) : substrings(file, ADD, REMOVE);
+			sink += renamed.getPath().length();
+		}
+	}
+
+	/**
+	 * Works out the new name the way TagHandler's addTag and then removeTag used to, path and
+	 * all, without renaming anything.
+	 *
+	 * @param file
+	 *            the file
+	 * @param add
+	 *           the tags to add
+	 * @param remove
+	 *              the tags to remove
+	 * @return the file with its new name
+	 */
+	private static File substrings(File file, List<String> add, List<String> remove) {
+		String absPath = file.getAbsolutePath();
+		String pathNameBeforeExt = absPath.substring(0, absPath.lastIndexOf("\\") + 1).trim();
+		String imgName = absPath.substring(absPath.lastIndexOf("\\") + 1, absPath.lastIndexOf(".")).trim();
+		String ext = absPath.substring(absPath.lastIndexOf("."), absPath.length());
+		for (String tagName : add){
+			if (!file.getName().contains("@" + tagName)){
+				imgName += " @" + tagName;
+			}
+		}
+		File tagged = new File(pathNameBeforeExt + imgName.trim() + ext);
+
+		absPath = tagged.getAbsolutePath();
+		pathNameBeforeExt = absPath.substring(0, absPath.lastIndexOf("\\") + 1);
+		imgName = absPath.substring(absPath.lastIndexOf("\\") + 1, absPath.lastIndexOf("."));
+		ext = absPath.substring(absPath.lastIndexOf("."), absPath.length());
+		for (String tagName : remove){
+			if (tagged.getName().contains("@" + tagName)){
+				imgName = imgName.substring(0, imgName.indexOf("@" + tagName)).trim()
+						+ imgName.substring(imgName.lastIndexOf("@" + tagName) + tagName.length() + 1, imgName.length());
+			}
+		}
+		return new File(pathNameBeforeExt + imgName.trim() + ext);
+	}
+}
@@ -0,0 +1,199 @@
+package photo_renamer;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TaggedNameTest {
+
+	/**
+	 * NOTE: The round trip tests are property tests. Each one builds RUNS random names from a
+	 * fixed seed, so a failure can be reproduced, out of characters that are easy to get wrong:
+	 * spaces, @ and dots next to letters.
+	 */
+
+	/** How many random names each property is checked on. */
+	private final static int RUNS = 2000;
+
+	/** The random names, the same every run. */
+	private Random random = new Random(21);
+
+	/**
+	 * Tests that a name is taken apart into its base, tags and extension
+	 */
+	@Test
+	public void testParse() {
+		TaggedName name = TaggedName.parse("IMG_01 @family @beach.jpg");
+		assertEquals("IMG_01", name.getBase());
+		assertEquals(Arrays.asList("family", "beach"), name.getTags());
+		assertEquals(".jpg", name.getExtension());
+
+		name = TaggedName.parse("IMG_01.jpg"); // no tags at all
+		assertEquals("IMG_01", name.getBase());
+		assertTrue(name.getTags().isEmpty());
+
+		name = TaggedName.parse("me@home @new york.v2.png"); // @ without a space, spaces and dots in a tag
+		assertEquals("me@home", name.getBase());
+		assertEquals(Arrays.asList("new york.v2"), name.getTags());
+		assertEquals(".png", name.getExtension());
+	}
+
+	/**
+	 * Tests that tags are matched whole, @cat is not the start of @caterpillar
+	 */
+	@Test
+	public void testWholeTags() {
+		TaggedName name = TaggedName.parse("a @caterpillar.jpg");
+		assertFalse(name.hasTag("cat"));
+		assertFalse(name.removeTag("cat")); // nothing to remove...
+		assertEquals("a @caterpillar.jpg", name.toString()); // and nothing cut out
+		assertTrue(name.addTag("cat")); // and cat is a tag of its own
+		assertEquals("a @caterpillar @cat.jpg", name.toString());
+		assertTrue(name.removeTag("caterpillar"));
+		assertEquals("a @cat.jpg", name.toString());
+	}
+
+	/**
+	 * Tests that retagging keeps the file in its directory, whatever the separator
+	 */
+	@Test
+	public void testKeepsDirectory() {
+		File dir = new File(System.getProperty("java.io.tmpdir"), "photos");
+		File file = new File(dir, "a @x.jpg");
+		File tagged = TagHandler.retag(file, Arrays.asList("y"), Arrays.asList("x"));
+		assertEquals(dir.getAbsoluteFile(), tagged.getParentFile());
+		assertEquals("a @y.jpg", tagged.getName());
+
+		// nothing changes, so the very same file comes back
+		assertSame(file, TagHandler.retag(file, Arrays.asList("x"), Collections.<String>emptyList()));
+	}
+
+	/**
+	 * Tests that names that can not be read back are not tags
+	 */
+	@Test
+	public void testInvalidTags() {
+		assertFalse(TaggedName.isValidTag(""));
+		assertFalse(TaggedName.isValidTag("a @b"));
+		assertFalse(TaggedName.isValidTag("../b"));
+		assertTrue(TaggedName.isValidTag("new york"));
+		try {
+			TaggedName.parse("a.jpg").addTag("a @b");
+			fail("a tag with a tag in it was added");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	/**
+	 * Property: a name put together from a base, distinct tags and an extension is written as
+	 * exactly that, and parses back to the same parts
+	 */
+	@Test
+	public void testRoundTrip() {
+		for (int run = 0; run < RUNS; run++){
+			String base = this.randomBase();
+			ArrayList<String> tags = new ArrayList<String>();
+			String written = base;
+			for (int i = random.nextInt(5); i > 0; i--){
+				String tag = this.randomTag();
+				if (!tags.contains(tag)){
+					tags.add(tag);
+					written += " @" + tag;
+				}
+			}
+			String extension = random.nextInt(10) == 0 ? "" : "." + this.randomWord("jpgne", 1 + random.nextInt(4));
+			written += extension;
+
+			TaggedName name = TaggedName.parse(written);
+			assertEquals(written, base, name.getBase());
+			assertEquals(written, tags, name.getTags());
+			assertEquals(written, extension, name.getExtension());
+			assertEquals(written, name.toString());
+		}
+	}
+
+	/**
+	 * Property: any string at all parses to a name whose canonical form parses back to it
+	 */
+	@Test
+	public void testCanonical() {
+		for (int run = 0; run < RUNS; run++){
+			String any = this.randomWord("a@ .b", random.nextInt(16));
+			TaggedName name = TaggedName.parse(any);
+			assertEquals(any, name, TaggedName.parse(name.toString()));
+			assertEquals(any, name.toString(), TaggedName.parse(name.toString()).toString());
+		}
+	}
+
+	/**
+	 * Property: adding a tag a name has changes nothing, adding a new one and removing it again
+	 * gives back the name it started as
+	 */
+	@Test
+	public void testAddRemove() {
+		for (int run = 0; run < RUNS; run++){
+			TaggedName name = TaggedName.parse(this.randomBase() + " @" + this.randomTag() + ".jpg");
+			String before = name.toString();
+			for (String tag : new ArrayList<String>(name.getTags())){
+				assertFalse(before, name.addTag(tag));
+			}
+			assertEquals(before, name.toString());
+
+			String tag = this.randomTag();
+			if (name.addTag(tag)){
+				assertTrue(before, name.toString().endsWith(" @" + tag + ".jpg"));
+				assertTrue(before, name.removeTag(tag));
+			}
+			assertEquals(before, name.toString());
+		}
+	}
+
+	/**
+	 * Returns a random base name, which may have spaces and @ in it but never a tag.
+	 *
+	 * @return the base name
+	 */
+	private String randomBase() {
+		String base;
+		do {
+			base = this.randomWord("IMG_1 @-", random.nextInt(10));
+		} while (base.contains(" @"));
+		return base;
+	}
+
+	/**
+	 * Returns a random tag, which may have spaces and @ in it but never " @".
+	 *
+	 * @return the tag
+	 */
+	private String randomTag() {
+		String tag;
+		do {
+			tag = this.randomWord("cat @rpil", 1 + random.nextInt(8));
+		} while (tag.contains(" @"));
+		return tag;
+	}
+
+	/**
+	 * Returns a random string.
+	 *
+	 * @param alphabet
+	 *                the characters to pick from
+	 * @param length
+	 *              how many to pick
+	 * @return the string
+	 */
+	private String randomWord(String alphabet, int length) {
+		StringBuilder word = new StringBuilder();
+		for (int i = 0; i < length; i++){
+			word.append(alphabet.charAt(random.nextInt(alphabet.length())));
+		}
+		return word.toString();
+	}
+}
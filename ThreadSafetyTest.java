@@ -0,0 +1,280 @@
+package photo_renamer;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.ImageIcon;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ThreadSafetyTest {
+
+	/**
+	 * NOTE: These are stress tests. Each one starts THREADS threads at once on the same tags or
+	 * the same files and checks that nothing was lost or left half done once they all finish.
+	 * Each thread has its own fixed seed, so the operations are the same every run, only the
+	 * way they interleave is not.
+	 */
+
+	/** How many threads hammer at once. */
+	private final static int THREADS = 8;
+
+	/** How many real files the renames go around. */
+	private final static int FILES = 4;
+
+	/** The tags the files get and lose. */
+	private final static String[] TAGS = {"amir", "alex", "beach", "family", "new york"};
+
+	/** A directory of its own for the files of each test. */
+	private File dir;
+
+	/** The images every thread shares, one for each file. */
+	private Image[] images = new Image[FILES];
+
+	@Before
+	public void setUp() throws Exception {
+		TagHandler.clearTags(); //have an empty list of Tags
+		dir = Files.createTempDirectory("thread-safety").toFile();
+		for (int i = 0; i < FILES; i++){
+			File file = new File(dir, "IMG_" + i + ".jpg");
+			Files.write(file.toPath(), new byte[]{(byte) i}); // a real file, with an identity of its own
+			images[i] = new Image(file.getName(), file, new ImageIcon());
+		}
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TagHandler.clearTags();
+		for (Image img : images){
+			History.removeFromLog(img.getFile().getAbsolutePath());
+			TagIndex.getInstance().remove(img.getFile());
+		}
+		for (File file : dir.listFiles()){
+			file.delete();
+		}
+		dir.delete();
+	}
+
+	/**
+	 * Test to see that getInstance hands every thread the same TagHandler and History
+	 */
+	@Test
+	public void testGetInstance() throws Exception {
+		final TagHandler handler = TagHandler.getInstance();
+		final History history = History.getInstance();
+		this.hammer(new Task(){
+
+			@Override
+			public void run(int thread, Random random) {
+				for (int i = 0; i < 1000; i++){
+					assertSame(handler, TagHandler.getInstance());
+					assertSame(history, History.getInstance());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Test to see that tags created and deleted from many threads at once are all kept track of,
+	 * while other threads go through the tags
+	 */
+	@Test
+	public void testCreateAndDeleteTags() throws Exception {
+		final int perThread = 200;
+		this.hammer(new Task(){
+
+			@Override
+			public void run(int thread, Random random) {
+				for (int k = 0; k < perThread; k++){
+					String name = "t" + thread + "-" + k;
+					assertTrue(TagHandler.getInstance().createTag(name)); // no other thread makes this one
+					assertFalse(TagHandler.getInstance().createTag(name)); // it is there now
+					if (k % 2 == 1){
+						TagHandler.getInstance().deleteTag(name); // every other one goes again
+						assertEquals(-1, TagHandler.getInstance().findTag(name));
+					}
+					int seen = 0;
+					for (Tag tag : TagHandler.getTags()){ // never changes while we go through it
+						assertNotNull(tag.getName());
+						seen++;
+					}
+					assertTrue(seen > 0);
+				}
+			}
+		});
+
+		List<Tag> tags = TagHandler.getTags();
+		assertEquals(THREADS * perThread / 2, tags.size()); // the even ones, once each
+		HashSet<String> names = new HashSet<String>();
+		for (int i = 0; i < tags.size(); i++){
+			String name = tags.get(i).getName();
+			assertTrue(names.add(name));
+			assertEquals(0, Integer.parseInt(name.substring(name.indexOf('-') + 1)) % 2);
+			assertEquals(i, TagHandler.getInstance().findTag(name)); // and found where they are listed
+		}
+	}
+
+	/**
+	 * Test to see that events added to the same file from many threads at once are all in its history
+	 */
+	@Test
+	public void testAddEvents() throws Exception {
+		final int perThread = 500;
+		final Image img = images[0];
+		History.addEvent(new Image(img.getName(), img.getFile(), null)); // the original
+		this.hammer(new Task(){
+
+			@Override
+			public void run(int thread, Random random) {
+				for (int i = 0; i < perThread; i++){
+					History.addEvent(new Image(img.getName(), img.getFile(), null));
+					History.getInstance().getImageHistory(img); // read while the others write
+				}
+			}
+		});
+
+		assertEquals(1 + THREADS * perThread, History.getInstance().getImageHistory(img).size());
+	}
+
+	/**
+	 * Test to see that the same images tagged, untagged and reverted from many threads at once
+	 * end up where the History and the TagIndex think they are, with every revert in their history
+	 */
+	@Test
+	public void testRetagAndRevert() throws Exception {
+		final int perThread = 300;
+		final AtomicInteger[] reverts = new AtomicInteger[FILES];
+		FileId[] ids = new FileId[FILES];
+		for (int i = 0; i < FILES; i++){
+			reverts[i] = new AtomicInteger();
+			History.addEvent(new Image(images[i].getName(), images[i].getFile(), null)); // the original to revert to
+			TagIndex.getInstance().add(images[i].getFile());
+			ids[i] = History.idOf(images[i].getFile());
+		}
+		this.hammer(new Task(){
+
+			@Override
+			public void run(int thread, Random random) throws Exception {
+				for (int i = 0; i < perThread; i++){
+					int which = random.nextInt(FILES);
+					Image img = images[which];
+					ArrayList<String> tags = new ArrayList<String>();
+					tags.add(TAGS[random.nextInt(TAGS.length)]);
+					switch (random.nextInt(5)){
+					case 0:
+						History.getInstance().revertBackTo(img, 0); // back to no tags at all
+						reverts[which].incrementAndGet();
+						break;
+					case 1:
+					case 2:
+						TagHandler.getInstance().removeTag(img, tags);
+						break;
+					default:
+						TagHandler.getInstance().addTag(img, tags);
+					}
+				}
+			}
+		});
+
+		assertEquals(FILES, dir.listFiles().length); // nothing lost, nothing left behind
+		for (int i = 0; i < FILES; i++){
+			File file = images[i].getFile();
+			assertTrue(file.getName(), file.exists());
+			assertEquals(file.getName(), images[i].getName());
+			assertEquals("IMG_" + i, TaggedName.of(file).getBase());
+			assertEquals(ids[i], History.idOf(file)); // the log knows where it is, under the same identity
+			assertTrue(History.contains(file));
+			assertEquals(1 + reverts[i].get(), History.getInstance().getImageHistory(images[i]).size());
+		}
+		for (String tag : TAGS){
+			HashSet<File> expected = new HashSet<File>();
+			for (Image img : images){
+				if (TaggedName.of(img.getFile()).hasTag(tag)){
+					expected.add(img.getFile());
+				}
+			}
+			HashSet<File> actual = new HashSet<File>();
+			for (File file : TagIndex.getInstance().getFiles(tag)){
+				if (file.getParentFile().equals(dir)){ // only ours
+					actual.add(file);
+				}
+			}
+			assertEquals(tag, expected, actual);
+		}
+	}
+
+	/**
+	 * What each thread does.
+	 */
+	private interface Task {
+
+		/**
+		 * Does the work of one thread.
+		 *
+		 * @param thread
+		 *              which thread it is, from 0
+		 * @param random
+		 *              the randomness of this thread
+		 * @throws Exception
+		 *                  whatever went wrong
+		 */
+		void run(int thread, Random random) throws Exception;
+	}
+
+	/**
+	 * Runs task on THREADS threads, all let go at once, and rethrows the first thing any of
+	 * them threw.
+	 *
+	 * @param task
+	 *            what each thread does
+	 * @throws Exception
+	 *                  whatever a thread threw
+	 */
+	private void hammer(final Task task) throws Exception {
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Future<Void>> done = new ArrayList<Future<Void>>();
+			for (int t = 0; t < THREADS; t++){
+				final int thread = t;
+				done.add(pool.submit(new Callable<Void>(){
+
+					@Override
+					public Void call() throws Exception {
+						start.await(); // everyone at once
+						task.run(thread, new Random(25 + thread));
+						return null;
+					}
+				}));
+			}
+			start.countDown();
+			for (Future<Void> future : done){
+				try {
+					future.get();
+				} catch (ExecutionException e){
+					if (e.getCause() instanceof Error){
+						throw (Error) e.getCause(); // a failed assertion, as it is
+					}
+					throw (Exception) e.getCause();
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+}
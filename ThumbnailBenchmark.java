@@ -0,0 +1,298 @@
+package photo_renamer;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+import javax.swing.ImageIcon;
+
+import com.sun.management.ThreadMXBean;
+
+/**
+ * Compares the ways of making table thumbnails of camera sized JPEGs: decoding the whole image,
+ * decoding a subsampled image, and using the preview embedded in the EXIF block. Reports the
+ * throughput of each, how far the heap grows for one photo and how much each photo allocates.
+ *
+ * Usage: ThumbnailBenchmark [directory of JPEGs]   (defaults to generated 12 MP photos with previews)
+ */
+public class ThumbnailBenchmark {
+
+	/** How many photos are generated when no directory is given. */
+	private final static int GENERATED = 20;
+	/** The size of the generated photos. */
+	private final static int WIDTH = 4000, HEIGHT = 3000;
+	/** The height of their embedded previews, 160x120 like most cameras write. */
+	private final static int PREVIEW_HEIGHT = 120;
+	/** How many times each method is repeated, the best time is reported. */
+	private final static int RUNS = 3;
+
+	/**
+	 * Times every method on every JPEG in the given or a generated directory.
+	 *
+	 * @param args
+	 *            optionally, a directory of JPEGs to use
+	 * @throws IOException
+	 *                    if the photos can not be generated
+	 */
+	public static void main(String[] args) throws IOException {
+		File dir;
+		boolean generated = args.length == 0;
+		if (generated){
+			dir = Files.createTempDirectory("thumbbench").toFile();
+			System.out.println("Generating " + GENERATED + " " + WIDTH + "x" + HEIGHT + " photos under " + dir);
+			for (int i = 0; i < GENERATED; i++){
+				writePhoto(new File(dir, "IMG_" + i + ".jpg"), i);
+			}
+		}
+		else{
+			dir = new File(args[0]);
+		}
+		ArrayList<File> photos = new ArrayList<File>();
+		long bytes = 0;
+		for (File file : dir.listFiles()){
+			if (FileNode.isImage(file.getName())){
+				photos.add(file);
+				bytes += file.length();
+			}
+		}
+		System.out.println(photos.size() + " photos, " + bytes / photos.size() / 1024 + " KB on average");
+		try {
+			benchmark(photos);
+		} finally {
+			if (generated){
+				for (File file : photos){
+					file.delete();
+				}
+				dir.delete();
+			}
+		}
+	}
+
+	/** One way of making a thumbnail. */
+	private interface Method {
+
+		/**
+		 * Makes the thumbnail of file.
+		 *
+		 * @param file
+		 *            the JPEG
+		 * @return the thumbnail, fully drawn
+		 * @throws IOException
+		 *                    if file can not be read
+		 */
+		Object thumbnail(File file) throws IOException;
+	}
+
+	/**
+	 * Makes a thumbnail of every photo every way and prints the best of RUNS and the peak heap for each.
+	 *
+	 * @param photos
+	 *              the JPEGs
+	 */
+	private static void benchmark(ArrayList<File> photos) {
+		int height = ImageViewer.IMG_HEIGHT;
+		ThumbnailLoader loader = new ThumbnailLoader(height, 1, null);
+		long smooth = time("ImageIO.read + getScaledInstance", photos, new Method(){
+
+			@Override
+			public Object thumbnail(File file) throws IOException {
+				// what every row used to cost, the ImageIcon makes the lazy scaled instance draw itself
+				return new ImageIcon(ImageIO.read(file).getScaledInstance(-1, height, BufferedImage.SCALE_SMOOTH));
+			}
+		});
+		time("ImageIO.read + scale", photos, new Method(){
+
+			@Override
+			public Object thumbnail(File file) throws IOException {
+				return ThumbnailLoader.scale(ImageIO.read(file), height);
+			}
+		});
+		long subsampled = time("subsampled ImageReader + scale", photos, new Method(){
+
+			@Override
+			public Object thumbnail(File file) throws IOException {
+				return ThumbnailLoader.scale(ThumbnailLoader.readSubsampled(file, height), height);
+			}
+		});
+		long loaded = time("ThumbnailLoader.decode", photos, new Method(){
+
+			@Override
+			public Object thumbnail(File file) throws IOException {
+				return loader.decode(file);
+			}
+		});
+		loader.shutdown();
+		ThumbnailLoader counter = new ThumbnailLoader(height, 1, null);
+		for (File file : photos){
+			counter.decode(file);
+		}
+		counter.shutdown();
+		System.out.println("  " + counter.getFromExif() + " of " + photos.size() + " photos had a usable EXIF preview");
+		System.out.println("  speedup over getScaledInstance: " + Math.round((double) smooth / subsampled) + "x subsampled, "
+				+ Math.round((double) smooth / loaded) + "x with EXIF previews");
+	}
+
+	/**
+	 * Times one method on every photo and measures the heap it takes on the first one.
+	 *
+	 * @param name
+	 *            what to call the method
+	 * @param photos
+	 *              the JPEGs
+	 * @param method
+	 *              the method
+	 * @return the best time of RUNS, in nanoseconds
+	 */
+	private static long time(String name, ArrayList<File> photos, Method method) {
+		long best = Long.MAX_VALUE;
+		long heap = 0;
+		long allocated = 0;
+		try {
+			heap = peakHeap(method, photos.get(0));
+			ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+			long allocatedBefore = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+			for (int run = 0; run < RUNS; run++){
+				long start = System.nanoTime();
+				for (File file : photos){
+					method.thumbnail(file);
+				}
+				best = Math.min(best, System.nanoTime() - start);
+			}
+			allocated = (threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocatedBefore)
+					/ RUNS / photos.size();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		System.out.println(String.format("  %-32s %s, peak heap %.1f MB, allocated %.1f MB/file", name + ":",
+				perFile(best, photos.size()), heap / 1048576.0, allocated / 1048576.0));
+		return best;
+	}
+
+	/**
+	 * Returns how far the heap grows while method makes one thumbnail, starting from a collected heap.
+	 *
+	 * @param method
+	 *              the method
+	 * @param file
+	 *            the JPEG
+	 * @return the growth of the heap in bytes
+	 * @throws IOException
+	 *                    if file can not be read
+	 */
+	private static long peakHeap(Method method, File file) throws IOException {
+		List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans();
+		System.gc();
+		long before = 0;
+		for (MemoryPoolMXBean pool : pools){
+			if (pool.getType() == MemoryType.HEAP){
+				before += pool.getUsage().getUsed();
+				pool.resetPeakUsage();
+			}
+		}
+		Object thumbnail = method.thumbnail(file);
+		long peak = 0;
+		for (MemoryPoolMXBean pool : pools){
+			if (pool.getType() == MemoryType.HEAP){
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		if (thumbnail == null){
+			throw new IOException("no thumbnail for " + file);
+		}
+		return Math.max(0, peak - before);
+	}
+
+	/**
+	 * Formats a time as milliseconds per file and files per second.
+	 *
+	 * @param nanos
+	 *             the time all files took
+	 * @param files
+	 *             how many files there were
+	 * @return the formatted time
+	 */
+	private static String perFile(long nanos, int files) {
+		return String.format("%.2f ms/file, %.0f files/s", nanos / 1e6 / files, files * 1e9 / nanos);
+	}
+
+	/**
+	 * Writes a noisy gradient as a JPEG with an EXIF block holding a preview, like a camera would.
+	 *
+	 * @param file
+	 *            where to write the photo
+	 * @param seed
+	 *            makes every photo different
+	 * @throws IOException
+	 *                    if it can not be written
+	 */
+	private static void writePhoto(File file, int seed) throws IOException {
+		Random random = new Random(seed);
+		BufferedImage photo = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < HEIGHT; y++){
+			for (int x = 0; x < WIDTH; x++){
+				int noise = random.nextInt(32); // so it compresses like a photo, not like a flat colour
+				photo.setRGB(x, y, ((x * 255 / WIDTH) << 16) | ((y * 255 / HEIGHT) << 8) | (seed * 10 + noise));
+			}
+		}
+		byte[] image = toJpeg(photo);
+		byte[] preview = toJpeg(ThumbnailLoader.scale(photo, PREVIEW_HEIGHT));
+
+		// the TIFF structure of the EXIF block: an empty first IFD pointing to a second that locates the preview
+		ByteArrayOutputStream tiff = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(tiff);
+		out.writeBytes("MM");
+		out.writeShort(42);
+		out.writeInt(8); // the first IFD
+		out.writeShort(0); // no entries
+		out.writeInt(14); // the second IFD
+		out.writeShort(2);
+		out.writeShort(0x0201); // offset of the preview
+		out.writeShort(4); // a LONG
+		out.writeInt(1);
+		out.writeInt(44);
+		out.writeShort(0x0202); // length of the preview
+		out.writeShort(4);
+		out.writeInt(1);
+		out.writeInt(preview.length);
+		out.writeInt(0); // no more IFDs
+		out.write(preview);
+
+		try (OutputStream photoOut = new FileOutputStream(file)){
+			DataOutputStream jpeg = new DataOutputStream(photoOut);
+			jpeg.write(image, 0, 2); // SOI
+			jpeg.writeShort(0xFFE1); // APP1 goes right after it
+			jpeg.writeShort(2 + 6 + tiff.size());
+			jpeg.writeBytes("Exif\0\0");
+			tiff.writeTo(jpeg);
+			jpeg.write(image, 2, image.length - 2);
+			jpeg.flush();
+		}
+	}
+
+	/**
+	 * Encodes an image as a JPEG.
+	 *
+	 * @param img
+	 *           the image
+	 * @return the JPEG bytes
+	 * @throws IOException
+	 *                    if it can not be encoded
+	 */
+	private static byte[] toJpeg(BufferedImage img) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ImageIO.write(img, "jpg", bytes);
+		return bytes.toByteArray();
+	}
+}
@@ -0,0 +1,344 @@
+package photo_renamer;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Keeps the thumbnails of earlier sessions as small JPEGs in the thumbnails directory next to
+ * tags.ser and log.ser, so an unchanged photo is never decoded twice.
+ *
+ * A thumbnail is found by its content rather than its path, since every tag renames the file:
+ * the key hashes the size, last modified time and first bytes of the file, none of which a
+ * rename changes. Editing a photo changes them, so its old thumbnail is never found again and
+ * eventually evicted.
+ *
+ * The directory is kept under a byte budget by evicting the least recently used thumbnails.
+ * A thumbnail's last modified time records when it was last used, so the order survives
+ * restarts without an index file. Thumbnails are written to a temporary file that is then
+ * moved into place, so a crash never leaves a half written thumbnail behind.
+ */
+public class ThumbnailCache {
+
+	/** The directory of the cache, next to the .ser files. */
+	public static String filePath = System.getProperty("user.dir") + "//src//photo_renamer//thumbnails";
+	/** How many bytes of thumbnails are kept, by default. */
+	public final static long DEFAULT_BUDGET = 256L << 20;
+	/** How many bytes from the start of a file go into its key. */
+	private final static int HASH_PREFIX = 16 * 1024;
+	/** The extension of finished thumbnails. */
+	private final static String EXTENSION = ".jpg";
+	/** The extension of thumbnails still being written. */
+	private final static String TEMP_EXTENSION = ".tmp";
+
+	/** Where the thumbnails are. */
+	private final File dir;
+	/** How many bytes of thumbnails may be kept. */
+	private final long budget;
+	/** The size of every thumbnail by key, least recently used first. */
+	private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+	/** The total size of all thumbnails. */
+	private long bytes;
+	/** How many thumbnails were found. */
+	private final AtomicLong hits = new AtomicLong();
+	/** How many thumbnails were not found. */
+	private final AtomicLong misses = new AtomicLong();
+	/** How many thumbnails were evicted to stay under budget. */
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Opens the cache at filePath with the default budget.
+	 *
+	 * @return the cache
+	 */
+	public static ThumbnailCache open() {
+		return ThumbnailCache.open(DEFAULT_BUDGET);
+	}
+
+	/**
+	 * Opens the cache at filePath.
+	 *
+	 * @param budget
+	 *              how many bytes of thumbnails to keep
+	 * @return the cache
+	 */
+	public static ThumbnailCache open(long budget) {
+		return new ThumbnailCache(new File(filePath), budget);
+	}
+
+	/**
+	 * Opens a cache, creating its directory if needed. Leftovers of interrupted writes are deleted
+	 * and the directory is brought under budget.
+	 *
+	 * @param dir
+	 *           the directory of the cache
+	 * @param budget
+	 *              how many bytes of thumbnails to keep
+	 */
+	public ThumbnailCache(File dir, long budget) {
+		this.dir = dir;
+		this.budget = budget;
+		dir.mkdirs();
+		File[] files = dir.listFiles();
+		if (files == null){ // not a usable directory, the cache just stays empty
+			return;
+		}
+		Arrays.sort(files, new Comparator<File>(){
+
+			@Override
+			public int compare(File a, File b) {
+				return Long.compare(a.lastModified(), b.lastModified());
+			}
+		});
+		for (File file : files){ // least recently used first
+			String name = file.getName();
+			if (name.endsWith(TEMP_EXTENSION)){
+				file.delete(); // a write that never finished
+			}
+			else if (name.endsWith(EXTENSION)){
+				long size = file.length();
+				entries.put(name.substring(0, name.length() - EXTENSION.length()), size);
+				bytes += size;
+			}
+		}
+		synchronized (this){
+			this.evict();
+		}
+	}
+
+	/**
+	 * Returns the key of the thumbnail of file: a hash of its size, last modified time, first
+	 * bytes, and the thumbnail height.
+	 *
+	 * @param file
+	 *            the image file
+	 * @param height
+	 *              the height of the thumbnail
+	 * @return the key
+	 * @throws IOException
+	 *                    if file can not be read
+	 */
+	public String key(File file, int height) throws IOException {
+		return this.key(file, file.length(), file.lastModified(), height);
+	}
+
+	/**
+	 * Returns the key of the thumbnail of the file of a node, like key(File, int), with the size
+	 * and last modified time the scan read for it where it has them.
+	 *
+	 * @param node
+	 *            the node of the image file
+	 * @param height
+	 *              the height of the thumbnail
+	 * @return the key
+	 * @throws IOException
+	 *                    if the file can not be read
+	 */
+	public String key(FileNode node, int height) throws IOException {
+		File file = node.getFile();
+		if (node.getSize() == -1 || node.getLastModified() == -1){ // never scanned
+			return this.key(file, height);
+		}
+		return this.key(file, node.getSize(), node.getLastModified(), height);
+	}
+
+	/**
+	 * Hashes what the key of a thumbnail is made of.
+	 *
+	 * @param file
+	 *            the image file
+	 * @param size
+	 *            its size in bytes
+	 * @param lastModified
+	 *                    its last modified time in milliseconds
+	 * @param height
+	 *              the height of the thumbnail
+	 * @return the key
+	 * @throws IOException
+	 *                    if file can not be read
+	 */
+	private String key(File file, long size, long lastModified, int height) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) { // every Java platform has SHA-1
+			throw new IllegalStateException(e);
+		}
+		ByteBuffer header = ByteBuffer.allocate(20);
+		header.putLong(size).putLong(lastModified).putInt(height);
+		digest.update(header.array());
+		byte[] prefix = new byte[HASH_PREFIX];
+		try (InputStream in = new FileInputStream(file)){
+			int read = 0;
+			int n;
+			while (read < prefix.length && (n = in.read(prefix, read, prefix.length - read)) > 0){
+				read += n;
+			}
+			digest.update(prefix, 0, read);
+		}
+		StringBuilder key = new StringBuilder();
+		for (byte b : digest.digest()){
+			key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Returns the thumbnail stored under key and marks it as just used.
+	 *
+	 * @param key
+	 *           the key from key
+	 * @return the thumbnail, or null if there is none
+	 */
+	public BufferedImage get(String key) {
+		synchronized (this){
+			if (entries.get(key) == null){ // get also moves it to the back of the line
+				misses.incrementAndGet();
+				return null;
+			}
+		}
+		File file = this.fileOf(key);
+		BufferedImage img = null;
+		try {
+			img = ImageIO.read(file);
+		} catch (IOException e) {
+		}
+		if (img == null){ // deleted or damaged behind our back
+			this.remove(key);
+			misses.incrementAndGet();
+			return null;
+		}
+		file.setLastModified(System.currentTimeMillis()); // remember the use for the next session
+		hits.incrementAndGet();
+		return img;
+	}
+
+	/**
+	 * Stores a thumbnail under key, evicting the least recently used ones if over budget.
+	 *
+	 * @param key
+	 *           the key from key
+	 * @param thumbnail
+	 *                 the thumbnail
+	 */
+	public void put(String key, BufferedImage thumbnail) {
+		File temp = null;
+		try {
+			ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+			ImageIO.write(thumbnail, "jpg", encoded);
+			temp = File.createTempFile(key, TEMP_EXTENSION, dir); // unique, two threads may store the same key
+			Files.write(temp.toPath(), encoded.toByteArray());
+			Files.move(temp.toPath(), this.fileOf(key).toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			synchronized (this){
+				Long old = entries.put(key, (long) encoded.size());
+				bytes += encoded.size() - (old == null ? 0 : old);
+				this.evict();
+			}
+		} catch (IOException e) {
+			if (temp != null){
+				temp.delete();
+			}
+		}
+	}
+
+	/**
+	 * Deletes the least recently used thumbnails until the cache is under budget.
+	 */
+	private void evict() {
+		Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+		while (bytes > budget && eldest.hasNext()){
+			Map.Entry<String, Long> entry = eldest.next();
+			this.fileOf(entry.getKey()).delete();
+			bytes -= entry.getValue();
+			eldest.remove();
+			evictions.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Forgets the thumbnail under key and deletes its file.
+	 *
+	 * @param key
+	 *           the key
+	 */
+	private synchronized void remove(String key) {
+		Long size = entries.remove(key);
+		if (size != null){
+			bytes -= size;
+		}
+		this.fileOf(key).delete();
+	}
+
+	/**
+	 * Returns the file the thumbnail under key is stored in.
+	 *
+	 * @param key
+	 *           the key
+	 * @return the file
+	 */
+	private File fileOf(String key) {
+		return new File(dir, key + EXTENSION);
+	}
+
+	/**
+	 * Returns how many thumbnails were found.
+	 *
+	 * @return the number of hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns how many thumbnails were not found.
+	 *
+	 * @return the number of misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns how many thumbnails were evicted to stay under budget.
+	 *
+	 * @return the number of evictions
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * Returns the total size of the kept thumbnails.
+	 *
+	 * @return the size in bytes
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString(){
+		return "Thumbnail cache: " + this.getHits() + " hits, " + this.getMisses() + " misses, "
+				+ this.getEvictions() + " evictions, " + this.getBytes() / 1024 + " of " + budget / 1024 + " KB";
+	}
+}
@@ -0,0 +1,234 @@
+package photo_renamer;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.swing.ImageIcon;
+
+/**
+ * Compares the garbage collector's work in a session that scrolls through thousands of
+ * thumbnails, with every thumbnail held on the heap as an ImageIcon, like the image table did,
+ * and with only a window of icons on the heap and the rest encoded in an OffHeapThumbnailCache.
+ * Every frame also allocates like the rest of the application would, a little of it living
+ * long enough to reach the old generation.
+ *
+ * Each way runs in its own JVM with the same heap and writes a GC log next to the working
+ * directory, gc-heap.log and gc-offheap.log; the numbers of both are printed at the end.
+ *
+ * Usage: ThumbnailHeapBenchmark [heap | offheap]   (no argument runs and compares both)
+ */
+public class ThumbnailHeapBenchmark {
+
+	/** How many thumbnails the session has. */
+	private final static int THUMBNAILS = 5000;
+	/** Their size, a 4:3 photo at the table's row height. */
+	private final static int WIDTH = 133, HEIGHT = ImageViewer.IMG_HEIGHT;
+	/** How many rows are on screen. */
+	private final static int VISIBLE = 10;
+	/** How many times the session scrolls from the top to the bottom and back. */
+	private final static int PASSES = 6;
+	/** How many icons the off-heap way keeps on the heap, like ImageTableModel's window. */
+	private final static int WINDOW = 64;
+	/** How many bytes the rest of the application allocates per frame: events, strings, paint state. */
+	private final static int CHURN = 64 * 1024;
+	/** For how many frames some of that stays alive, long enough to be promoted. */
+	private final static int CHURN_LIFETIME = 2000;
+	/** The heap both JVMs get, fixed so neither gets a bigger young generation than the other. */
+	private final static String MIN_HEAP = "-Xms512m", MAX_HEAP = "-Xmx512m";
+
+	/**
+	 * Runs one way, or both in child JVMs and compares them.
+	 *
+	 * @param args
+	 *            heap or offheap to run that way here, nothing to compare both
+	 * @throws Exception
+	 *                  if a child JVM can not be run
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0){
+			run(args[0].equals("offheap"));
+			return;
+		}
+		for (String way : new String[]{"heap", "offheap"}){
+			String log = "gc-" + way + ".log";
+			String gcLog = System.getProperty("java.specification.version").startsWith("1.")
+					? "-Xloggc:" + log : "-Xlog:gc:file=" + log; // Java 8 and Java 9 on
+			ProcessBuilder child = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(),
+					MIN_HEAP, MAX_HEAP, gcLog, "-cp", System.getProperty("java.class.path"), ThumbnailHeapBenchmark.class.getName(), way);
+			child.redirectErrorStream(true);
+			Process process = child.start();
+			try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream()))){
+				String line;
+				while ((line = out.readLine()) != null){
+					System.out.println(line);
+				}
+			}
+			process.waitFor();
+			System.out.println("  GC log: " + new File(log).getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Fills the session with thumbnails, then scrolls through it PASSES times, painting every
+	 * visible row, and prints what the collector did while scrolling.
+	 *
+	 * @param offHeap
+	 *               whether to keep the thumbnails off the heap
+	 * @throws IOException
+	 *                    never, the thumbnails are made in memory
+	 */
+	private static void run(boolean offHeap) throws IOException {
+		ArrayList<File> files = new ArrayList<File>();
+		HashMap<File, ImageIcon> all = new HashMap<File, ImageIcon>(); // the whole session, on the heap
+		OffHeapThumbnailCache memory = new OffHeapThumbnailCache(128L << 20);
+		Random random = new Random(0);
+		for (int i = 0; i < THUMBNAILS; i++){
+			File file = new File("IMG_" + i + ".jpg");
+			files.add(file);
+			BufferedImage thumbnail = thumbnail(random, i);
+			if (offHeap){
+				memory.put(file, thumbnail);
+			}
+			else{
+				all.put(file, new ImageIcon(thumbnail, file.getPath()));
+			}
+		}
+		LinkedHashMap<File, ImageIcon> window = new LinkedHashMap<File, ImageIcon>(16, 0.75f, true);
+		BufferedImage screen = new BufferedImage(WIDTH, HEIGHT * VISIBLE, BufferedImage.TYPE_INT_RGB);
+		System.gc();
+		long live = usedHeap();
+		long[] before = gcTotals();
+		long start = System.nanoTime();
+		int frames = 0;
+		byte[][] lingering = new byte[CHURN_LIFETIME][];
+		for (int pass = 0; pass < PASSES; pass++){
+			for (int step = 0; step <= THUMBNAILS - VISIBLE; step++){
+				int first = pass % 2 == 0 ? step : THUMBNAILS - VISIBLE - step; // down, then back up
+				Graphics2D g = screen.createGraphics();
+				for (int row = first; row < first + VISIBLE; row++){
+					File file = files.get(row);
+					ImageIcon icon;
+					if (offHeap){
+						icon = window.get(file);
+						if (icon == null){ // decoded only now that it is painted
+							icon = new ImageIcon(memory.get(file), file.getPath());
+							window.put(file, icon);
+							Iterator<Map.Entry<File, ImageIcon>> eldest = window.entrySet().iterator();
+							while (window.size() > WINDOW){
+								eldest.next();
+								eldest.remove();
+							}
+						}
+					}
+					else{
+						icon = all.get(file);
+					}
+					g.drawImage(icon.getImage(), 0, (row - first) * HEIGHT, null);
+				}
+				g.dispose();
+				for (int i = 0; i < CHURN / 1024; i++){ // garbage at once, except one piece that lingers
+					byte[] garbage = new byte[1024];
+					garbage[i] = (byte) frames;
+					if (i == 0){
+						lingering[frames % CHURN_LIFETIME] = garbage;
+					}
+				}
+				frames++;
+			}
+		}
+		long took = System.nanoTime() - start;
+		long[] after = gcTotals();
+		long full = System.nanoTime();
+		System.gc(); // what the old generation costs once it fills up
+		full = System.nanoTime() - full;
+		System.out.println(String.format("%-8s %d frames in %d ms (%.2f ms/frame): %d collections taking %d ms, "
+				+ "a full collection %d ms, %.0f MB live on the heap, %.0f MB in direct buffers",
+				offHeap ? "offheap" : "heap", frames, took / 1000000, took / 1e6 / frames, after[0] - before[0],
+				after[1] - before[1], full / 1000000, live / 1048576.0, directMemory() / 1048576.0));
+		if (offHeap){
+			System.out.println("  " + memory);
+		}
+		if (all.size() + window.size() < 0){ // keeps both alive until the end
+			System.out.println();
+		}
+	}
+
+	/**
+	 * Makes a noisy thumbnail, different for every i.
+	 *
+	 * @param random
+	 *              the noise
+	 * @param i
+	 *         which thumbnail
+	 * @return the thumbnail
+	 */
+	private static BufferedImage thumbnail(Random random, int i) {
+		BufferedImage img = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < HEIGHT; y++){
+			for (int x = 0; x < WIDTH; x++){
+				img.setRGB(x, y, ((x * 2 + i) & 0xFF) << 16 | ((y * 2) & 0xFF) << 8 | random.nextInt(32));
+			}
+		}
+		return img;
+	}
+
+	/**
+	 * Returns how many collections there were and how long they took, over every collector.
+	 *
+	 * @return the count and the time in milliseconds
+	 */
+	private static long[] gcTotals() {
+		long[] totals = new long[2];
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()){
+			totals[0] += Math.max(0, gc.getCollectionCount());
+			totals[1] += Math.max(0, gc.getCollectionTime());
+		}
+		return totals;
+	}
+
+	/**
+	 * Returns the heap in use.
+	 *
+	 * @return the used bytes of every heap pool
+	 */
+	private static long usedHeap() {
+		long used = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()){
+			if (pool.getType() == MemoryType.HEAP){
+				used += pool.getUsage().getUsed();
+			}
+		}
+		return used;
+	}
+
+	/**
+	 * Returns the memory taken by direct buffers.
+	 *
+	 * @return the bytes of the direct buffer pool
+	 */
+	private static long directMemory() {
+		List<BufferPoolMXBean> pools = ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class);
+		for (BufferPoolMXBean pool : pools){
+			if (pool.getName().equals("direct")){
+				return pool.getMemoryUsed();
+			}
+		}
+		return 0;
+	}
+}
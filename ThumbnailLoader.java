@@ -0,0 +1,502 @@
+package photo_renamer;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.ImageIcon;
+import javax.swing.SwingUtilities;
+
+/**
+ * Decodes and scales thumbnails on a pool of background threads, one per core, so the event
+ * dispatch thread never touches a full size image. Rows are shown with a placeholder icon
+ * right away and the thumbnail is swapped into that same icon once it is ready.
+ *
+ * Only a bounded number of files may wait for a thread: load blocks the caller once they are
+ * all taken, so no more than a pool's worth of full size images are ever decoded at once.
+ */
+public class ThumbnailLoader {
+
+	/** How many threads decode, by default. */
+	public final static int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+	/** How many files may wait for a free thread, per thread. */
+	private final static int QUEUED_PER_THREAD = 32;
+	/** How much taller than the thumbnail a subsampled image is decoded, for scale to smooth out. */
+	private final static int OVERSAMPLING = 2;
+
+	/** Told on the event dispatch thread when a thumbnail is done. */
+	public interface Listener {
+
+		/**
+		 * Called once icon shows its thumbnail.
+		 *
+		 * @param icon
+		 *            the icon that was loaded
+		 */
+		void thumbnailLoaded(ImageIcon icon);
+
+		/**
+		 * Called when the file of icon turned out not to be a readable image.
+		 *
+		 * @param icon
+		 *            the icon that still shows the placeholder
+		 */
+		void thumbnailFailed(ImageIcon icon);
+	}
+
+	/** Makes the icons of images read back from log.ser, created when first needed. */
+	private static ThumbnailLoader shared;
+
+	/** The height of the thumbnails. Width is scaled accordingly. */
+	private final int height;
+	/** What rows show until their thumbnail is ready. */
+	private final BufferedImage placeholder;
+	/** Runs the decoding. */
+	private final ExecutorService pool;
+	/** The icons waiting for a thread, mapped to whether they were cancelled. */
+	private final ConcurrentHashMap<ImageIcon, Boolean> queued = new ConcurrentHashMap<ImageIcon, Boolean>();
+	/** One permit for every file that may be decoding or waiting. */
+	private final Semaphore slots;
+	/** Told when thumbnails are done. */
+	private final Listener listener;
+	/** Where finished thumbnails are kept between sessions, or null to always decode. */
+	private volatile ThumbnailCache cache;
+	/** Where finished thumbnails are also kept in memory, outside the heap, or null. */
+	private volatile OffHeapThumbnailCache memory;
+	/** How many thumbnails have been loaded. */
+	private final AtomicLong loaded = new AtomicLong();
+	/** How many files could not be read. */
+	private final AtomicLong failed = new AtomicLong();
+	/** How many thumbnails were made from the preview embedded in the file. */
+	private final AtomicLong fromExif = new AtomicLong();
+
+	/**
+	 * Initializes a loader with a thread for every core.
+	 *
+	 * @param height
+	 *              the height of the thumbnails
+	 * @param listener
+	 *                told when thumbnails are done
+	 */
+	public ThumbnailLoader(int height, Listener listener) {
+		this(height, DEFAULT_THREADS, listener);
+	}
+
+	/**
+	 * Initializes a loader.
+	 *
+	 * @param height
+	 *              the height of the thumbnails
+	 * @param threads
+	 *               how many thumbnails to decode at once
+	 * @param listener
+	 *                told when thumbnails are done
+	 */
+	public ThumbnailLoader(int height, int threads, Listener listener) {
+		if (threads < 1){
+			throw new IllegalArgumentException("threads must be at least 1, was " + threads);
+		}
+		this.height = height;
+		this.placeholder = ThumbnailLoader.placeholderImage(height);
+		this.listener = listener;
+		this.slots = new Semaphore(threads * (1 + QUEUED_PER_THREAD));
+		this.pool = Executors.newFixedThreadPool(threads, new ThreadFactory(){
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "thumbnail-loader");
+				thread.setDaemon(true); // never keeps the application alive
+				thread.setPriority(Thread.NORM_PRIORITY - 1); // the EDT comes first
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Returns a new icon for file that shows the placeholder until load has filled it in.
+	 * Its description is the absolute path of file, like every icon in the table.
+	 *
+	 * @param file
+	 *            the image file
+	 * @return the placeholder icon
+	 */
+	public ImageIcon placeholder(File file) {
+		ImageIcon icon = new ImageIcon(placeholder);
+		icon.setDescription(file.getAbsolutePath());
+		return icon;
+	}
+
+	/**
+	 * Makes a table sized icon of an image file right away, going through the thumbnail cache.
+	 * For the odd icon that is needed outside the table, such as one of an image read from log.ser.
+	 *
+	 * @param file
+	 *            the image file
+	 * @return the icon, with the absolute path of file as its description, or null if file is
+	 *         not a readable image
+	 */
+	static synchronized ImageIcon icon(File file) {
+		if (shared == null){ // its pool never starts a thread, only decode is used
+			shared = new ThumbnailLoader(ImageViewer.IMG_HEIGHT, 1, null);
+			shared.setCache(ThumbnailCache.open());
+		}
+		BufferedImage thumbnail = shared.decode(file);
+		if (thumbnail == null){
+			return null;
+		}
+		ImageIcon icon = new ImageIcon(thumbnail);
+		icon.setDescription(file.getAbsolutePath());
+		return icon;
+	}
+
+	/**
+	 * Decodes the thumbnail of the file of node in the background and sets it as icon's image
+	 * on the event dispatch thread. Blocks while the queue is full.
+	 *
+	 * @param icon
+	 *            the icon to fill in, from placeholder
+	 * @param node
+	 *            the node of the file named by icon's description, with its attributes
+	 * @throws InterruptedException
+	 *                             if interrupted while waiting for room in the queue
+	 */
+	public void load(ImageIcon icon, FileNode node) throws InterruptedException {
+		slots.acquire(); // the back-pressure
+		this.submit(icon, node);
+	}
+
+	/**
+	 * Queues the decoding of icon's thumbnail, holding a slot until it is done.
+	 *
+	 * @param icon
+	 *            the icon to fill in
+	 * @param node
+	 *            the node of its file
+	 */
+	private void submit(ImageIcon icon, FileNode node) {
+		queued.put(icon, Boolean.FALSE);
+		try {
+			pool.execute(new Runnable(){
+
+				@Override
+				public void run() {
+					try {
+						if (queued.remove(icon) == Boolean.TRUE){ // cancelled while it waited
+							return;
+						}
+						BufferedImage thumbnail = ThumbnailLoader.this.decode(node);
+						OffHeapThumbnailCache memory = ThumbnailLoader.this.memory;
+						if (memory != null && thumbnail != null){ // encoded here, not on the EDT
+							memory.put(node.getFile(), thumbnail);
+						}
+						ThumbnailLoader.this.deliver(icon, thumbnail);
+					} finally {
+						slots.release();
+					}
+				}
+			});
+		} catch (RuntimeException e) { // shut down
+			queued.remove(icon);
+			slots.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Cancels the decoding of icon's thumbnail if it has not started yet. Its slot is given back
+	 * as soon as a thread reaches it, without decoding anything, and the listener is not told.
+	 *
+	 * @param icon
+	 *            the icon passed to load or tryLoad
+	 * @return whether it was cancelled in time, if not it is decoding or done
+	 */
+	public boolean cancel(ImageIcon icon) {
+		return queued.replace(icon, Boolean.FALSE, Boolean.TRUE);
+	}
+
+	/**
+	 * Returns whether icon shows its thumbnail yet.
+	 *
+	 * @param icon
+	 *            an icon from placeholder
+	 * @return whether its thumbnail has been set
+	 */
+	public boolean isLoaded(ImageIcon icon) {
+		return icon.getImage() != placeholder;
+	}
+
+	/**
+	 * Like load, but returns right away instead of waiting when the queue is full. For the event
+	 * dispatch thread, which must never block.
+	 *
+	 * @param icon
+	 *            the icon to fill in, from placeholder
+	 * @param node
+	 *            the node of the file named by icon's description, with its attributes
+	 * @return whether icon was queued, if not it still shows the placeholder
+	 */
+	public boolean tryLoad(ImageIcon icon, FileNode node) {
+		if (!slots.tryAcquire()){
+			return false;
+		}
+		this.submit(icon, node);
+		return true;
+	}
+
+	/**
+	 * Hands a finished thumbnail to the event dispatch thread.
+	 *
+	 * @param icon
+	 *            the icon to fill in
+	 * @param thumbnail
+	 *                 the thumbnail, or null if the file could not be read
+	 */
+	private void deliver(ImageIcon icon, BufferedImage thumbnail) {
+		(thumbnail == null ? failed : loaded).incrementAndGet();
+		SwingUtilities.invokeLater(new Runnable(){
+
+			@Override
+			public void run() {
+				if (thumbnail == null){
+					listener.thumbnailFailed(icon);
+				}
+				else{
+					icon.setImage(thumbnail);
+					listener.thumbnailLoaded(icon);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Returns the thumbnail of an image file at this loader's height, from the thumbnail cache
+	 * if it has one, otherwise made by render and then cached.
+	 *
+	 * @param file
+	 *            the image file
+	 * @return the thumbnail, or null if file is not a readable image
+	 */
+	public BufferedImage decode(File file) {
+		return this.decode(FileNode.detached(file));
+	}
+
+	/**
+	 * Returns the thumbnail of the file of a node, like decode(File), keyed in the thumbnail
+	 * cache by the attributes the scan read for it instead of reading them again.
+	 *
+	 * @param node
+	 *            the node of the image file
+	 * @return the thumbnail, or null if the file is not a readable image
+	 */
+	public BufferedImage decode(FileNode node) {
+		File file = node.getFile();
+		ThumbnailCache cache = this.cache;
+		if (cache == null){
+			return this.render(file);
+		}
+		String key;
+		try {
+			key = cache.key(node, height);
+		} catch (IOException e) { // can not even be read
+			return null;
+		}
+		BufferedImage thumbnail = cache.get(key);
+		if (thumbnail == null){
+			thumbnail = this.render(file);
+			if (thumbnail != null){
+				cache.put(key, thumbnail);
+			}
+		}
+		return thumbnail;
+	}
+
+	/**
+	 * Reads an image file and scales it to this loader's height. The preview embedded in the
+	 * EXIF block is used when it is at least that tall, the image itself is only decoded otherwise,
+	 * and then only every so many pixels.
+	 *
+	 * @param file
+	 *            the image file
+	 * @return the thumbnail, or null if file is not a readable image
+	 */
+	private BufferedImage render(File file) {
+		BufferedImage img = null;
+		try {
+			img = ExifThumbnail.read(file);
+			if (img != null && img.getHeight() >= height){
+				fromExif.incrementAndGet();
+				return ThumbnailLoader.scale(img, height);
+			}
+			img = ThumbnailLoader.readSubsampled(file, height);
+		} catch (IOException | RuntimeException e) { // a broken file should only cost its own row
+		}
+		if (img == null){ // not readable or not really an image
+			return null;
+		}
+		return ThumbnailLoader.scale(img, height);
+	}
+
+	/**
+	 * Decodes only every n-th pixel of every n-th row of an image, with n picked from the size
+	 * in the header so the result is still at least twice as tall as height. A 12 MP photo is
+	 * never decoded at full size, the reader skips the rest while decoding.
+	 *
+	 * @param file
+	 *            the image file
+	 * @param height
+	 *              the height the image will be scaled to
+	 * @return the subsampled image, or null if file is not a readable image
+	 * @throws IOException
+	 *                    if file can not be read
+	 */
+	static BufferedImage readSubsampled(File file, int height) throws IOException {
+		try (ImageInputStream in = ImageIO.createImageInputStream(file)){
+			if (in == null){
+				return null;
+			}
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+			if (!readers.hasNext()){ // not an image format we know
+				return null;
+			}
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(in, true, true); // one image, no metadata wanted
+				int subsampling = Math.max(1, reader.getHeight(0) / (height * OVERSAMPLING));
+				ImageReadParam param = reader.getDefaultReadParam();
+				param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+				return reader.read(0, param);
+			} finally {
+				reader.dispose();
+			}
+		}
+	}
+
+	/**
+	 * Scales img to height right away, rather than leaving the work for whoever paints it.
+	 * Large reductions are done by halving with bilinear filtering until the last step is less
+	 * than half, which looks as good as area averaging at a fraction of its cost.
+	 *
+	 * @param img
+	 *           the image
+	 * @param height
+	 *              the height to scale to
+	 * @return the scaled image
+	 */
+	static BufferedImage scale(BufferedImage img, int height) {
+		int targetWidth = Math.max(1, (int) Math.round((double) img.getWidth() * height / img.getHeight()));
+		int width = img.getWidth();
+		int currentHeight = img.getHeight();
+		do{
+			if (currentHeight / 2 >= height){ // halve, bilinear sees every pixel this way
+				width = Math.max(targetWidth, width / 2);
+				currentHeight = currentHeight / 2;
+			}
+			else{
+				width = targetWidth;
+				currentHeight = height;
+			}
+			BufferedImage scaled = new BufferedImage(width, currentHeight, BufferedImage.TYPE_INT_RGB);
+			Graphics2D g = scaled.createGraphics();
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g.drawImage(img, 0, 0, width, currentHeight, null);
+			g.dispose();
+			img = scaled;
+		} while (currentHeight != height);
+		return img;
+	}
+
+	/**
+	 * Draws the placeholder: a grey square.
+	 *
+	 * @param size
+	 *            the width and height of the square
+	 * @return the placeholder image
+	 */
+	private static BufferedImage placeholderImage(int size) {
+		BufferedImage img = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = img.createGraphics();
+		g.setColor(Color.LIGHT_GRAY);
+		g.fillRect(0, 0, size, size);
+		g.dispose();
+		return img;
+	}
+
+	/**
+	 * Sets the cache thumbnails are looked up in before decoding, and stored in after.
+	 *
+	 * @param cache
+	 *             the cache to use, or null to always decode
+	 */
+	public void setCache(ThumbnailCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Sets the in-memory cache every thumbnail this loader makes is also stored in, so it can be
+	 * painted again after its icon was released without going back to the file.
+	 *
+	 * @param memory
+	 *              the cache to use, or null for none
+	 */
+	public void setMemoryCache(OffHeapThumbnailCache memory) {
+		this.memory = memory;
+	}
+
+	/**
+	 * Stops decoding. Thumbnails that were still waiting are never delivered.
+	 */
+	public void shutdown() {
+		pool.shutdownNow();
+	}
+
+	/**
+	 * Returns how many thumbnails have been loaded.
+	 *
+	 * @return the number of loaded thumbnails
+	 */
+	public long getLoaded() {
+		return loaded.get();
+	}
+
+	/**
+	 * Returns how many files could not be read.
+	 *
+	 * @return the number of failed files
+	 */
+	public long getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * Returns how many thumbnails were made from the preview embedded in the file,
+	 * without decoding the image.
+	 *
+	 * @return the number of thumbnails from EXIF previews
+	 */
+	public long getFromExif() {
+		return fromExif.get();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString(){
+		return "Loaded " + this.getLoaded() + " thumbnails (" + this.getFromExif() + " from EXIF previews), "
+				+ this.getFailed() + " unreadable";
+	}
+}
@@ -0,0 +1,181 @@
+package photo_renamer;
+
+/**
+ * Works out which rows of the image table to decode ahead of time. The scroll velocity is
+ * tracked from one viewport change to the next: while the user scrolls, the next few screens
+ * in the direction of scrolling are prefetched, further ahead the faster they go, and only a
+ * little is kept behind. A standing viewport gets a screen on either side.
+ *
+ * Also keeps the numbers to tune the lookahead by: how many prefetched thumbnails were shown
+ * (hits), how many were decoded but scrolled away unseen (wasted), how many were cancelled
+ * before being decoded, and how many times a row came into view still blank.
+ */
+public class ThumbnailPrefetcher {
+
+	/** How far ahead to prefetch, in seconds of scrolling at the current speed. */
+	private final static double LOOKAHEAD_SECONDS = 0.5;
+	/** The most screens prefetched ahead. */
+	private final static int MAX_SCREENS = 4;
+	/** A pause this long, in milliseconds, means the user stopped scrolling. */
+	private final static long IDLE_MILLIS = 300;
+	/** How much of the velocity comes from the newest movement. */
+	private final static double SMOOTHING = 0.5;
+
+	/** The first visible row at the last viewport change. */
+	private int lastFirst = -1;
+	/** When the last viewport change was, in nanoseconds. */
+	private long lastTime;
+	/** The smoothed scroll velocity in rows per second, negative when scrolling up. */
+	private double velocity;
+	/** How many thumbnails were requested ahead of time. */
+	private long requested;
+	/** How many prefetched thumbnails were ready when their row came into view. */
+	private long hits;
+	/** How many prefetched thumbnails were decoded but released without being seen. */
+	private long wasted;
+	/** How many prefetches were cancelled before decoding. */
+	private long cancelled;
+	/** How many times a row came into view without its thumbnail. */
+	private long blank;
+
+	/**
+	 * Records a viewport change and returns the rows worth having thumbnails for, the viewport
+	 * included. Jumping further than the lookahead, or reversing, resets the velocity, so the
+	 * old direction's prefetches fall outside the returned rows.
+	 *
+	 * @param first
+	 *             the first visible row
+	 * @param last
+	 *            the last visible row
+	 * @param rowCount
+	 *                how many rows there are
+	 * @return the first and last row to have thumbnails for
+	 */
+	public int[] window(int first, int last, int rowCount) {
+		long now = System.nanoTime();
+		int screen = Math.max(1, last - first + 1);
+		if (lastFirst != -1 && first != lastFirst){
+			int moved = first - lastFirst;
+			double seconds = Math.max(1e-3, (now - lastTime) / 1e9);
+			double speed = moved / seconds;
+			if (Math.abs(moved) > screen * MAX_SCREENS || Math.signum(speed) != Math.signum(velocity)
+					|| now - lastTime > IDLE_MILLIS * 1000000){
+				velocity = speed; // a jump, a reversal or a fresh start: no history worth keeping
+			}
+			else{
+				velocity = SMOOTHING * speed + (1 - SMOOTHING) * velocity;
+			}
+			lastTime = now;
+		}
+		else if (lastFirst == -1 || now - lastTime > IDLE_MILLIS * 1000000){
+			velocity = 0; // standing still
+			lastTime = now;
+		}
+		lastFirst = first;
+
+		int ahead = (int) Math.min(screen * MAX_SCREENS, Math.max(screen, Math.abs(velocity) * LOOKAHEAD_SECONDS));
+		int from;
+		int to;
+		if (velocity > 0){ // scrolling down
+			from = first - screen / 2;
+			to = last + ahead;
+		}
+		else if (velocity < 0){
+			from = first - ahead;
+			to = last + screen / 2;
+		}
+		else{
+			from = first - screen;
+			to = last + screen;
+		}
+		return new int[]{Math.max(0, from), Math.min(rowCount - 1, to)};
+	}
+
+	/** Counts a thumbnail requested ahead of time. */
+	public void requested() {
+		requested++;
+	}
+
+	/** Counts a prefetched thumbnail that was ready when its row came into view. */
+	public void hit() {
+		hits++;
+	}
+
+	/** Counts a prefetched thumbnail that was decoded for nothing. */
+	public void wasted() {
+		wasted++;
+	}
+
+	/** Counts a prefetch cancelled in time. */
+	public void cancelled() {
+		cancelled++;
+	}
+
+	/** Counts a row that came into view without its thumbnail. */
+	public void blank() {
+		blank++;
+	}
+
+	/**
+	 * Returns the share of decoded prefetches that were seen.
+	 *
+	 * @return hits over hits plus wasted, or 0 if there are none yet
+	 */
+	public double getHitRate() {
+		return hits + wasted == 0 ? 0 : (double) hits / (hits + wasted);
+	}
+
+	/**
+	 * Returns how many thumbnails were requested ahead of time.
+	 *
+	 * @return the number of prefetches
+	 */
+	public long getRequested() {
+		return requested;
+	}
+
+	/**
+	 * Returns how many prefetched thumbnails were decoded but never seen.
+	 *
+	 * @return the number of wasted decodes
+	 */
+	public long getWasted() {
+		return wasted;
+	}
+
+	/**
+	 * Returns how many prefetches were cancelled before being decoded.
+	 *
+	 * @return the number of cancelled prefetches
+	 */
+	public long getCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Returns how many times a row came into view without its thumbnail.
+	 *
+	 * @return the number of blank rows seen
+	 */
+	public long getBlank() {
+		return blank;
+	}
+
+	/**
+	 * Returns the current scroll velocity.
+	 *
+	 * @return rows per second, negative when scrolling up
+	 */
+	public double getVelocity() {
+		return velocity;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString(){
+		return "Prefetched " + requested + " thumbnails: " + hits + " hits, " + wasted + " wasted, " + cancelled
+				+ " cancelled (" + Math.round(this.getHitRate() * 100) + "% hit rate), " + blank + " blank rows seen";
+	}
+}